@@ -0,0 +1,171 @@
+package ProgettoFinale.bench;
+
+import ProgettoFinale.entities.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Test differenziale tra motori di matching: lo stesso stream di comandi
+ * viene eseguito sul motore di riferimento e su quello da verificare,
+ * registrando l'esito con CommandRecorder (id assegnati, risultati e trade);
+ * i due esiti devono essere identici comando per comando.
+ *
+ * Lo stream è generato in modo pseudo-casuale e riproducibile (seed) con
+ * tutti i tipi di comando, oppure letto da un log registrato dal server.
+ *
+ * Parametri (-p):
+ *  engine=nome       motore da verificare (obbligatorio), come 'matching_engine'
+ *  reference=nome    motore di riferimento (default orderbook)
+ *  commands=N        comandi generati (default 200000)
+ *  seed=N            seme del generatore (default 1)
+ *  log=file          usa uno stream registrato invece di generarlo
+ *
+ * Esempio: java ProgettoFinale.bench.DifferentialHarness -p engine=ProgettoFinale.server.MyEngine -p seed=1,2,3
+ */
+
+public class DifferentialHarness {
+	private static final int MID_PRICE = 1_000_000;
+	private static final int PRICE_RANGE = 50;	//prezzi generati in MID_PRICE +- PRICE_RANGE
+	private static final int MAX_SIZE = 20;
+	private static final int USERS = 20;
+	private static final int MAX_BATCH = 10;
+	
+	public static void main(String[] args) throws Exception {
+		Map<String, String> defaults = new LinkedHashMap<>();
+		defaults.put("reference", "orderbook");
+		defaults.put("commands", "200000");
+		defaults.put("seed", "1");
+		Map<String, String> options = HarnessArgs.parse(args, defaults);
+		
+		if(options.get("engine") == null) {
+			System.err.println("Uso: DifferentialHarness -p engine=nome [-p reference=nome] [-p commands=N] [-p seed=N,...] [-p log=file]");
+			System.exit(2);
+		}
+		String engine = options.get("engine");
+		String reference = options.get("reference");
+		
+		List<ReplayHarness> streams = new ArrayList<>();
+		List<String> descriptions = new ArrayList<>();
+		if(options.get("log") != null) {
+			streams.add(ReplayHarness.load(new File(options.get("log"))));
+			descriptions.add("log=" + options.get("log"));
+		} else {
+			int count = Integer.parseInt(options.get("commands"));
+			for(int seed : HarnessArgs.intValues(options.get("seed"))) {
+				streams.add(new ReplayHarness(generate(count, seed), 0, null));
+				descriptions.add("seed=" + seed + " commands=" + count);
+			}
+		}
+		
+		boolean failed = false;
+		for(int i = 0; i < streams.size(); i++) {
+			File expected = File.createTempFile("cross-diff-reference", ".jsonl");
+			File actual = File.createTempFile("cross-diff-engine", ".jsonl");
+			expected.deleteOnExit();
+			actual.deleteOnExit();
+			
+			streams.get(i).recordOutcome(reference, expected);
+			streams.get(i).recordOutcome(engine, actual);
+			
+			int mismatches = ReplayHarness.compare(expected, actual);
+			System.out.println(descriptions.get(i) + ": " + (mismatches == 0 ? "OK" : mismatches + " comandi diversi"));
+			failed |= mismatches > 0;
+		}
+		
+		if(failed) {
+			System.err.println(engine + " non è equivalente a " + reference);
+			System.exit(1);
+		}
+		System.out.println(engine + " equivalente a " + reference);
+	}
+	
+	/*
+	 * stream casuale: soprattutto limit order vicini al prezzo medio (che incrociano spesso,
+	 * circa uno su dieci IOC o FOK), poi cancellazioni, amend, market, stop e le operazioni batch
+	 * (compresa qualche cancellazione di tutti gli ordini di un utente); ogni tanto una fase
+	 * d'asta di qualche centinaio di comandi, chiusa dall'uncross;
+	 * gli id da cancellare sono scelti tra quelli plausibilmente già assegnati (gli id sono sequenziali)
+	 */
+	static List<ReplayHarness.ReplayCommand> generate(int count, long seed) {
+		Random random = new Random(seed);
+		List<ReplayHarness.ReplayCommand> commands = new ArrayList<>(count);
+		long idsSoFar = 0;	//stima per eccesso degli id assegnati
+		int auctionLeft = 0;	//comandi rimanenti della fase d'asta, 0 = matching continuo
+		
+		for(int i = 0; i < count; i++) {
+			ReplayHarness.ReplayCommand command = new ReplayHarness.ReplayCommand();
+			if(auctionLeft > 0 && --auctionLeft == 0) {	//comandi del server, senza utente
+				command.op = "auctionUncross";
+				commands.add(command);
+				continue;
+			}
+			if(auctionLeft == 0 && random.nextInt(2000) == 0) {
+				command.op = "auctionStart";
+				auctionLeft = 50 + random.nextInt(500);
+				commands.add(command);
+				continue;
+			}
+			command.user = "user" + random.nextInt(USERS);
+			command.type = random.nextBoolean() ? OrderType.BID : OrderType.ASK;
+			command.size = 1 + random.nextInt(MAX_SIZE);
+			command.price = randomPrice(random);
+			
+			int kind = random.nextInt(100);
+			if(kind < 55) {
+				command.op = "limit";
+				if(kind >= 49)
+					command.timeInForce = kind < 52 ? TimeInForce.IOC : TimeInForce.FOK;
+				idsSoFar++;
+			} else if(kind < 70) {
+				command.op = "cancel";
+				command.orderId = 1 + (long) (random.nextDouble() * Math.max(1, idsSoFar));
+			} else if(kind < 75) {
+				command.op = "amend";
+				command.orderId = 1 + (long) (random.nextDouble() * Math.max(1, idsSoFar));
+				if(kind < 73)
+					command.price = 0;	//stesso prezzo: riduzione sul posto se la size è minore
+			} else if(kind < 85) {
+				command.op = "market";
+				idsSoFar++;
+			} else if(kind < 94) {
+				command.op = "stop";
+				idsSoFar++;
+			} else if(kind < 97) {
+				command.op = "limits";
+				int n = 1 + random.nextInt(MAX_BATCH);
+				command.types = new OrderType[n];
+				command.sizes = new int[n];
+				command.prices = new int[n];
+				command.timeInForces = new TimeInForce[n];
+				command.expireTimes = new long[n];
+				for(int k = 0; k < n; k++) {
+					command.types[k] = random.nextBoolean() ? OrderType.BID : OrderType.ASK;
+					command.sizes[k] = 1 + random.nextInt(MAX_SIZE);
+					command.prices[k] = randomPrice(random);
+					int timeInForce = random.nextInt(10);
+					if(timeInForce < 2)
+						command.timeInForces[k] = timeInForce == 0 ? TimeInForce.IOC : TimeInForce.FOK;
+				}
+				idsSoFar += n;
+			} else if(kind < 98) {
+				command.op = "cancels";
+				command.orderIds = new long[1 + random.nextInt(MAX_BATCH)];
+				for(int k = 0; k < command.orderIds.length; k++)
+					command.orderIds[k] = 1 + (long) (random.nextDouble() * Math.max(1, idsSoFar));
+			} else if(kind < 99 && random.nextInt(4) == 0) {	//raro: svuota il book dell'utente
+				command.op = "cancelAll";
+			} else {
+				command.op = "cancelReplace";
+				command.orderId = 1 + (long) (random.nextDouble() * Math.max(1, idsSoFar));
+				idsSoFar++;
+			}
+			commands.add(command);
+		}
+		return commands;
+	}
+	
+	private static int randomPrice(Random random) {
+		return MID_PRICE - PRICE_RANGE + random.nextInt(2 * PRICE_RANGE + 1);
+	}
+}
@@ -0,0 +1,39 @@
+package ProgettoFinale.bench;
+
+import java.util.*;
+
+/**
+ * Argomenti comuni di ReplayHarness e DifferentialHarness, in stile JMH:
+ * -p nome=valore (più valori separati da virgola dove previsto).
+ * I benchmark veri e propri usano JMH (vedi build.gradle).
+ */
+
+final class HarnessArgs {
+	private HarnessArgs() {}
+
+	static Map<String, String> parse(String[] args, Map<String, String> defaults) {
+		Map<String, String> options = new LinkedHashMap<>(defaults);
+
+		for(int i = 0; i < args.length; i += 2) {
+			if(!args[i].equals("-p"))
+				throw new IllegalArgumentException("Opzione sconosciuta: " + args[i]);
+			if(i + 1 == args.length)
+				throw new IllegalArgumentException("Valore mancante per " + args[i]);
+
+			String[] param = args[i + 1].split("=", 2);
+			if(param.length != 2)
+				throw new IllegalArgumentException("Parametro non valido: " + args[i + 1]);
+			options.put(param[0], param[1]);
+		}
+		return options;
+	}
+
+	//valori interi separati da virgola
+	static int[] intValues(String csv) {
+		String[] parts = csv.split(",");
+		int[] values = new int[parts.length];
+		for(int i = 0; i < parts.length; i++)
+			values[i] = Integer.parseInt(parts[i].trim());
+		return values;
+	}
+}
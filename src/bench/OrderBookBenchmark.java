@@ -0,0 +1,234 @@
+package ProgettoFinale.bench;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.server.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark JMH del motore di matching (OrderBook o un altro MatchingEngine), senza socket né persistenza.
+ *
+ * Benchmark:
+ *  limitResting    limit order che non incrocia e resta nel book
+ *  limitCrossing   limit order che esegue parzialmente il primo ordine del lato opposto
+ *  fokCrossing     come limitCrossing, ma FOK
+ *  fokKilled       FOK più grande della liquidità dei primi SWEEP_LEVELS livelli, annullato senza modificare il book
+ *  marketSweep     market order che consuma SWEEP_LEVELS livelli interi
+ *  cancel          cancellazione di un ordine a caso tra quelli nel book
+ *  amend           riduzione della size (sul posto) di un ordine a caso tra quelli nel book
+ *  stopActivation  stop order attivato ed eseguito alla successiva operazione sul book
+ *
+ * Parametri (-p, valori separati da virgola):
+ *  engine          motore da misurare, come 'matching_engine' (default orderbook)
+ *  depth           livelli di prezzo per lato
+ *  ordersPerLevel  ordini per livello
+ *  stops           stop order a riposo che non si attivano (scansionati a ogni operazione)
+ *
+ * Il book viene ricostruito a ogni iterazione. limitResting, cancel,
+ * marketSweep e stopActivation lo riportano allo stato iniziale dopo ogni
+ * invocazione (fuori dalla misura), così ogni operazione trova lo stesso book;
+ * per questi JMH misura le singole invocazioni, il tempo include il costo del
+ * timestamp (qualche decina di ns) e -prof gc conta anche gli ordini reinseriti.
+ *
+ * Esempio: java -jar build/libs/CROSS-OrderBook-jmh.jar OrderBookBenchmark.cancel -p depth=100,1000 -p engine=orderbook,offheap -prof gc
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class OrderBookBenchmark {
+	private static final int MID_PRICE = 1_000_000;
+	private static final int LARGE_SIZE = 40_000_000;	//ordini a riposo che non si esauriscono con i fill parziali di un'iterazione
+	private static final int SWEEP_ORDER_SIZE = 10;
+	private static final int SWEEP_LEVELS = 5;
+	private static final int MAKERS = 8;	//utenti diversi dal taker, nessun self-trade
+	private static final String TAKER = "taker";
+
+	private static final File NO_STATE_FILE = new File(System.getProperty("java.io.tmpdir"), "bench_no_active_book.json");
+
+	/*
+	 * motore 'engine' con 'depth' livelli per lato attorno a MID_PRICE,
+	 * 'ordersPerLevel' ordini per livello e 'stops' stop order che non si attivano;
+	 * ricostruito da zero a ogni iterazione
+	 */
+	@State(Scope.Thread)
+	public static class Book {
+		@Param("orderbook")
+		public String engine;
+
+		@Param({"10", "100", "1000"})
+		public int depth;
+
+		@Param({"1", "10"})
+		public int ordersPerLevel;
+
+		@Param({"0", "1000"})
+		public int stops;
+
+		MatchingEngine book;
+		List<LimitOrder> restingOrders;
+		final FillBuffer fills = new FillBuffer();	//riusato tra le operazioni, come nel ClientHandler
+		final Random random = new Random(42);	//seed fisso, stesse operazioni a ogni esecuzione
+		int amends;
+
+		int orderSize() {
+			return LARGE_SIZE;
+		}
+
+		@Setup(Level.Iteration)
+		public void build() {
+			NO_STATE_FILE.delete();	//nessuno stato da caricare
+			try {
+				book = MatchingEngine.create(engine, NO_STATE_FILE.getPath());
+			} catch(ReflectiveOperationException e) {
+				throw new IllegalArgumentException("Motore sconosciuto: " + engine, e);
+			}
+			restingOrders = new ArrayList<>(2 * depth * ordersPerLevel);
+			amends = 0;
+
+			for(int level = 1; level <= depth; level++) {
+				for(int k = 0; k < ordersPerLevel; k++) {
+					restingOrders.add(rest(OrderType.ASK, "maker" + (k % MAKERS), MID_PRICE + level));
+					restingOrders.add(rest(OrderType.BID, "maker" + (k % MAKERS), MID_PRICE - level));
+				}
+			}
+
+			//stop lontani dal mercato: BID sopra tutti gli ask, ASK sotto tutti i bid
+			for(int i = 0; i < stops; i++) {
+				if(i % 2 == 0)
+					book.addStopOrder(new StopOrder("stopper", OrderType.BID, 1, MID_PRICE + 2 * depth + 1000 + i));
+				else
+					book.addStopOrder(new StopOrder("stopper", OrderType.ASK, 1, MID_PRICE - 2 * depth - 1000 - i));
+			}
+		}
+
+		LimitOrder rest(OrderType type, String maker, int price) {
+			LimitOrder order = new LimitOrder(maker, type, orderSize(), price);
+			book.addLimitOrder(order, clearedFills());
+			return order;
+		}
+
+		FillBuffer clearedFills() {
+			fills.clear();
+			return fills;
+		}
+	}
+
+	//limitResting e stopActivation: l'ordine rimasto nel book viene cancellato dopo ogni invocazione
+	@State(Scope.Thread)
+	public static class GrowingBook extends Book {
+		LimitOrder added;
+
+		@TearDown(Level.Invocation)
+		public void removeAdded() {
+			book.cancelOrder(added.getOrderId(), TAKER, clearedFills());
+		}
+	}
+
+	//cancel: ordine da cancellare scelto prima dell'invocazione, reinserito nello stesso livello dopo
+	@State(Scope.Thread)
+	public static class CancelBook extends Book {
+		int target;
+
+		@Setup(Level.Invocation)
+		public void pickTarget() {
+			target = random.nextInt(restingOrders.size());
+		}
+
+		@TearDown(Level.Invocation)
+		public void restoreTarget() {
+			LimitOrder cancelled = restingOrders.get(target);
+			restingOrders.set(target, rest(cancelled.getType(), cancelled.getUsername(), cancelled.getLimitPrice()));
+		}
+	}
+
+	//marketSweep: ordini piccoli, i livelli consumati vengono ricostruiti dopo ogni invocazione
+	@State(Scope.Thread)
+	public static class SweepBook extends Book {
+		int levels;
+		int sweepSize;
+
+		int orderSize() {
+			return SWEEP_ORDER_SIZE;
+		}
+
+		@Setup(Level.Iteration)
+		public void sizeSweep() {
+			levels = Math.min(SWEEP_LEVELS, depth);
+			sweepSize = levels * ordersPerLevel * SWEEP_ORDER_SIZE;
+		}
+
+		@TearDown(Level.Invocation)
+		public void refillAsks() {
+			for(int level = 1; level <= levels; level++)
+				for(int k = 0; k < ordersPerLevel; k++)
+					rest(OrderType.ASK, "maker" + (k % MAKERS), MID_PRICE + level);
+		}
+	}
+
+	@Benchmark
+	public FillBuffer limitResting(GrowingBook state) {
+		state.added = new LimitOrder(TAKER, OrderType.BID, 1, MID_PRICE - 1 - state.random.nextInt(state.depth));
+		state.book.addLimitOrder(state.added, state.clearedFills());
+		return state.fills;
+	}
+
+	@Benchmark
+	public FillBuffer limitCrossing(Book state) {
+		state.book.addLimitOrder(new LimitOrder(TAKER, OrderType.BID, 1, MID_PRICE + 1), state.clearedFills());
+		return state.fills;
+	}
+
+	@Benchmark
+	public FillBuffer fokCrossing(Book state) {
+		state.book.addLimitOrder(fok(new LimitOrder(TAKER, OrderType.BID, 1, MID_PRICE + 1)), state.clearedFills());
+		return state.fills;
+	}
+
+	@Benchmark
+	public FillBuffer fokKilled(Book state) {
+		int levels = Math.min(SWEEP_LEVELS, state.depth);
+		int killedSize = levels * state.ordersPerLevel * LARGE_SIZE + 1;
+		state.book.addLimitOrder(fok(new LimitOrder(TAKER, OrderType.BID, killedSize, MID_PRICE + levels)), state.clearedFills());
+		return state.fills;
+	}
+
+	@Benchmark
+	public FillBuffer marketSweep(SweepBook state) throws Exception {
+		state.book.executeMarketOrder(new MarketOrder(TAKER, OrderType.BID, state.sweepSize), state.clearedFills());
+		return state.fills;
+	}
+
+	@Benchmark
+	public boolean cancel(CancelBook state) {
+		LimitOrder order = state.restingOrders.get(state.target);
+		return state.book.cancelOrder(order.getOrderId(), order.getUsername(), state.clearedFills());
+	}
+
+	@Benchmark
+	public boolean amend(Book state) {
+		LimitOrder order = state.restingOrders.get(state.random.nextInt(state.restingOrders.size()));
+		int size = LARGE_SIZE - 1 - (state.amends++ % (LARGE_SIZE / 2));	//sempre più piccola: l'ordine resta sul posto
+		return state.book.amendOrder(order.getOrderId(), order.getUsername(), size, 0, state.clearedFills());
+	}
+
+	@Benchmark
+	public FillBuffer stopActivation(GrowingBook state) {
+		//stop BID che si attiva subito (best ask >= stopPrice)...
+		state.book.addStopOrder(new StopOrder(TAKER, OrderType.BID, 1, MID_PRICE + 1));
+		//...alla prossima operazione sul book, qui un piccolo bid lontano dal mercato
+		state.added = new LimitOrder(TAKER, OrderType.BID, 1, MID_PRICE - state.depth - 1);
+		state.book.addLimitOrder(state.added, state.clearedFills());
+		return state.fills;
+	}
+
+	private static LimitOrder fok(LimitOrder order) {
+		order.setTimeInForce(TimeInForce.FOK);
+		return order;
+	}
+}
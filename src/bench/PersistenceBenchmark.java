@@ -0,0 +1,196 @@
+package ProgettoFinale.bench;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.server.*;
+import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark JMH dei percorsi di I/O: persistenza dei trade, storico OHLC,
+ * salvataggio utenti e salvataggio/caricamento dello stato dell'order book.
+ *
+ * I file di input vengono generati una volta per dimensione nella cartella
+ * cross-bench sotto java.io.tmpdir (riusati tra le esecuzioni) e copiati
+ * prima di ogni iterazione o invocazione, così ogni misura parte dallo stesso file.
+ *
+ * Benchmark (ognuno con il proprio parametro):
+ *  persistTrades     aggiunta di un trade a uno storico di 'trades' trade
+ *  getHistory        calcolo OHLC di un mese su uno storico di 'trades' trade
+ *  saveUsers         salvataggio di 'users' utenti
+ *  saveActiveState   salvataggio di un order book con 'orders' ordini
+ *  loadActiveState   caricamento di un order book con 'orders' ordini
+ *
+ * Esempio: java -jar build/libs/CROSS-OrderBook-jmh.jar PersistenceBenchmark.getHistory -p trades=10000,1000000,10000000 -prof gc
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+	private static final long MONTH_START = 1759276800000L;	//1 ottobre 2025 00:00 GMT
+	private static final long TWO_MONTHS_MILLIS = 61L * 24 * 3600 * 1000;
+	private static final String MONTH = "102025";	//mese richiesto a getHistory (metà dei trade)
+	private static final int MID_PRICE = 1_000_000;
+
+	private static final File DIR = new File(System.getProperty("java.io.tmpdir"), "cross-bench");
+
+	//storico di 'trades' trade: persistTrades lavora su una copia rifatta a ogni iterazione
+	@State(Scope.Thread)
+	public static class History {
+		@Param({"10000", "100000", "1000000"})
+		public int trades;
+
+		File template;
+		final File working = new File(DIR, "trades_working.json");
+		TradeHistoryStore store;
+		HistoryManager historyManager;
+		final List<Trade> fill = Collections.singletonList(new Trade(1, 2, 1, MID_PRICE, "buyer", "seller",
+				MONTH_START, "limit", "limit"));	//un singolo fill, il caso più comune
+
+		@Setup(Level.Trial)
+		public void generate() throws IOException {
+			DIR.mkdirs();
+			template = tradesFile(trades);
+			File oldHistory = new File(DIR, "old_history_empty.json");
+			Files.write(oldHistory.toPath(), "{\"trades\": []}".getBytes());
+			historyManager = new HistoryManager(oldHistory.getPath(), template.getPath());
+		}
+
+		@Setup(Level.Iteration)
+		public void copy() throws IOException {
+			Files.copy(template.toPath(), working.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			store = new TradeHistoryStore(working.getPath());
+		}
+	}
+
+	//file utenti generato con lo stesso formato di UserManager (mappa username -> User)
+	@State(Scope.Thread)
+	public static class Users {
+		@Param({"1000", "100000"})
+		public int users;
+
+		UserManager userManager;
+
+		@Setup(Level.Trial)
+		public void generate() throws IOException {
+			DIR.mkdirs();
+			File usersFile = new File(DIR, "users_" + users + ".json");
+			Map<String, User> generated = new LinkedHashMap<>();
+			for(int i = 0; i < users; i++)
+				generated.put("user" + i, new User("user" + i, "password" + i));
+			try(Writer writer = new BufferedWriter(new FileWriter(usersFile))) {
+				new GsonBuilder().setPrettyPrinting().create().toJson(generated, writer);
+			}
+			userManager = new UserManager(usersFile.getPath());
+		}
+	}
+
+	//order book con 'orders' ordini, salvato a ogni invocazione
+	@State(Scope.Thread)
+	public static class SavedBook {
+		@Param({"10000", "100000"})
+		public int orders;
+
+		OrderBook book;
+
+		@Setup(Level.Trial)
+		public void build() {
+			DIR.mkdirs();
+			book = buildBook(new File(DIR, "active_book_working.json"), orders);
+		}
+	}
+
+	//stato salvato di un order book con 'orders' ordini, ricopiato prima di ogni caricamento
+	@State(Scope.Thread)
+	public static class BookFile {
+		@Param({"10000", "100000"})
+		public int orders;
+
+		File template;
+		final File working = new File(DIR, "active_book_working.json");
+
+		@Setup(Level.Trial)
+		public void generate() throws IOException {
+			DIR.mkdirs();
+			template = new File(DIR, "active_book_" + orders + ".json");
+			buildBook(working, orders).saveActiveStateToFile();
+			Files.move(working.toPath(), template.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		//il costruttore di OrderBook carica lo stato e svuota il file; la copia richiede millisecondi come la misura
+		@Setup(Level.Invocation)
+		public void copy() throws IOException {
+			Files.copy(template.toPath(), working.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Benchmark
+	public void persistTrades(History state) {
+		state.store.append(state.fill);
+	}
+
+	@Benchmark
+	public Object getHistory(History state) {
+		return state.historyManager.getHistory(MONTH);
+	}
+
+	@Benchmark
+	public void saveUsers(Users state) {
+		state.userManager.saveUsers();
+	}
+
+	@Benchmark
+	public void saveActiveState(SavedBook state) {
+		state.book.saveActiveStateToFile();
+	}
+
+	@Benchmark
+	public OrderBook loadActiveState(BookFile state) {
+		return new OrderBook(state.working.getPath());
+	}
+
+	//order book senza stato iniziale con 'orders' limit order non incrociati
+	private static OrderBook buildBook(File stateFile, int orders) {
+		stateFile.delete();
+		OrderBook book = new OrderBook(stateFile.getPath());
+		for(int i = 0; i < orders; i++) {
+			int level = 1 + (i / 2) % 1000;
+			if(i % 2 == 0)
+				book.addLimitOrder(new LimitOrder("maker" + (i % 8), OrderType.ASK, 10, MID_PRICE + level));
+			else
+				book.addLimitOrder(new LimitOrder("maker" + (i % 8), OrderType.BID, 10, MID_PRICE - level));
+		}
+		return book;
+	}
+
+	//storico di 'trades' trade distribuiti su due mesi, generato in streaming e riusato se già presente
+	private static File tradesFile(int trades) throws IOException {
+		File file = new File(DIR, "trades_" + trades + ".json");
+		if(file.exists())
+			return file;
+
+		Gson gson = new Gson();
+		Random random = new Random(42);
+
+		try(JsonWriter writer = new JsonWriter(new BufferedWriter(new FileWriter(file)))) {
+			writer.setIndent("  ");	//stesso formato del pretty printing del server
+			writer.beginArray();
+			for(int i = 0; i < trades; i++) {
+				long timestamp = MONTH_START - TWO_MONTHS_MILLIS / 2 + (TWO_MONTHS_MILLIS * i) / trades;
+				Trade trade = new Trade(2L * i + 1, 2L * i + 2, 1 + random.nextInt(100), MID_PRICE + random.nextInt(1000) - 500,
+						"buyer" + (i % 100), "seller" + (i % 100), timestamp, "limit", "market");
+				gson.toJson(trade, Trade.class, writer);
+			}
+			writer.endArray();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,57 @@
+package ProgettoFinale.bench;
+
+import ProgettoFinale.server.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Misura di ReplayHarness: tempo per rieseguire l'intero stream registrato
+ * su un motore nuovo (stato e contatore id di inizio registrazione),
+ * senza socket né registrazione dell'esito. Comandi/s = comandi / tempo,
+ * il numero di comandi viene stampato all'avvio; i byte allocati per
+ * replay vengono da -prof gc (gc.alloc.rate.norm).
+ *
+ * L'esito va verificato prima con ReplayHarness, qui non viene controllato.
+ *
+ * Esempio: java -jar build/libs/CROSS-OrderBook-jmh.jar ReplayBenchmark -p log=commands.jsonl -p engine=orderbook,offheap -prof gc
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReplayBenchmark {
+	@Param("")
+	public String log;	//stream registrato con 'command_log_file' (obbligatorio)
+
+	@Param("orderbook")
+	public String engine;	//come 'matching_engine'
+
+	private ReplayHarness harness;
+	private MatchingEngine book;
+	private final FillBuffer fills = new FillBuffer();	//riusato tra i comandi, come nel ClientHandler
+
+	@Setup(Level.Trial)
+	public void load() throws Exception {
+		if(log.isEmpty())
+			throw new IllegalArgumentException("Parametro mancante: -p log=commands.jsonl");
+		harness = ReplayHarness.load(new File(log));
+		System.out.println("Caricati " + harness.size() + " comandi da " + log);
+	}
+
+	//ogni invocazione esegue tutto lo stream, quindi il setup per invocazione non pesa sulla misura
+	@Setup(Level.Invocation)
+	public void newEngine() throws Exception {
+		book = harness.newEngine(engine);
+	}
+
+	@Benchmark
+	public MatchingEngine replay() {
+		harness.replay(book, fills);
+		return book;
+	}
+}
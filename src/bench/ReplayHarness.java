@@ -0,0 +1,364 @@
+package ProgettoFinale.bench;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.server.*;
+import com.google.gson.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Riesegue su un motore di matching isolato (senza socket) uno stream di
+ * comandi registrato dal server con 'command_log_file' (CommandRecorder).
+ *
+ * 1. verifica: esegue lo stream una volta registrando l'esito con lo stesso
+ *    CommandRecorder e lo confronta riga per riga con il golden (di default
+ *    lo stesso log, che contiene id assegnati e trade prodotti in produzione);
+ * 2. misura: ReplayBenchmark (JMH) riesegue lo stream su un motore nuovo a
+ *    ogni invocazione, con il profiler gc per i byte allocati.
+ *
+ * Parametri (-p):
+ *  log=file     stream di comandi da rieseguire (obbligatorio)
+ *  golden=file  esito atteso, default il log stesso
+ *  write=file   salva l'esito della verifica, es. per rigenerare il golden
+ *               dopo una modifica voluta del comportamento del motore
+ *  engine=nome  motore da usare, come 'matching_engine' (default orderbook)
+ *
+ * Esempio: java ProgettoFinale.bench.ReplayHarness -p log=commands.jsonl
+ */
+
+public class ReplayHarness {
+	private static final int MAX_REPORTED_MISMATCHES = 10;
+	
+	//comando già decodificato, così la misura non include il parsing JSON
+	static class ReplayCommand {
+		String op;
+		String user;
+		OrderType type;
+		int size;
+		int price;
+		TimeInForce timeInForce;	//null per GTC
+		long expireTime;	//GTD/DAY, registrata per le repliche
+		long orderId;
+		long[] orderIds;	//cancels
+		OrderType[] types;	//limits
+		int[] sizes;
+		int[] prices;
+		TimeInForce[] timeInForces;
+		long[] expireTimes;
+		long[] assignedIds;	//id registrati, null per i comandi generati (assegnati dal motore)
+	}
+	
+	private final List<ReplayCommand> commands;
+	private final long initialOrderId;
+	private final File bookFile;	//stato del book all'avvio della registrazione, può essere null
+	private final File workingBookFile;
+	
+	ReplayHarness(List<ReplayCommand> commands, long initialOrderId, File bookFile) throws IOException {
+		this.commands = commands;
+		this.initialOrderId = initialOrderId;
+		this.bookFile = bookFile;
+		this.workingBookFile = File.createTempFile("cross-replay", ".book.json");
+		workingBookFile.deleteOnExit();
+	}
+	
+	public static void main(String[] args) throws Exception {
+		Map<String, String> defaults = new LinkedHashMap<>();
+		defaults.put("engine", "orderbook");
+		Map<String, String> options = HarnessArgs.parse(args, defaults);
+		
+		if(options.get("log") == null) {
+			System.err.println("Uso: ReplayHarness -p log=commands.jsonl [-p golden=file] [-p write=file] [-p engine=nome]");
+			System.exit(2);
+		}
+		File logFile = new File(options.get("log"));
+		File goldenFile = new File(options.getOrDefault("golden", logFile.getPath()));
+		
+		String engine = options.get("engine");
+		
+		ReplayHarness harness = load(logFile);
+		List<ReplayCommand> commands = harness.commands;
+		System.out.println("Caricati " + commands.size() + " comandi da " + logFile + " (id iniziale " 
+				+ harness.initialOrderId + (harness.bookFile != null ? ", stato " + harness.bookFile : "") + ")");
+		
+		//verifica
+		File outputFile;
+		if(options.get("write") != null) {
+			outputFile = new File(options.get("write"));
+		} else {
+			outputFile = File.createTempFile("cross-replay", ".jsonl");
+			outputFile.deleteOnExit();
+		}
+		
+		harness.recordOutcome(engine, outputFile);
+		
+		int mismatches = compare(goldenFile, outputFile);
+		if(mismatches > 0) {
+			System.err.println("Verifica FALLITA: " + mismatches + " comandi con esito diverso da " + goldenFile);
+			System.exit(1);
+		}
+		System.out.println("Verifica OK: esito identico a " + goldenFile);
+	}
+	
+	//comandi caricati
+	int size() {
+		return commands.size();
+	}
+	
+	//esegue tutto lo stream senza registrarlo, misurato da ReplayBenchmark
+	void replay(MatchingEngine book, FillBuffer fills) {
+		for(ReplayCommand command : commands)
+			execute(book, command, null, fills);
+	}
+	
+	//motore con lo stato e il contatore id di inizio registrazione
+	MatchingEngine newEngine(String engine) throws Exception {
+		if(bookFile != null)	//il costruttore svuota il file caricato, quindi si usa una copia
+			Files.copy(bookFile.toPath(), workingBookFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		else
+			workingBookFile.delete();
+		
+		MatchingEngine book = MatchingEngine.create(engine, workingBookFile.getPath());
+		OrderIdGenerator.setInitialOrderId(initialOrderId);
+		return book;
+	}
+	
+	//esegue tutto lo stream su un motore nuovo e ne registra l'esito in output
+	void recordOutcome(String engine, File output) throws Exception {
+		MatchingEngine book = newEngine(engine);
+		CommandRecorder recorder = new CommandRecorder(output.getPath(), initialOrderId,
+				bookFile != null ? bookFile.getPath() : null);
+		book.addListener(recorder);
+		FillBuffer fills = new FillBuffer();
+		for(ReplayCommand command : commands)
+			execute(book, command, recorder, fills);
+		recorder.close();
+	}
+	
+	//esegue un comando, registrandolo se recorder non è null; fills viene riusato come nel ClientHandler
+	static void execute(MatchingEngine book, ReplayCommand command, CommandRecorder recorder, FillBuffer fills) {
+		String user = command.user;
+		fills.clear();
+		
+		switch(command.op) {
+		case "limit": {
+			LimitOrder order = new LimitOrder(user, command.type, command.size, command.price);
+			order.setTimeInForce(command.timeInForce);
+			order.setExpireTime(command.expireTime);
+			preassign(order, command, 0);
+			CommandRecorder.Command recorded = recorder != null ? recorder.limitOrder(order) : null;
+			book.addLimitOrder(order, fills);
+			record(recorder, recorded, null);
+			break;
+		}
+		case "market": {
+			MarketOrder order = new MarketOrder(user, command.type, command.size);
+			preassign(order, command, 0);
+			CommandRecorder.Command recorded = recorder != null ? recorder.marketOrder(order) : null;
+			try {
+				book.executeMarketOrder(order, fills);
+			} catch(Exception e) {
+				//ordine fallito, come sul server
+			}
+			record(recorder, recorded, null);
+			break;
+		}
+		case "stop": {
+			StopOrder order = new StopOrder(user, command.type, command.size, command.price);
+			order.setTimeInForce(command.timeInForce);
+			order.setExpireTime(command.expireTime);
+			preassign(order, command, 0);
+			CommandRecorder.Command recorded = recorder != null ? recorder.stopOrder(order) : null;
+			book.addStopOrder(order);
+			record(recorder, recorded, null);
+			break;
+		}
+		case "cancel": {
+			CommandRecorder.Command recorded = recorder != null ? recorder.cancelOrder(command.orderId, user) : null;
+			boolean ok = book.cancelOrder(command.orderId, user, fills);
+			record(recorder, recorded, ok);
+			break;
+		}
+		case "amend": {
+			CommandRecorder.Command recorded = recorder != null 
+					? recorder.amendOrder(command.orderId, user, command.size, command.price) : null;
+			boolean ok = book.amendOrder(command.orderId, user, command.size, command.price, fills);
+			record(recorder, recorded, ok);
+			break;
+		}
+		case "limits": {
+			List<LimitOrder> orders = new ArrayList<>(command.types.length);
+			for(int i = 0; i < command.types.length; i++) {
+				orders.add(new LimitOrder(user, command.types[i], command.sizes[i], command.prices[i]));
+				orders.get(i).setTimeInForce(command.timeInForces[i]);
+				orders.get(i).setExpireTime(command.expireTimes[i]);
+				preassign(orders.get(i), command, i);
+			}
+			CommandRecorder.Command recorded = recorder != null ? recorder.limitOrders(orders, user) : null;
+			record(recorder, recorded, book.addLimitOrders(orders, fills));
+			break;
+		}
+		case "cancels": {
+			List<Long> orderIds = new ArrayList<>(command.orderIds.length);
+			for(long id : command.orderIds)
+				orderIds.add(id);
+			CommandRecorder.Command recorded = recorder != null ? recorder.cancelOrders(orderIds, user) : null;
+			record(recorder, recorded, book.cancelOrders(orderIds, user, fills));
+			break;
+		}
+		case "cancelAll": {
+			CommandRecorder.Command recorded = recorder != null ? recorder.cancelAllOrders(user) : null;
+			record(recorder, recorded, book.cancelAllOrders(user, fills));
+			break;
+		}
+		case "auctionStart": {
+			CommandRecorder.Command recorded = recorder != null ? recorder.auctionStart() : null;
+			record(recorder, recorded, book.startAuction());
+			break;
+		}
+		case "auctionUncross": {
+			CommandRecorder.Command recorded = recorder != null ? recorder.auctionUncross() : null;
+			record(recorder, recorded, book.uncrossAuction(fills));
+			break;
+		}
+		case "cancelReplace": {
+			LimitOrder replacement = new LimitOrder(user, command.type, command.size, command.price);
+			replacement.setTimeInForce(command.timeInForce);
+			replacement.setExpireTime(command.expireTime);
+			preassign(replacement, command, 0);
+			CommandRecorder.Command recorded = recorder != null 
+					? recorder.cancelReplaceOrder(command.orderId, user, replacement) : null;
+			record(recorder, recorded, book.cancelReplaceOrder(command.orderId, user, replacement, fills));
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Comando sconosciuto: " + command.op);
+		}
+	}
+	
+	//con più simboli gli id si alternano tra i motori: il replay di un singolo simbolo riusa quelli registrati
+	private static void preassign(Order order, ReplayCommand command, int index) {
+		if(command.assignedIds != null && index < command.assignedIds.length && command.assignedIds[index] > 0)
+			order.setOrderId(command.assignedIds[index]);
+	}
+	
+	private static void record(CommandRecorder recorder, CommandRecorder.Command recorded, Object result) {
+		if(recorder != null)
+			recorder.record(recorded, result);
+	}
+	
+	static ReplayHarness load(File logFile) throws IOException {
+		List<ReplayCommand> commands = new ArrayList<>();
+		long initialOrderId = 0;
+		File bookFile = null;
+		
+		try(BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.isBlank())
+					continue;
+				JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+				String op = json.get("op").getAsString();
+				
+				if(op.equals("start")) {
+					initialOrderId = json.get("initialOrderId").getAsLong();
+					if(json.has("bookFile"))
+						bookFile = resolve(logFile, json.get("bookFile").getAsString());
+					continue;
+				}
+				
+				ReplayCommand command = new ReplayCommand();
+				command.op = op;
+				if(json.has("user"))	//assente nei comandi d'asta
+					command.user = json.get("user").getAsString();
+				if(json.has("type"))
+					command.type = OrderType.valueOf(json.get("type").getAsString());
+				if(json.has("size"))
+					command.size = json.get("size").getAsInt();
+				if(json.has("price"))
+					command.price = json.get("price").getAsInt();
+				if(json.has("timeInForce"))
+					command.timeInForce = TimeInForce.valueOf(json.get("timeInForce").getAsString());
+				if(json.has("expireTime"))
+					command.expireTime = json.get("expireTime").getAsLong();
+				if(json.has("orderId"))
+					command.orderId = json.get("orderId").getAsLong();
+				
+				if(json.has("orderIds")) {
+					JsonArray ids = json.getAsJsonArray("orderIds");
+					command.orderIds = new long[ids.size()];
+					for(int i = 0; i < ids.size(); i++)
+						command.orderIds[i] = ids.get(i).getAsLong();
+				}
+				if(json.has("orders")) {
+					JsonArray orders = json.getAsJsonArray("orders");
+					command.types = new OrderType[orders.size()];
+					command.sizes = new int[orders.size()];
+					command.prices = new int[orders.size()];
+					command.timeInForces = new TimeInForce[orders.size()];
+					command.expireTimes = new long[orders.size()];
+					for(int i = 0; i < orders.size(); i++) {
+						JsonObject order = orders.get(i).getAsJsonObject();
+						command.types[i] = OrderType.valueOf(order.get("type").getAsString());
+						command.sizes[i] = order.get("size").getAsInt();
+						command.prices[i] = order.get("price").getAsInt();
+						if(order.has("timeInForce"))
+							command.timeInForces[i] = TimeInForce.valueOf(order.get("timeInForce").getAsString());
+						if(order.has("expireTime"))
+							command.expireTimes[i] = order.get("expireTime").getAsLong();
+					}
+				}
+				
+				if(json.has("assignedId")) {
+					command.assignedIds = new long[] { json.get("assignedId").getAsLong() };
+				} else if(json.has("results") && !op.equals("cancels") && !op.equals("cancelAll")) {	//limits: un id per ordine, cancelReplace: [annullato, sostitutivo]
+					JsonArray results = json.getAsJsonArray("results");
+					long[] ids = new long[results.size()];
+					for(int i = 0; i < results.size(); i++)
+						ids[i] = results.get(i).getAsJsonObject().get("orderId").getAsLong();
+					command.assignedIds = op.equals("cancelReplace")
+							? new long[] { ids.length > 1 ? ids[1] : -1 } : ids;
+				}
+				commands.add(command);
+			}
+		}
+		return new ReplayHarness(commands, initialOrderId, bookFile);
+	}
+	
+	//il percorso registrato è relativo alla cartella del server, in alternativa si cerca accanto al log
+	private static File resolve(File logFile, String path) {
+		File file = new File(path);
+		if(file.exists())
+			return file;
+		return new File(logFile.getAbsoluteFile().getParentFile(), file.getName());
+	}
+	
+	//confronta riga per riga (come JSON) l'esito atteso con quello prodotto, ritorna il numero di differenze
+	static int compare(File expectedFile, File actualFile) throws IOException {
+		List<String> expected = Files.readAllLines(expectedFile.toPath());
+		List<String> actual = Files.readAllLines(actualFile.toPath());
+		expected.removeIf(String::isBlank);
+		actual.removeIf(String::isBlank);
+		//l'intestazione (prima riga) contiene percorsi locali, non fa parte dell'esito
+		if(!expected.isEmpty())
+			expected.remove(0);
+		if(!actual.isEmpty())
+			actual.remove(0);
+		
+		int mismatches = Math.abs(expected.size() - actual.size());
+		if(mismatches > 0)
+			System.err.println("Numero di righe diverso: attese " + expected.size() + ", prodotte " + actual.size());
+		
+		for(int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+			if(JsonParser.parseString(expected.get(i)).equals(JsonParser.parseString(actual.get(i))))
+				continue;
+			if(++mismatches <= MAX_REPORTED_MISMATCHES) {
+				System.err.println("Riga " + (i + 2) + ":");	//+1 per l'intestazione
+				System.err.println("  attesa:   " + expected.get(i));
+				System.err.println("  prodotta: " + actual.get(i));
+			}
+		}
+		return mismatches;
+	}
+}
@@ -0,0 +1,280 @@
+package ProgettoFinale.client;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import com.google.gson.*;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.LatencyHistogram;
+
+/**
+ * Generatore di carico headless: N trader simulati, ognuno con la propria
+ * connessione TCP e il proprio listener UDP, inviano ordini al server
+ * secondo un mix configurabile e a un tasso obiettivo.
+ *
+ * La schedulazione è open-loop: ogni richiesta ha un istante di invio
+ * previsto e la latenza è misurata da quell'istante, non da quando la
+ * richiesta parte davvero; se il server rallenta, l'attesa accumulata
+ * finisce nelle misure invece di essere nascosta (coordinated omission).
+ *
+ * Avvio (parametri chiave=valore, tutti opzionali):
+ *  java ProgettoFinale.client.LoadGenerator traders=10 rate=1000 duration=30
+ *       mix=limit:60,market:10,stop:10,cancel:20 host=localhost port=6789
+ */
+
+public class LoadGenerator {
+	private static final String CLIENT_CONFIG_FILE = "client.properties";
+	private static final int MID_PRICE = 1_000_000;
+	private static final int PRICE_SPREAD = 500;	//i limit order cadono entro ±PRICE_SPREAD dal prezzo medio
+	private static final String PASSWORD = "loadtest";
+	
+	private static final String[] ORDER_KINDS = {"limit", "market", "stop", "cancel"};
+	
+	//latenza di risposta (dall'istante previsto) e latenza delle notifiche UDP
+	private static final LatencyHistogram ackLatency = new LatencyHistogram();
+	private static final LatencyHistogram notificationLatency = new LatencyHistogram();
+	private static final AtomicLong sentRequests = new AtomicLong();
+	private static final AtomicLong failedRequests = new AtomicLong();
+	private static final AtomicLong rejectedRequests = new AtomicLong();	//risposte 106, limite di frequenza o server sovraccarico
+	
+	public static void main(String[] args) throws Exception {
+		Properties config = new Properties();
+		try (FileInputStream fis = new FileInputStream(CLIENT_CONFIG_FILE)) {
+			config.load(fis);
+		} catch (IOException e) {
+			//si usano i default
+		}
+		
+		Map<String, String> options = new HashMap<>();
+		options.put("traders", "10");
+		options.put("rate", "1000");	//richieste al secondo, in totale
+		options.put("duration", "30");	//secondi
+		options.put("mix", "limit:60,market:10,stop:10,cancel:20");
+		options.put("host", config.getProperty("server_address", "localhost"));
+		options.put("port", config.getProperty("server_tcp_port", "6789"));
+		for (String arg : args) {
+			String[] keyValue = arg.split("=", 2);
+			if (keyValue.length != 2 || !options.containsKey(keyValue[0])) {
+				System.err.println("Parametro non valido: " + arg);
+				return;
+			}
+			options.put(keyValue[0], keyValue[1]);
+		}
+		
+		int traders = Integer.parseInt(options.get("traders"));
+		double rate = Double.parseDouble(options.get("rate"));
+		long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+		int[] mix = parseMix(options.get("mix"));
+		String host = options.get("host");
+		int port = Integer.parseInt(options.get("port"));
+		
+		//ogni trader invia a rate/traders richieste al secondo
+		long intervalNanos = (long) (1e9 * traders / rate);
+		
+		System.out.println("Load generator: " + traders + " trader, " + rate + " req/s, " 
+				+ options.get("duration") + " s, mix " + options.get("mix"));
+		
+		List<Trader> traderList = new ArrayList<>();
+		for (int i = 0; i < traders; i++)
+			traderList.add(new Trader("loadtrader" + i, host, port, mix, intervalNanos, new Random(i)));
+		
+		ExecutorService pool = Executors.newFixedThreadPool(traders);
+		long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		for (int i = 0; i < traders; i++) {
+			//partenze sfalsate per distribuire le richieste nell'intervallo
+			long offset = intervalNanos * i / traders;
+			Trader trader = traderList.get(i);
+			pool.submit(() -> trader.run(startNanos + offset, startNanos + durationNanos));
+		}
+		
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		Thread.sleep(200);	//ultime notifiche in arrivo
+		for (Trader trader : traderList)
+			trader.close();
+		
+		double elapsedSeconds = durationNanos / 1e9;
+		System.out.println("\n--- RISULTATI ---");
+		System.out.printf("Richieste: %d (%.1f req/s), fallite: %d, di cui rifiutate dal server (106): %d\n",
+				sentRequests.get(), sentRequests.get() / elapsedSeconds, failedRequests.get(), rejectedRequests.get());
+		System.out.println("Latenza risposta:  " + ackLatency.summary(1e3, "us"));
+		System.out.println("Latenza notifica:  " + notificationLatency.summary(1e6, "ms"));
+	}
+	
+	//"limit:60,market:10,..." -> pesi cumulativi nell'ordine di ORDER_KINDS
+	private static int[] parseMix(String mix) {
+		int[] weights = new int[ORDER_KINDS.length];
+		for (String part : mix.split(",")) {
+			String[] kindWeight = part.split(":");
+			int kind = Arrays.asList(ORDER_KINDS).indexOf(kindWeight[0].trim());
+			if (kind < 0)
+				throw new IllegalArgumentException("Tipo di ordine sconosciuto nel mix: " + kindWeight[0]);
+			weights[kind] = Integer.parseInt(kindWeight[1].trim());
+		}
+		for (int i = 1; i < weights.length; i++)
+			weights[i] += weights[i - 1];
+		return weights;
+	}
+	
+	//trader simulato: connessione TCP, listener UDP e ordini ancora attivi
+	private static class Trader {
+		private final Socket socket;
+		private final PrintWriter writer;
+		private final BufferedReader reader;
+		private final DatagramSocket udpSocket;
+		private final int[] mix;
+		private final long intervalNanos;
+		private final Random random;
+		private final List<Long> openOrderIds = new ArrayList<>();
+		private final Gson gson = new Gson();
+		
+		Trader(String username, String host, int port, int[] mix, long intervalNanos, Random random) throws IOException {
+			this.mix = mix;
+			this.intervalNanos = intervalNanos;
+			this.random = random;
+			
+			this.udpSocket = new DatagramSocket(0);
+			Thread listener = new Thread(this::listen, username + "-udp");
+			listener.setDaemon(true);
+			listener.start();
+			
+			this.socket = new Socket(host, port);
+			this.socket.setTcpNoDelay(true);
+			this.writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), false);
+			this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			
+			//registrazione (può fallire se l'utente esiste già) e login
+			JsonObject credentials = new JsonObject();
+			credentials.addProperty("username", username);
+			credentials.addProperty("password", PASSWORD);
+			send("register", credentials);
+			credentials.addProperty("udpPort", udpSocket.getLocalPort());
+			JsonObject login = send("login", credentials);
+			if (login.get("response").getAsInt() != 100)
+				throw new IOException("Login fallito per " + username + ": " + login.get("errorMessage").getAsString());
+		}
+		
+		//ciclo open-loop fino a endNanos
+		void run(long firstSendNanos, long endNanos) {
+			try {
+				for (long intended = firstSendNanos; intended < endNanos; intended += intervalNanos) {
+					long wait;
+					while ((wait = intended - System.nanoTime()) > 0)
+						LockSupport.parkNanos(wait);
+					
+					boolean ok = sendRandomOrder();
+					ackLatency.record(System.nanoTime() - intended);	//include l'eventuale ritardo accumulato
+					sentRequests.incrementAndGet();
+					if (!ok)
+						failedRequests.incrementAndGet();
+				}
+			} catch (IOException e) {
+				System.err.println("Trader interrotto: " + e.getMessage());
+			}
+		}
+		
+		private boolean sendRandomOrder() throws IOException {
+			int draw = random.nextInt(mix[mix.length - 1]);
+			String kind = "limit";
+			for (int i = 0; i < mix.length; i++) {
+				if (draw < mix[i]) {
+					kind = ORDER_KINDS[i];
+					break;
+				}
+			}
+			if (kind.equals("cancel") && openOrderIds.isEmpty())
+				kind = "limit";	//niente da cancellare
+			
+			String side = random.nextBoolean() ? "BID" : "ASK";
+			int size = 1 + random.nextInt(10);
+			JsonObject values = new JsonObject();
+			
+			switch (kind) {
+			case "limit": {
+				values.addProperty("type", side);
+				values.addProperty("size", size);
+				values.addProperty("price", MID_PRICE + random.nextInt(2 * PRICE_SPREAD + 1) - PRICE_SPREAD);
+				long orderId = send("insertLimitOrder", values).get("orderId").getAsLong();
+				if (orderId != -1)
+					openOrderIds.add(orderId);
+				return orderId != -1;
+			}
+			case "market": {
+				values.addProperty("type", side);
+				values.addProperty("size", size);
+				return send("insertMarketOrder", values).get("orderId").getAsLong() != -1;
+			}
+			case "stop": {
+				//stop lontani dal mercato, per lo più restano in attesa
+				values.addProperty("type", side);
+				values.addProperty("size", size);
+				values.addProperty("price", side.equals("BID") ? MID_PRICE + 2 * PRICE_SPREAD : MID_PRICE - 2 * PRICE_SPREAD);
+				long orderId = send("insertStopOrder", values).get("orderId").getAsLong();
+				if (orderId != -1)
+					openOrderIds.add(orderId);
+				return orderId != -1;
+			}
+			default: {
+				//cancella un ordine a caso tra quelli inviati (potrebbe essere già stato eseguito)
+				int index = random.nextInt(openOrderIds.size());
+				long orderId = openOrderIds.get(index);
+				openOrderIds.set(index, openOrderIds.get(openOrderIds.size() - 1));
+				openOrderIds.remove(openOrderIds.size() - 1);
+				
+				values.addProperty("orderId", orderId);
+				return send("cancelOrder", values).get("response").getAsInt() == 100;
+			}
+			}
+		}
+		
+		private JsonObject send(String operation, JsonObject values) throws IOException {
+			JsonObject request = new JsonObject();
+			request.addProperty("operation", operation);
+			request.add("values", values);
+			writer.println(gson.toJson(request));
+			writer.flush();
+			
+			String response = reader.readLine();
+			if (response == null)
+				throw new IOException("Il server ha chiuso la connessione.");
+			JsonObject result = JsonParser.parseString(response).getAsJsonObject();
+			if (result.has("response") && result.get("response").getAsInt() == 106)
+				rejectedRequests.incrementAndGet();
+			return result;
+		}
+		
+		//latenza notifica = ricezione - timestamp del trade (risoluzione al millisecondo)
+		private void listen() {
+			byte[] buffer = new byte[65535];
+			try {
+				while (!udpSocket.isClosed()) {
+					DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+					udpSocket.receive(packet);
+					long now = System.currentTimeMillis();
+					
+					TradeNotification notification = gson.fromJson(
+							new String(packet.getData(), 0, packet.getLength()), TradeNotification.class);
+					if (notification == null || notification.getTrades() == null)
+						continue;
+					for (TradeNotificationDetail trade : notification.getTrades())
+						notificationLatency.record(TimeUnit.MILLISECONDS.toNanos(now - trade.getTimestamp()));
+				}
+			} catch (IOException e) {
+				//socket chiuso a fine test
+			}
+		}
+		
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				//ignora
+			}
+			udpSocket.close();
+		}
+	}
+}
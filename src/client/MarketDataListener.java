@@ -0,0 +1,171 @@
+package ProgettoFinale.client;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.*;
+
+import ProgettoFinale.entities.*;
+import static ProgettoFinale.entities.MarketDataProtocol.*;
+
+/**
+ * Sottoscrittore del feed multicast di market data.
+ *
+ * Ricostruisce localmente i livelli di prezzo: attende il primo snapshot,
+ * poi applica i messaggi successivi in ordine di sequenza; se rileva un
+ * pacchetto perso torna non sincronizzato fino allo snapshot seguente.
+ *
+ * Avvio: java ProgettoFinale.client.MarketDataListener (legge client.properties)
+ */
+
+public class MarketDataListener implements Runnable {
+	private static final String CLIENT_CONFIG_FILE = "client.properties";
+	
+	private final DatagramChannel channel;
+	
+	private final TreeMap<Integer, Long> bids = new TreeMap<>(Collections.reverseOrder());
+	private final TreeMap<Integer, Long> asks = new TreeMap<>();
+	
+	private long expectedSeq = 0;	//0 = in attesa di snapshot
+	
+	public MarketDataListener(InetAddress groupAddress, int port, NetworkInterface networkInterface) throws IOException {
+		this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		this.channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);	//più listener sulla stessa macchina
+		this.channel.bind(new InetSocketAddress(port));
+		this.channel.join(groupAddress, networkInterface);
+	}
+	
+	public void run() {
+		ByteBuffer packet = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+		
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				packet.clear();
+				channel.receive(packet);	//bloccante
+				packet.flip();
+				
+				long seq = packet.getLong();
+				int count = packet.getShort();
+				
+				for(int i = 0; i < count; i++, seq++)
+					handleMessage(packet, seq);
+				
+				if(expectedSeq != 0)
+					printTopOfBook();
+			}
+		} catch(IOException e) {
+			System.err.println("[Market Data] Errore: " + e.getMessage());
+		} finally {
+			try {
+				channel.close();
+			} catch(IOException e) {
+				//ignora
+			}
+		}
+	}
+	
+	//decodifica un messaggio, i messaggi vanno sempre letti per avanzare nel pacchetto
+	private void handleMessage(ByteBuffer packet, long seq) {
+		byte type = packet.get();
+		
+		switch(type) {
+		case MSG_LEVEL: {
+			byte side = packet.get();
+			int price = packet.getInt();
+			long size = packet.getLong();
+			int count = packet.getInt();
+			
+			if(!inSequence(seq))
+				return;
+			
+			TreeMap<Integer, Long> levels = side == SIDE_BID ? bids : asks;
+			if(count == 0)
+				levels.remove(price);
+			else
+				levels.put(price, size);
+			break;
+		}
+		case MSG_TRADE: {
+			int price = packet.getInt();
+			int size = packet.getInt();
+			packet.getLong();	//timestamp
+			
+			if(inSequence(seq))
+				System.out.println("[Market Data] TRADE " + size + " @ " + price);
+			break;
+		}
+		case MSG_SNAPSHOT: {
+			int bidCount = packet.getShort();
+			int askCount = packet.getShort();
+			
+			//lo snapshot risincronizza sempre il book locale
+			bids.clear();
+			asks.clear();
+			readLevels(packet, bids, bidCount);
+			readLevels(packet, asks, askCount);
+			
+			if(expectedSeq != seq)
+				System.out.println("[Market Data] Sincronizzato con snapshot #" + seq);
+			expectedSeq = seq + 1;
+			break;
+		}
+		default:
+			throw new IllegalStateException("Tipo di messaggio sconosciuto: " + type);
+		}
+	}
+	
+	//controlla la sequenza: un buco invalida il book fino al prossimo snapshot
+	private boolean inSequence(long seq) {
+		if(expectedSeq == 0)
+			return false;	//in attesa di snapshot
+		
+		if(seq != expectedSeq) {
+			System.out.println("[Market Data] Persi messaggi " + expectedSeq + ".." + (seq - 1) + ", attendo snapshot.");
+			expectedSeq = 0;
+			return false;
+		}
+		expectedSeq++;
+		return true;
+	}
+	
+	private void readLevels(ByteBuffer packet, TreeMap<Integer, Long> levels, int count) {
+		for(int i = 0; i < count; i++) {
+			int price = packet.getInt();
+			long size = packet.getLong();
+			packet.getInt();	//numero di ordini
+			levels.put(price, size);
+		}
+	}
+	
+	private void printTopOfBook() {
+		Map.Entry<Integer, Long> bestBid = bids.firstEntry();
+		Map.Entry<Integer, Long> bestAsk = asks.firstEntry();
+		System.out.println("[Market Data] BID " + (bestBid == null ? "-" : bestBid.getValue() + " @ " + bestBid.getKey())
+				+ " | ASK " + (bestAsk == null ? "-" : bestAsk.getValue() + " @ " + bestAsk.getKey()));
+	}
+	
+	public static void main(String[] args) {
+		Properties config = new Properties();
+        try (FileInputStream fis = new FileInputStream(CLIENT_CONFIG_FILE)) {
+            config.load(fis);
+        } catch (Exception e) {
+            System.err.println("Errore: Impossibile trovare o caricare " + CLIENT_CONFIG_FILE);
+            return;
+        }
+        
+        try {
+        	InetAddress groupAddress = InetAddress.getByName(config.getProperty("market_data_group", "239.1.1.1"));
+        	int port = Integer.parseInt(config.getProperty("market_data_port", "6790"));
+        	String interfaceName = config.getProperty("market_data_interface");
+        	NetworkInterface networkInterface = interfaceName != null 
+        			? NetworkInterface.getByName(interfaceName)
+        			: NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+        	
+        	System.out.println("[Market Data] In ascolto su " + groupAddress.getHostAddress() + ":" + port);
+        	new MarketDataListener(groupAddress, port, networkInterface).run();
+        } catch (Exception e) {
+        	System.err.println("Errore avvio listener market data: " + e.getMessage());
+        }
+	}
+}
@@ -0,0 +1,37 @@
+package ProgettoFinale.entities;
+
+/**
+ * Formato binario (big-endian) del feed multicast di market data.
+ *
+ * Pacchetto: [firstSeq long][msgCount short] seguito da msgCount messaggi,
+ * il messaggio i-esimo ha sequenza firstSeq + i.
+ *
+ * Messaggi (primo byte = tipo):
+ *  LEVEL    [side byte][price int][size long][count int]  valori assoluti del livello, count 0 = livello rimosso
+ *  TRADE    [price int][size int][timestamp long]
+ *  SNAPSHOT [bidLevels short][askLevels short] poi bidLevels + askLevels volte [price int][size long][count int],
+ *           riflette lo stato dopo tutti i messaggi con sequenza minore
+ */
+
+public final class MarketDataProtocol {
+	public static final int HEADER_SIZE = 10;
+	public static final int MAX_PACKET_SIZE = 1400;	//sotto la MTU ethernet
+	
+	public static final byte MSG_LEVEL = 1;
+	public static final byte MSG_TRADE = 2;
+	public static final byte MSG_SNAPSHOT = 3;
+	
+	public static final int LEVEL_SIZE = 18;
+	public static final int TRADE_SIZE = 17;
+	public static final int SNAPSHOT_HEADER_SIZE = 5;
+	public static final int SNAPSHOT_LEVEL_SIZE = 16;
+	
+	//massimo numero di livelli per lato in uno snapshot contenuto in un solo pacchetto
+	public static final int MAX_SNAPSHOT_DEPTH = 
+			(MAX_PACKET_SIZE - HEADER_SIZE - SNAPSHOT_HEADER_SIZE) / (2 * SNAPSHOT_LEVEL_SIZE);
+	
+	public static final byte SIDE_BID = 0;
+	public static final byte SIDE_ASK = 1;
+	
+	private MarketDataProtocol() {}
+}
@@ -1,52 +1,70 @@
-package ProgettoFinale.entities;
-
-//classe astratta ordine generico
-
-public abstract class Order {
-	protected long orderId;
-	protected final String username;
-	protected final OrderType type;	//ASK o BID
-	protected int size;			//Millesimi di BTC
-	protected long timestamp;
-	
-	public Order(String username, OrderType type, int size) {
-		this.username = username;
-		this.type = type;
-		this.size = size;
-		
-		orderId = -1;
-		timestamp = -1;
-	}
-	
-	public long getOrderId() {
-		return orderId;
-	}
-	
-	public String getUsername() {
-		return username;
-	}
-	
-	public OrderType getType() {
-		return type;
-	}
-	
-	public int getSize() {
-		return size;
-	}
-	
-	public long getTimestamp() {
-		return timestamp;
-	}
-	
-	public void setOrderId(long id) {
-		this.orderId = id;
-	}
-	
-	public void setTimestamp(long t) {
-		this.timestamp = t;
-	}
-	
-	public void setSize(int s) {
-		this.size = s;
-	}
-}
+package ProgettoFinale.entities;
+
+//classe astratta ordine generico
+
+public abstract class Order {
+	protected long orderId;
+	protected final String username;
+	protected final OrderType type;	//ASK o BID
+	protected int size;			//Millesimi di BTC
+	protected long timestamp;
+	protected long expireTime;	//scadenza (ms epoch) degli ordini GTD/DAY, 0 se non scade
+	protected TimeInForce timeInForce;	//null per GTC (anche negli ordini salvati prima del campo)
+	
+	public Order(String username, OrderType type, int size) {
+		this.username = username;
+		this.type = type;
+		this.size = size;
+		
+		orderId = -1;
+		timestamp = -1;
+	}
+	
+	public long getOrderId() {
+		return orderId;
+	}
+	
+	public String getUsername() {
+		return username;
+	}
+	
+	public OrderType getType() {
+		return type;
+	}
+	
+	public int getSize() {
+		return size;
+	}
+	
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	public void setOrderId(long id) {
+		this.orderId = id;
+	}
+	
+	public void setTimestamp(long t) {
+		this.timestamp = t;
+	}
+	
+	public void setSize(int s) {
+		this.size = s;
+	}
+	
+	public long getExpireTime() {
+		return expireTime;
+	}
+	
+	public void setExpireTime(long expireTime) {
+		this.expireTime = expireTime;
+	}
+	
+	public TimeInForce getTimeInForce() {
+		return timeInForce == null ? TimeInForce.GTC : timeInForce;
+	}
+	
+	public void setTimeInForce(TimeInForce timeInForce) {
+		this.timeInForce = timeInForce == TimeInForce.GTC ? null : timeInForce;
+	}
+}
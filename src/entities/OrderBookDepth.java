@@ -0,0 +1,62 @@
+package ProgettoFinale.entities;
+
+/**
+ * Snapshot strutturato dei primi livelli dell'order book.
+ *
+ * Per ogni lato: prezzi, quantità totale e numero di ordini per livello
+ * (array paralleli, dal migliore al peggiore), più la versione del book
+ * a cui si riferisce lo snapshot.
+ */
+
+public class OrderBookDepth {
+	private long version;
+	
+	private int[] bidPrices;
+	private int[] bidSizes;
+	private int[] bidCounts;
+	
+	private int[] askPrices;
+	private int[] askSizes;
+	private int[] askCounts;
+	
+	//costruttore vuoto per la deserializzazione Gson sul client
+	public OrderBookDepth() {}
+	
+	public OrderBookDepth(long version, int bidLevels, int askLevels) {
+		this.version = version;
+		this.bidPrices = new int[bidLevels];
+		this.bidSizes = new int[bidLevels];
+		this.bidCounts = new int[bidLevels];
+		this.askPrices = new int[askLevels];
+		this.askSizes = new int[askLevels];
+		this.askCounts = new int[askLevels];
+	}
+	
+	public long getVersion() {
+		return version;
+	}
+	
+	public int[] getBidPrices() {
+		return bidPrices;
+	}
+	
+	public int[] getBidSizes() {
+		return bidSizes;
+	}
+	
+	public int[] getBidCounts() {
+		return bidCounts;
+	}
+	
+	public int[] getAskPrices() {
+		return askPrices;
+	}
+	
+	public int[] getAskSizes() {
+		return askSizes;
+	}
+	
+	public int[] getAskCounts() {
+		return askCounts;
+	}
+}
@@ -0,0 +1,24 @@
+package ProgettoFinale.entities;
+
+//esito di un singolo ordine all'interno di una richiesta batch
+
+public class OrderResult {
+	private long orderId;	//-1 se l'ordine non è stato accettato
+	private int response;	//100 OK, 101 errore
+	
+	//costruttore vuoto per la deserializzazione Gson sul client
+	public OrderResult() {}
+	
+	public OrderResult(long orderId, int response) {
+		this.orderId = orderId;
+		this.response = response;
+	}
+	
+	public long getOrderId() {
+		return orderId;
+	}
+	
+	public int getResponse() {
+		return response;
+	}
+}
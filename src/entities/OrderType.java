@@ -1,8 +1,8 @@
-package ProgettoFinale.entities;
-
-//enum order type
-
-public enum OrderType {
-	ASK,	//Sell
-	BID		//Buy
-}
+package ProgettoFinale.entities;
+
+//enum order type
+
+public enum OrderType {
+	ASK,	//Sell
+	BID		//Buy
+}
@@ -0,0 +1,11 @@
+package ProgettoFinale.entities;
+
+//validità di un ordine: quanto resta nel book (limit o stop), IOC e FOK solo per i limit order
+
+public enum TimeInForce {
+	GTC,	//fino alla cancellazione (default)
+	GTD,	//fino a expireTime
+	DAY,	//fino alla fine della giornata del server
+	IOC,	//esegue subito quanto possibile entro il limite, il residuo viene annullato
+	FOK		//esegue subito tutta la quantità entro il limite oppure niente
+}
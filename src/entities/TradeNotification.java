@@ -1,25 +1,32 @@
-package ProgettoFinale.entities;
-
-import java.util.*;
-
-/**
- * Rappresenta l'oggetto JSON per una notifica di trade
- * Contiene una lista di trade individuali
- */
-
-public class TradeNotification {
-    private final String notification = "closedTrades";
-    private final List<TradeNotificationDetail> trades;
-
-    public TradeNotification(List<TradeNotificationDetail> trades) {
-        this.trades = trades;
-    }
-
-	public List<TradeNotificationDetail> getTrades() {
-		return trades;
-	}
-
-	public String getNotification() {
-		return notification;
-	}
-}
+package ProgettoFinale.entities;
+
+import java.util.*;
+
+/**
+ * Rappresenta l'oggetto JSON per una notifica di trade
+ * Contiene una lista di trade individuali e il numero di sequenza
+ * della notifica (per utente, crescente a partire da 1)
+ */
+
+public class TradeNotification {
+    private final String notification = "closedTrades";
+    private final long seq;
+    private final List<TradeNotificationDetail> trades;
+
+    public TradeNotification(long seq, List<TradeNotificationDetail> trades) {
+        this.seq = seq;
+        this.trades = trades;
+    }
+
+	public List<TradeNotificationDetail> getTrades() {
+		return trades;
+	}
+
+	public String getNotification() {
+		return notification;
+	}
+
+	public long getSeq() {
+		return seq;
+	}
+}
@@ -1,37 +1,84 @@
-package ProgettoFinale.entities;
-
-//classe utente
-
-public class User {
-	private String username;
-	private String password;
-	
-	//volatile garantisce che sia visibile correttamente tra tutti i thread del server
-	private transient volatile boolean loggedIn;	//non verrà ssalvato nel file json
-	
-	public User(String username, String password) {
-		this.username = username;
-		this.password = password;
-		this.loggedIn = false;
-	}
-	
-	public String getUsername() {
-		return username;
-	}
-	
-	public String getPassword() {
-		return password;
-	}
-	
-	public boolean isLoggedIn() {
-		return loggedIn;
-	}
-	
-	public void setPassword(String p) {
-		this.password = p;
-	}
-	
-	public void setLoggedIn(boolean l) {
-		this.loggedIn = l;
-	}
-}
+package ProgettoFinale.entities;
+
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.Base64;
+
+//classe utente
+
+public class User {
+	private static final SecureRandom RANDOM = new SecureRandom();
+	
+	private String username;
+	private String password;	//null per gli utenti ricevuti da gateway, motore o primario
+	//hash SHA-256 con sale (Base64): l'unica credenziale inviata sui collegamenti tra processi
+	private String passwordSalt;
+	private String passwordHash;
+	
+	//volatile garantisce che sia visibile correttamente tra tutti i thread del server
+	private transient volatile boolean loggedIn;	//non verrà ssalvato nel file json
+	
+	public User(String username, String password) {
+		this.username = username;
+		this.password = password;
+		this.loggedIn = false;
+	}
+	
+	public String getUsername() {
+		return username;
+	}
+	
+	public String getPassword() {
+		return password;
+	}
+	
+	public boolean isLoggedIn() {
+		return loggedIn;
+	}
+	
+	public synchronized void setPassword(String p) {
+		this.password = p;
+		this.passwordSalt = null;	//ricalcolato al prossimo invio
+		this.passwordHash = null;
+	}
+	
+	public void setLoggedIn(boolean l) {
+		this.loggedIn = l;
+	}
+	
+	//confronta con la password in chiaro se presente, altrimenti con l'hash ricevuto
+	public synchronized boolean checkPassword(String candidate) {
+		if(candidate == null)
+			return false;
+		if(password != null)
+			return password.equals(candidate);
+		if(passwordHash == null)
+			return false;
+		return MessageDigest.isEqual(Base64.getDecoder().decode(passwordHash),
+				hash(Base64.getDecoder().decode(passwordSalt), candidate));
+	}
+	
+	//copia da inviare a repliche e gateway: solo username e hash con sale, calcolato una volta per password
+	public synchronized User withoutPassword() {
+		if(passwordHash == null && password != null) {
+			byte[] salt = new byte[16];
+			RANDOM.nextBytes(salt);
+			passwordSalt = Base64.getEncoder().encodeToString(salt);
+			passwordHash = Base64.getEncoder().encodeToString(hash(salt, password));
+		}
+		User copy = new User(username, null);
+		copy.passwordSalt = passwordSalt;
+		copy.passwordHash = passwordHash;
+		return copy;
+	}
+	
+	private static byte[] hash(byte[] salt, String password) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(salt);
+			return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);	//SHA-256 è sempre disponibile
+		}
+	}
+}
@@ -1,32 +1,80 @@
-package ProgettoFinale.server;
-
-import ProgettoFinale.entities.*;
-import java.util.*;
-
-//classe per salvare lo stato attivo dell'order book in file JSON
-
-public class ActiveBookState {	//ask, bid e stopOrders
-	private final TreeMap<Integer, Queue<LimitOrder>> asks;
-    private final TreeMap<Integer, Queue<LimitOrder>> bids;
-    private final List<StopOrder> stopOrders;
-
-    public ActiveBookState(TreeMap<Integer, Queue<LimitOrder>> asks, 
-                           TreeMap<Integer, Queue<LimitOrder>> bids, 
-                           List<StopOrder> stopOrders) {
-        this.asks = asks;
-        this.bids = bids;
-        this.stopOrders = stopOrders;
-    }
-
-    public TreeMap<Integer, Queue<LimitOrder>> getAsks() { 
-    	return asks; 
-    }
-    
-    public TreeMap<Integer, Queue<LimitOrder>> getBids() { 
-    	return bids; 
-    }
-    
-    public List<StopOrder> getStopOrders() { 
-    	return stopOrders; 
-    }
-}
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import java.io.*;
+import java.util.*;
+import com.google.gson.*;
+
+//classe per salvare lo stato attivo dell'order book in file JSON
+
+public class ActiveBookState {	//ask, bid e stopOrders
+	private final TreeMap<Integer, Queue<LimitOrder>> asks;
+    private final TreeMap<Integer, Queue<LimitOrder>> bids;
+    private final List<StopOrder> stopOrders;
+
+    public ActiveBookState(TreeMap<Integer, Queue<LimitOrder>> asks, 
+                           TreeMap<Integer, Queue<LimitOrder>> bids, 
+                           List<StopOrder> stopOrders) {
+        this.asks = asks;
+        this.bids = bids;
+        this.stopOrders = stopOrders;
+    }
+
+    public TreeMap<Integer, Queue<LimitOrder>> getAsks() { 
+    	return asks; 
+    }
+    
+    public TreeMap<Integer, Queue<LimitOrder>> getBids() { 
+    	return bids; 
+    }
+    
+    public List<StopOrder> getStopOrders() { 
+    	return stopOrders; 
+    }
+    
+    //carica lo stato attivo dal file, svuotato dopo caricamento; null se assente, vuoto o illeggibile
+    public static ActiveBookState loadFromFile(String filename) {
+		File stateFile = new File(filename); 
+        if (!stateFile.exists()) {
+            return null;
+        }
+
+        ActiveBookState state = null;
+		Gson gson = new Gson();
+		
+		try(FileReader reader = new FileReader(stateFile)){
+			state = gson.fromJson(reader, ActiveBookState.class);
+			
+			if(state == null || 
+				(state.getAsks() == null && state.getBids() == null && state.getStopOrders() == null) ||
+				(state.getAsks().isEmpty() && state.getBids().isEmpty() && state.getStopOrders().isEmpty()))
+				return null;	//file vuoto o senza dati
+		} catch(Exception e) {
+			System.err.println("OrderBook: Errore nel caricamento di " + filename + ". Avvio pulito.");
+            e.printStackTrace();
+            return null; //non procede se il caricamento fallisce
+		}
+		
+		//svuoto file con un JSON vuoto {}
+		try(FileWriter writer = new FileWriter(stateFile)){
+			writer.write("{}");	//sovrascrive
+			System.out.println("OrderBook: Stato " + filename + " caricato e svuotato per sicurezza.");
+		} catch(Exception e) {
+			System.err.println("OrderBook: ATTENZIONE! Impossibile svuotare il file di stato " + filename);
+		}
+		
+		return state;
+	}
+    
+    public void saveToFile(String filename) {
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		
+		try(FileWriter writer = new FileWriter(filename)){
+			gson.toJson(this, writer);
+			System.out.println("OrderBook: Stato attivo salvato con successo su " + filename);
+        } catch (Exception e) {
+            System.err.println("OrderBook: Errore nel salvataggio dello stato attivo.");
+            e.printStackTrace();
+        }
+	}
+}
@@ -0,0 +1,112 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.utils.AsyncLogger;
+import ProgettoFinale.utils.TimingWheel;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Aste a chiamata periodiche di un simbolo, per assorbire i picchi di ordini.
+ *
+ * Alterna matching continuo (interval ms) e fase d'asta (duration ms): in
+ * asta i limit order vengono raccolti nel book senza matching, alla chiusura
+ * il motore li esegue a un unico prezzo di equilibrio (uncrossAuction) e
+ * riprende il matching continuo. I timer sono sulla TimingWheel, le due fasi
+ * vengono accodate sul thread del motore del simbolo come comandi del server:
+ * il CommandRecorder le registra nell'ordine di esecuzione, quindi il replay
+ * riproduce le aste. I trade dell'uncross vengono notificati e salvati come
+ * quelli dei client.
+ *
+ * Alla chiusura del server un'asta in corso viene chiusa prima di salvare lo
+ * stato, così il book salvato non è mai incrociato.
+ */
+
+public class AuctionScheduler {
+	private final SymbolRegistry.SymbolBook book;
+	private final TimingWheel wheel;
+	private final NotificationDispatcher notificationDispatcher;
+	private final ServerMetrics metrics;
+	private final long intervalMs;	//matching continuo tra due aste
+	private final long durationMs;	//raccolta degli ordini
+	private final FillBuffer fills = new FillBuffer();	//usato solo dal thread del motore
+	private volatile TimingWheel.Timer timer;
+	private volatile boolean running = true;
+
+	public AuctionScheduler(SymbolRegistry.SymbolBook book, TimingWheel wheel,
+			NotificationDispatcher notificationDispatcher, ServerMetrics metrics, long intervalMs, long durationMs) {
+		this.book = book;
+		this.wheel = wheel;
+		this.notificationDispatcher = notificationDispatcher;
+		this.metrics = metrics;
+		this.intervalMs = intervalMs;
+		this.durationMs = durationMs;
+	}
+
+	//pianifica la prima asta dopo un intervallo di matching continuo, o la chiusura di quella già aperta (replica promossa)
+	public void start() {
+		if(book.getEngine().isAuction())
+			timer = wheel.schedule(System.currentTimeMillis() + durationMs, () -> enqueue(this::closeAuction));
+		else
+			timer = wheel.schedule(System.currentTimeMillis() + intervalMs, () -> enqueue(this::openAuction));
+	}
+
+	//ferma le aste e accoda la chiusura di quella in corso, prima di symbolRegistry.shutdown(); nulla se non è mai partito
+	public void shutdown() {
+		if(timer == null)	//replica non promossa: l'asta viene chiusa dal primario
+			return;
+		running = false;
+		wheel.cancel(timer);
+		enqueue(this::closeAuction);
+	}
+
+	//thread della wheel: le fasi girano sul thread del motore
+	private void enqueue(Runnable phase) {
+		try {
+			book.getExecutor().execute(phase);
+		} catch(RejectedExecutionException e) {
+			//server in chiusura
+		}
+	}
+
+	private void openAuction() {
+		if(!running)
+			return;
+
+		CommandRecorder.Command command = book.getCommandRecorder().auctionStart();
+		boolean started = false;
+		try {
+			started = book.getEngine().startAuction();
+		} finally {
+			book.getCommandRecorder().record(command, started);
+		}
+		if(started)
+			AsyncLogger.info("Asta " + book.getSymbol() + " aperta per " + durationMs + " ms.");
+
+		timer = wheel.schedule(System.currentTimeMillis() + durationMs, () -> enqueue(this::closeAuction));
+	}
+
+	private void closeAuction() {
+		if(book.getEngine().isAuction()) {
+			fills.clear();
+			CommandRecorder.Command command = book.getCommandRecorder().auctionUncross();
+			int price = 0;
+			try {
+				price = book.getEngine().uncrossAuction(fills);
+			} finally {
+				book.getCommandRecorder().record(command, price);
+			}
+
+			metrics.increment(ServerMetrics.AUCTIONS);
+			AsyncLogger.info("Asta " + book.getSymbol() + " chiusa: " + fills.size() + " trade"
+					+ (price > 0 ? " al prezzo " + price : ", nessun ordine incrociato") + ".");
+
+			if(!fills.isEmpty()) {
+				notificationDispatcher.submit(book.getSymbol(), fills);
+				book.getTradeHistoryStore().append(fills);
+			}
+		}
+
+		if(running)
+			timer = wheel.schedule(System.currentTimeMillis() + intervalMs, () -> enqueue(this::openAuction));
+	}
+}
@@ -0,0 +1,29 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import java.util.*;
+
+/**
+ * Risultato di un'operazione batch sull'order book:
+ * esito di ogni singolo ordine (nello stesso ordine della richiesta)
+ * e lista di tutti i trade generati, compresi quelli degli Stop Order
+ * attivati al termine del batch.
+ */
+
+public class BatchResult {
+	private final List<OrderResult> results;
+	private final List<Trade> trades;
+	
+	public BatchResult(List<OrderResult> results, List<Trade> trades) {
+		this.results = results;
+		this.trades = trades;
+	}
+	
+	public List<OrderResult> getResults() {
+		return results;
+	}
+	
+	public List<Trade> getTrades() {
+		return trades;
+	}
+}
@@ -0,0 +1,57 @@
+package ProgettoFinale.server;
+
+/**
+ * Prezzo di equilibrio dell'asta a chiamata, comune ai motori di matching.
+ *
+ * Riceve le curve aggregate dei livelli incrociati (size totale per livello,
+ * non i singoli ordini) e sceglie tra i loro prezzi quello che massimizza il
+ * volume eseguibile min(domanda, offerta). A parità sceglie il minore
+ * sbilanciamento |domanda - offerta|, poi il prezzo più vicino al punto medio
+ * tra miglior bid e miglior ask, poi il più basso. Un solo passaggio sui
+ * livelli incrociati, in ordine di prezzo crescente.
+ */
+
+final class CallAuction {
+	private CallAuction() {}
+
+	/*
+	 * bid con prezzo >= miglior ask in ordine decrescente, ask con prezzo <= miglior bid
+	 * in ordine crescente (i primi bidCount/askCount elementi); 0 se il book non è incrociato
+	 */
+	static int clearingPrice(int[] bidPrices, long[] bidSizes, int bidCount, int[] askPrices, long[] askSizes, int askCount) {
+		if(bidCount == 0 || askCount == 0 || bidPrices[0] < askPrices[0])
+			return 0;
+
+		long totalDemand = 0;
+		for(int i = 0; i < bidCount; i++)
+			totalDemand += bidSizes[i];
+		long mid = ((long) bidPrices[0] + askPrices[0]) / 2;
+
+		int bestPrice = 0;
+		long bestVolume = -1, bestImbalance = 0, bestDistance = 0;
+		long supply = 0;		//ask con prezzo <= p
+		long demandBelow = 0;	//bid con prezzo < p
+		int a = 0;
+		int b = bidCount - 1;	//bid dal prezzo più basso
+		while(a < askCount || b >= 0) {
+			int price = Math.min(a < askCount ? askPrices[a] : Integer.MAX_VALUE, b >= 0 ? bidPrices[b] : Integer.MAX_VALUE);
+			while(a < askCount && askPrices[a] <= price)
+				supply += askSizes[a++];
+			long demand = totalDemand - demandBelow;
+			if(b >= 0 && bidPrices[b] == price)	//dal prossimo prezzo questo livello non è più domanda
+				demandBelow += bidSizes[b--];
+
+			long volume = Math.min(demand, supply);
+			long imbalance = Math.abs(demand - supply);
+			long distance = Math.abs(price - mid);
+			if(volume > bestVolume || (volume == bestVolume && (imbalance < bestImbalance
+					|| (imbalance == bestImbalance && distance < bestDistance)))) {
+				bestPrice = price;
+				bestVolume = volume;
+				bestImbalance = imbalance;
+				bestDistance = distance;
+			}
+		}
+		return bestPrice;
+	}
+}
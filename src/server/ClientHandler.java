@@ -1,474 +1,984 @@
-package ProgettoFinale.server;
-
-import java.io.*;
-import java.lang.reflect.Type;
-import java.net.*;
-import java.util.*;
-import com.google.gson.*;
-import com.google.gson.reflect.TypeToken;
-
-import ProgettoFinale.entities.*;
-
-/**
- * Runnable che gestisce la comunicazione con un singolo client
- * per l'intera durata della sua connessione.
- *
- * Ogni ClientHandler viene eseguito in un thread separato
- * dal Thread Pool del ServerMain.
- */
-
-public class ClientHandler implements Runnable {
-	private final Socket clientSocket;
-	private final UserManager userManager;
-	private final OrderBook orderBook;
-	private final DatagramSocket udpSocket;
-	
-	private final HistoryManager historyManager;
-	private final String historyFilename;
-	
-	private String loggedInUsername = null;
-	private final Gson gson = new Gson();
-	
-	//oggetto condiviso da tutti i thread per sincronizzare accesso al file storico.
-	private static final Object historyFileLock = new Object();
-	
-	public ClientHandler(Socket socket, UserManager userManager, OrderBook orderBook, 
-			DatagramSocket udpSocket, HistoryManager historyManager, String historyFilename) {
-		this.clientSocket = socket;
-        this.userManager = userManager;
-        this.orderBook = orderBook;
-        this.udpSocket = udpSocket;
-        this.historyManager = historyManager;
-        this.historyFilename = historyFilename;
-	}
-	
-	public void run() {
-		try(InputStreamReader isr = new InputStreamReader(clientSocket.getInputStream());
-			BufferedReader reader = new BufferedReader(isr);
-			PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true);
-			){	//chiusura reader e writer gestita da try-with-resources
-			String requestJson;
-			//legge un comando (riga JSON) alla volta finché il client è connesso
-			while((requestJson = reader.readLine()) != null) {
-				System.out.println("Ricevuto da " + clientSocket.getInetAddress() + ": " + requestJson);
-				
-				//map per la risposta
-				Map<String, Object> response = new HashMap<>();
-				
-				try {
-					//deserializzazione (da string a object)
-					JsonObject request = JsonParser.parseString(requestJson).getAsJsonObject();
-					String operation = request.get("operation").getAsString();
-					
-					switch(operation) {
-					case "register": {
-						JsonObject values = request.getAsJsonObject("values");
-						String username = values.get("username").getAsString();
-						String password = values.get("password").getAsString();
-						
-						int responseCode = userManager.registerUser(username, password);
-						
-						response.put("response", responseCode);
-						response.put("errorMessage", getErrorMessage(responseCode, "register"));
-						break;
-					}
-					case "login":
-						//utente può fare login solo se non è già loggato
-                        if (this.loggedInUsername != null) {
-                        	response.put("response", 102); //already logged in
-                        	response.put("errorMessage", getErrorMessage(102, "login"));
-                            break;
-                        }
-                        
-                        //Estrae valori
-                        JsonObject loginValues = request.getAsJsonObject("values");
-                        String loginUsername = loginValues.get("username").getAsString();
-                        String loginPassword = loginValues.get("password").getAsString();
-                        int udpPort = loginValues.get("udpPort").getAsInt();
-                        
-                        //Ottiene IP dal client del socket TCP
-                        InetAddress clientIp = clientSocket.getInetAddress();
-                        
-                        //Se login ha avuto successo, associa username a questo handler
-                        int loginCode = userManager.loginUser(loginUsername, loginPassword, clientIp, udpPort);
-                        if(loginCode == 100) {	//OK
-                        	this.loggedInUsername = loginUsername;
-                        	System.out.println("Utente " + loginUsername + " loggato su questa connessione.");
-                        }
-                        //Prepara risposta
-                        response.put("response", loginCode);
-                        response.put("errorMessage", getErrorMessage(loginCode, "login"));
-                        break;
-					case "logout":
-						//utente può fare logout solo se è già loggato
-                        if (this.loggedInUsername == null) {
-                        	response.put("response", 101); //errore
-                        	response.put("errorMessage", getErrorMessage(101, "logout"));
-                            break;
-                        } else {
-                        	String logoutUser = this.loggedInUsername;
-                        	this.loggedInUsername = null;
-                        	
-                        	userManager.logoutUser(logoutUser);
-                        	
-                        	response.put("response", 100);
-                        	response.put("errorMessage", getErrorMessage(100, "logout"));
-                        	System.out.println("Utente " + logoutUser + " ha effettuato il logout.");
-                        }
-                        break;
-					case "insertLimitOrder": {
-						if(this.loggedInUsername == null) {
-							response.put("orderId", -1);	//errore
-                            break;
-						}
-						
-						//parsa i dati
-						JsonObject values = request.getAsJsonObject("values");
-						OrderType type = gson.fromJson(values.get("type"), OrderType.class);
-						int size = values.get("size").getAsInt();
-						int price = values.get("price").getAsInt();
-						
-						//crea oggetto order
-						LimitOrder order = new LimitOrder(this.loggedInUsername, type, size, price);
-						
-						List<Trade> trades = orderBook.addLimitOrder(order); //processa
-						
-						response.put("orderId", order.getOrderId());	//risposta
-						
-						//notifica e persiste
-						sendTradeNotifications(trades);
-						persistTrades(trades);
-						
-                        break;
-					}
-					case "insertMarketOrder": {
-						if(this.loggedInUsername == null) {
-							response.put("orderId", -1);
-						}
-						
-						JsonObject values = request.getAsJsonObject("values");
-						OrderType type = gson.fromJson(values.get("type"), OrderType.class);
-						int size = values.get("size").getAsInt();
-						
-						MarketOrder order = new MarketOrder(this.loggedInUsername, type, size);
-						
-						try {
-							List<Trade> trades = orderBook.executeMarketOrder(order);
-							response.put("orderId", order.getOrderId());
-							
-							sendTradeNotifications(trades);
-							persistTrades(trades);
-						} catch(Exception e) {
-							// Ordine fallito (tutto o niente)
-							response.put("orderId", -1);
-						}
-						break;
-					}
-					case "insertStopOrder": {
-						if (this.loggedInUsername == null) {
-                            response.put("orderId", -1);
-                            break;
-                        }
-						
-						JsonObject values = request.getAsJsonObject("values");
-						OrderType type = gson.fromJson(values.get("type"), OrderType.class);
-						int size = values.get("size").getAsInt();
-						int stopPrice = values.get("price").getAsInt();
-						
-						StopOrder order = new StopOrder(this.loggedInUsername, type, size, stopPrice);
-						orderBook.addStopOrder(order);
-						
-						response.put("orderId", order.getOrderId());
-						//nessun trade, quindi nessuna notifica o persistenza
-						
-						break;
-					}
-					case "cancelOrder": {
-						if(this.loggedInUsername == null) {
-							response.put("response", 101);	//Errore
-							response.put("errorMessage", getErrorMessage(101, "cancelOrder"));
-							break;
-						}
-						
-						JsonObject values = request.getAsJsonObject("values");
-						long orderId = values.get("orderId").getAsLong();
-						
-						boolean success = orderBook.cancelOrder(orderId, this.loggedInUsername);
-						
-						if(success) {
-							response.put("response", 100);
-						} else {
-                            response.put("response", 101);
-                        }
-                        response.put("errorMessage", getErrorMessage((int)response.get("response"), "cancelOrder"));
-                        break;
-					}
-					case "getPriceHistory": {
-						if(this.loggedInUsername == null) {
-							response.put("response", 101); //errore
-                            response.put("errorMessage", getErrorMessage(101, "getPriceHistory"));
-                            break;
-						}
-						
-						JsonObject values = request.getAsJsonObject("values");
-						String month = values.get("month").getAsString();	//"MMYYYY"
-						
-						//chiamata al manager
-						Map<String, HistoryManager.OhlcData> data = historyManager.getHistory(month);
-						
-						if (data == null) {
-                            response.put("response", 103); //errore
-                            response.put("errorMessage", getErrorMessage(103, "getPriceHistory"));
-                        } else {
-                            response.put("response", 100);
-                            response.put("month", month);
-                            response.put("ohlcData", gson.toJsonTree(data)); //aggiunge i dati come albero JSON
-                        }
-                        break;
-					}
-					case "updateCredentials": {
-						//si può fare solo da sloggati
-                        if (this.loggedInUsername != null) {
-                            response.put("response", 104); //user logged in
-                            response.put("errorMessage", getErrorMessage(104, "updateCredentials"));
-                            break;
-                        }
-
-                        JsonObject values = request.getAsJsonObject("values");
-                        String username = values.get("username").getAsString();
-                        String oldPass = values.get("old_password").getAsString();
-                        String newPass = values.get("new_password").getAsString();
-                        
-                        int responseCode = userManager.updateCredentials(username, oldPass, newPass);
-                        
-                        response.put("response", responseCode);
-                        response.put("errorMessage", getErrorMessage(responseCode, "updateCredentials"));
-                        break;
-                    }
-					case "getMyActiveOrders": {
-                        if (this.loggedInUsername == null) {
-                            response.put("response", 101);
-                            response.put("errorMessage", getErrorMessage(101, "getMyActiveOrders"));
-                            break;
-                        }
-                       
-                        List<ActiveOrderInfo> activeOrders = orderBook.getActiveOrders(this.loggedInUsername);
-                        
-                        response.put("response", 100);
-                        response.put("activeOrders", gson.toJsonTree(activeOrders));
-                        break;
-                    }
-					case "getOrderBookSnapshot": {
-                        if (this.loggedInUsername == null) {
-                            response.put("response", 101);
-                            response.put("errorMessage", getErrorMessage(101, "getOrderBookSnapshot"));
-                            break;
-                        }
-                        
-                        String snapshotData = orderBook.getOrderBookSnapshot();
-                        
-                        response.put("response", 100);
-                        response.put("snapshot", snapshotData);
-                        break;
-                    }
-                     default:
-                    	 response.put("response", 103); //altri errori
-                         response.put("errorMessage", getErrorMessage(103, "default"));
-					}
-				} catch(Exception e) {
-					System.err.println("Errore parsing JSON o esecuzione: " + e.getMessage());
-                    response.put("response", 103);
-                    response.put("errorMessage", "Error processing request: " + e.getMessage());
-                    e.printStackTrace();
-				}
-				
-				//Serializzazione e invio risposta
-				String jsonResponse = gson.toJson(response);
-				writer.println(jsonResponse);
-			}
-		} catch(IOException e) {
-			System.err.println("Connessione persa con " + clientSocket.getInetAddress() + ": " + e.getMessage());
-		} finally {	//logout in caso di disconnessione
-			if(this.loggedInUsername != null) {
-				userManager.logoutUser(this.loggedInUsername);
-				System.out.println("Logout automatico per: " + this.loggedInUsername);
-			}
-			try {
-				clientSocket.close();	//chiude client socket
-			} catch(IOException e) {
-				//ignora
-			}
-		}		
-	}
-	
-	//invia notifiche di trade via UDP agli utenti coinvolti
-	private void sendTradeNotifications(List<Trade> trades) {
-		if(trades == null || trades.isEmpty())
-			return;
-		
-        //Mappa degli utenti da notificare(evita doppioni)
-        Map<String, UserNotificationInfo> usersToNotify = new HashMap<>(); 
-        
-        for(Trade trade : trades) {	//raccoglie gli utenti da notificare
-        	//cerca info di notifica per il buyer
-        	if(!usersToNotify.containsKey(trade.getBuyerUsername()))
-        		usersToNotify.put(trade.getBuyerUsername(), userManager.getNotificationInfo(trade.getBuyerUsername()));
-        	
-        	//cerca info di notifica per il seller
-        	if(!usersToNotify.containsKey(trade.getSellerUsername()))
-        		usersToNotify.put(trade.getSellerUsername(), userManager.getNotificationInfo(trade.getSellerUsername()));
-        }
-        
-        try {	//itera su utenti da notificare
-    		for(Map.Entry<String, UserNotificationInfo> entry : usersToNotify.entrySet()) {
-    			String username = entry.getKey();
-    			UserNotificationInfo info = entry.getValue();
-    			
-    			if(info == null) {
-    				System.err.println("ClientHandler: Impossibile trovare info di notifica per " 
-    							+ username + " (probabilmente offline).");
-                    continue; // Utente non loggato o info non trovate
-    			}
-    			
-    			//costruisce messaggio contenente trade che riguardano l'utente
-    	        List<TradeNotificationDetail> userTradeDetails = new ArrayList<>();
-    	        for(Trade tradeItem : trades) {
-    	        	if(tradeItem.getBuyerUsername().equals(username)) {
-    	        		//utente BUYER
-    	        		userTradeDetails.add(new TradeNotificationDetail(
-    	        				tradeItem.getBuyOrderId(), "bid",
-    	        				tradeItem.getBuyerOrderType(), 
-    	        				tradeItem.getSize(), tradeItem.getPrice(),
-    	        				tradeItem.getTimestamp()));
-    	        	} else if (tradeItem.getSellerUsername().equals(username)) {
-                        //utente SELLER
-                        userTradeDetails.add(new TradeNotificationDetail(
-                        		tradeItem.getSellOrderId(), "ask", 
-                        		tradeItem.getSellerOrderType(),
-                        		tradeItem.getSize(), tradeItem.getPrice(), 
-                        		tradeItem.getTimestamp()));
-                    }
-    	        }
-    	        
-    	        if(userTradeDetails.isEmpty())
-    	        	continue;	//se nessun trade per questo utente
-    	        
-    	        //costruisce JSON
-    	        TradeNotification notificationPayload = new TradeNotification(userTradeDetails);
-    	        String jsonMessage = gson.toJson(notificationPayload);
-    	        byte[] sendData = jsonMessage.getBytes();
-    	        
-    	        DatagramPacket sendPacket = new DatagramPacket(
-    	        		sendData, sendData.length,
-    	        		info.getIpAddress(), info.getUdpPort());
-    	        
-    	        udpSocket.send(sendPacket);
-    	        System.out.println("Inviata notifica UDP a " + username + " @ " 
-    	        				+ info.getIpAddress() + ":" + info.getUdpPort());
-    		}
-    	} catch(Exception e) {
-    		System.err.println("Errore invio notifica UDP: " + e.getMessage());
-            e.printStackTrace();
-    	}
-	}
-	
-	//salva i trade avvenuti sul file storico JSON, thread safe
-	private void persistTrades(List<Trade> newTrades) {
-		if (newTrades == null || newTrades.isEmpty()) {
-            return;
-        }
-		
-		synchronized(historyFileLock) {
-			try {
-				Gson fileGson = new GsonBuilder().setPrettyPrinting().create();
-				List<Trade> allTrades;
-				
-				//legge trade esistenti
-				try(FileReader reader = new FileReader(historyFilename)){
-					Type tradesListType = new TypeToken<ArrayList<Trade>>() {}.getType();
-					allTrades = fileGson.fromJson(reader, tradesListType);
-				} catch(Exception e) {	
-					allTrades = new ArrayList<>(); //file inesistente
-				}
-				if(allTrades == null)
-					allTrades = new ArrayList<>();	//se file vuoto
-				
-				//aggiunge nuovi trade 
-				allTrades.addAll(newTrades);
-				
-				//scrive intera lista aggiornata nel file JSON
-				try(FileWriter writer = new FileWriter(historyFilename)){
-					fileGson.toJson(allTrades, writer);	//streaming serializer
-				} //catch dal blocco esterno
-				
-				System.out.println("ClientHandler: Salvati " + newTrades.size() + " nuovi trade.");
-
-            } catch (Exception e) {
-                System.err.println("ClientHandler: Errore nel salvataggio dei trade!");
-                e.printStackTrace();
-            }
-		}	//lock rilasciato automaticamente
-	}
-	
-	//mappa i codici di errore ai messaggi in base all'operazione specifica
-	private String getErrorMessage(int code, String operation) {
-        if (code == 100) return "OK";
-
-        switch (operation) {
-            case "register":
-                switch (code) {
-                    case 101: return "Invalid password"; 
-                    case 102: return "Username not available"; 
-                    case 103: return "Other error cases"; 
-                }
-                break;
-            
-            case "login":
-                switch (code) {
-                    case 101: return "Username/password mismatch or non-existent username"; 
-                    case 102: return "User already logged in"; 
-                    case 103: return "Other error cases"; 
-                }
-                break;
-            
-            case "logout":
-                switch (code) {
-                    case 101: return "User not logged in"; 
-                }
-                break;
-            
-            case "cancelOrder":
-                switch (code) {
-                    case 101: return "Order does not exist or belongs to different user or has already been finalized"; 
-                }
-                break;
-            case "getPriceHistory":
-                switch(code) {
-                    case 101: return "User not logged in";
-                    case 103: return "Error reading history data file";
-                }
-                break;
-            case "updateCredentials":
-                switch (code) {
-                    case 101: return "Invalid new password"; 
-                    case 102: return "Username/old_password mismatch or non-existent username"; 
-                    case 103: return "New password equal to old one"; 
-                    case 104: return "User currently logged in"; 
-                }
-                break;
-            case "getMyActiveOrders":
-                if (code == 101) return "User not logged in";
-                break;
-            case "getOrderBookSnapshot":
-                if (code == 101) return "User not logged in";
-                break;
-            default:
-            	break;
-        }
-        
-        //messaggi generici se non specificati
-        if (code == -1) return "Operation failed";
-        
-        return "Unknown error code: " + code;
-    }
-}
+package ProgettoFinale.server;
+
+import java.io.*;
+import java.net.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import com.google.gson.*;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.AsyncLogger;
+import ProgettoFinale.utils.TimingWheel;
+import ProgettoFinale.utils.TokenBucket;
+
+/**
+ * Runnable che gestisce la comunicazione con un singolo client
+ * per l'intera durata della sua connessione.
+ *
+ * Ogni ClientHandler viene eseguito in un thread separato
+ * dal Thread Pool del ServerMain.
+ */
+
+public class ClientHandler implements Runnable {
+	private final Socket clientSocket;
+	private final UserManager userManager;
+	private final SymbolRegistry symbolRegistry;	//order book, storico e registrazione comandi per simbolo
+	private final NotificationDispatcher notificationDispatcher;
+	private final ServerMetrics metrics;
+	private final TimingWheel timers;	//timer della sessione inattiva
+	private final long sessionTimeoutMillis;	//0 = sessioni senza timeout
+	private boolean cancelOnDisconnect;	//cancella gli ordini dell'utente a fine sessione, impostabile al login
+	private final RateLimiter rateLimiter;
+	private final TokenBucket connectionBucket;	//null se il limite per connessione è disattivato
+	private volatile long lastActivity;	//ultima richiesta ricevuta (ms)
+	private volatile TimingWheel.Timer idleTimer;	//ripianificato dal thread della wheel
+	private volatile boolean closed = false;
+	
+	private String loggedInUsername = null;
+	
+	//tempi della richiesta corrente, per l'evento JFR OrderRequest
+	private long requestEngineWait, requestEngine, requestPersist;
+	private String requestSymbol;
+	private final FillBuffer fills = new FillBuffer();	//fill del comando corrente, riusato da tutti i comandi della sessione
+	private final Gson gson = new Gson();
+	
+	//numero massimo di ordini in una singola richiesta batch
+	private static final int MAX_BATCH_SIZE = 100;
+	private static final String UNKNOWN_SYMBOL = "Unknown symbol";
+	
+	//risposta alle richieste oltre il limite di frequenza, pronta per non decodificare né serializzare nulla;
+	//"orderId" -1 perché i client degli inserimenti leggono solo quello
+	private static final String RATE_LIMITED_RESPONSE = "{\"response\":106,\"orderId\":-1,\"errorMessage\":\"Rate limit exceeded\"}";
+	
+	//profondità di default e massima per getOrderBookDepth
+	private static final int DEFAULT_DEPTH = 10;
+	private static final int MAX_DEPTH = 1000;
+	
+	public ClientHandler(Socket socket, UserManager userManager, SymbolRegistry symbolRegistry, 
+			NotificationDispatcher notificationDispatcher, ServerMetrics metrics,
+			TimingWheel timers, long sessionTimeoutMillis, boolean cancelOnDisconnect, RateLimiter rateLimiter) {
+		this.clientSocket = socket;
+        this.userManager = userManager;
+        this.symbolRegistry = symbolRegistry;
+        this.notificationDispatcher = notificationDispatcher;
+        this.metrics = metrics;
+        this.timers = timers;
+        this.sessionTimeoutMillis = sessionTimeoutMillis;
+        this.cancelOnDisconnect = cancelOnDisconnect;
+        this.rateLimiter = rateLimiter;
+        this.connectionBucket = rateLimiter.newConnectionBucket();
+	}
+	
+	public void run() {
+		metrics.sessionOpened();
+		lastActivity = System.currentTimeMillis();
+		if(sessionTimeoutMillis > 0)
+			idleTimer = timers.schedule(lastActivity + sessionTimeoutMillis, this::checkIdle);
+		try(InputStreamReader isr = new InputStreamReader(clientSocket.getInputStream());
+			BufferedReader reader = new BufferedReader(isr);
+			PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true);
+			){	//chiusura reader e writer gestita da try-with-resources
+			String requestJson;
+			//legge un comando (riga JSON) alla volta finché il client è connesso
+			while((requestJson = reader.readLine()) != null) {
+				lastActivity = System.currentTimeMillis();
+				
+				//limiti di frequenza prima di qualsiasi decodifica o lavoro del motore
+				if(!admitRequest()) {
+					metrics.increment(ServerMetrics.REJECTED_RATE_LIMIT);
+					writer.println(RATE_LIMITED_RESPONSE);
+					continue;
+				}
+				
+				OrderTraceEvents.OrderRequest trace = new OrderTraceEvents.OrderRequest();
+				trace.begin();
+				requestEngineWait = requestEngine = requestPersist = 0;
+				requestSymbol = null;
+				
+				if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+					AsyncLogger.debug("Ricevuto da " + clientSocket.getInetAddress() + ": " + requestJson);
+				
+				//map per la risposta
+				Map<String, Object> response = new HashMap<>();
+				
+				try {
+					//deserializzazione (da string a object)
+					long decodeStart = System.nanoTime();
+					JsonObject request = JsonParser.parseString(requestJson).getAsJsonObject();
+					String operation = request.get("operation").getAsString();
+					long decodeTime = System.nanoTime() - decodeStart;
+					metrics.recordNanos(ServerMetrics.DECODE_LATENCY, decodeTime);
+					trace.operation = operation;
+					trace.decode = decodeTime;
+					
+					switch(operation) {
+					case "register": {
+						JsonObject values = request.getAsJsonObject("values");
+						String username = values.get("username").getAsString();
+						String password = values.get("password").getAsString();
+						
+						int responseCode = userManager.registerUser(username, password);
+						
+						response.put("response", responseCode);
+						response.put("errorMessage", getErrorMessage(responseCode, "register"));
+						break;
+					}
+					case "login":
+						//utente può fare login solo se non è già loggato
+                        if (this.loggedInUsername != null) {
+                        	response.put("response", 102); //already logged in
+                        	response.put("errorMessage", getErrorMessage(102, "login"));
+                            break;
+                        }
+                        
+                        //Estrae valori
+                        JsonObject loginValues = request.getAsJsonObject("values");
+                        String loginUsername = loginValues.get("username").getAsString();
+                        String loginPassword = loginValues.get("password").getAsString();
+                        int udpPort = loginValues.get("udpPort").getAsInt();
+                        
+                        //Ottiene IP dal client del socket TCP
+                        InetAddress clientIp = clientSocket.getInetAddress();
+                        
+                        //Se login ha avuto successo, associa username a questo handler
+                        int loginCode = userManager.loginUser(loginUsername, loginPassword, clientIp, udpPort);
+                        if(loginCode == 100) {	//OK
+                        	this.loggedInUsername = loginUsername;
+                        	if(loginValues.has("cancelOnDisconnect"))	//opzionale, altrimenti il default del server
+                        		this.cancelOnDisconnect = loginValues.get("cancelOnDisconnect").getAsBoolean();
+                        	AsyncLogger.info("Utente " + loginUsername + " loggato su questa connessione.");
+                        	//ultima sequenza di notifica, il client la usa per rilevare i buchi
+                        	response.put("lastNotificationSeq", notificationDispatcher.getLog(loginUsername).getLastSeq());
+                        }
+                        //Prepara risposta
+                        response.put("response", loginCode);
+                        response.put("errorMessage", getErrorMessage(loginCode, "login"));
+                        break;
+					case "logout":
+						//utente può fare logout solo se è già loggato
+                        if (this.loggedInUsername == null) {
+                        	response.put("response", 101); //errore
+                        	response.put("errorMessage", getErrorMessage(101, "logout"));
+                            break;
+                        } else {
+                        	String logoutUser = this.loggedInUsername;
+                        	this.loggedInUsername = null;
+                        	
+                        	userManager.logoutUser(logoutUser);
+                        	
+                        	response.put("response", 100);
+                        	response.put("errorMessage", getErrorMessage(100, "logout"));
+                        	AsyncLogger.info("Utente " + logoutUser + " ha effettuato il logout.");
+                        }
+                        break;
+					case "insertLimitOrder": {
+						if(this.loggedInUsername == null) {
+							response.put("orderId", -1);	//errore
+                            break;
+						}
+						
+						//parsa i dati
+						JsonObject values = request.getAsJsonObject("values");
+						SymbolRegistry.SymbolBook book = getBook(values);
+						if(book == null) {
+							response.put("orderId", -1);	//simbolo non negoziato
+							break;
+						}
+						OrderType type = gson.fromJson(values.get("type"), OrderType.class);
+						int size = values.get("size").getAsInt();
+						int price = values.get("price").getAsInt();
+						
+						//crea oggetto order
+						LimitOrder order = new LimitOrder(this.loggedInUsername, type, size, price);
+						if(!applyTimeInForce(order, values)) {
+							response.put("orderId", -1);	//validità non valida o scadenza già passata
+							break;
+						}
+						
+						fills.clear();
+						inEngine(book, riskCheck(book, order, -1), () -> book.getCommandRecorder().limitOrder(order),
+								() -> { book.getCommands().addLimitOrder(order, fills); return null; }); //processa
+						metrics.increment(ServerMetrics.ORDERS_LIMIT);
+						
+						if(order.getTimeInForce() == TimeInForce.FOK && order.getSize() > 0) {
+							metrics.increment(ServerMetrics.KILLED_FOK);	//non eseguibile per intero, book invariato
+							response.put("orderId", -1);
+						} else
+							response.put("orderId", order.getOrderId());	//risposta
+						
+						//notifica (asincrona) e persiste
+						publishTrades(book, fills);
+						
+                        break;
+					}
+					case "insertMarketOrder": {
+						if(this.loggedInUsername == null) {
+							response.put("orderId", -1);
+						}
+						
+						JsonObject values = request.getAsJsonObject("values");
+						SymbolRegistry.SymbolBook book = getBook(values);
+						if(book == null) {
+							response.put("orderId", -1);
+							break;
+						}
+						OrderType type = gson.fromJson(values.get("type"), OrderType.class);
+						int size = values.get("size").getAsInt();
+						
+						MarketOrder order = new MarketOrder(this.loggedInUsername, type, size);
+						
+						metrics.increment(ServerMetrics.ORDERS_MARKET);
+						try {
+							fills.clear();
+							inEngine(book, () -> book.getCommandRecorder().marketOrder(order),
+									() -> { book.getCommands().executeMarketOrder(order, fills); return null; });
+							response.put("orderId", order.getOrderId());
+							
+							publishTrades(book, fills);
+						} catch(Exception e) {
+							// Ordine fallito (tutto o niente)
+							metrics.increment(ServerMetrics.FAILED_MARKET);
+							response.put("orderId", -1);
+						}
+						break;
+					}
+					case "insertStopOrder": {
+						if (this.loggedInUsername == null) {
+                            response.put("orderId", -1);
+                            break;
+                        }
+						
+						JsonObject values = request.getAsJsonObject("values");
+						SymbolRegistry.SymbolBook book = getBook(values);
+						if(book == null) {
+							response.put("orderId", -1);
+							break;
+						}
+						OrderType type = gson.fromJson(values.get("type"), OrderType.class);
+						int size = values.get("size").getAsInt();
+						int stopPrice = values.get("price").getAsInt();
+						
+						StopOrder order = new StopOrder(this.loggedInUsername, type, size, stopPrice);
+						if(!applyTimeInForce(order, values)) {
+							response.put("orderId", -1);
+							break;
+						}
+						inEngine(book, riskCheck(book, order, -1), () -> book.getCommandRecorder().stopOrder(order),
+								() -> { book.getCommands().addStopOrder(order); return null; });
+						metrics.increment(ServerMetrics.ORDERS_STOP);
+						
+						response.put("orderId", order.getOrderId());
+						//nessun trade, quindi nessuna notifica o persistenza
+						
+						break;
+					}
+					case "cancelOrder": {
+						if(this.loggedInUsername == null) {
+							response.put("response", 101);	//Errore
+							response.put("errorMessage", getErrorMessage(101, "cancelOrder"));
+							break;
+						}
+						
+						JsonObject values = request.getAsJsonObject("values");
+						SymbolRegistry.SymbolBook book = getBook(values);
+						if(book == null) {
+							response.put("response", 103);
+							response.put("errorMessage", UNKNOWN_SYMBOL);
+							break;
+						}
+						long orderId = values.get("orderId").getAsLong();
+						
+						fills.clear();
+						boolean success = inEngine(book, () -> book.getCommandRecorder().cancelOrder(orderId, this.loggedInUsername),
+								() -> book.getCommands().cancelOrder(orderId, this.loggedInUsername, fills));
+						
+						if(success) {
+							metrics.increment(ServerMetrics.CANCELS);
+							response.put("response", 100);
+						} else {
+                            response.put("response", 101);
+                        }
+                        response.put("errorMessage", getErrorMessage((int)response.get("response"), "cancelOrder"));
+                        
+                        //la cancellazione può attivare Stop Order
+                        publishTrades(book, fills);
+                        break;
+					}
+					case "amendOrder": {
+						if(this.loggedInUsername == null) {
+							response.put("response", 101);
+							response.put("errorMessage", getErrorMessage(101, "amendOrder"));
+							break;
+						}
+						
+						JsonObject values = request.getAsJsonObject("values");
+						SymbolRegistry.SymbolBook book = getBook(values);
+						long orderId = values.get("orderId").getAsLong();
+						int size = values.has("size") ? values.get("size").getAsInt() : 0;
+						int price = values.has("price") ? values.get("price").getAsInt() : 0;	//0: prezzo invariato
+						if(book == null || size <= 0 || price < 0) {
+							response.put("response", 103);
+							response.put("errorMessage", book == null ? UNKNOWN_SYMBOL : getErrorMessage(103, "amendOrder"));
+							break;
+						}
+						RiskManager riskManager = book.getRiskManager();
+						
+						fills.clear();
+						boolean success = inEngine(book,
+								riskManager != null ? () -> riskManager.allowsAmend(this.loggedInUsername, orderId, size, price) : null,
+								() -> book.getCommandRecorder().amendOrder(orderId, this.loggedInUsername, size, price),
+								() -> book.getCommands().amendOrder(orderId, this.loggedInUsername, size, price, fills));
+						if(success)
+							metrics.increment(ServerMetrics.AMENDS);
+						
+						response.put("response", success ? 100 : 101);
+						response.put("errorMessage", getErrorMessage(success ? 100 : 101, "amendOrder"));
+						
+						//con un nuovo prezzo l'ordine può eseguire o attivare Stop Order
+						publishTrades(book, fills);
+						break;
+					}
+					case "insertOrders": {
+						if(this.loggedInUsername == null) {
+							response.put("response", 101);
+							response.put("errorMessage", getErrorMessage(101, "insertOrders"));
+							break;
+						}
+						
+						//un batch si riferisce a un solo simbolo
+						SymbolRegistry.SymbolBook book = getBook(request.getAsJsonObject("values"));
+						JsonArray ordersArray = request.getAsJsonObject("values").getAsJsonArray("orders");
+						if(book == null || ordersArray == null || ordersArray.size() == 0 || ordersArray.size() > MAX_BATCH_SIZE) {
+							response.put("response", 103);
+							response.put("errorMessage", book == null ? UNKNOWN_SYMBOL : getErrorMessage(103, "insertOrders"));
+							break;
+						}
+						
+						//ordini non validi vengono scartati prima di arrivare all'order book
+						List<LimitOrder> validOrders = new ArrayList<>();
+						LimitOrder[] parsedOrders = new LimitOrder[ordersArray.size()];
+						for(int i = 0; i < ordersArray.size(); i++) {
+							parsedOrders[i] = parseLimitOrder(ordersArray.get(i).getAsJsonObject());
+							if(parsedOrders[i] != null)
+								validOrders.add(parsedOrders[i]);
+						}
+						
+						//così come quelli oltre i limiti di rischio, contando anche i precedenti del batch (sul thread del motore)
+						Set<LimitOrder> riskRejected = Collections.newSetFromMap(new IdentityHashMap<>());
+						RiskManager riskManager = book.getRiskManager();
+						BooleanSupplier riskCheck = riskManager == null ? null : () -> {
+							boolean[] allowed = riskManager.allowsAll(this.loggedInUsername, validOrders);
+							for(int i = 0; i < allowed.length; i++)
+								if(!allowed[i])
+									riskRejected.add(validOrders.get(i));
+							validOrders.removeAll(riskRejected);
+							return true;	//gli ordini accettati vengono eseguiti
+						};
+						
+						fills.clear();
+						List<OrderResult> batchResults = inEngine(book, riskCheck,
+								() -> book.getCommandRecorder().limitOrders(validOrders, this.loggedInUsername),
+								() -> book.getCommands().addLimitOrders(validOrders, fills));	//un solo passaggio nell'order book
+						metrics.add(ServerMetrics.REJECTED_RISK, riskRejected.size());
+						metrics.add(ServerMetrics.ORDERS_LIMIT, validOrders.size());
+						for(OrderResult result : batchResults)
+							if(result.getResponse() == 101)	//FOK non eseguito
+								metrics.increment(ServerMetrics.KILLED_FOK);
+						
+						//risultati nello stesso ordine della richiesta
+						List<OrderResult> results = new ArrayList<>(parsedOrders.length);
+						Iterator<OrderResult> validResults = batchResults.iterator();
+						for(LimitOrder order : parsedOrders) {
+							if(order == null)
+								results.add(new OrderResult(-1, 101));
+							else if(riskRejected.contains(order))
+								results.add(new OrderResult(-1, 107));
+							else
+								results.add(validResults.next());
+						}
+						
+						response.put("response", 100);
+						response.put("results", gson.toJsonTree(results));
+						
+						publishTrades(book, fills);
+						break;
+					}
+					case "cancelOrders": {
+						if(this.loggedInUsername == null) {
+							response.put("response", 101);
+							response.put("errorMessage", getErrorMessage(101, "cancelOrders"));
+							break;
+						}
+						
+						SymbolRegistry.SymbolBook book = getBook(request.getAsJsonObject("values"));
+						JsonArray idsArray = request.getAsJsonObject("values").getAsJsonArray("orderIds");
+						if(book == null || idsArray == null || idsArray.size() == 0 || idsArray.size() > MAX_BATCH_SIZE) {
+							response.put("response", 103);
+							response.put("errorMessage", book == null ? UNKNOWN_SYMBOL : getErrorMessage(103, "cancelOrders"));
+							break;
+						}
+						
+						List<Long> orderIds = new ArrayList<>(idsArray.size());
+						for(JsonElement id : idsArray)
+							orderIds.add(id.getAsLong());
+						
+						fills.clear();
+						List<OrderResult> batchResults = inEngine(book, () -> book.getCommandRecorder().cancelOrders(orderIds, this.loggedInUsername),
+								() -> book.getCommands().cancelOrders(orderIds, this.loggedInUsername, fills));
+						for(OrderResult result : batchResults)
+							if(result.getResponse() == 100)
+								metrics.increment(ServerMetrics.CANCELS);
+						
+						response.put("response", 100);
+						response.put("results", gson.toJsonTree(batchResults));
+						
+						//le cancellazioni possono attivare Stop Order
+						publishTrades(book, fills);
+						break;
+					}
+					case "cancelReplaceOrder": {
+						if(this.loggedInUsername == null) {
+							response.put("response", 101);
+							response.put("errorMessage", getErrorMessage(101, "cancelReplaceOrder"));
+							break;
+						}
+						
+						JsonObject values = request.getAsJsonObject("values");
+						SymbolRegistry.SymbolBook book = getBook(values);
+						long orderId = values.get("orderId").getAsLong();
+						LimitOrder replacement = parseLimitOrder(values);
+						if(book == null || replacement == null) {
+							response.put("response", 103);
+							response.put("errorMessage", book == null ? UNKNOWN_SYMBOL : getErrorMessage(103, "cancelReplaceOrder"));
+							break;
+						}
+						
+						fills.clear();	//oltre i limiti di rischio l'ordine originale resta nel book
+						List<OrderResult> batchResults = inEngine(book, riskCheck(book, replacement, orderId),
+								() -> book.getCommandRecorder().cancelReplaceOrder(orderId, this.loggedInUsername, replacement),
+								() -> book.getCommands().cancelReplaceOrder(orderId, this.loggedInUsername, replacement, fills));
+						int replaceCode = batchResults.get(0).getResponse();
+						
+						response.put("response", replaceCode);
+						response.put("errorMessage", getErrorMessage(replaceCode, "cancelReplaceOrder"));
+						response.put("results", gson.toJsonTree(batchResults));
+						
+						publishTrades(book, fills);
+						break;
+					}
+					case "getPriceHistory": {
+						if(this.loggedInUsername == null) {
+							response.put("response", 101); //errore
+                            response.put("errorMessage", getErrorMessage(101, "getPriceHistory"));
+                            break;
+						}
+						
+						JsonObject values = request.getAsJsonObject("values");
+						SymbolRegistry.SymbolBook book = getBook(values);
+						String month = values.get("month").getAsString();	//"MMYYYY"
+						
+						//chiamata al manager del simbolo
+						Map<String, HistoryManager.OhlcData> data = book != null ? book.getHistoryManager().getHistory(month) : null;
+						
+						if (data == null) {
+                            response.put("response", 103); //errore
+                            response.put("errorMessage", book == null ? UNKNOWN_SYMBOL : getErrorMessage(103, "getPriceHistory"));
+                        } else {
+                            response.put("response", 100);
+                            response.put("month", month);
+                            response.put("ohlcData", gson.toJsonTree(data)); //aggiunge i dati come albero JSON
+                        }
+                        break;
+					}
+					case "updateCredentials": {
+						//si può fare solo da sloggati
+                        if (this.loggedInUsername != null) {
+                            response.put("response", 104); //user logged in
+                            response.put("errorMessage", getErrorMessage(104, "updateCredentials"));
+                            break;
+                        }
+
+                        JsonObject values = request.getAsJsonObject("values");
+                        String username = values.get("username").getAsString();
+                        String oldPass = values.get("old_password").getAsString();
+                        String newPass = values.get("new_password").getAsString();
+                        
+                        int responseCode = userManager.updateCredentials(username, oldPass, newPass);
+                        
+                        response.put("response", responseCode);
+                        response.put("errorMessage", getErrorMessage(responseCode, "updateCredentials"));
+                        break;
+                    }
+					case "getMyActiveOrders": {
+                        if (this.loggedInUsername == null) {
+                            response.put("response", 101);
+                            response.put("errorMessage", getErrorMessage(101, "getMyActiveOrders"));
+                            break;
+                        }
+                       
+                        SymbolRegistry.SymbolBook book = getBook(request.getAsJsonObject("values"));
+                        if (book == null) {
+                        	response.put("response", 103);
+                        	response.put("errorMessage", UNKNOWN_SYMBOL);
+                        	break;
+                        }
+                        List<ActiveOrderInfo> activeOrders = book.getCommands().getActiveOrders(this.loggedInUsername);
+                        
+                        response.put("response", 100);
+                        response.put("activeOrders", gson.toJsonTree(activeOrders));
+                        break;
+                    }
+					case "replayNotifications": {
+                        if (this.loggedInUsername == null) {
+                            response.put("response", 101);
+                            response.put("errorMessage", getErrorMessage(101, "replayNotifications"));
+                            break;
+                        }
+                        
+                        long fromSeq = request.getAsJsonObject("values").get("fromSeq").getAsLong();
+                        NotificationLog log = notificationDispatcher.getLog(this.loggedInUsername);
+                        
+                        //se fromSeq < firstAvailableSeq alcune notifiche non sono più recuperabili
+                        response.put("response", 100);
+                        response.put("firstAvailableSeq", log.getFirstAvailableSeq());
+                        response.put("notifications", gson.toJsonTree(log.replayFrom(fromSeq)));
+                        break;
+                    }
+					case "getOrderBookSnapshot": {
+                        if (this.loggedInUsername == null) {
+                            response.put("response", 101);
+                            response.put("errorMessage", getErrorMessage(101, "getOrderBookSnapshot"));
+                            break;
+                        }
+                        
+                        SymbolRegistry.SymbolBook book = getBook(request.getAsJsonObject("values"));
+                        if (book == null) {
+                        	response.put("response", 103);
+                        	response.put("errorMessage", UNKNOWN_SYMBOL);
+                        	break;
+                        }
+                        String snapshotData = book.getCommands().getOrderBookSnapshot();
+                        
+                        response.put("response", 100);
+                        response.put("snapshot", snapshotData);
+                        break;
+                    }
+					case "getOrderBookDepth": {
+                        if (this.loggedInUsername == null) {
+                            response.put("response", 101);
+                            response.put("errorMessage", getErrorMessage(101, "getOrderBookDepth"));
+                            break;
+                        }
+                        
+                        //parametri opzionali: depth (livelli per lato) e version (ultima versione nota al client)
+                        JsonObject values = request.getAsJsonObject("values");
+                        SymbolRegistry.SymbolBook book = getBook(values);
+                        if (book == null) {
+                        	response.put("response", 103);
+                        	response.put("errorMessage", UNKNOWN_SYMBOL);
+                        	break;
+                        }
+                        int depth = DEFAULT_DEPTH;
+                        long knownVersion = -1;
+                        if (values != null && values.has("depth"))
+                        	depth = Math.max(1, Math.min(MAX_DEPTH, values.get("depth").getAsInt()));
+                        if (values != null && values.has("version"))
+                        	knownVersion = values.get("version").getAsLong();
+                        
+                        OrderBookDepth snapshot = book.getCommands().getOrderBookDepth(depth, knownVersion);
+                        
+                        if (snapshot == null) {	//book non modificato
+                        	response.put("response", 105);
+                        	response.put("errorMessage", getErrorMessage(105, "getOrderBookDepth"));
+                        	response.put("version", knownVersion);
+                        } else {
+                        	response.put("response", 100);
+                        	response.put("book", gson.toJsonTree(snapshot));
+                        }
+                        break;
+                    }
+					case "getServerStats": {
+                        if (this.loggedInUsername == null) {
+                            response.put("response", 101);
+                            response.put("errorMessage", getErrorMessage(101, "getServerStats"));
+                            break;
+                        }
+                        
+                        response.put("response", 100);
+                        response.put("stats", gson.toJsonTree(metrics.snapshot()));
+                        break;
+                    }
+                     default:
+                    	 response.put("response", 103); //altri errori
+                         response.put("errorMessage", getErrorMessage(103, "default"));
+					}
+				} catch(RiskManager.LimitExceededException e) {	//limiti di rischio, controllati sul thread del motore (o dal processo del motore)
+					response.clear();
+					riskRejected(response);
+				} catch(RejectedExecutionException e) {	//coda dei motori piena, il comando non è stato eseguito
+					metrics.increment(ServerMetrics.REJECTED_OVERLOAD);
+					response.clear();
+					response.put("response", 106);
+					response.put("orderId", -1);
+					response.put("errorMessage", "Server overloaded, retry later");
+				} catch(Exception e) {
+					AsyncLogger.warn("Errore parsing JSON o esecuzione: " + e);
+                    response.put("response", 103);
+                    response.put("errorMessage", "Error processing request: " + e.getMessage());
+				}
+				
+				//Serializzazione e invio risposta
+				String jsonResponse = gson.toJson(response);
+				writer.println(jsonResponse);
+				
+				if(trace.shouldCommit()) {
+					trace.user = this.loggedInUsername;
+					Object orderId = response.get("orderId");
+					trace.orderId = orderId instanceof Number ? ((Number) orderId).longValue() : -1;
+					trace.symbol = requestSymbol;
+					trace.engineWait = requestEngineWait;
+					trace.engine = requestEngine;
+					trace.persist = requestPersist;
+					trace.commit();
+				}
+			}
+		} catch(IOException e) {
+			AsyncLogger.info("Connessione persa con " + clientSocket.getInetAddress() + ": " + e.getMessage());
+		} finally {	//logout in caso di disconnessione
+			closed = true;
+			if(idleTimer != null)
+				timers.cancel(idleTimer);
+			if(this.loggedInUsername != null) {
+				if(cancelOnDisconnect)
+					cancelAllOrders(this.loggedInUsername);
+				userManager.logoutUser(this.loggedInUsername);
+				AsyncLogger.info("Logout automatico per: " + this.loggedInUsername);
+			}
+			try {
+				clientSocket.close();	//chiude client socket
+			} catch(IOException e) {
+				//ignora
+			}
+			metrics.sessionClosed();
+		}		
+	}
+	
+	//cancel-on-disconnect: un solo comando per simbolo, gli ordini vengono presi dall'indice per utente del motore
+	private void cancelAllOrders(String username) {
+		for(SymbolRegistry.SymbolBook book : symbolRegistry.getAll()) {
+			try {
+				fills.clear();
+				List<OrderResult> results = inEngine(book, null, () -> book.getCommandRecorder().cancelAllOrders(username),
+						() -> book.getCommands().cancelAllOrders(username, fills), false);	//non soggetto alla coda limitata
+				if(!results.isEmpty()) {
+					metrics.add(ServerMetrics.CANCELS_ON_DISCONNECT, results.size());
+					AsyncLogger.info("Cancellati " + results.size() + " ordini di " + username + " (" + book.getSymbol() + ") alla disconnessione.");
+				}
+				publishTrades(book, fills);	//le cancellazioni possono attivare Stop Order
+			} catch(Exception e) {	//es. server in chiusura: gli ordini restano nello stato salvato
+				AsyncLogger.warn("Cancel-on-disconnect di " + username + " (" + book.getSymbol() + ") non eseguito: " + e);
+			}
+		}
+	}
+	
+	//limiti di rischio per un nuovo ordine (che sostituisce replacedId, -1 se nessuno), null se disattivati
+	private static BooleanSupplier riskCheck(SymbolRegistry.SymbolBook book, Order order, long replacedId) {
+		RiskManager riskManager = book.getRiskManager();
+		return riskManager != null ? () -> riskManager.allows(order, replacedId) : null;
+	}
+	
+	//risposta 107, con "orderId" -1 per i client degli inserimenti
+	private void riskRejected(Map<String, Object> response) {
+		metrics.increment(ServerMetrics.REJECTED_RISK);
+		response.put("response", 107);
+		response.put("orderId", -1);
+		response.put("errorMessage", "Risk limit exceeded");
+	}
+	
+	//token della connessione e, dopo il login, dell'utente
+	private boolean admitRequest() {
+		if(connectionBucket != null && !connectionBucket.tryAcquire())
+			return false;
+		return this.loggedInUsername == null || rateLimiter.tryAcquire(this.loggedInUsername);
+	}
+	
+	/*
+	 * thread della wheel: chiude la connessione se non arrivano richieste da sessionTimeoutMillis,
+	 * altrimenti ripianifica il controllo sull'ultima attività (le richieste aggiornano solo
+	 * lastActivity, nessuna operazione sulla wheel per richiesta)
+	 */
+	private void checkIdle() {
+		if(closed)
+			return;
+		long idleDeadline = lastActivity + sessionTimeoutMillis;
+		if(System.currentTimeMillis() < idleDeadline) {
+			idleTimer = timers.schedule(idleDeadline, this::checkIdle);
+			return;
+		}
+		
+		metrics.increment(ServerMetrics.SESSIONS_EVICTED);
+		AsyncLogger.info("Sessione inattiva da " + sessionTimeoutMillis + " ms, chiusura connessione con " + clientSocket.getInetAddress());
+		try {
+			clientSocket.close();	//readLine fallisce e run esegue il logout
+		} catch(IOException e) {
+			//ignora
+		}
+	}
+	
+	//order book indicato dal campo opzionale "symbol" dei valori (senza simbolo quello di default),
+	//null se il simbolo non è negoziato
+	private SymbolRegistry.SymbolBook getBook(JsonObject values) {
+		String symbol = null;
+		if(values != null && values.has("symbol"))
+			symbol = values.get("symbol").getAsString().toUpperCase();
+		SymbolRegistry.SymbolBook book = symbolRegistry.get(symbol);
+		if(book != null)
+			requestSymbol = book.getSymbol();
+		return book;
+	}
+	
+	//esegue una chiamata sul thread del motore che gestisce il simbolo misurando separatamente l'attesa in coda
+	//e il tempo nel motore, il comando (null se la registrazione è disattivata) viene creato e registrato sullo stesso thread
+	private <T> T inEngine(SymbolRegistry.SymbolBook book, Supplier<CommandRecorder.Command> command, Callable<T> call) throws Exception {
+		return inEngine(book, null, command, call, true);
+	}
+	
+	//riskCheck (null se nessuno) viene controllato sul thread del motore prima del comando: se false il comando
+	//non viene eseguito né registrato e viene lanciata RiskManager.LimitExceededException
+	private <T> T inEngine(SymbolRegistry.SymbolBook book, BooleanSupplier riskCheck, Supplier<CommandRecorder.Command> command,
+			Callable<T> call) throws Exception {
+		return inEngine(book, riskCheck, command, call, true);
+	}
+	
+	//admit: il comando occupa un posto nella coda limitata dei motori, RejectedExecutionException se è piena
+	private <T> T inEngine(SymbolRegistry.SymbolBook book, BooleanSupplier riskCheck, Supplier<CommandRecorder.Command> command,
+			Callable<T> call, boolean admit) throws Exception {
+		if(admit && !symbolRegistry.tryAdmit())
+			throw new RejectedExecutionException("Engine queue full");
+		
+		if(book.isRemote()) {	//gateway: inoltrato dal thread della sessione, controllato e registrato dal processo del motore
+			long started = System.nanoTime();
+			try {
+				return call.call();
+			} finally {
+				if(admit)
+					symbolRegistry.release();
+				long roundTrip = System.nanoTime() - started;
+				metrics.recordNanos(ServerMetrics.ENGINE_LATENCY, roundTrip);
+				requestEngine += roundTrip;
+			}
+		}
+		
+		long submitted = System.nanoTime();
+		long[] times = new long[2];	//[inizio esecuzione, tempo nel motore]
+		Future<T> future;
+		try {
+			future = book.getExecutor().submit(() -> {
+				long started = System.nanoTime();
+				times[0] = started;
+				try {
+					if(riskCheck != null && !riskCheck.getAsBoolean())
+						throw new RiskManager.LimitExceededException();
+					CommandRecorder.Command recorded = command.get();
+					T result = null;
+					try {
+						result = call.call();
+						return result;
+					} finally {
+						book.getCommandRecorder().record(recorded, result);	//anche se fallito (es. market order senza liquidità)
+					}
+				} finally {
+					times[1] = System.nanoTime() - started;
+					if(admit)
+						symbolRegistry.release();
+				}
+			});
+		} catch(RejectedExecutionException e) {	//server in chiusura
+			if(admit)
+				symbolRegistry.release();
+			throw e;
+		}
+		
+		try {
+			return future.get();
+		} catch(ExecutionException e) {	//rilancia l'eccezione originale del motore
+			Throwable cause = e.getCause();
+			if(cause instanceof Exception)
+				throw (Exception) cause;
+			throw e;
+		} finally {	//future.get() garantisce la visibilità dei tempi scritti dal thread del motore
+			if(times[0] != 0) {
+				metrics.recordNanos(ServerMetrics.ENGINE_WAIT, times[0] - submitted);
+				metrics.recordNanos(ServerMetrics.ENGINE_LATENCY, times[1]);
+				requestEngineWait += times[0] - submitted;
+				requestEngine += times[1];
+			}
+		}
+	}
+	
+	//notifica (asincrona) i fill del comando e li persiste sul file dello storico del simbolo
+	private void publishTrades(SymbolRegistry.SymbolBook book, FillBuffer fills) {
+		if(fills.isEmpty())
+			return;
+		notificationDispatcher.submit(book.getSymbol(), fills);
+		
+		OrderTraceEvents.Persist trace = new OrderTraceEvents.Persist();
+		trace.begin();
+		long start = System.nanoTime();
+		book.getTradeHistoryStore().append(fills);
+		long persistTime = System.nanoTime() - start;
+		metrics.recordNanos(ServerMetrics.PERSIST_LATENCY, persistTime);
+		requestPersist += persistTime;
+		
+		if(trace.shouldCommit()) {
+			trace.trades = fills.size();
+			trace.commit();
+		}
+	}
+	
+	//costruisce un limit order dai valori JSON (type, size, price, validità), null se i valori non sono validi
+	private LimitOrder parseLimitOrder(JsonObject values) {
+		try {
+			OrderType type = gson.fromJson(values.get("type"), OrderType.class);
+			int size = values.get("size").getAsInt();
+			int price = values.get("price").getAsInt();
+			
+			if(type == null || size <= 0 || price <= 0)
+				return null;
+			
+			LimitOrder order = new LimitOrder(this.loggedInUsername, type, size, price);
+			return applyTimeInForce(order, values) ? order : null;
+		} catch(Exception e) {	//campo mancante o non numerico
+			return null;
+		}
+	}
+	
+	/*
+	 * validità dai campi opzionali "timeInForce" (GTC di default, GTD, DAY, IOC e FOK solo per
+	 * i limit order) ed "expireTime" (ms epoch, obbligatorio per GTD): imposta validità e scadenza
+	 * dell'ordine, false se i valori non sono validi o la scadenza è già passata
+	 */
+	private boolean applyTimeInForce(Order order, JsonObject values) {
+		TimeInForce timeInForce = values.has("timeInForce") 
+				? gson.fromJson(values.get("timeInForce"), TimeInForce.class) : TimeInForce.GTC;
+		if(timeInForce == null)
+			return false;
+		
+		switch(timeInForce) {
+		case GTD: {
+			long expireTime = values.has("expireTime") ? values.get("expireTime").getAsLong() : -1;
+			if(expireTime <= System.currentTimeMillis())
+				return false;
+			order.setExpireTime(expireTime);
+			break;
+		}
+		case DAY:	//mezzanotte nel fuso orario del server
+			order.setExpireTime(LocalDate.now().plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+			break;
+		case IOC:
+		case FOK:	//non restano mai nel book, quindi niente scadenza
+			if(!(order instanceof LimitOrder))
+				return false;
+			break;
+		default:
+			break;
+		}
+		order.setTimeInForce(timeInForce);
+		return true;
+	}
+	
+	//mappa i codici di errore ai messaggi in base all'operazione specifica
+	private String getErrorMessage(int code, String operation) {
+        if (code == 100) return "OK";
+
+        switch (operation) {
+            case "register":
+                switch (code) {
+                    case 101: return "Invalid password"; 
+                    case 102: return "Username not available"; 
+                    case 103: return "Other error cases"; 
+                }
+                break;
+            
+            case "login":
+                switch (code) {
+                    case 101: return "Username/password mismatch or non-existent username"; 
+                    case 102: return "User already logged in"; 
+                    case 103: return "Other error cases"; 
+                }
+                break;
+            
+            case "logout":
+                switch (code) {
+                    case 101: return "User not logged in"; 
+                }
+                break;
+            
+            case "cancelOrder":
+                switch (code) {
+                    case 101: return "Order does not exist or belongs to different user or has already been finalized"; 
+                }
+                break;
+            case "amendOrder":
+                switch (code) {
+                    case 101: return "Order does not exist or belongs to different user or has already been finalized";
+                    case 103: return "Invalid size or price";
+                }
+                break;
+            case "insertOrders":
+            case "cancelOrders":
+                switch (code) {
+                    case 101: return "User not logged in";
+                    case 103: return "Empty batch or more than " + MAX_BATCH_SIZE + " orders";
+                }
+                break;
+            case "cancelReplaceOrder":
+                switch (code) {
+                    case 101: return "Order does not exist or belongs to different user or has already been finalized";
+                    case 103: return "Invalid replacement order";
+                }
+                break;
+            case "getPriceHistory":
+                switch(code) {
+                    case 101: return "User not logged in";
+                    case 103: return "Error reading history data file";
+                }
+                break;
+            case "updateCredentials":
+                switch (code) {
+                    case 101: return "Invalid new password"; 
+                    case 102: return "Username/old_password mismatch or non-existent username"; 
+                    case 103: return "New password equal to old one"; 
+                    case 104: return "User currently logged in"; 
+                }
+                break;
+            case "getMyActiveOrders":
+                if (code == 101) return "User not logged in";
+                break;
+            case "getOrderBookSnapshot":
+            case "replayNotifications":
+            case "getServerStats":
+                if (code == 101) return "User not logged in";
+                break;
+            case "getOrderBookDepth":
+                switch (code) {
+                    case 101: return "User not logged in";
+                    case 105: return "Not modified";
+                }
+                break;
+            default:
+            	break;
+        }
+        
+        //messaggi generici se non specificati
+        if (code == -1) return "Operation failed";
+        
+        return "Unknown error code: " + code;
+    }
+}
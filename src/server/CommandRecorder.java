@@ -0,0 +1,306 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import com.google.gson.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Registra su file (una riga JSON per comando) la sequenza dei comandi
+ * eseguiti dall'order book, con gli id assegnati e i trade prodotti.
+ *
+ * Il file può essere rieseguito offline da ProgettoFinale.bench.ReplayHarness
+ * per verificare che il motore produca gli stessi trade e misurarne il throughput.
+ *
+ * La prima riga ("op":"start") contiene il contatore iniziale degli id
+ * e l'eventuale copia dello stato del book all'avvio (bookFile);
+ * i comandi vanno registrati sotto il lock dell'order book, così
+ * l'ordine nel file è quello di esecuzione. La scrittura su disco
+ * avviene su un thread separato. Un recorder creato senza file è
+ * disattivato e tutti i metodi ritornano subito.
+ *
+ * Lo stesso thread invia lo stream ai Subscriber (repliche, vedi
+ * ReplicationServer): un subscriber viene aggiunto dal thread del motore
+ * insieme allo snapshot del book in quel momento, quindi riceve
+ * esattamente i comandi eseguiti dopo lo snapshot. I messaggi solo di
+ * replica (snapshot, checksum) non vengono scritti sul file.
+ */
+
+public class CommandRecorder implements OrderBookListener {
+	
+	//comando in corso di registrazione
+	public static class Command {
+		private final JsonObject json;
+		private final Order order;	//ordine di cui registrare l'id assegnato, può essere null
+		
+		private Command(String op, String username, Order order) {
+			this.json = new JsonObject();
+			this.order = order;
+			json.addProperty("op", op);
+			if(username != null)	//null per i comandi del server (aste)
+				json.addProperty("user", username);
+		}
+	}
+	
+	//destinatario dello stream dei comandi, chiamato solo dal thread di scrittura
+	public interface Subscriber {
+		//false se non può più ricevere: viene rimosso
+		boolean send(JsonObject json);
+		
+		//chiamato dopo ogni gruppo di messaggi
+		boolean flush();
+	}
+	
+	//elemento della coda di scrittura
+	private static class Entry {
+		final JsonObject json;
+		final boolean logged;	//false per i messaggi solo di replica
+		final Subscriber subscriber;	//non null: da aggiungere dopo avergli inviato json (snapshot)
+		
+		Entry(JsonObject json, boolean logged, Subscriber subscriber) {
+			this.json = json;
+			this.logged = logged;
+			this.subscriber = subscriber;
+		}
+	}
+	
+	private final boolean enabled;
+	private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+	private final List<Subscriber> subscribers = new ArrayList<>();	//usata solo dal thread di scrittura
+	private final List<long[]> pendingTrades = new ArrayList<>();	//trade del comando corrente, sotto il lock dell'order book
+	private final Gson gson = new Gson();
+	private final BufferedWriter writer;
+	private final Thread writerThread;
+	private volatile boolean running = true;
+	
+	//recorder disattivato
+	public CommandRecorder() {
+		this.enabled = false;
+		this.writer = null;
+		this.writerThread = null;
+	}
+	
+	//filename null: nessun file, lo stream va solo ai subscriber
+	public CommandRecorder(String filename, long initialOrderId, String bookFile) throws IOException {
+		this.enabled = true;
+		this.writer = filename != null ? new BufferedWriter(new FileWriter(filename)) : null;
+		
+		if(writer != null) {
+			JsonObject header = new JsonObject();
+			header.addProperty("op", "start");
+			header.addProperty("initialOrderId", initialOrderId);
+			if(bookFile != null)
+				header.addProperty("bookFile", bookFile);
+			writer.write(gson.toJson(header));
+			writer.newLine();
+		}
+		
+		this.writerThread = new Thread(this::writeLoop, "command-recorder");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	public Command limitOrder(LimitOrder order) {
+		if(!enabled)
+			return null;
+		Command command = new Command("limit", order.getUsername(), order);
+		addOrderFields(command.json, order, order.getLimitPrice());
+		return command;
+	}
+	
+	public Command marketOrder(MarketOrder order) {
+		if(!enabled)
+			return null;
+		Command command = new Command("market", order.getUsername(), order);
+		addOrderFields(command.json, order, 0);
+		return command;
+	}
+	
+	public Command stopOrder(StopOrder order) {
+		if(!enabled)
+			return null;
+		Command command = new Command("stop", order.getUsername(), order);
+		addOrderFields(command.json, order, order.getStopPrice());
+		return command;
+	}
+	
+	public Command cancelOrder(long orderId, String username) {
+		if(!enabled)
+			return null;
+		Command command = new Command("cancel", username, null);
+		command.json.addProperty("orderId", orderId);
+		return command;
+	}
+	
+	public Command amendOrder(long orderId, String username, int size, int price) {
+		if(!enabled)
+			return null;
+		Command command = new Command("amend", username, null);
+		command.json.addProperty("orderId", orderId);
+		command.json.addProperty("size", size);
+		if(price > 0)
+			command.json.addProperty("price", price);
+		return command;
+	}
+	
+	public Command limitOrders(List<LimitOrder> orders, String username) {
+		if(!enabled)
+			return null;
+		Command command = new Command("limits", username, null);
+		JsonArray array = new JsonArray();
+		for(LimitOrder order : orders) {
+			JsonObject fields = new JsonObject();
+			addOrderFields(fields, order, order.getLimitPrice());
+			array.add(fields);
+		}
+		command.json.add("orders", array);
+		return command;
+	}
+	
+	public Command cancelOrders(List<Long> orderIds, String username) {
+		if(!enabled)
+			return null;
+		Command command = new Command("cancels", username, null);
+		command.json.add("orderIds", gson.toJsonTree(orderIds));
+		return command;
+	}
+	
+	public Command cancelAllOrders(String username) {
+		if(!enabled)
+			return null;
+		return new Command("cancelAll", username, null);
+	}
+	
+	public Command cancelReplaceOrder(long orderId, String username, LimitOrder replacement) {
+		if(!enabled)
+			return null;
+		Command command = new Command("cancelReplace", username, null);
+		command.json.addProperty("orderId", orderId);
+		addOrderFields(command.json, replacement, replacement.getLimitPrice());
+		return command;
+	}
+	
+	//fasi dell'asta a chiamata, comandi del server senza utente
+	public Command auctionStart() {
+		if(!enabled)
+			return null;
+		return new Command("auctionStart", null, null);
+	}
+	
+	public Command auctionUncross() {
+		if(!enabled)
+			return null;
+		return new Command("auctionUncross", null, null);
+	}
+	
+	//completa il comando con il risultato e i trade prodotti, da chiamare sotto il lock dell'order book
+	public void record(Command command, Object result) {
+		if(command == null)
+			return;
+		
+		JsonObject json = command.json;
+		if(command.order != null)
+			json.addProperty("assignedId", command.order.getOrderId());	//-1 se l'ordine è fallito
+		if(result instanceof BatchResult)
+			json.add("results", gson.toJsonTree(((BatchResult) result).getResults()));
+		else if(result instanceof List)	//risultati dei comandi batch (List<OrderResult>)
+			json.add("results", gson.toJsonTree(result));
+		else if(result instanceof Boolean)
+			json.addProperty("ok", (Boolean) result);
+		else if(result instanceof Integer)	//uncross dell'asta
+			json.addProperty("clearingPrice", (Integer) result);
+		
+		json.add("trades", gson.toJsonTree(pendingTrades));
+		pendingTrades.clear();
+		
+		queue.offer(new Entry(json, true, null));
+	}
+	
+	//aggiunge un subscriber, che riceve prima snapshot; da chiamare sul thread del motore
+	public void subscribe(Subscriber subscriber, JsonObject snapshot) {
+		if(enabled)
+			queue.offer(new Entry(snapshot, false, subscriber));
+	}
+	
+	//messaggio solo per i subscriber (es. checksum), nella posizione corrente dello stream
+	public void publish(JsonObject json) {
+		if(enabled)
+			queue.offer(new Entry(json, false, null));
+	}
+	
+	//trade nel formato [buyOrderId, sellOrderId, price, size]
+	public void tradeExecuted(FillBuffer fills, int index) {
+		if(!enabled)
+			return;
+		pendingTrades.add(new long[] {fills.getBuyOrderId(index), fills.getSellOrderId(index),
+				fills.getPrice(index), fills.getSize(index)});
+	}
+	
+	//scrive i comandi ancora in coda e chiude il file
+	public void close() {
+		if(!enabled)
+			return;
+		running = false;
+		try {
+			writerThread.join(2000);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	//campi di un ordine nel formato dei comandi, usato anche per inoltrarli al processo del motore (RemoteEngine)
+	static void addOrderFields(JsonObject json, Order order, int price) {
+		json.addProperty("type", order.getType().name());
+		json.addProperty("size", order.getSize());
+		if(price > 0)
+			json.addProperty("price", price);
+		if(order.getTimeInForce() != TimeInForce.GTC)	//IOC/FOK cambiano il matching
+			json.addProperty("timeInForce", order.getTimeInForce().name());
+		if(order.getExpireTime() > 0)	//GTD/DAY, per le repliche
+			json.addProperty("expireTime", order.getExpireTime());
+	}
+	
+	private void writeLoop() {
+		try {
+			while(running || !queue.isEmpty()) {
+				Entry entry = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(entry == null)
+					continue;
+				
+				do {	//scrive tutto ciò che è in coda, poi un solo flush
+					if(entry.logged && writer != null) {
+						writer.write(gson.toJson(entry.json));
+						writer.newLine();
+					}
+					if(entry.subscriber != null) {
+						if(entry.subscriber.send(entry.json))
+							subscribers.add(entry.subscriber);
+					} else {
+						JsonObject json = entry.json;
+						subscribers.removeIf(subscriber -> !subscriber.send(json));
+					}
+				} while((entry = queue.poll()) != null);
+				if(writer != null)
+					writer.flush();
+				subscribers.removeIf(subscriber -> !subscriber.flush());
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch(IOException e) {
+			System.err.println("CommandRecorder: Errore di scrittura, registrazione interrotta. " + e.getMessage());
+		} finally {
+			try {
+				if(writer != null)
+					writer.close();
+			} catch(IOException e) {
+				//ignora
+			}
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.User;
+import ProgettoFinale.utils.AsyncLogger;
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lato gateway della separazione gateway/motore: una sola connessione con il
+ * processo del motore (EngineServer), condivisa dai RemoteEngine di tutti i
+ * simboli e da tutte le sessioni del gateway.
+ *
+ * Ogni richiesta ha un id e le risposte possono arrivare in qualsiasi ordine:
+ * il thread di lettura completa la richiesta in attesa con lo stesso id, così
+ * più sessioni hanno comandi in volo contemporaneamente. Lo stesso thread
+ * riceve i fill di tutti i simboli, passati al NotificationDispatcher locale
+ * (vengono notificati solo gli utenti loggati su questo gateway), e gli
+ * utenti registrati o modificati sugli altri gateway.
+ *
+ * Il primo messaggio inviato è il segreto condiviso (LinkSecret), senza il
+ * quale il motore chiude la connessione; gli utenti registrati qui vengono
+ * inoltrati con il solo hash della password.
+ *
+ * Alla caduta della connessione le richieste in attesa e le successive
+ * falliscono: il gateway va riavviato dopo il processo del motore.
+ */
+
+public class EngineClient implements Runnable {
+	private final Socket socket;
+	private final BufferedReader reader;
+	private final BufferedWriter writer;	//protetto dal lock dell'oggetto
+	private final long timeoutMillis;	//attesa massima di una risposta
+	private final Map<Long, CompletableFuture<JsonObject>> pending = new ConcurrentHashMap<>();
+	private final AtomicLong nextRequestId = new AtomicLong();
+	private final FillBuffer fills = new FillBuffer();	//usato solo dal thread di lettura
+	private final Gson gson = new Gson();
+	private NotificationDispatcher notificationDispatcher;
+	private UserManager userManager;
+	private volatile boolean connected = true;
+
+	public EngineClient(String host, int port, String secret, long timeoutMillis) throws IOException {
+		this.socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+		this.timeoutMillis = timeoutMillis;
+		LinkSecret.send(writer, secret);
+	}
+
+	/*
+	 * legge utenti e simboli del processo del motore e inoltra al motore gli utenti
+	 * registrati o modificati su questo gateway; IOException se un simbolo configurato
+	 * non è negoziato dal motore
+	 */
+	public void receiveSymbols(Collection<String> symbols, UserManager userManager) throws IOException {
+		this.userManager = userManager;
+		while(true) {
+			String line = reader.readLine();
+			if(line == null)
+				throw new EOFException("collegamento chiuso dal processo del motore (segreto 'link_secret' diverso?)");
+			JsonObject command = JsonParser.parseString(line).getAsJsonObject().getAsJsonObject("command");
+			String op = command.get("op").getAsString();
+
+			if(op.equals("users")) {
+				userManager.putReplicated(users(command));
+			} else if(op.equals("symbols")) {
+				Set<String> engineSymbols = new HashSet<>();
+				for(JsonElement symbol : command.getAsJsonArray("symbols"))
+					engineSymbols.add(symbol.getAsString());
+				for(String symbol : symbols)
+					if(!engineSymbols.contains(symbol))
+						throw new IOException("simbolo " + symbol + " non negoziato dal processo del motore");
+				break;
+			}
+		}
+		userManager.addChangeListener(user -> sendUsers(Collections.singletonList(user)));
+		System.out.println("Gateway collegato al motore " + socket.getInetAddress().getHostAddress() + ":" + socket.getPort());
+	}
+
+	//avvia il thread di lettura, i fill ricevuti vengono notificati tramite notificationDispatcher
+	public void start(NotificationDispatcher notificationDispatcher) {
+		this.notificationDispatcher = notificationDispatcher;
+		Thread thread = new Thread(this, "engine-client");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/*
+	 * invia un comando di un simbolo e attende il risultato, dal thread della sessione;
+	 * IllegalStateException se il motore non è raggiungibile o non risponde entro il timeout
+	 * (il comando potrebbe comunque essere stato eseguito)
+	 */
+	JsonObject call(String symbol, JsonObject command) {
+		if(!connected)
+			throw new IllegalStateException("Engine unreachable");
+
+		long id = nextRequestId.incrementAndGet();
+		CompletableFuture<JsonObject> future = new CompletableFuture<>();
+		pending.put(id, future);
+		try {
+			JsonObject message = new JsonObject();
+			message.addProperty("id", id);
+			message.addProperty("symbol", symbol);
+			message.add("command", command);
+			send(message);
+			return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch(IOException | ExecutionException e) {
+			throw new IllegalStateException("Engine unreachable");
+		} catch(TimeoutException e) {
+			throw new IllegalStateException("No response from engine within " + timeoutMillis + " ms");
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted");
+		} finally {
+			pending.remove(id);
+		}
+	}
+
+	public void run() {
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				JsonObject message = JsonParser.parseString(line).getAsJsonObject();
+				if(message.has("id")) {
+					CompletableFuture<JsonObject> future = pending.get(message.get("id").getAsLong());
+					if(future != null)	//altrimenti scaduta
+						future.complete(message.getAsJsonObject("result"));
+					continue;
+				}
+
+				JsonObject command = message.getAsJsonObject("command");
+				switch(command.get("op").getAsString()) {
+				case "fills":
+					dispatchFills(command.getAsJsonArray("fills"));
+					break;
+				case "users":
+					userManager.putReplicated(users(command));
+					break;
+				default:
+					break;
+				}
+			}
+		} catch(IOException | RuntimeException e) {	//include JSON non valido
+			if(connected)
+				AsyncLogger.error("EngineClient: Errore sul collegamento con il motore: " + e.getMessage());
+		}
+		close();
+	}
+
+	public void close() {
+		if(!connected)
+			return;
+		connected = false;
+		AsyncLogger.error("EngineClient: Collegamento con il processo del motore interrotto, comandi non più eseguibili.");
+		for(CompletableFuture<JsonObject> future : pending.values())
+			future.completeExceptionally(new EOFException());
+		try {
+			socket.close();
+		} catch(IOException e) {
+			//ignora
+		}
+	}
+
+	//gruppi di fill per simbolo: [buyOrderId, sellOrderId, size, price, buyer, seller, timestamp, buyerType, sellerType]
+	private void dispatchFills(JsonArray groups) {
+		for(JsonElement element : groups) {
+			JsonObject group = element.getAsJsonObject();
+			fills.clear();
+			for(JsonElement trade : group.getAsJsonArray("trades")) {
+				JsonArray fill = trade.getAsJsonArray();
+				fills.add(fill.get(0).getAsLong(), fill.get(1).getAsLong(), fill.get(2).getAsInt(), fill.get(3).getAsInt(),
+						fill.get(4).getAsString(), fill.get(5).getAsString(), fill.get(6).getAsLong(),
+						FillBuffer.typeCode(fill.get(7).getAsString()), FillBuffer.typeCode(fill.get(8).getAsString()));
+			}
+			notificationDispatcher.submit(group.get("symbol").getAsString(), fills);	//copia i fill
+		}
+	}
+
+	private void sendUsers(List<User> users) {
+		JsonObject command = new JsonObject();
+		command.addProperty("op", "users");
+		command.add("users", gson.toJsonTree(LinkSecret.withoutPasswords(users)));
+		JsonObject message = new JsonObject();
+		message.add("command", command);
+		try {
+			send(message);
+		} catch(IOException e) {
+			AsyncLogger.warn("EngineClient: Utente " + users.get(0).getUsername() + " non inoltrato al motore.");
+		}
+	}
+
+	private synchronized void send(JsonObject message) throws IOException {
+		writer.write(gson.toJson(message));
+		writer.newLine();
+		writer.flush();
+	}
+
+	private List<User> users(JsonObject command) {
+		Type listType = new TypeToken<List<User>>(){}.getType();
+		return gson.fromJson(command.get("users"), listType);
+	}
+}
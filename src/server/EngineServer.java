@@ -0,0 +1,614 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.AsyncLogger;
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Lato motore della separazione gateway/motore: riceve dai gateway
+ * (EngineClient) i comandi delle loro sessioni e li esegue sui motori locali,
+ * che restano gli unici a scrivere sui book.
+ *
+ * Ogni gateway ha un thread di lettura che decodifica i comandi (formato del
+ * CommandRecorder), applica la coda limitata dei motori come il ClientHandler
+ * e li accoda sul thread del motore del simbolo, che controlla i limiti di
+ * rischio subito prima di eseguirli: i limiti valgono anche per un utente
+ * con sessioni su più gateway. Le letture (ordini attivi, snapshot,
+ * profondità) vengono eseguite subito. Un
+ * thread di scrittura invia le risposte senza fill; quelle con fill passano per
+ * un thread di salvataggio che notifica i fill e li salva prima di rispondere,
+ * con una sola scrittura dello storico per simbolo per ogni gruppo in coda,
+ * così la persistenza non ritarda i comandi senza trade.
+ *
+ * Il NotificationDispatcher inoltra a tutti i gateway i fill di ogni finestra
+ * (comandi dei gateway e dei client diretti, scadenze, aste): ogni gateway
+ * notifica i propri utenti. Gli utenti registrati su un gateway vengono
+ * salvati qui e inviati agli altri gateway e alle repliche, con il solo
+ * hash della password.
+ *
+ * I gateway sono fidati (eseguono comandi per conto di qualsiasi utente):
+ * la porta è aperta solo sull'indirizzo configurato, di default loopback,
+ * e un gateway viene accettato solo dopo aver inviato il segreto condiviso
+ * (LinkSecret).
+ *
+ * Protocollo: una riga JSON per messaggio, {"id":...,"symbol":...,"command":{...}}
+ * dai gateway con risposta {"id":...,"result":{...}}; {"command":{"op":...}}
+ * per utenti, simboli e fill.
+ */
+
+public class EngineServer implements Runnable {
+
+	//esecuzione di un comando sul thread del motore: scrive la risposta in result e ritorna il risultato da registrare
+	private interface Call {
+		Object execute(FillBuffer fills, JsonObject result);
+	}
+
+	//risposta in coda per il thread di scrittura, con i fill del comando da salvare (null se nessuno)
+	private static class Reply {
+		final Link link;
+		final JsonObject message;
+		final SymbolRegistry.SymbolBook book;
+		final FillBuffer fills;
+
+		Reply(Link link, JsonObject message, SymbolRegistry.SymbolBook book, FillBuffer fills) {
+			this.link = link;
+			this.message = message;
+			this.book = book;
+			this.fills = fills;
+		}
+	}
+
+	private static final Type USERS_TYPE = new TypeToken<List<User>>(){}.getType();
+
+	private final ServerSocket serverSocket;
+	private final String secret;
+	private final SymbolRegistry symbolRegistry;
+	private final UserManager userManager;
+	private final NotificationDispatcher notificationDispatcher;
+	private final ServerMetrics metrics;
+	private final List<Link> links = new CopyOnWriteArrayList<>();
+	private final Map<SymbolRegistry.SymbolBook, FillBuffer> fills = new HashMap<>();	//uno per simbolo, usato dal thread del motore
+	private final BlockingQueue<Reply> replies = new LinkedBlockingQueue<>();	//risposte senza fill
+	private final BlockingQueue<Reply> filledReplies = new LinkedBlockingQueue<>();	//inviate dopo il salvataggio dei fill
+	private final Thread writerThread;
+	private final Thread persistThread;
+	private final Gson gson = new Gson();
+	private volatile boolean running = true;
+
+	public EngineServer(int port, InetAddress bindAddress, String secret, SymbolRegistry symbolRegistry, UserManager userManager,
+			NotificationDispatcher notificationDispatcher, ServerMetrics metrics) throws IOException {
+		this.serverSocket = new ServerSocket(port, 50, bindAddress);
+		this.secret = secret;
+		this.symbolRegistry = symbolRegistry;
+		this.userManager = userManager;
+		this.notificationDispatcher = notificationDispatcher;
+		this.metrics = metrics;
+		for(SymbolRegistry.SymbolBook book : symbolRegistry.getAll())
+			fills.put(book, new FillBuffer());
+
+		userManager.addChangeListener(user -> {
+			for(Link link : links)
+				link.sendUsers(Collections.singletonList(user));
+		});
+		notificationDispatcher.setForwarder(this::forwardFills);
+
+		this.writerThread = new Thread(() -> writeLoop(replies), "engine-server-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+		this.persistThread = new Thread(() -> writeLoop(filledReplies), "engine-server-persist");
+		persistThread.setDaemon(true);
+		persistThread.start();
+	}
+
+	public int getGatewayCount() {
+		return links.size();
+	}
+
+	public void run() {
+		while(!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Thread reader = new Thread(() -> serve(socket), "engine-server-" + socket.getPort());
+				reader.setDaemon(true);
+				reader.start();
+			} catch(IOException e) {
+				if(!serverSocket.isClosed())
+					AsyncLogger.error("EngineServer: Errore di connessione del gateway: " + e.getMessage());
+			}
+		}
+	}
+
+	//chiude le connessioni dopo symbolRegistry.shutdown(): i fill dei comandi già eseguiti vengono salvati
+	public void shutdown() {
+		try {
+			serverSocket.close();
+		} catch(IOException e) {
+			//ignora
+		}
+		running = false;
+		try {
+			writerThread.join(2000);
+			persistThread.join(2000);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for(Link link : links)
+			link.close();
+	}
+
+	//thread di lettura di un gateway: utenti e simboli solo dopo il segreto condiviso, poi i comandi
+	private void serve(Socket socket) {
+		Link link;
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			if(!LinkSecret.check(socket, reader, secret)) {
+				AsyncLogger.warn("EngineServer: Connessione da " + socket.getInetAddress() + ":" + socket.getPort() + " rifiutata, segreto non valido.");
+				socket.close();
+				return;
+			}
+			link = new Link(socket, reader);
+		} catch(IOException e) {
+			AsyncLogger.error("EngineServer: Errore di connessione del gateway: " + e.getMessage());
+			try {
+				socket.close();
+			} catch(IOException closeError) {
+				//ignora
+			}
+			return;
+		}
+		links.add(link);	//prima dell'elenco degli utenti: le modifiche successive non vanno perse
+		link.sendUsers(userManager.getUsers());
+		link.sendSymbols();
+		AsyncLogger.info("EngineServer: Gateway connesso da " + socket.getInetAddress() + ":" + socket.getPort());
+		read(link);
+	}
+
+	private void read(Link link) {
+		try(BufferedReader reader = link.in) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				JsonObject message = JsonParser.parseString(line).getAsJsonObject();
+				JsonObject command = message.getAsJsonObject("command");
+				if(!message.has("id")) {
+					if(command.get("op").getAsString().equals("users"))	//salvati e inviati agli altri gateway
+						userManager.putForwarded(gson.fromJson(command.get("users"), USERS_TYPE));
+					continue;
+				}
+
+				long id = message.get("id").getAsLong();
+				SymbolRegistry.SymbolBook book = symbolRegistry.get(message.get("symbol").getAsString());
+				try {
+					if(book == null)
+						reply(link, id, failure("Unknown symbol"));
+					else
+						handle(link, id, book, command);
+				} catch(RuntimeException e) {	//campo mancante o non valido
+					reply(link, id, failure("Invalid command: " + e.getMessage()));
+				}
+			}
+		} catch(IOException | RuntimeException e) {
+			if(link.open)
+				AsyncLogger.error("EngineServer: Errore sul collegamento con il gateway: " + e.getMessage());
+		}
+		link.close();
+	}
+
+	//thread di lettura: letture eseguite subito, comandi decodificati qui, controllati ed eseguiti sul thread del motore
+	private void handle(Link link, long id, SymbolRegistry.SymbolBook book, JsonObject command) {
+		String op = command.get("op").getAsString();
+		String user = command.has("user") ? command.get("user").getAsString() : null;
+		MatchingEngine engine = book.getEngine();
+		CommandRecorder recorder = book.getCommandRecorder();
+		RiskManager riskManager = book.getRiskManager();
+		JsonObject result = new JsonObject();
+
+		BooleanSupplier riskCheck;	//controllato sul thread del motore prima di eseguire il comando
+		Supplier<CommandRecorder.Command> recorded;
+		Call call;
+		switch(op) {
+		case "activeOrders":
+			result.add("activeOrders", gson.toJsonTree(engine.getActiveOrders(user)));
+			reply(link, id, result);
+			return;
+		case "snapshot":
+			result.addProperty("snapshot", engine.getOrderBookSnapshot());
+			reply(link, id, result);
+			return;
+		case "depth": {
+			OrderBookDepth depth = engine.getOrderBookDepth(command.get("depth").getAsInt(), command.get("version").getAsLong());
+			if(depth != null)	//altrimenti non modificato
+				result.add("book", gson.toJsonTree(depth));
+			reply(link, id, result);
+			return;
+		}
+		case "limit": {
+			LimitOrder order = ReplicationClient.limitOrder(user, command, -1);
+			riskCheck = riskManager != null ? () -> riskManager.allows(order, -1) : null;
+			recorded = () -> recorder.limitOrder(order);
+			call = (fills, response) -> {
+				engine.addLimitOrder(order, fills);
+				response.addProperty("assignedId", order.getOrderId());
+				response.addProperty("remaining", order.getSize());
+				return null;
+			};
+			break;
+		}
+		case "market": {
+			MarketOrder order = new MarketOrder(user, OrderType.valueOf(command.get("type").getAsString()), command.get("size").getAsInt());
+			riskCheck = null;
+			recorded = () -> recorder.marketOrder(order);
+			call = (fills, response) -> {
+				try {
+					engine.executeMarketOrder(order, fills);
+					response.addProperty("assignedId", order.getOrderId());
+				} catch(Exception e) {	//tutto o niente
+					response.addProperty("error", String.valueOf(e.getMessage()));
+				}
+				return null;
+			};
+			break;
+		}
+		case "stop": {
+			StopOrder order = new StopOrder(user, OrderType.valueOf(command.get("type").getAsString()),
+					command.get("size").getAsInt(), command.get("price").getAsInt());
+			ReplicationClient.setValidity(order, command);
+			riskCheck = riskManager != null ? () -> riskManager.allows(order, -1) : null;
+			recorded = () -> recorder.stopOrder(order);
+			call = (fills, response) -> {
+				engine.addStopOrder(order);
+				response.addProperty("assignedId", order.getOrderId());
+				return null;
+			};
+			break;
+		}
+		case "cancel": {
+			long orderId = command.get("orderId").getAsLong();
+			riskCheck = null;
+			recorded = () -> recorder.cancelOrder(orderId, user);
+			call = (fills, response) -> {
+				boolean ok = engine.cancelOrder(orderId, user, fills);
+				response.addProperty("ok", ok);
+				return ok;
+			};
+			break;
+		}
+		case "amend": {
+			long orderId = command.get("orderId").getAsLong();
+			int size = command.get("size").getAsInt();
+			int price = command.has("price") ? command.get("price").getAsInt() : 0;
+			riskCheck = riskManager != null ? () -> riskManager.allowsAmend(user, orderId, size, price) : null;
+			recorded = () -> recorder.amendOrder(orderId, user, size, price);
+			call = (fills, response) -> {
+				boolean ok = engine.amendOrder(orderId, user, size, price, fills);
+				response.addProperty("ok", ok);
+				return ok;
+			};
+			break;
+		}
+		case "limits": {
+			JsonArray array = command.getAsJsonArray("orders");
+			List<LimitOrder> orders = new ArrayList<>(array.size());
+			for(JsonElement fields : array)
+				orders.add(ReplicationClient.limitOrder(user, fields.getAsJsonObject(), -1));
+			//gli ordini oltre i limiti non arrivano al motore, risultato 107 nella loro posizione
+			boolean[] allowed = new boolean[orders.size()];
+			List<LimitOrder> validOrders = new ArrayList<>(orders.size());
+			riskCheck = () -> {
+				boolean[] checked = riskManager != null ? riskManager.allowsAll(user, orders) : null;
+				for(int i = 0; i < orders.size(); i++) {
+					allowed[i] = checked == null || checked[i];
+					if(allowed[i])
+						validOrders.add(orders.get(i));
+				}
+				metrics.add(ServerMetrics.REJECTED_RISK, orders.size() - validOrders.size());
+				return true;	//gli ordini accettati vengono eseguiti
+			};
+			recorded = () -> recorder.limitOrders(validOrders, user);
+			call = (fills, response) -> {
+				List<OrderResult> batchResults = engine.addLimitOrders(validOrders, fills);
+				List<OrderResult> results = new ArrayList<>(orders.size());
+				Iterator<OrderResult> validResults = batchResults.iterator();
+				for(int i = 0; i < orders.size(); i++)
+					results.add(allowed[i] ? validResults.next() : new OrderResult(-1, 107));
+				response.add("results", gson.toJsonTree(results));
+				return batchResults;
+			};
+			break;
+		}
+		case "cancels": {
+			List<Long> orderIds = new ArrayList<>();
+			for(JsonElement orderId : command.getAsJsonArray("orderIds"))
+				orderIds.add(orderId.getAsLong());
+			riskCheck = null;
+			recorded = () -> recorder.cancelOrders(orderIds, user);
+			call = (fills, response) -> {
+				List<OrderResult> results = engine.cancelOrders(orderIds, user, fills);
+				response.add("results", gson.toJsonTree(results));
+				return results;
+			};
+			break;
+		}
+		case "cancelAll":
+			riskCheck = null;
+			recorded = () -> recorder.cancelAllOrders(user);
+			call = (fills, response) -> {
+				List<OrderResult> results = engine.cancelAllOrders(user, fills);
+				response.add("results", gson.toJsonTree(results));
+				return results;
+			};
+			break;
+		case "cancelReplace": {
+			long orderId = command.get("orderId").getAsLong();
+			LimitOrder replacement = ReplicationClient.limitOrder(user, command, -1);
+			riskCheck = riskManager != null ? () -> riskManager.allows(replacement, orderId) : null;
+			recorded = () -> recorder.cancelReplaceOrder(orderId, user, replacement);
+			call = (fills, response) -> {
+				List<OrderResult> results = engine.cancelReplaceOrder(orderId, user, replacement, fills);
+				response.add("results", gson.toJsonTree(results));
+				return results;
+			};
+			break;
+		}
+		default:
+			reply(link, id, failure("Unknown operation " + op));
+			return;
+		}
+
+		if(!symbolRegistry.tryAdmit()) {	//stessa coda limitata dei client diretti
+			metrics.increment(ServerMetrics.REJECTED_OVERLOAD);
+			JsonObject overloaded = new JsonObject();
+			overloaded.addProperty("overloaded", true);
+			reply(link, id, overloaded);
+			return;
+		}
+		long submitted = System.nanoTime();
+		try {
+			book.getExecutor().execute(() -> execute(link, id, book, riskCheck, recorded, call, submitted));
+		} catch(RejectedExecutionException e) {	//server in chiusura
+			symbolRegistry.release();
+			reply(link, id, failure("Engine shutting down"));
+		}
+	}
+
+	/*
+	 * thread del motore: controlla i limiti di rischio (un comando rifiutato non viene eseguito
+	 * né registrato), esegue e registra il comando, i fill vengono copiati per il thread di scrittura
+	 */
+	private void execute(Link link, long id, SymbolRegistry.SymbolBook book, BooleanSupplier riskCheck,
+			Supplier<CommandRecorder.Command> command, Call call, long submitted) {
+		long started = System.nanoTime();
+		FillBuffer fills = this.fills.get(book);
+		fills.clear();
+		JsonObject result = new JsonObject();
+		try {
+			if(riskCheck != null && !riskCheck.getAsBoolean()) {
+				riskRejected(link, id);
+				return;
+			}
+			CommandRecorder.Command recorded = command.get();
+			Object recordedResult = null;
+			try {
+				recordedResult = call.execute(fills, result);
+			} catch(RuntimeException e) {
+				result = failure("Engine error: " + e.getMessage());
+			} finally {
+				book.getCommandRecorder().record(recorded, recordedResult);
+			}
+		} finally {
+			symbolRegistry.release();
+			metrics.recordNanos(ServerMetrics.ENGINE_WAIT, started - submitted);
+			metrics.recordNanos(ServerMetrics.ENGINE_LATENCY, System.nanoTime() - started);
+		}
+
+		FillBuffer copy = null;
+		if(!fills.isEmpty()) {
+			copy = new FillBuffer(fills.size());
+			copy.addAll(fills, null);
+		}
+		if(copy != null)
+			filledReplies.offer(new Reply(link, response(id, result), book, copy));
+		else
+			replies.offer(new Reply(link, response(id, result), null, null));
+	}
+
+	private void reply(Link link, long id, JsonObject result) {
+		replies.offer(new Reply(link, response(id, result), null, null));
+	}
+
+	private void riskRejected(Link link, long id) {
+		metrics.increment(ServerMetrics.REJECTED_RISK);
+		JsonObject result = new JsonObject();
+		result.addProperty("riskRejected", true);
+		reply(link, id, result);
+	}
+
+	private static JsonObject failure(String message) {
+		JsonObject result = new JsonObject();
+		result.addProperty("failure", message);
+		return result;
+	}
+
+	private static JsonObject response(long id, JsonObject result) {
+		JsonObject message = new JsonObject();
+		message.addProperty("id", id);
+		message.add("result", result);
+		return message;
+	}
+
+	/*
+	 * thread di scrittura (queue = replies) e di salvataggio (queue = filledReplies): per ogni
+	 * gruppo di risposte in coda notifica i fill, li salva con una sola scrittura dello storico
+	 * per simbolo e poi risponde, come il ClientHandler; un flush per gateway a gruppo
+	 */
+	private void writeLoop(BlockingQueue<Reply> queue) {
+		List<Reply> batch = new ArrayList<>();
+		Map<SymbolRegistry.SymbolBook, FillBuffer> batchFills = new HashMap<>();	//buffer riusati, uno per simbolo
+		try {
+			while(running || !queue.isEmpty()) {
+				Reply first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null)
+					continue;
+				batch.add(first);
+				queue.drainTo(batch);
+
+				for(Reply reply : batch) {
+					if(reply.fills == null)
+						continue;
+					notificationDispatcher.submit(reply.book.getSymbol(), reply.fills);
+					batchFills.computeIfAbsent(reply.book, book -> new FillBuffer()).addAll(reply.fills, null);
+				}
+				for(Map.Entry<SymbolRegistry.SymbolBook, FillBuffer> entry : batchFills.entrySet()) {
+					if(entry.getValue().isEmpty())
+						continue;
+					long start = System.nanoTime();
+					entry.getKey().getTradeHistoryStore().append(entry.getValue());
+					metrics.recordNanos(ServerMetrics.PERSIST_LATENCY, System.nanoTime() - start);
+					entry.getValue().clear();
+				}
+
+				for(Reply reply : batch)
+					reply.link.send(reply.message);	//gateway disconnesso: i fill sono comunque salvati
+				flushAll();
+				batch.clear();
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void flushAll() {
+		for(Link link : links)
+			link.flush();
+	}
+
+	//thread del NotificationDispatcher: fill della finestra raggruppati per simbolo, uguali per tutti i gateway
+	private void forwardFills(FillBuffer fills) {
+		if(links.isEmpty())
+			return;
+
+		JsonArray groups = new JsonArray();
+		JsonArray trades = null;
+		String symbol = null;
+		for(int i = 0; i < fills.size(); i++) {
+			if(trades == null || !fills.getSymbol(i).equals(symbol)) {
+				symbol = fills.getSymbol(i);
+				trades = new JsonArray();
+				JsonObject group = new JsonObject();
+				group.addProperty("symbol", symbol);
+				group.add("trades", trades);
+				groups.add(group);
+			}
+			JsonArray fill = new JsonArray();
+			fill.add(fills.getBuyOrderId(i));
+			fill.add(fills.getSellOrderId(i));
+			fill.add(fills.getSize(i));
+			fill.add(fills.getPrice(i));
+			fill.add(fills.getBuyerUsername(i));
+			fill.add(fills.getSellerUsername(i));
+			fill.add(fills.getTimestamp(i));
+			fill.add(fills.getBuyerOrderType(i));
+			fill.add(fills.getSellerOrderType(i));
+			trades.add(fill);
+		}
+
+		JsonObject command = new JsonObject();
+		command.addProperty("op", "fills");
+		command.add("fills", groups);
+		String line = messageFor(command);
+		for(Link link : links)
+			if(link.send(line))
+				link.flush();
+	}
+
+	private String messageFor(JsonObject command) {
+		JsonObject message = new JsonObject();
+		message.add("command", command);
+		return gson.toJson(message);
+	}
+
+	//connessione con un gateway, scritta dal thread di scrittura, dal NotificationDispatcher e dalle modifiche degli utenti
+	private class Link {
+		private final Socket socket;
+		private final BufferedReader in;	//usato solo dal thread di lettura
+		private final BufferedWriter out;
+		private volatile boolean open = true;
+
+		Link(Socket socket, BufferedReader in) throws IOException {
+			this.socket = socket;
+			this.in = in;
+			this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+		}
+
+		void sendUsers(List<User> users) {
+			JsonObject command = new JsonObject();
+			command.addProperty("op", "users");
+			command.add("users", gson.toJsonTree(LinkSecret.withoutPasswords(users)));
+			if(send(messageFor(command)))
+				flush();
+		}
+
+		void sendSymbols() {
+			JsonArray symbols = new JsonArray();
+			for(SymbolRegistry.SymbolBook book : symbolRegistry.getAll())
+				symbols.add(book.getSymbol());
+			JsonObject command = new JsonObject();
+			command.addProperty("op", "symbols");
+			command.add("symbols", symbols);
+			if(send(messageFor(command)))
+				flush();
+		}
+
+		boolean send(JsonObject message) {
+			return send(gson.toJson(message));
+		}
+
+		synchronized boolean send(String line) {
+			if(!open)
+				return false;
+			try {
+				out.write(line);
+				out.newLine();
+				return true;
+			} catch(IOException e) {
+				close();
+				return false;
+			}
+		}
+
+		synchronized boolean flush() {
+			if(!open)
+				return false;
+			try {
+				out.flush();
+				return true;
+			} catch(IOException e) {
+				close();
+				return false;
+			}
+		}
+
+		void close() {
+			if(!open)
+				return;
+			open = false;
+			links.remove(this);
+			AsyncLogger.warn("EngineServer: Gateway " + socket.getInetAddress() + ":" + socket.getPort() + " disconnesso.");
+			try {
+				socket.close();
+			} catch(IOException e) {
+				//ignora
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+
+import java.util.*;
+
+/**
+ * Buffer riutilizzabile dei fill prodotti dal motore di matching, con un
+ * array per campo invece di un oggetto Trade per fill.
+ *
+ * Il motore aggiunge i fill con add(), gli stadi successivi (notifiche,
+ * persistenza, osservatori) li leggono per indice. Gli array crescono solo
+ * quando un comando produce più fill di quelli visti finora: a regime
+ * un fill non alloca memoria. Gli username sono riferimenti alle String
+ * già presenti negli ordini, il tipo di ordine è un codice.
+ *
+ * Non è thread safe: ogni buffer ha un solo proprietario alla volta
+ * (es. il ClientHandler che lo passa al motore e poi lo legge).
+ */
+
+public class FillBuffer {
+	//tipi di ordine dei due lati del fill
+	public static final byte LIMIT = 0;
+	public static final byte MARKET = 1;
+	public static final byte STOP = 2;
+	private static final String[] TYPE_NAMES = {"limit", "market", "stop"};
+
+	private int size = 0;
+	private long[] buyOrderIds;
+	private long[] sellOrderIds;
+	private long[] timestamps;
+	private int[] prices;
+	private int[] sizes;
+	private String[] buyers;
+	private String[] sellers;
+	private String[] symbols;	//impostato solo dagli stadi che uniscono fill di più simboli
+	private byte[] buyerTypes;
+	private byte[] sellerTypes;
+
+	public FillBuffer() {
+		this(16);
+	}
+
+	public FillBuffer(int capacity) {
+		allocate(Math.max(1, capacity));
+	}
+
+	//aggiunge un fill, ritorna il suo indice
+	public int add(long buyOrderId, long sellOrderId, int size, int price,
+			String buyer, String seller, long timestamp, byte buyerType, byte sellerType) {
+		if(this.size == prices.length)
+			allocate(prices.length * 2);
+
+		int i = this.size++;
+		buyOrderIds[i] = buyOrderId;
+		sellOrderIds[i] = sellOrderId;
+		sizes[i] = size;
+		prices[i] = price;
+		buyers[i] = buyer;
+		sellers[i] = seller;
+		timestamps[i] = timestamp;
+		buyerTypes[i] = buyerType;
+		sellerTypes[i] = sellerType;
+		symbols[i] = null;
+		return i;
+	}
+
+	//copia in coda tutti i fill di other, con il simbolo su cui sono avvenuti
+	public void addAll(FillBuffer other, String symbol) {
+		for(int j = 0; j < other.size; j++) {
+			int i = add(other.buyOrderIds[j], other.sellOrderIds[j], other.sizes[j], other.prices[j],
+					other.buyers[j], other.sellers[j], other.timestamps[j], other.buyerTypes[j], other.sellerTypes[j]);
+			symbols[i] = symbol;
+		}
+	}
+
+	//svuota il buffer mantenendo la capacità
+	public void clear() {
+		size = 0;
+	}
+
+	//scarta i fill dall'indice size in poi (fill provvisori di un comando non eseguito)
+	public void truncate(int size) {
+		if(size < this.size)
+			this.size = size;
+	}
+	
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private void allocate(int capacity) {
+		buyOrderIds = buyOrderIds == null ? new long[capacity] : Arrays.copyOf(buyOrderIds, capacity);
+		sellOrderIds = sellOrderIds == null ? new long[capacity] : Arrays.copyOf(sellOrderIds, capacity);
+		timestamps = timestamps == null ? new long[capacity] : Arrays.copyOf(timestamps, capacity);
+		prices = prices == null ? new int[capacity] : Arrays.copyOf(prices, capacity);
+		sizes = sizes == null ? new int[capacity] : Arrays.copyOf(sizes, capacity);
+		buyers = buyers == null ? new String[capacity] : Arrays.copyOf(buyers, capacity);
+		sellers = sellers == null ? new String[capacity] : Arrays.copyOf(sellers, capacity);
+		symbols = symbols == null ? new String[capacity] : Arrays.copyOf(symbols, capacity);
+		buyerTypes = buyerTypes == null ? new byte[capacity] : Arrays.copyOf(buyerTypes, capacity);
+		sellerTypes = sellerTypes == null ? new byte[capacity] : Arrays.copyOf(sellerTypes, capacity);
+	}
+
+	public long getBuyOrderId(int i) {
+		return buyOrderIds[i];
+	}
+
+	public long getSellOrderId(int i) {
+		return sellOrderIds[i];
+	}
+
+	public int getSize(int i) {
+		return sizes[i];
+	}
+
+	public int getPrice(int i) {
+		return prices[i];
+	}
+
+	public String getBuyerUsername(int i) {
+		return buyers[i];
+	}
+
+	public String getSellerUsername(int i) {
+		return sellers[i];
+	}
+
+	public long getTimestamp(int i) {
+		return timestamps[i];
+	}
+
+	//"limit", "market" o "stop", come nei Trade
+	public String getBuyerOrderType(int i) {
+		return TYPE_NAMES[buyerTypes[i]];
+	}
+
+	public String getSellerOrderType(int i) {
+		return TYPE_NAMES[sellerTypes[i]];
+	}
+
+	//codice del tipo di ordine dal nome, per i fill ricevuti come testo (gateway)
+	public static byte typeCode(String typeName) {
+		for(byte code = 0; code < TYPE_NAMES.length; code++)
+			if(TYPE_NAMES[code].equals(typeName))
+				return code;
+		throw new IllegalArgumentException("Tipo di ordine sconosciuto: " + typeName);
+	}
+
+	public String getSymbol(int i) {
+		return symbols[i];
+	}
+
+	//oggetto Trade del fill, solo ai confini dell'API (persistenza JSON, metodi List<Trade>)
+	public Trade toTrade(int i) {
+		return new Trade(buyOrderIds[i], sellOrderIds[i], sizes[i], prices[i],
+				buyers[i], sellers[i], timestamps[i], getBuyerOrderType(i), getSellerOrderType(i));
+	}
+
+	public List<Trade> toTrades() {
+		List<Trade> trades = new ArrayList<>(size);
+		for(int i = 0; i < size; i++)
+			trades.add(toTrade(i));
+		return trades;
+	}
+}
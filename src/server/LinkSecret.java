@@ -0,0 +1,61 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.User;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Autenticazione dei collegamenti tra processi (gateway e motore, replica e
+ * primario): chi si connette invia come primo messaggio il segreto condiviso
+ * 'link_secret', chi è in ascolto lo confronta prima di inviare utenti,
+ * simboli o snapshot e di accettare comandi, altrimenti chiude la connessione.
+ *
+ * Il segreto viaggia in chiaro come il resto dello stream: le porte vanno
+ * esposte solo su reti fidate (di default sono aperte sull'interfaccia di loopback).
+ *
+ * Protocollo: {"auth":"<segreto>"} come prima riga.
+ */
+
+final class LinkSecret {
+	private static final int TIMEOUT_MS = 5000;	//attesa massima del primo messaggio
+
+	private LinkSecret() {}
+
+	//lato che si connette
+	static void send(Writer writer, String secret) throws IOException {
+		JsonObject auth = new JsonObject();
+		auth.addProperty("auth", secret);
+		writer.write(auth.toString());
+		writer.write(System.lineSeparator());
+		writer.flush();
+	}
+
+	//lato in ascolto: false se il primo messaggio non arriva entro TIMEOUT_MS o il segreto non coincide
+	static boolean check(Socket socket, BufferedReader reader, String secret) {
+		try {
+			socket.setSoTimeout(TIMEOUT_MS);
+			String line = reader.readLine();
+			socket.setSoTimeout(0);
+			if(line == null)
+				return false;
+			JsonElement auth = JsonParser.parseString(line).getAsJsonObject().get("auth");
+			return auth != null && MessageDigest.isEqual(auth.getAsString().getBytes(StandardCharsets.UTF_8),
+					secret.getBytes(StandardCharsets.UTF_8));	//tempo costante
+		} catch(IOException | RuntimeException e) {	//include timeout e JSON non valido
+			return false;
+		}
+	}
+
+	//utenti da inviare sul collegamento: solo hash delle password, mai in chiaro
+	static List<User> withoutPasswords(List<User> users) {
+		List<User> copies = new ArrayList<>(users.size());
+		for(User user : users)
+			copies.add(user.withoutPassword());
+		return copies;
+	}
+}
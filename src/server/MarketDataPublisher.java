@@ -0,0 +1,236 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.AsyncLogger;
+import static ProgettoFinale.entities.MarketDataProtocol.*;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Pubblica il market data su un gruppo multicast UDP: variazioni dei livelli
+ * di prezzo (L2) e trade eseguiti, in formato binario sequenziato
+ * (vedi MarketDataProtocol), più uno snapshot periodico per chi si
+ * collega in ritardo o perde pacchetti.
+ *
+ * Gli eventi arrivano dall'OrderBook (sotto il suo lock) e vengono solo
+ * codificati nel pacchetto corrente; l'invio avviene su un thread dedicato,
+ * un solo send serve tutti i sottoscrittori.
+ */
+
+public class MarketDataPublisher implements OrderBookListener, Runnable {
+	//intervallo massimo prima di inviare un pacchetto non pieno
+	private static final long FLUSH_INTERVAL_MILLIS = 1;
+	
+	private final DatagramChannel channel;
+	private final InetSocketAddress group;
+	private final long snapshotIntervalMillis;
+	private final int snapshotDepth;
+	
+	//livelli aggregati, aggiornati in modo incrementale dagli eventi dell'order book
+	private final TreeMap<Integer, Level> bidLevels = new TreeMap<>(Collections.reverseOrder());
+	private final TreeMap<Integer, Level> askLevels = new TreeMap<>();
+	
+	//pacchetto in costruzione e sequenza del prossimo messaggio (protetti dal lock dell'oggetto)
+	private ByteBuffer pending;
+	private long pendingFirstSeq;
+	private int pendingCount = 0;
+	private long nextSeq = 1;
+	
+	private final BlockingQueue<ByteBuffer> ready = new LinkedBlockingQueue<>();	//pacchetti da inviare
+	private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(64);	//buffer riutilizzabili
+	
+	private volatile boolean running = true;
+	
+	//dimensione e numero di ordini di un livello di prezzo
+	private static class Level {
+		long size;
+		int count;
+	}
+	
+	public MarketDataPublisher(InetAddress groupAddress, int port, NetworkInterface networkInterface,
+			long snapshotIntervalMillis, int snapshotDepth) throws IOException {
+		this.group = new InetSocketAddress(groupAddress, port);
+		this.snapshotIntervalMillis = snapshotIntervalMillis;
+		this.snapshotDepth = Math.min(snapshotDepth, MAX_SNAPSHOT_DEPTH);
+		
+		this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		this.channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);	//consegna anche ai sottoscrittori locali
+		if(networkInterface != null)
+			this.channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+		
+		this.pending = newPacket();
+	}
+	
+	public synchronized void orderRested(LimitOrder order) {
+		Level level = levels(order.getType()).computeIfAbsent(order.getLimitPrice(), k -> new Level());
+		level.size += order.getSize();
+		level.count++;
+		appendLevel(order.getType(), order.getLimitPrice(), level);
+	}
+	
+	public synchronized void orderReduced(LimitOrder order, int quantity) {
+		Level level = levels(order.getType()).get(order.getLimitPrice());
+		if(level == null)
+			return;
+		level.size -= quantity;
+		if(order.getSize() == 0)	//completamente evaso, esce dal livello
+			level.count--;
+		updateLevel(order.getType(), order.getLimitPrice(), level);
+	}
+	
+	public synchronized void orderRemoved(LimitOrder order) {
+		Level level = levels(order.getType()).get(order.getLimitPrice());
+		if(level == null)
+			return;
+		level.size -= order.getSize();
+		level.count--;
+		updateLevel(order.getType(), order.getLimitPrice(), level);
+	}
+	
+	public synchronized void tradeExecuted(FillBuffer fills, int index) {
+		reserve(TRADE_SIZE);
+		pending.put(MSG_TRADE);
+		pending.putInt(fills.getPrice(index));
+		pending.putInt(fills.getSize(index));
+		pending.putLong(fills.getTimestamp(index));
+	}
+	
+	public void run() {
+		long nextSnapshot = System.currentTimeMillis();
+		
+		while(running) {
+			try {
+				if(System.currentTimeMillis() >= nextSnapshot) {
+					publishSnapshot();
+					nextSnapshot = System.currentTimeMillis() + snapshotIntervalMillis;
+				}
+				
+				ByteBuffer packet = ready.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+				if(packet == null) {
+					flush();	//nessun pacchetto pieno, invia quello parziale
+					packet = ready.poll();
+					if(packet == null)
+						continue;
+				}
+				
+				channel.send(packet, group);
+				packet.clear();
+				free.offer(packet);	//se il pool è pieno il buffer viene lasciato al GC
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch(IOException e) {
+				AsyncLogger.warn("MarketDataPublisher: Errore invio pacchetto: " + e.getMessage());
+			}
+		}
+		
+		try {
+			channel.close();
+		} catch(IOException e) {
+			//ignora
+		}
+	}
+	
+	//pacchetti pronti non ancora inviati
+	public int getQueueSize() {
+		return ready.size();
+	}
+	
+	public void shutdown() {
+		running = false;
+	}
+	
+	//snapshot dei primi snapshotDepth livelli per lato, sempre in un pacchetto dedicato
+	private synchronized void publishSnapshot() {
+		flushPending();
+		
+		int bidCount = Math.min(snapshotDepth, bidLevels.size());
+		int askCount = Math.min(snapshotDepth, askLevels.size());
+		
+		pending.put(MSG_SNAPSHOT);
+		pending.putShort((short) bidCount);
+		pending.putShort((short) askCount);
+		putLevels(bidLevels, bidCount);
+		putLevels(askLevels, askCount);
+		pendingCount++;
+		nextSeq++;
+		
+		flushPending();
+	}
+	
+	private void putLevels(TreeMap<Integer, Level> levels, int count) {
+		Iterator<Map.Entry<Integer, Level>> iterator = levels.entrySet().iterator();
+		for(int i = 0; i < count; i++) {
+			Map.Entry<Integer, Level> entry = iterator.next();
+			pending.putInt(entry.getKey());
+			pending.putLong(entry.getValue().size);
+			pending.putInt(entry.getValue().count);
+		}
+	}
+	
+	private TreeMap<Integer, Level> levels(OrderType side) {
+		return side == OrderType.BID ? bidLevels : askLevels;
+	}
+	
+	//pubblica il nuovo stato del livello e lo elimina se vuoto
+	private void updateLevel(OrderType side, int price, Level level) {
+		if(level.count <= 0) {
+			level.size = 0;
+			level.count = 0;
+			levels(side).remove(price);
+		}
+		appendLevel(side, price, level);
+	}
+	
+	private void appendLevel(OrderType side, int price, Level level) {
+		reserve(LEVEL_SIZE);
+		pending.put(MSG_LEVEL);
+		pending.put(side == OrderType.BID ? SIDE_BID : SIDE_ASK);
+		pending.putInt(price);
+		pending.putLong(level.size);
+		pending.putInt(level.count);
+	}
+	
+	//prepara lo spazio per un messaggio, chiudendo il pacchetto corrente se pieno
+	private void reserve(int messageSize) {
+		if(pending.remaining() < messageSize)
+			flushPending();
+		if(pendingCount == 0)
+			pendingFirstSeq = nextSeq;
+		pendingCount++;
+		nextSeq++;
+	}
+	
+	private synchronized void flush() {
+		flushPending();
+	}
+	
+	//completa l'header del pacchetto corrente e lo passa al thread di invio
+	private void flushPending() {
+		if(pendingCount == 0) {
+			pendingFirstSeq = nextSeq;
+			return;
+		}
+		pending.putLong(0, pendingFirstSeq);
+		pending.putShort(8, (short) pendingCount);
+		pending.flip();
+		ready.offer(pending);
+		
+		pending = newPacket();
+		pendingCount = 0;
+		pendingFirstSeq = nextSeq;
+	}
+	
+	private ByteBuffer newPacket() {
+		ByteBuffer packet = free.poll();
+		if(packet == null)
+			packet = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+		packet.position(HEADER_SIZE);
+		return packet;
+	}
+}
@@ -0,0 +1,110 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+
+import java.util.List;
+
+/**
+ * Motore di matching usato da ClientHandler e ServerMain: i comandi dei
+ * client (OrderCommands) più aste, osservatori e stato del book.
+ *
+ * Le implementazioni devono essere thread safe (metodi synchronized): i comandi
+ * arrivano dal thread del motore del simbolo (SymbolRegistry), le letture
+ * (snapshot, ordini attivi) dai thread dei client e le metriche da altri
+ * thread. Lo stato attivo viene caricato
+ * dal costruttore (file passato da create) e salvato con saveActiveStateToFile.
+ *
+ * L'implementazione è scelta con la chiave 'matching_engine' di server.properties.
+ */
+
+public interface MatchingEngine extends OrderCommands {
+	
+	/*
+	 * asta a chiamata: durante la fase d'asta i limit order restano nel book senza
+	 * matching (IOC e FOK vengono annullati, i market order rifiutati, gli stop non
+	 * si attivano); uncrossAuction esegue gli ordini incrociati a un unico prezzo
+	 * che massimizza il volume (CallAuction) e torna al matching continuo.
+	 * startAuction ritorna false se l'asta è già in corso, uncrossAuction il prezzo
+	 * di equilibrio (0 se non ci sono ordini incrociati)
+	 */
+	boolean startAuction();
+	
+	int uncrossAuction(FillBuffer fills);
+	
+	boolean isAuction();
+	
+	//varianti con i trade come oggetti, per benchmark e strumenti offline
+	default List<Trade> addLimitOrder(LimitOrder order) {
+		FillBuffer fills = new FillBuffer();
+		addLimitOrder(order, fills);
+		return fills.toTrades();
+	}
+	
+	default BatchResult addLimitOrders(List<LimitOrder> orders) {
+		FillBuffer fills = new FillBuffer();
+		List<OrderResult> results = addLimitOrders(orders, fills);
+		return new BatchResult(results, fills.toTrades());
+	}
+	
+	default List<Trade> executeMarketOrder(MarketOrder order) throws Exception {
+		FillBuffer fills = new FillBuffer();
+		executeMarketOrder(order, fills);
+		return fills.toTrades();
+	}
+	
+	default boolean cancelOrder(long orderId, String username) {
+		return cancelOrder(orderId, username, new FillBuffer());
+	}
+	
+	default BatchResult cancelOrders(List<Long> orderIds, String username) {
+		FillBuffer fills = new FillBuffer();
+		List<OrderResult> results = cancelOrders(orderIds, username, fills);
+		return new BatchResult(results, fills.toTrades());
+	}
+	
+	default BatchResult cancelReplaceOrder(long orderId, String username, LimitOrder replacement) {
+		FillBuffer fills = new FillBuffer();
+		List<OrderResult> results = cancelReplaceOrder(orderId, username, replacement, fills);
+		return new BatchResult(results, fills.toTrades());
+	}
+	
+	int getLevelCount(OrderType side);
+	
+	int getStopOrderCount();
+	
+	//registra un osservatore, notificandogli subito gli ordini già a riposo
+	void addListener(OrderBookListener listener);
+	
+	void saveActiveStateToFile();
+	
+	//stato attivo nel formato del file, da serializzare sul thread del motore (può riferire lo stato interno)
+	ActiveBookState getActiveState();
+	
+	/*
+	 * checksum dello stato: limit order a riposo (bid poi ask, in ordine di priorità), stop order
+	 * in attesa e fase d'asta. Motori diversi con lo stesso stato danno lo stesso valore,
+	 * confrontato tra primario e replica (ReplicationClient)
+	 */
+	long checksum();
+	
+	//combina un ordine nel checksum
+	static long checksum(long hash, long orderId, int size, int price) {
+		return ((hash * 31 + orderId) * 31 + size) * 31 + price;
+	}
+	
+	/*
+	 * crea il motore indicato in 'matching_engine': un nome breve noto
+	 * o il nome completo di una classe con costruttore (String activeBookFilename)
+	 */
+	static MatchingEngine create(String name, String activeBookFilename) throws ReflectiveOperationException {
+		switch(name) {
+		case "orderbook":
+			return new OrderBook(activeBookFilename);
+		case "offheap":
+			return new OffHeapOrderBook(activeBookFilename);
+		default:
+			return (MatchingEngine) Class.forName(name)
+					.getConstructor(String.class).newInstance(activeBookFilename);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.AsyncLogger;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Stadio dedicato all'invio delle notifiche UDP dei trade.
+ *
+ * I ClientHandler si limitano a copiare i fill generati in un buffer e
+ * rispondono subito al client; un thread dedicato scambia il buffer con
+ * un secondo buffer vuoto dopo una breve finestra temporale, raggruppa
+ * i fill per utente e invia un solo datagramma per utente tramite un
+ * DatagramChannel non bloccante. I due FillBuffer vengono riusati, la
+ * coda non alloca un oggetto per comando.
+ *
+ * Ogni notifica riceve un numero di sequenza per utente e viene conservata
+ * nel NotificationLog dell'utente, così il client può accorgersi dei
+ * datagrammi persi e recuperarli via TCP. La sequenza è unica per utente,
+ * ogni dettaglio riporta il simbolo dello strumento del trade.
+ *
+ * Nel processo del motore con gateway (EngineServer) ogni gruppo di fill
+ * viene anche inoltrato ai gateway, che li notificano ai propri utenti.
+ */
+
+public class NotificationDispatcher implements Runnable {
+	//numero massimo di trade per datagramma, mantiene il JSON sotto il limite di un pacchetto UDP
+	private static final int MAX_TRADES_PER_PACKET = 200;
+	
+	private final Object lock = new Object();
+	private FillBuffer incoming = new FillBuffer(1024);	//riempito dai ClientHandler, sotto lock
+	private FillBuffer draining = new FillBuffer(1024);	//letto solo dal thread del dispatcher
+	private final ConcurrentHashMap<String, NotificationLog> logs;	//chiave username
+	private final int replayCapacity;	//notifiche conservate per utente
+	private final UserManager userManager;
+	private final DatagramChannel channel;
+	private final long batchWindowMillis;	//finestra di raggruppamento dei fill
+	private final Gson gson = new Gson();
+	private final ServerMetrics metrics;
+	private volatile Consumer<FillBuffer> forwarder;	//riceve ogni gruppo di fill prima delle notifiche, può essere null
+	
+	private volatile boolean running = true;
+	
+	public NotificationDispatcher(UserManager userManager, long batchWindowMillis, int replayCapacity, ServerMetrics metrics) throws IOException {
+		this.logs = new ConcurrentHashMap<>();
+		this.replayCapacity = replayCapacity;
+		this.userManager = userManager;
+		this.batchWindowMillis = batchWindowMillis;
+		this.metrics = metrics;
+		this.channel = DatagramChannel.open();
+		this.channel.configureBlocking(false);	//send non bloccante
+		this.channel.bind(null);	//porta effimera per invio da server
+	}
+	
+	//copia i fill di un comando da notificare, non blocca il chiamante oltre la copia
+	public void submit(String symbol, FillBuffer fills) {
+		if(fills == null || fills.isEmpty() || !running)
+			return;
+		synchronized(lock) {
+			boolean wasEmpty = incoming.isEmpty();
+			incoming.addAll(fills, symbol);
+			if(wasEmpty)
+				lock.notify();
+		}
+	}
+	
+	//inoltro dei fill ad altri processi (gateway), chiamato dal thread del dispatcher con i fill di ogni finestra
+	public void setForwarder(Consumer<FillBuffer> forwarder) {
+		this.forwarder = forwarder;
+	}
+	
+	public void run() {
+		while(true) {
+			try {
+				synchronized(lock) {
+					if(incoming.isEmpty()) {
+						if(!running)
+							break;
+						lock.wait(100);
+						continue;
+					}
+				}
+				
+				//raccoglie gli altri fill arrivati entro la finestra
+				if(batchWindowMillis > 0)
+					Thread.sleep(batchWindowMillis);
+				
+				synchronized(lock) {	//scambio dei buffer, i ClientHandler continuano a scrivere sull'altro
+					FillBuffer filled = incoming;
+					incoming = draining;
+					draining = filled;
+				}
+				
+				Consumer<FillBuffer> forwarder = this.forwarder;
+				if(forwarder != null)
+					forwarder.accept(draining);
+				dispatch(draining);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch(Exception e) {
+				AsyncLogger.error("NotificationDispatcher: Errore invio notifiche: " + e);
+			} finally {
+				draining.clear();
+			}
+		}
+		
+		try {
+			channel.close();
+		} catch(IOException e) {
+			//ignora
+		}
+	}
+	
+	//raggruppa i fill per utente in un solo passaggio sui trade e invia le notifiche
+	private void dispatch(FillBuffer fills) throws IOException {
+		//LinkedHashMap mantiene l'ordine di arrivo degli utenti
+		Map<String, List<TradeNotificationDetail>> detailsByUser = new LinkedHashMap<>();
+		
+		for(int i = 0; i < fills.size(); i++) {
+			//utente BUYER
+			detailsByUser.computeIfAbsent(fills.getBuyerUsername(i), k -> new ArrayList<>())
+				.add(new TradeNotificationDetail(
+					fills.getBuyOrderId(i), "bid",
+					fills.getBuyerOrderType(i),
+					fills.getSize(i), fills.getPrice(i),
+					fills.getTimestamp(i), fills.getSymbol(i)));
+			
+			//utente SELLER
+			detailsByUser.computeIfAbsent(fills.getSellerUsername(i), k -> new ArrayList<>())
+				.add(new TradeNotificationDetail(
+					fills.getSellOrderId(i), "ask",
+					fills.getSellerOrderType(i),
+					fills.getSize(i), fills.getPrice(i),
+					fills.getTimestamp(i), fills.getSymbol(i)));
+		}
+		
+		for(Map.Entry<String, List<TradeNotificationDetail>> entry : detailsByUser.entrySet()) {
+			String username = entry.getKey();
+			NotificationLog log = getLog(username);
+			UserNotificationInfo info = userManager.getNotificationInfo(username);
+			List<TradeNotificationDetail> details = entry.getValue();
+			
+			for(int from = 0; from < details.size(); from += MAX_TRADES_PER_PACKET) {
+				int to = Math.min(from + MAX_TRADES_PER_PACKET, details.size());
+				//la notifica viene sempre registrata, anche se l'utente è offline può recuperarla dopo il login
+				TradeNotification payload = log.append(new ArrayList<>(details.subList(from, to)));
+				
+				if(info == null)
+					continue;	//utente non loggato
+				
+				InetSocketAddress target = new InetSocketAddress(info.getIpAddress(), info.getUdpPort());
+				ByteBuffer sendData = ByteBuffer.wrap(gson.toJson(payload).getBytes(StandardCharsets.UTF_8));
+				
+				OrderTraceEvents.Notify trace = new OrderTraceEvents.Notify();
+				trace.begin();
+				long sendStart = System.nanoTime();
+				int sent = channel.send(sendData, target);
+				metrics.recordNanos(ServerMetrics.UDP_SEND_LATENCY, System.nanoTime() - sendStart);
+				if(trace.shouldCommit()) {
+					trace.user = username;
+					trace.seq = payload.getSeq();
+					trace.trades = to - from;
+					trace.sent = sent > 0;
+					trace.commit();
+				}
+				if(sent == 0) {	//buffer di invio pieno, il datagramma viene scartato
+					AsyncLogger.warn("NotificationDispatcher: Buffer UDP pieno, notifica per " + username + " scartata.");
+					continue;
+				}
+				if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+					AsyncLogger.debug("Inviata notifica UDP a " + username + " @ " 
+						+ info.getIpAddress() + ":" + info.getUdpPort());
+			}
+		}
+	}
+	
+	//storico notifiche di un utente, creato al primo utilizzo
+	public NotificationLog getLog(String username) {
+		return logs.computeIfAbsent(username, k -> new NotificationLog(replayCapacity));
+	}
+	
+	//fill in attesa di essere notificati
+	public int getQueueSize() {
+		synchronized(lock) {
+			return incoming.size();
+		}
+	}
+	
+	//termina dopo aver inviato le notifiche già accodate
+	public void shutdown() {
+		running = false;
+		synchronized(lock) {
+			lock.notify();
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import java.util.*;
+
+/**
+ * Storico in memoria delle ultime notifiche di un utente.
+ *
+ * Assegna a ogni notifica un numero di sequenza crescente e mantiene
+ * le ultime 'capacity' notifiche in un buffer circolare, da cui il client
+ * può recuperare quelle perse (richiesta replayNotifications).
+ *
+ * Scritto dal thread del NotificationDispatcher e letto dai ClientHandler,
+ * per questo tutti i metodi sono synchronized.
+ */
+
+public class NotificationLog {
+	private final TradeNotification[] ring;
+	private long lastSeq = 0;	//sequenza dell'ultima notifica, la prima ha sequenza 1
+	
+	public NotificationLog(int capacity) {
+		this.ring = new TradeNotification[capacity];
+	}
+	
+	//crea la notifica con la prossima sequenza e la memorizza (sovrascrive la più vecchia)
+	public synchronized TradeNotification append(List<TradeNotificationDetail> details) {
+		TradeNotification notification = new TradeNotification(++lastSeq, details);
+		ring[(int)(lastSeq % ring.length)] = notification;
+		return notification;
+	}
+	
+	//notifiche con sequenza >= fromSeq ancora presenti nel buffer, in ordine crescente
+	public synchronized List<TradeNotification> replayFrom(long fromSeq) {
+		List<TradeNotification> replay = new ArrayList<>();
+		for(long seq = Math.max(fromSeq, getFirstAvailableSeq()); seq <= lastSeq; seq++)
+			replay.add(ring[(int)(seq % ring.length)]);
+		return replay;
+	}
+	
+	public synchronized long getLastSeq() {
+		return lastSeq;
+	}
+	
+	//sequenza più vecchia ancora recuperabile
+	public synchronized long getFirstAvailableSeq() {
+		return Math.max(1, lastSeq - ring.length + 1);
+	}
+}
@@ -0,0 +1,983 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.AsyncLogger;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Motore di matching con gli ordini a riposo fuori heap ("offheap"),
+ * per book molto profondi (milioni di ordini) dove i LimitOrder sullo heap
+ * e i nodi delle LinkedList aumentano i tempi di GC.
+ *
+ * Gli ordini a riposo sono record di OrderSlab; ogni livello di prezzo
+ * tiene solo primo/ultimo ref della propria lista, gli username sono
+ * sostituiti da un indice in una tabella (un'unica String per utente)
+ * e la cancellazione per id passa da un indice a indirizzamento aperto
+ * su array primitivi. Anche gli ordini di ciascun utente sono collegati
+ * nei record (userNext/userPrev, primo/ultimo ref per utente in un array),
+ * così il cancel-all non ha indici sullo heap. Oggetti sullo heap vengono creati solo ai confini
+ * dell'API: snapshot e salvataggio dello stato (i fill vanno nel FillBuffer
+ * del chiamante). Gli osservatori ricevono una vista riutilizzata del
+ * record (RecordView), notificata prima di liberarlo: eseguire o cancellare
+ * un ordine a riposo non alloca nulla anche con osservatori registrati.
+ *
+ * Il comportamento è quello di OrderBook (verificato con DifferentialHarness),
+ * anche per gli stop order, che restano sullo heap perché pochi.
+ */
+
+public class OffHeapOrderBook implements MatchingEngine {
+	private static final int BID = 0;
+	private static final int ASK = 1;
+
+	//livello di prezzo: lista FIFO di record collegati per indice
+	private static class Level {
+		int head = OrderSlab.NIL;
+		int tail = OrderSlab.NIL;
+		int count;
+		int totalSize;
+	}
+
+	private final OrderSlab slab = new OrderSlab();
+	private final TreeMap<Integer, Level> asks = new TreeMap<>();	//miglior ASK (prezzo più basso) per primo
+	private final TreeMap<Integer, Level> bids = new TreeMap<>(Collections.reverseOrder());	//miglior BID per primo
+	private final OrderIndex index = new OrderIndex();	//orderId -> ref
+
+	//tabella degli utenti: indice nel record <-> username
+	private final List<String> userNames = new ArrayList<>();
+	private final Map<String, Integer> userIds = new HashMap<>();
+	private int[] userHeads = new int[0];	//per indice utente: primo record della catena dei suoi ordini a riposo
+	private int[] userTails = new int[0];	//ultimo record della catena
+	private int[] userStops = new int[0];	//stop order in attesa
+
+	private final List<StopOrder> stopOrders = new ArrayList<>();
+
+	private final String activeBookFilename;
+	private static final int MAX_LEVELS_TO_SHOW = 10;
+
+	private final List<OrderBookListener> listeners = new CopyOnWriteArrayList<>();
+	private final RecordView view = new RecordView();	//ordine a riposo passato agli osservatori
+	private long version = 0;
+	private boolean auction = false;	//fase d'asta a chiamata, come in OrderBook
+
+	public OffHeapOrderBook(String activeBookFilename) {
+		this.activeBookFilename = activeBookFilename;
+		ActiveBookState loadedState = ActiveBookState.loadFromFile(activeBookFilename);
+
+		if(loadedState != null) {	//ricrea i record nell'ordine salvato
+			if(loadedState.getAsks() != null)
+				for(Queue<LimitOrder> queue : loadedState.getAsks().values())
+					for(LimitOrder order : queue)
+						rest(order);
+			if(loadedState.getBids() != null)
+				for(Queue<LimitOrder> queue : loadedState.getBids().values())
+					for(LimitOrder order : queue)
+						rest(order);
+			if(loadedState.getStopOrders() != null)
+				for(StopOrder order : loadedState.getStopOrders()) {
+					stopOrders.add(order);
+					userStops[userId(order.getUsername())]++;
+				}
+			System.out.println("OffHeapOrderBook: Stato attivo caricato con successo da " + this.activeBookFilename);
+		}
+	}
+
+	public synchronized void addLimitOrder(LimitOrder order, FillBuffer fills) {
+		matchLimitOrder(order, fills);
+		checkStopOrders(fills);
+	}
+
+	public synchronized List<OrderResult> addLimitOrders(List<LimitOrder> orders, FillBuffer fills) {
+		List<OrderResult> results = new ArrayList<>(orders.size());
+
+		for(LimitOrder order : orders) {
+			matchLimitOrder(order, fills);
+			results.add(killed(order) ? new OrderResult(-1, 101) : new OrderResult(order.getOrderId(), 100));
+		}
+
+		checkStopOrders(fills);
+
+		return results;
+	}
+
+	public synchronized List<OrderResult> cancelOrders(List<Long> orderIds, String username, FillBuffer fills) {
+		List<OrderResult> results = new ArrayList<>(orderIds.size());
+
+		for(long orderId : orderIds) {
+			boolean success = removeOrder(orderId, username);
+			results.add(new OrderResult(orderId, success ? 100 : 101));
+		}
+
+		checkStopOrders(fills);
+
+		return results;
+	}
+
+	public synchronized List<OrderResult> cancelReplaceOrder(long orderId, String username, LimitOrder replacement, FillBuffer fills) {
+		List<OrderResult> results = new ArrayList<>(2);
+
+		if(!removeOrder(orderId, username)) {
+			results.add(new OrderResult(orderId, 101));
+			results.add(new OrderResult(-1, 101));
+			return results;
+		}
+		results.add(new OrderResult(orderId, 100));
+
+		matchLimitOrder(replacement, fills);
+		results.add(killed(replacement) ? new OrderResult(-1, 101) : new OrderResult(replacement.getOrderId(), 100));
+
+		checkStopOrders(fills);
+
+		return results;
+	}
+
+	//matching contro il lato opposto, l'eventuale residuo diventa un record del book (annullato se IOC)
+	private void matchLimitOrder(LimitOrder order, FillBuffer fills) {
+		OrderIdGenerator.assign(order);
+		order.setTimestamp(System.currentTimeMillis());
+
+		if(auction) {	//attende l'uncross, IOC e FOK vengono annullati
+			if(order.getTimeInForce() != TimeInForce.IOC && order.getTimeInForce() != TimeInForce.FOK) {
+				rest(order);
+				fireOrderRested(order);
+			}
+			return;
+		}
+
+		if(order.getTimeInForce() == TimeInForce.FOK) {
+			fillOrKill(order, fills);
+			return;
+		}
+
+		boolean buy = order.getType() == OrderType.BID;
+		TreeMap<Integer, Level> opposite = buy ? asks : bids;
+		int user = userId(order.getUsername());
+		int limitPrice = order.getLimitPrice();
+
+		while(order.getSize() > 0 && !opposite.isEmpty()) {
+			Map.Entry<Integer, Level> best = opposite.firstEntry();
+			int bestPrice = best.getKey();
+			if(buy ? bestPrice > limitPrice : bestPrice < limitPrice)
+				break;
+
+			Level level = best.getValue();
+			int resting = level.head;
+
+			if(slab.user(resting) == user) {	//self-trade: annulla l'ordine a riposo
+				long cancelledId = slab.orderId(resting);
+				fireSelfTradeCancelled(resting);
+				unlink(level, resting);
+				if(level.count == 0)
+					opposite.remove(bestPrice);
+
+				if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+					AsyncLogger.debug("STP: Annullato ordine " + (buy ? "ASK " : "BID ") + cancelledId + " per self-trade.");
+				continue;
+			}
+
+			int tradeSize = Math.min(order.getSize(), slab.size(resting));
+			int fill = buy
+					? fills.add(order.getOrderId(), slab.orderId(resting), tradeSize, bestPrice,
+							order.getUsername(), userNames.get(slab.user(resting)), System.currentTimeMillis(), FillBuffer.LIMIT, FillBuffer.LIMIT)
+					: fills.add(slab.orderId(resting), order.getOrderId(), tradeSize, bestPrice,
+							userNames.get(slab.user(resting)), order.getUsername(), System.currentTimeMillis(), FillBuffer.LIMIT, FillBuffer.LIMIT);
+
+			order.setSize(order.getSize() - tradeSize);
+			reduce(level, resting, fills, fill, tradeSize);
+			if(level.count == 0)
+				opposite.remove(bestPrice);
+		}
+
+		if(order.getSize() > 0 && order.getTimeInForce() != TimeInForce.IOC) {
+			rest(order);
+			fireOrderRested(order);
+		}
+	}
+
+	//fill-or-kill in un solo passaggio, come in OrderBook: fill provvisori, poi applicati ai ref in testa o scartati
+	private void fillOrKill(LimitOrder order, FillBuffer fills) {
+		boolean buy = order.getType() == OrderType.BID;
+		TreeMap<Integer, Level> opposite = buy ? asks : bids;
+		int user = userId(order.getUsername());
+		int mark = fills.size();
+		int toFill = order.getSize();
+		long now = System.currentTimeMillis();	//un solo istante per tutti i fill dell'ordine
+
+		levels:
+		for(Map.Entry<Integer, Level> entry : opposite.entrySet()) {
+			int price = entry.getKey();
+			if(toFill == 0 || (buy ? price > order.getLimitPrice() : price < order.getLimitPrice()))
+				break;
+			for(int ref = entry.getValue().head; ref != OrderSlab.NIL; ref = slab.next(ref)) {
+				if(slab.user(ref) == user)
+					continue;
+
+				int tradeSize = Math.min(toFill, slab.size(ref));
+				if(buy)
+					fills.add(order.getOrderId(), slab.orderId(ref), tradeSize, price,
+							order.getUsername(), userNames.get(slab.user(ref)), now, FillBuffer.LIMIT, FillBuffer.LIMIT);
+				else
+					fills.add(slab.orderId(ref), order.getOrderId(), tradeSize, price,
+							userNames.get(slab.user(ref)), order.getUsername(), now, FillBuffer.LIMIT, FillBuffer.LIMIT);
+				toFill -= tradeSize;
+				if(toFill == 0)
+					break levels;
+			}
+		}
+
+		if(toFill > 0) {	//kill: nessun effetto sul book
+			fills.truncate(mark);
+			return;
+		}
+
+		for(int fill = mark; fill < fills.size(); fill++) {
+			Map.Entry<Integer, Level> entry = opposite.firstEntry();
+			Level level = entry.getValue();
+
+			while(slab.user(level.head) == user) {	//self-trade: annulla l'ordine a riposo
+				long cancelledId = slab.orderId(level.head);
+				fireSelfTradeCancelled(level.head);
+				unlink(level, level.head);
+				if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+					AsyncLogger.debug("STP: Annullato ordine " + (buy ? "ASK " : "BID ") + cancelledId + " per self-trade.");
+
+				if(level.count == 0) {
+					opposite.remove(entry.getKey());
+					entry = opposite.firstEntry();
+					level = entry.getValue();
+				}
+			}
+
+			int tradeSize = fills.getSize(fill);
+			order.setSize(order.getSize() - tradeSize);
+			reduce(level, level.head, fills, fill, tradeSize);
+			if(level.count == 0)
+				opposite.remove(entry.getKey());
+		}
+	}
+
+	private static boolean killed(LimitOrder order) {
+		return order.getTimeInForce() == TimeInForce.FOK && order.getSize() > 0;
+	}
+
+	public synchronized void executeMarketOrder(MarketOrder order, FillBuffer fills) throws Exception {
+		if(auction)
+			throw new Exception("Ordine market rifiutato: asta in corso.");
+		executeMarketOrderLogic(order, FillBuffer.MARKET, fills);
+	}
+
+	public synchronized boolean startAuction() {
+		if(auction)
+			return false;
+		auction = true;
+		return true;
+	}
+
+	public synchronized boolean isAuction() {
+		return auction;
+	}
+
+	//come OrderBook.uncrossAuction, con le size aggregate già mantenute dai livelli
+	public synchronized int uncrossAuction(FillBuffer fills) {
+		auction = false;
+		int price = clearingPrice();
+		long now = System.currentTimeMillis();
+
+		while(price > 0 && !bids.isEmpty() && !asks.isEmpty() && bids.firstKey() >= price && asks.firstKey() <= price) {
+			Map.Entry<Integer, Level> bidEntry = bids.firstEntry();
+			Map.Entry<Integer, Level> askEntry = asks.firstEntry();
+			Level bidLevel = bidEntry.getValue();
+			Level askLevel = askEntry.getValue();
+			int buyer = bidLevel.head;
+			int seller = askLevel.head;
+
+			if(slab.user(buyer) == slab.user(seller)) {	//self-trade: annulla l'ordine con id minore
+				boolean cancelBuyer = slab.orderId(buyer) < slab.orderId(seller);
+				long cancelledId = slab.orderId(cancelBuyer ? buyer : seller);
+				Level level = cancelBuyer ? bidLevel : askLevel;
+				fireSelfTradeCancelled(cancelBuyer ? buyer : seller);
+				unlink(level, cancelBuyer ? buyer : seller);
+				if(level.count == 0)
+					(cancelBuyer ? bids : asks).remove(cancelBuyer ? bidEntry.getKey() : askEntry.getKey());
+
+				if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+					AsyncLogger.debug("STP: Annullato ordine " + (cancelBuyer ? "BID " : "ASK ") + cancelledId + " per self-trade (asta).");
+				continue;
+			}
+
+			int tradeSize = Math.min(slab.size(buyer), slab.size(seller));
+			int fill = fills.add(slab.orderId(buyer), slab.orderId(seller), tradeSize, price,
+					userNames.get(slab.user(buyer)), userNames.get(slab.user(seller)), now, FillBuffer.LIMIT, FillBuffer.LIMIT);
+
+			slab.setSize(seller, slab.size(seller) - tradeSize);
+			askLevel.totalSize -= tradeSize;
+			fireOrderReduced(seller, tradeSize);
+			if(slab.size(seller) == 0)
+				unlink(askLevel, seller);
+			reduce(bidLevel, buyer, fills, fill, tradeSize);
+
+			if(askLevel.count == 0)
+				asks.remove(askEntry.getKey());
+			if(bidLevel.count == 0)
+				bids.remove(bidEntry.getKey());
+		}
+
+		checkStopOrders(fills);
+		return price;
+	}
+
+	//prezzo di equilibrio dai livelli incrociati, 0 se nessuno
+	private int clearingPrice() {
+		if(bids.isEmpty() || asks.isEmpty() || bids.firstKey() < asks.firstKey())
+			return 0;
+		NavigableMap<Integer, Level> crossingBids = bids.headMap(asks.firstKey(), true);
+		NavigableMap<Integer, Level> crossingAsks = asks.headMap(bids.firstKey(), true);
+
+		int[] bidPrices = new int[crossingBids.size()];
+		long[] bidSizes = new long[bidPrices.length];
+		int i = 0;
+		for(Map.Entry<Integer, Level> level : crossingBids.entrySet()) {
+			bidPrices[i] = level.getKey();
+			bidSizes[i++] = level.getValue().totalSize;
+		}
+		int[] askPrices = new int[crossingAsks.size()];
+		long[] askSizes = new long[askPrices.length];
+		i = 0;
+		for(Map.Entry<Integer, Level> level : crossingAsks.entrySet()) {
+			askPrices[i] = level.getKey();
+			askSizes[i++] = level.getValue().totalSize;
+		}
+		return CallAuction.clearingPrice(bidPrices, bidSizes, bidPrices.length, askPrices, askSizes, askPrices.length);
+	}
+
+	public synchronized void addStopOrder(StopOrder order) {
+		OrderIdGenerator.assign(order);
+		order.setTimestamp(System.currentTimeMillis());
+		stopOrders.add(order);
+		fireStopOrderAdded(order);
+	}
+
+	//ordine tutto o niente, come OrderBook
+	private void executeMarketOrderLogic(Order order, byte incomingOrderType, FillBuffer fills) throws Exception {
+		boolean buy = order.getType() == OrderType.BID;
+		TreeMap<Integer, Level> opposite = buy ? asks : bids;
+		int user = userId(order.getUsername());
+		int sizeToFill = order.getSize();
+
+		//liquidità disponibile escludendo gli ordini dello stesso utente (self-trade prevention)
+		int availableSize = 0;
+		boolean canBeFilled = false;
+		search:
+		for(Level level : opposite.values()) {
+			for(int ref = level.head; ref != OrderSlab.NIL; ref = slab.next(ref)) {
+				if(slab.user(ref) != user)
+					availableSize += slab.size(ref);
+				if(availableSize >= sizeToFill) {
+					canBeFilled = true;
+					break search;
+				}
+			}
+		}
+		if(!canBeFilled)
+			throw new Exception("Ordine (" + (incomingOrderType == FillBuffer.STOP ? "stop" : "market") + ") fallito: liquidità non sufficiente.");
+
+		if(order.getOrderId() == -1) {	//gli StopOrder li hanno già
+			OrderIdGenerator.assign(order);
+			order.setTimestamp(System.currentTimeMillis());
+		}
+
+		Iterator<Map.Entry<Integer, Level>> levels = opposite.entrySet().iterator();
+		while(sizeToFill > 0 && levels.hasNext()) {
+			Map.Entry<Integer, Level> entry = levels.next();
+			int tradePrice = entry.getKey();
+			Level level = entry.getValue();
+
+			int ref = level.head;
+			while(sizeToFill > 0 && ref != OrderSlab.NIL) {
+				int next = slab.next(ref);	//il record può essere liberato
+
+				if(slab.user(ref) == user) {
+					long cancelledId = slab.orderId(ref);
+					fireSelfTradeCancelled(ref);
+					unlink(level, ref);
+					if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+						AsyncLogger.debug("STP: Annullato ordine " + (buy ? "ASK " : "BID ") + cancelledId + " per self-trade.");
+					ref = next;
+					continue;
+				}
+
+				int tradeSize = Math.min(sizeToFill, slab.size(ref));
+				int fill = buy
+						? fills.add(order.getOrderId(), slab.orderId(ref), tradeSize, tradePrice,
+								order.getUsername(), userNames.get(slab.user(ref)), System.currentTimeMillis(), incomingOrderType, FillBuffer.LIMIT)
+						: fills.add(slab.orderId(ref), order.getOrderId(), tradeSize, tradePrice,
+								userNames.get(slab.user(ref)), order.getUsername(), System.currentTimeMillis(), FillBuffer.LIMIT, incomingOrderType);
+
+				sizeToFill -= tradeSize;
+				reduce(level, ref, fills, fill, tradeSize);
+				ref = next;
+			}
+
+			if(level.count == 0)
+				levels.remove();
+		}
+
+		checkStopOrders(fills);
+	}
+
+	public synchronized boolean cancelOrder(long orderId, String username, FillBuffer fills) {
+		if(removeLimitOrder(orderId, username)) {
+			checkStopOrders(fills);	//la cancellazione può cambiare best-bid/best-ask
+			return true;
+		}
+		return removeStopOrder(orderId, username);
+	}
+
+	//come in OrderBook: riduzione sul posto allo stesso prezzo, altrimenti reinserimento con lo stesso id
+	public synchronized boolean amendOrder(long orderId, String username, int size, int price, FillBuffer fills) {
+		int ref = index.get(orderId);
+		if(ref == OrderSlab.NIL || !userNames.get(slab.user(ref)).equals(username) || size <= 0)
+			return false;
+		int oldPrice = slab.price(ref);
+		if(price <= 0)
+			price = oldPrice;
+
+		TreeMap<Integer, Level> side = slab.side(ref) == BID ? bids : asks;
+		Level level = side.get(oldPrice);
+		if(price == oldPrice && size <= slab.size(ref)) {
+			int quantity = slab.size(ref) - size;
+			if(quantity > 0) {
+				slab.setSize(ref, size);
+				level.totalSize -= quantity;
+				fireOrderReduced(ref, quantity);
+			}
+			return true;
+		}
+
+		LimitOrder replacement = new LimitOrder(username, slab.side(ref) == BID ? OrderType.BID : OrderType.ASK, size, price);
+		replacement.setOrderId(orderId);
+		replacement.setExpireTime(slab.expireTime(ref));
+		fireOrderRemoved(ref);
+		unlink(level, ref);
+		if(level.count == 0)
+			side.remove(oldPrice);
+
+		matchLimitOrder(replacement, fills);
+		checkStopOrders(fills);
+		return true;
+	}
+
+	//come in OrderBook: gli ordini a riposo seguendo la catena dell'utente nei record, poi i suoi stop in un solo passaggio
+	public synchronized List<OrderResult> cancelAllOrders(String username, FillBuffer fills) {
+		List<OrderResult> results = new ArrayList<>();
+		Integer user = userIds.get(username);
+
+		if(user != null) {
+			int ref = userHeads[user];
+			while(ref != OrderSlab.NIL) {
+				int next = slab.userNext(ref);	//letto prima di liberare il record
+				results.add(new OrderResult(slab.orderId(ref), 100));
+				removeRecord(ref);
+				ref = next;
+			}
+
+			if(userStops[user] > 0) {
+				Iterator<StopOrder> stopIterator = stopOrders.iterator();
+				while(stopIterator.hasNext()) {
+					StopOrder order = stopIterator.next();
+					if(order.getUsername().equals(username)) {
+						stopIterator.remove();
+						fireStopOrderRemoved(order);
+						results.add(new OrderResult(order.getOrderId(), 100));
+					}
+				}
+			}
+		}
+
+		checkStopOrders(fills);
+		return results;
+	}
+
+	private boolean removeOrder(long orderId, String username) {
+		return removeLimitOrder(orderId, username) || removeStopOrder(orderId, username);
+	}
+
+	private boolean removeLimitOrder(long orderId, String username) {
+		int ref = index.get(orderId);
+		if(ref == OrderSlab.NIL || !userNames.get(slab.user(ref)).equals(username))
+			return false;
+
+		removeRecord(ref);
+		return true;
+	}
+
+	private void removeRecord(int ref) {
+		TreeMap<Integer, Level> side = slab.side(ref) == BID ? bids : asks;
+		int price = slab.price(ref);
+		Level level = side.get(price);
+		fireOrderRemoved(ref);
+		unlink(level, ref);
+		if(level.count == 0)
+			side.remove(price);
+	}
+
+	private boolean removeStopOrder(long orderId, String username) {
+		Iterator<StopOrder> stopIterator = stopOrders.iterator();
+		while(stopIterator.hasNext()) {
+			StopOrder order = stopIterator.next();
+			if(order.getOrderId() == orderId && order.getUsername().equals(username)) {
+				stopIterator.remove();
+				fireStopOrderRemoved(order);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//come OrderBook: stop attivati in base a best-bid/best-ask ed eseguiti come market order
+	private void checkStopOrders(FillBuffer fills) {
+		if(auction)	//controllati all'uncross
+			return;
+
+		Integer bestBid = bids.isEmpty() ? null : bids.firstKey();
+		Integer bestAsk = asks.isEmpty() ? null : asks.firstKey();
+
+		boolean anyActivated = false;
+		for(StopOrder stopOrder : stopOrders) {
+			if(isActivated(stopOrder, bestBid, bestAsk)) {
+				anyActivated = true;
+				break;
+			}
+		}
+		if(!anyActivated)
+			return;
+
+		for(StopOrder stopOrder : new ArrayList<>(stopOrders)) {
+			if(isActivated(stopOrder, bestBid, bestAsk) && stopOrders.remove(stopOrder)) {
+				try {
+					executeMarketOrderLogic(stopOrder, FillBuffer.STOP, fills);
+					fireStopOrderTriggered(stopOrder, true);
+				} catch(Exception e) {
+					fireStopOrderTriggered(stopOrder, false);
+					AsyncLogger.warn("StopOrder " + stopOrder.getOrderId() + " attivato ma fallito: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private static boolean isActivated(StopOrder stopOrder, Integer bestBid, Integer bestAsk) {
+		if(stopOrder.getType() == OrderType.ASK)
+			return bestBid != null && bestBid <= stopOrder.getStopPrice();
+		return bestAsk != null && bestAsk >= stopOrder.getStopPrice();
+	}
+
+	//inserisce il residuo dell'ordine in fondo al suo livello
+	private void rest(LimitOrder order) {
+		int side = order.getType() == OrderType.BID ? BID : ASK;
+		int ref = slab.allocate(order.getOrderId(), order.getTimestamp(), order.getExpireTime(), order.getSize(),
+				order.getLimitPrice(), userId(order.getUsername()), side);
+
+		Level level = (side == BID ? bids : asks).computeIfAbsent(order.getLimitPrice(), k -> new Level());
+		slab.setPrev(ref, level.tail);
+		if(level.tail != OrderSlab.NIL)
+			slab.setNext(level.tail, ref);
+		else
+			level.head = ref;
+		level.tail = ref;
+		level.count++;
+		level.totalSize += order.getSize();
+		index.put(order.getOrderId(), ref);
+
+		int user = slab.user(ref);	//in fondo alla catena dell'utente
+		slab.setUserPrev(ref, userTails[user]);
+		if(userTails[user] != OrderSlab.NIL)
+			slab.setUserNext(userTails[user], ref);
+		else
+			userHeads[user] = ref;
+		userTails[user] = ref;
+	}
+
+	//toglie il record dal livello e dalla catena dell'utente e lo libera, gli osservatori vanno notificati prima
+	private void unlink(Level level, int ref) {
+		int prev = slab.prev(ref);
+		int next = slab.next(ref);
+		if(prev != OrderSlab.NIL)
+			slab.setNext(prev, next);
+		else
+			level.head = next;
+		if(next != OrderSlab.NIL)
+			slab.setPrev(next, prev);
+		else
+			level.tail = prev;
+		level.count--;
+		level.totalSize -= slab.size(ref);
+
+		int user = slab.user(ref);
+		int userPrev = slab.userPrev(ref);
+		int userNext = slab.userNext(ref);
+		if(userPrev != OrderSlab.NIL)
+			slab.setUserNext(userPrev, userNext);
+		else
+			userHeads[user] = userNext;
+		if(userNext != OrderSlab.NIL)
+			slab.setUserPrev(userNext, userPrev);
+		else
+			userTails[user] = userPrev;
+
+		index.remove(slab.orderId(ref));
+		slab.free(ref);
+	}
+
+	//esecuzione parziale o totale di un ordine a riposo
+	private void reduce(Level level, int ref, FillBuffer fills, int fill, int quantity) {
+		slab.setSize(ref, slab.size(ref) - quantity);
+		level.totalSize -= quantity;
+
+		fireTradeExecuted(fills, fill, ref, quantity);
+		if(slab.size(ref) == 0)	//completamente evaso
+			unlink(level, ref);
+	}
+
+	private LimitOrder toLimitOrder(int ref) {
+		LimitOrder order = new LimitOrder(userNames.get(slab.user(ref)),
+				slab.side(ref) == BID ? OrderType.BID : OrderType.ASK, slab.size(ref), slab.price(ref));
+		order.setOrderId(slab.orderId(ref));
+		order.setTimestamp(slab.timestamp(ref));
+		order.setExpireTime(slab.expireTime(ref));
+		return order;
+	}
+
+	private int userId(String username) {
+		Integer id = userIds.get(username);
+		if(id == null) {
+			id = userNames.size();
+			userNames.add(username);
+			userIds.put(username, id);
+			if(id == userHeads.length) {	//raddoppia le tabelle per utente
+				int capacity = Math.max(16, id * 2);
+				userHeads = Arrays.copyOf(userHeads, capacity);
+				userTails = Arrays.copyOf(userTails, capacity);
+				userStops = Arrays.copyOf(userStops, capacity);
+				Arrays.fill(userHeads, id, capacity, OrderSlab.NIL);
+				Arrays.fill(userTails, id, capacity, OrderSlab.NIL);
+			}
+		}
+		return id;
+	}
+
+	public synchronized String getOrderBookSnapshot() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append("--- ASKS (VENDITE) ---\n");
+		sb.append(String.format("%-10s | %-15s\n", "PREZZO", "QUANTITÀ"));
+		sb.append("--------------------------\n");
+		appendLevels(sb, asks);
+
+		sb.append("--- BIDS (ACQUISTI) ---\n");
+		sb.append(String.format("%-10s | %-15s\n", "PREZZO", "QUANTITÀ"));
+		sb.append("--------------------------\n");
+		appendLevels(sb, bids);
+
+		return sb.toString();
+	}
+
+	private void appendLevels(StringBuilder sb, TreeMap<Integer, Level> levels) {
+		int count = 0;
+		for(Map.Entry<Integer, Level> entry : levels.entrySet()) {
+			if(count >= MAX_LEVELS_TO_SHOW)
+				break;
+			sb.append(String.format("%-10d | %-15d\n", entry.getKey(), entry.getValue().totalSize));
+			count++;
+		}
+		if(count == 0)
+			sb.append(" (Vuoto)\n");
+	}
+
+	public synchronized OrderBookDepth getOrderBookDepth(int depth, long knownVersion) {
+		if(knownVersion == version)
+			return null;
+
+		OrderBookDepth snapshot = new OrderBookDepth(version,
+				Math.min(depth, bids.size()), Math.min(depth, asks.size()));
+
+		fillLevels(bids, snapshot.getBidPrices(), snapshot.getBidSizes(), snapshot.getBidCounts());
+		fillLevels(asks, snapshot.getAskPrices(), snapshot.getAskSizes(), snapshot.getAskCounts());
+		return snapshot;
+	}
+
+	//i totali per livello sono mantenuti incrementalmente, senza scorrere gli ordini
+	private void fillLevels(TreeMap<Integer, Level> levels, int[] prices, int[] sizes, int[] counts) {
+		Iterator<Map.Entry<Integer, Level>> iterator = levels.entrySet().iterator();
+		for(int i = 0; i < prices.length; i++) {
+			Map.Entry<Integer, Level> entry = iterator.next();
+			prices[i] = entry.getKey();
+			sizes[i] = entry.getValue().totalSize;
+			counts[i] = entry.getValue().count;
+		}
+	}
+
+	public synchronized List<ActiveOrderInfo> getActiveOrders(String username) {
+		List<ActiveOrderInfo> activeOrders = new ArrayList<>();
+		Integer user = userIds.get(username);
+
+		if(user != null) {
+			addActiveOrders(activeOrders, asks, user, "ask");
+			addActiveOrders(activeOrders, bids, user, "bid");
+		}
+
+		for(StopOrder order : stopOrders) {
+			if(order.getUsername().equals(username)) {
+				activeOrders.add(new ActiveOrderInfo(
+						order.getOrderId(), order.getType().toString().toLowerCase(), "stop",
+						order.getSize(), order.getStopPrice()));
+			}
+		}
+		return activeOrders;
+	}
+
+	private void addActiveOrders(List<ActiveOrderInfo> activeOrders, TreeMap<Integer, Level> levels, int user, String type) {
+		for(Level level : levels.values())
+			for(int ref = level.head; ref != OrderSlab.NIL; ref = slab.next(ref))
+				if(slab.user(ref) == user)
+					activeOrders.add(new ActiveOrderInfo(slab.orderId(ref), type, "limit", slab.size(ref), slab.price(ref)));
+	}
+
+	public synchronized int getLevelCount(OrderType side) {
+		return side == OrderType.BID ? bids.size() : asks.size();
+	}
+
+	public synchronized int getStopOrderCount() {
+		return stopOrders.size();
+	}
+
+	public synchronized void addListener(OrderBookListener listener) {
+		for(TreeMap<Integer, Level> levels : List.of(bids, asks))
+			for(Level level : levels.values())
+				for(int ref = level.head; ref != OrderSlab.NIL; ref = slab.next(ref))
+					listener.orderRested(view.at(ref));
+		for(StopOrder order : stopOrders)
+			listener.stopOrderAdded(order);
+
+		listeners.add(listener);
+	}
+
+	//salva nello stesso formato di OrderBook, i file sono intercambiabili tra i due motori
+	public synchronized void saveActiveStateToFile() {
+		if(asks.isEmpty() && bids.isEmpty() && stopOrders.isEmpty()) {
+			System.out.println("OffHeapOrderBook: Stato attivo vuoto, nessun salvataggio necessario.");
+			return;
+		}
+
+		getActiveState().saveToFile(activeBookFilename);
+	}
+
+	public synchronized ActiveBookState getActiveState() {
+		return new ActiveBookState(toQueues(asks, new TreeMap<>()), toQueues(bids, new TreeMap<>(Collections.reverseOrder())),
+				stopOrders);
+	}
+
+	//come OrderBook.checksum, dai record senza copie sullo heap
+	public synchronized long checksum() {
+		long hash = auction ? 1 : 0;
+		for(TreeMap<Integer, Level> levels : List.of(bids, asks)) {
+			for(Level level : levels.values())
+				for(int ref = level.head; ref != OrderSlab.NIL; ref = slab.next(ref))
+					hash = MatchingEngine.checksum(hash, slab.orderId(ref), slab.size(ref), slab.price(ref));
+			hash = MatchingEngine.checksum(hash, 0, 0, 0);
+		}
+		for(StopOrder order : stopOrders)
+			hash = MatchingEngine.checksum(hash, order.getOrderId(), order.getSize(), order.getStopPrice());
+		return hash;
+	}
+
+	private TreeMap<Integer, Queue<LimitOrder>> toQueues(TreeMap<Integer, Level> levels, TreeMap<Integer, Queue<LimitOrder>> queues) {
+		for(Map.Entry<Integer, Level> entry : levels.entrySet()) {
+			Queue<LimitOrder> queue = new LinkedList<>();
+			for(int ref = entry.getValue().head; ref != OrderSlab.NIL; ref = slab.next(ref))
+				queue.add(toLimitOrder(ref));
+			queues.put(entry.getKey(), queue);
+		}
+		return queues;
+	}
+
+	//ordini a riposo e memoria diretta occupata, per le metriche
+	public synchronized int getRestingOrderCount() {
+		return slab.getLiveCount();
+	}
+
+	public synchronized long getOffHeapBytes() {
+		return slab.getCapacityBytes();
+	}
+
+	private void fireOrderRested(LimitOrder order) {
+		version++;
+		for(OrderBookListener listener : listeners)
+			listener.orderRested(order);
+	}
+
+	private void fireOrderRemoved(int ref) {
+		version++;
+		for(OrderBookListener listener : listeners)
+			listener.orderRemoved(view.at(ref));
+	}
+
+	private void fireSelfTradeCancelled(int ref) {
+		version++;
+		for(OrderBookListener listener : listeners) {
+			listener.orderRemoved(view.at(ref));
+			listener.selfTradeCancelled(view.at(ref));
+		}
+	}
+
+	private void fireStopOrderAdded(StopOrder order) {
+		userStops[userId(order.getUsername())]++;
+		for(OrderBookListener listener : listeners)
+			listener.stopOrderAdded(order);
+	}
+
+	private void fireStopOrderRemoved(StopOrder order) {
+		userStops[userId(order.getUsername())]--;
+		for(OrderBookListener listener : listeners)
+			listener.stopOrderRemoved(order);
+	}
+
+	private void fireStopOrderTriggered(StopOrder order, boolean executed) {
+		userStops[userId(order.getUsername())]--;
+		for(OrderBookListener listener : listeners)
+			listener.stopOrderTriggered(order, executed);
+	}
+
+	//size ridotta da un amend o lato vendita di un fill d'asta
+	private void fireOrderReduced(int ref, int quantity) {
+		version++;
+		for(OrderBookListener listener : listeners)
+			listener.orderReduced(view.at(ref), quantity);
+	}
+
+	//chiamato prima di liberare il record di un ordine completamente evaso
+	private void fireTradeExecuted(FillBuffer fills, int fill, int ref, int quantity) {
+		version++;
+		for(OrderBookListener listener : listeners) {
+			listener.orderReduced(view.at(ref), quantity);
+			listener.tradeExecuted(fills, fill);
+		}
+	}
+
+	/*
+	 * record del book visto come LimitOrder dagli osservatori: i getter leggono il
+	 * record corrente dello slab, quindi è valido solo durante la notifica (come un
+	 * fill del FillBuffer) e non va conservato; i setter non modificano il record
+	 */
+	private final class RecordView extends LimitOrder {
+		private int ref = OrderSlab.NIL;
+
+		RecordView() {
+			super(null, null, 0, 0);
+		}
+
+		RecordView at(int ref) {
+			this.ref = ref;
+			return this;
+		}
+
+		public long getOrderId() {
+			return slab.orderId(ref);
+		}
+
+		public String getUsername() {
+			return userNames.get(slab.user(ref));
+		}
+
+		public OrderType getType() {
+			return slab.side(ref) == BID ? OrderType.BID : OrderType.ASK;
+		}
+
+		public int getSize() {
+			return slab.size(ref);
+		}
+
+		public int getLimitPrice() {
+			return slab.price(ref);
+		}
+
+		public long getTimestamp() {
+			return slab.timestamp(ref);
+		}
+
+		public long getExpireTime() {
+			return slab.expireTime(ref);
+		}
+	}
+
+	/*
+	 * indice orderId -> ref a indirizzamento aperto (linear probing) su array
+	 * primitivi, senza oggetti per ordine; gli id validi sono > 0, 0 indica slot vuoto
+	 */
+	private static class OrderIndex {
+		private long[] keys = new long[1 << 12];
+		private int[] refs = new int[1 << 12];
+		private int size;
+
+		int get(long orderId) {
+			int mask = keys.length - 1;
+			for(int slot = hash(orderId) & mask; keys[slot] != 0; slot = (slot + 1) & mask)
+				if(keys[slot] == orderId)
+					return refs[slot];
+			return OrderSlab.NIL;
+		}
+
+		void put(long orderId, int ref) {
+			if((size + 1) * 2 > keys.length)	//fattore di carico massimo 0.5
+				resize();
+			int mask = keys.length - 1;
+			int slot = hash(orderId) & mask;
+			while(keys[slot] != 0 && keys[slot] != orderId)
+				slot = (slot + 1) & mask;
+			if(keys[slot] == 0)
+				size++;
+			keys[slot] = orderId;
+			refs[slot] = ref;
+		}
+
+		//cancellazione con spostamento all'indietro, senza marcatori
+		void remove(long orderId) {
+			int mask = keys.length - 1;
+			int slot = hash(orderId) & mask;
+			while(keys[slot] != orderId) {
+				if(keys[slot] == 0)
+					return;
+				slot = (slot + 1) & mask;
+			}
+			size--;
+
+			int gap = slot;
+			for(int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+				int home = hash(keys[next]) & mask;
+				//sposta nella lacuna se la posizione ideale non è tra la lacuna e lo slot attuale
+				if(((next - home) & mask) >= ((next - gap) & mask)) {
+					keys[gap] = keys[next];
+					refs[gap] = refs[next];
+					gap = next;
+				}
+			}
+			keys[gap] = 0;
+		}
+
+		private void resize() {
+			long[] oldKeys = keys;
+			int[] oldRefs = refs;
+			keys = new long[oldKeys.length * 2];
+			refs = new int[oldKeys.length * 2];
+			size = 0;
+			for(int i = 0; i < oldKeys.length; i++)
+				if(oldKeys[i] != 0)
+					put(oldKeys[i], oldRefs[i]);
+		}
+
+		private static int hash(long orderId) {
+			long h = orderId * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+}
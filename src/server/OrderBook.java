@@ -1,574 +1,1018 @@
-package ProgettoFinale.server;
-
-import ProgettoFinale.entities.*;
-
-import java.io.*;
-import java.util.*;
-import java.util.concurrent.atomic.*;
-import com.google.gson.*;
-
-/**
- * Gestiione delle strutture dati per gli ordini di acquisto (BID)
- * e di vendita (ASK), implementa l'algoritmo di matching e gestisce
- * l'attivazione degli Stop Order.
- *
- * Progettata per essere thread-safe utilizzando il meccanismo
- * synchronized di Java su tutti i metodi pubblici, garantendo che
- * solo un thread alla volta possa modificare lo stato dell'order book.
- */
-
-public class OrderBook {
-	//Ordinamento crescente degli ordini per prezzo, miglior ASK (prezzo più basso) è il primo elemento
-	private final TreeMap<Integer, Queue<LimitOrder>> asks;	//Coda di ordini per gestire priorità temporale(FIFO) 
-	
-	//Ordinamento decrescente, miglior BID (prezzo più alto) è il primo elemento
-	private final TreeMap<Integer, Queue<LimitOrder>> bids; //Coda per priorità temporale(FIFO)
-	
-	//Lista di stopOrder in attesa di attivazione
-	private final List<StopOrder> stopOrders;
-	
-	//contatore atomico per generare id univoci(static) per gli ordini
-	private static final AtomicLong orderIdGenerator = new AtomicLong(0);
-	
-	//nome del file su cui salvare/caricare lo stato attivo
-	private final String activeBookFilename;
-	
-	//numero di livelli di prezzo da mostrare
-	private static final int MAX_LEVELS_TO_SHOW = 10;
-	
-	public OrderBook(String activeBookFilename) {
-		this.activeBookFilename = activeBookFilename;
-		ActiveBookState loadedState = loadActiveStateFromFile();
-		
-		if(loadedState != null) {	//caricamento riuscito
-            //popola l'order book con i dati letti dal file
-            this.asks = loadedState.getAsks();
-            this.bids = loadedState.getBids();
-            //ricrea la lista synchronized dai dati letti
-            this.stopOrders = Collections.synchronizedList(loadedState.getStopOrders()); 
-            System.out.println("OrderBook: Stato attivo caricato con successo da " + this.activeBookFilename);
-        } else {	//avvio pulito, inizializza order book da zero
-        	this.asks = new TreeMap<>();
-        	this.bids = new TreeMap<>(Collections.reverseOrder());	//ordinamento inverso(decrescente)
-        	this.stopOrders = Collections.synchronizedList(new ArrayList<>());
-        }
-	}
-	
-	public static synchronized void setInitialOrderId(long maxId) {
-		if (maxId > 0) {
-            orderIdGenerator.set(maxId);
-            System.out.println("OrderBook: Contatore ID impostato a " + maxId);
-        } else {
-            System.out.println("OrderBook: Contatore ID parte da 0.");
-        }
-	}
-	
-	public synchronized List<Trade> addLimitOrder(LimitOrder order) {
-		List<Trade> completedTrades = new ArrayList<>();
-		
-		//Assegna id e timestamp
-		order.setOrderId(orderIdGenerator.incrementAndGet());
-		order.setTimestamp(System.currentTimeMillis());
-		
-		//tenta di matchare con gli ask
-		if(order.getType() == OrderType.BID) {	//ordine acquisto (BID)
-			//loop se miglior ask (firstkey) è <= prezzo dell'ordine
-			while(order.getSize()>0 && !asks.isEmpty() && asks.firstKey() <= order.getLimitPrice()) {
-				int bestAskPrice = asks.firstKey();
-				Queue<LimitOrder> bestAsksQueue = asks.get(bestAskPrice);
-				LimitOrder sellerOrder = bestAsksQueue.peek();	//Time-priority, guarda il primo
-				
-				if(sellerOrder == null) {
-					asks.remove(bestAskPrice);	//coda vuota, pulisce ed esce
-					break;
-				}
-				
-				//controllo self trade
-				if (sellerOrder.getUsername().equals(order.getUsername())) {
-					// Trovato un self-trade
-					bestAsksQueue.poll();	//annulla ordine l'ordine esistente
-					
-					if(bestAsksQueue.isEmpty())	//se coda per quel prezzo vuota
-						asks.remove(bestAskPrice);	//rimuove prezzo
-
-					System.out.println("STP: Annullato ordine ASK " + sellerOrder.getOrderId() + " per self-trade.");
-					continue;
-				}
-				
-				//esegue trade
-				int tradePrice = sellerOrder.getLimitPrice();
-				int tradeSize = Math.min(order.getSize(), sellerOrder.getSize());
-				
-				Trade trade = new Trade(
-						order.getOrderId(), sellerOrder.getOrderId(),
-						tradeSize, tradePrice, 
-						order.getUsername(), sellerOrder.getUsername(),
-						System.currentTimeMillis(),
-						"limit", "limit");
-				
-				completedTrades.add(trade);
-				
-				//aggiorna le size
-				order.setSize(order.getSize() - tradeSize);
-				sellerOrder.setSize(sellerOrder.getSize() - tradeSize);
-				
-				if(sellerOrder.getSize() == 0)
-					bestAsksQueue.poll(); //Rimuove dalla coda (FIFO)
-				
-				//se coda vuota per quel prezzo, rimuove il prezzo
-				if(bestAsksQueue.isEmpty())
-					asks.remove(bestAskPrice);
-			}
-			
-			//se c'è redisuo nell'ordine viene riaggiunto ai bid
-			if (order.getSize() > 0) {
-				bids.computeIfAbsent(order.getLimitPrice(), k -> new LinkedList<>()).add(order);
-			}
-		} else {	// ordine vendita (ASK)
-			while(order.getSize() > 0 && !bids.isEmpty() && bids.firstKey() >= order.getLimitPrice()) {
-				int bestBidPrice = bids.firstKey();
-				Queue<LimitOrder> bestBidsQueue = bids.get(bestBidPrice);
-				LimitOrder buyerOrder = bestBidsQueue.peek();
-				
-				if(buyerOrder == null) {
-                    bids.remove(bestBidPrice);
-                    break;
-                }
-				
-				//controllo self trade
-				if (buyerOrder.getUsername().equals(order.getUsername())) {
-					// Trovato un self-trade
-					bestBidsQueue.poll();	//annulla ordine l'ordine esistente
-					
-					if(bestBidsQueue.isEmpty())	//se coda per quel prezzo vuota
-						bids.remove(bestBidPrice);	//rimuove prezzo
-
-					System.out.println("STP: Annullato ordine BID " + buyerOrder.getOrderId() + " per self-trade.");
-					continue;
-				}
-				
-				int tradePrice = buyerOrder.getLimitPrice();
-				int tradeSize = Math.min(order.getSize(), buyerOrder.getSize());
-				
-				Trade trade = new Trade(
-						buyerOrder.getOrderId(), order.getOrderId(),
-						tradeSize, tradePrice, 
-						buyerOrder.getUsername(), order.getUsername(),
-						System.currentTimeMillis(),
-						"limit", "limit");
-				
-				completedTrades.add(trade);
-				
-				order.setSize(order.getSize() - tradeSize);
-				buyerOrder.setSize(buyerOrder.getSize() - tradeSize);
-				
-				if(buyerOrder.getSize() == 0)
-					bestBidsQueue.poll();
-				
-				if(bestBidsQueue.isEmpty())
-					bids.remove(bestBidPrice);
-			}
-			
-			if(order.getSize() > 0) {
-				asks.computeIfAbsent(order.getLimitPrice(), k -> new LinkedList<>()).add(order);
-			}
-		}
-		
-		// Dopo ogni operazione, controlla se si attivano gli Stop Order
-		List<Trade> stopTrades = checkStopOrders();
-		completedTrades.addAll(stopTrades);
-		
-		return completedTrades;
-	}
-	
-	//chiama la logica privata, passando "market" come tipo
-	public synchronized List<Trade> executeMarketOrder(MarketOrder order) throws Exception {
-	    return executeMarketOrderLogic(order, "market");
-	}
-	
-	//aggiunge stop order alla lista di monitoraggio
-	public synchronized void addStopOrder(StopOrder order) {
-        order.setOrderId(orderIdGenerator.incrementAndGet());
-        order.setTimestamp(System.currentTimeMillis());
-        this.stopOrders.add(order);
-    }
-	
-	//Restituisce una vista dello stato attuale dell'order book (primi 10 livelli, solo limit orders)
-	public synchronized String getOrderBookSnapshot() {
-		
-		StringBuilder sb = new StringBuilder();
-		int asksCount = 0;
-
-		//asks ordinati dal prezzo piu basso(best) al piu alto
-		sb.append("--- ASKS (VENDITE) ---\n");
-		sb.append(String.format("%-10s | %-15s\n", "PREZZO", "QUANTITÀ"));
-        sb.append("--------------------------\n");
-        
-        for(Map.Entry<Integer, Queue<LimitOrder>> entry : asks.entrySet()) {
-        	if(asksCount >= MAX_LEVELS_TO_SHOW)
-        		break;
-        	
-        	int price = entry.getKey();
-        	Queue<LimitOrder> queue = entry.getValue();
-        	
-        	//somma delle size di tutti gli ordini nella coda
-        	int totalSizeAtPrice = 0;
-        	for (LimitOrder order : queue)
-        		totalSizeAtPrice += order.getSize();
-        	
-        	sb.append(String.format("%-10d | %-15d\n", price, totalSizeAtPrice));
-            asksCount++;
-        }
-        
-        if (asksCount == 0)
-            sb.append(" (Vuoto)\n");
-        
-        //bids ordinati dal prezzo piu alto(best) al piu basso
-        sb.append("--- BIDS (ACQUISTI) ---\n");
-        sb.append(String.format("%-10s | %-15s\n", "PREZZO", "QUANTITÀ"));
-        sb.append("--------------------------\n");
-        
-        int bidsCount = 0;
-        
-        for (Map.Entry<Integer, Queue<LimitOrder>> entry : bids.entrySet()) {
-            if (bidsCount >= MAX_LEVELS_TO_SHOW)
-                break;
-            
-            int price = entry.getKey();
-            Queue<LimitOrder> queue = entry.getValue();
-            
-            int totalSizeAtPrice = 0;
-            for (LimitOrder order : queue)
-                totalSizeAtPrice += order.getSize();
-
-            sb.append(String.format("%-10d | %-15d\n", price, totalSizeAtPrice));
-            bidsCount++;
-        }
-        
-        if (bidsCount == 0) 
-            sb.append(" (Vuoto)\n");
-        
-        return sb.toString();	
-	}
-	
-	//ordine cancellato solo se non è ancora stato ancora (completamente) evaso
-	public synchronized boolean cancelOrder(long orderId, String username) {
-		if(removeOrderFromMap(bids, orderId, username)) {
-			checkStopOrders();	//la cancellazione può cambiare il best-bid
-			return true;
-		}
-		
-		if(removeOrderFromMap(asks, orderId, username)) {
-			checkStopOrders(); //la cancellazione può cambiare il best-ask
-			return true;
-		}
-		Iterator<StopOrder> stopIterator = stopOrders.iterator();
-		while(stopIterator.hasNext()) {
-			StopOrder order = stopIterator.next();
-			
-			if(order.getOrderId() == orderId && order.getUsername().equals(username)) {
-				stopIterator.remove();	//non serve checkStopOrders perché gli stop order non sono nell'order book
-				return true;
-			}
-		}
-
-		//se non trovato ritorna false
-		return false;
-	}
-	
-	//order tutto o niente, se non completamente evaso viene scartato
-		private synchronized List<Trade> executeMarketOrderLogic(Order order, String incomingOrderType) throws Exception {
-	        List<Trade> completedTrades = new ArrayList<>();
-	        int sizeToFill = order.getSize();
-			
-	        boolean canBeFilled = false;
-	        int availableSize = 0;
-	        String incomingUsername = order.getUsername();	//username di chi sta ordinando
-	        
-	        if(order.getType() == OrderType.BID) {	//BID(buy), consugma gli ASK
-	        	for(Queue<LimitOrder> queue : asks.values()) {
-	        		for(LimitOrder askOrder : queue) {
-	        			if (!askOrder.getUsername().equals(incomingUsername))	//controlla size se non è un self trade
-	        				availableSize += askOrder.getSize();
-	        			if(availableSize >= sizeToFill) {
-	        				canBeFilled = true;
-	        				break;
-	        			}
-	        		}
-	        		if(canBeFilled) break;
-	        	}
-	        } else {	//ASK(sell), consuma i BID
-	        	for(Queue<LimitOrder> queue : bids.values()) {
-	        		for(LimitOrder bidOrder : queue) {
-	        			if (!bidOrder.getUsername().equals(incomingUsername))	//controllo selftrade prevention
-	        				availableSize += bidOrder.getSize();
-	        			if(availableSize >= sizeToFill) {
-	        				canBeFilled = true;
-	        				break;
-	        			}
-	        		}
-	        		if(canBeFilled) break;
-	        	}
-	        }
-	        
-	        if (!canBeFilled) 
-	        	throw new Exception("Ordine (" + incomingOrderType + ") fallito: liquidità non sufficiente.");
-	                
-	        //assegna id e timestamp se non è un MarketOrder che li ha già
-	        if(order.getOrderId() == -1) {	//gli StopOrder li hanno già
-	        	order.setOrderId(orderIdGenerator.incrementAndGet());
-	            order.setTimestamp(System.currentTimeMillis());
-	        }
-	        
-	        if(order.getType() == OrderType.BID) {	//esecuzione BUY consumando ASKs
-	        	Iterator<Map.Entry<Integer, Queue<LimitOrder>>> asksIterator = asks.entrySet().iterator();
-	        	
-	        	while(sizeToFill > 0 && asksIterator.hasNext()) {
-	        		Map.Entry<Integer, Queue<LimitOrder>> entry = asksIterator.next();
-	        		int tradePrice = entry.getKey();
-	        		Queue<LimitOrder> queue = entry.getValue();
-	        		
-	        		Iterator<LimitOrder> queueIterator = queue.iterator();
-	        		while(sizeToFill > 0 && queueIterator.hasNext()) {
-	        			LimitOrder sellerOrder = queueIterator.next();
-	        			
-	        			if (sellerOrder.getUsername().equals(incomingUsername)) {
-	        				queueIterator.remove();	//rimuove ordine dalla coda
-	        				System.out.println("STP: Annullato ordine ASK " + sellerOrder.getOrderId() + " per self-trade.");
-	        				
-	        				if (queue.isEmpty())	//controlla se coda vuota
-	        						asksIterator.remove();	//rimuove prezzo
-	        				
-	        				continue;
-	        			}
-	        			
-	        			int tradeSize = Math.min(sizeToFill, sellerOrder.getSize());
-	        			
-	        			Trade trade = new Trade(
-	        					order.getOrderId(), sellerOrder.getOrderId(),
-	        					tradeSize, tradePrice,
-	        					order.getUsername(), sellerOrder.getUsername(),
-	        					System.currentTimeMillis(),
-	        					incomingOrderType, "limit");
-	        			
-	        			completedTrades.add(trade);
-	        			
-	        			sizeToFill -= tradeSize;
-	        			sellerOrder.setSize(sellerOrder.getSize() - tradeSize);
-	        			
-	        			if(sellerOrder.getSize() == 0)
-	        				queueIterator.remove(); //se ordine evaso completamente lo rimuove
-	        		}
-	        		
-	        		if(queue.isEmpty())	//se coda vuota rimuove prezzo dall'order book
-	        			asksIterator.remove();	//iterator gestisce ConcurrentModificationException
-	        	}
-	        } else {	//esecuzione SELL consumando BIDs
-	        	Iterator<Map.Entry<Integer, Queue<LimitOrder>>> bidsIterator = bids.entrySet().iterator();
-	        	
-	        	while(sizeToFill > 0 && bidsIterator.hasNext()) {
-	        		Map.Entry<Integer, Queue<LimitOrder>> entry = bidsIterator.next();
-	        		
-	        		int tradePrice = entry.getKey();
-	        		Queue<LimitOrder> queue = entry.getValue();
-	        		
-	        		Iterator<LimitOrder> queueIterator = queue.iterator();
-	        		while(sizeToFill > 0 && queueIterator.hasNext()) {
-	        			LimitOrder buyerOrder = queueIterator.next();
-	        			
-	        			if (buyerOrder.getUsername().equals(incomingUsername)) {	//self trade
-	                        queueIterator.remove();	//annulla ordine esistente (BID)
-	                        System.out.println("STP: Annullato ordine BID " + buyerOrder.getOrderId() + " per self-trade.");
-
-	                        if (queue.isEmpty()) {
-	                            bidsIterator.remove();	//rimuove prezzo
-	                        }
-	                        continue;
-	                    }
-	        			
-	        			int tradeSize = Math.min(sizeToFill, buyerOrder.getSize());
-	        			
-	        			Trade trade = new Trade(
-	        					buyerOrder.getOrderId(), order.getOrderId(),
-	        					tradeSize, tradePrice, 
-	        					buyerOrder.getUsername(), order.getUsername(),
-	        					System.currentTimeMillis(),
-	        					"limit", incomingOrderType);
-	        			
-	        			completedTrades.add(trade);
-	        			
-	        			sizeToFill -= tradeSize;
-	        			buyerOrder.setSize(buyerOrder.getSize() - tradeSize);
-	        			
-	        			if(buyerOrder.getSize() == 0)
-	        				queueIterator.remove();
-	        		}
-	        		if(queue.isEmpty())
-	        			bidsIterator.remove();
-	        	}
-	        }
-	        
-	        //controlla gli stopOrder dopo i trade
-	        List<Trade> stopTrades = checkStopOrders();
-	        completedTrades.addAll(stopTrades);
-	        
-	        return completedTrades;
-	    }
-	
-	//cerca e rimuove ordine da una delle TreeMap (bids o asks)
-	private boolean removeOrderFromMap(TreeMap<Integer, Queue<LimitOrder>> map, long orderId, String username) {
-		//itera sulle entry della TreeMap per poter rimuovere l'intera entry se la coda si svuota
-		Iterator<Map.Entry<Integer, Queue<LimitOrder>>> mapIterator = map.entrySet().iterator();
-		while(mapIterator.hasNext()) {
-			Map.Entry<Integer,Queue<LimitOrder>> entry = mapIterator.next();
-			Queue<LimitOrder> queue = entry.getValue();
-			
-			Iterator<LimitOrder> queueIterator = queue.iterator();
-			while(queueIterator.hasNext()) {
-				LimitOrder order = queueIterator.next();
-				
-				if(order.getOrderId() == orderId && order.getUsername().equals(username)) {
-					queueIterator.remove();	//trovato, rimuove dalla coda
-					
-					if(queue.isEmpty())	//se coda vuota
-						mapIterator.remove();	//rimuove l'intera entry(livello di prezzo) dalla map
-					
-					return true;
-				}
-			}
-		}	
-		return false;	//non trovato
-	}
-	
-	//controlla se StopOrder vengono attivati, ritorna lista di trade generati dagli StopOrder attivati
-	private List<Trade> checkStopOrders() {	//metodo privato chiamato solo da metodi synchronized
-		List<Trade> stopTrades = new ArrayList<>();
-		
-		Integer bestBid = bids.isEmpty() ? null : bids.firstKey();
-		Integer bestAsk = asks.isEmpty() ? null : asks.firstKey();
-		
-		//iterator per rimuovere in sicurezza
-		Iterator<StopOrder> iterator = stopOrders.iterator();
-		while(iterator.hasNext()) {
-			StopOrder stopOrder = iterator.next();
-			boolean activated = false;
-			
-			//se ASK(sell) si attivaa se il bestAsk scende a <= stopPrice
-			if(stopOrder.getType() == OrderType.ASK && bestBid != null)
-				if(bestBid <= stopOrder.getStopPrice())
-					activated = true;
-			
-			//se BID(buy) si attiva se il bestBid sale a >= stopPrice
-			if(stopOrder.getType() == OrderType.BID && bestAsk != null)
-				if(bestAsk >= stopOrder.getStopPrice())
-					activated = true;
-		
-		
-			if(activated) {
-				iterator.remove();	//rimuove da lista di attesa
-				
-				try {	//esegue come market order
-					List<Trade> trades = executeMarketOrderLogic(stopOrder, "stop");
-					stopTrades.addAll(trades);
-				} catch(Exception e) {	//ordine attivato ma fallito
-					System.err.println("StopOrder " + stopOrder.getOrderId() + " attivato ma fallito: " + e.getMessage());
-                    // TODO: Notificare l'utente del fallimento?
-				}
-			}
-		}
-		return stopTrades;
-	}
-	
-	//carica lo stato attivo dal file, svuotato dopo caricamento 
-	private ActiveBookState loadActiveStateFromFile() {
-		File stateFile = new File(this.activeBookFilename); 
-        if (!stateFile.exists()) {
-            return null;
-        }
-
-        ActiveBookState state = null;
-		Gson gson = new Gson();
-		
-		try(FileReader reader = new FileReader(stateFile)){
-			state = gson.fromJson(reader, ActiveBookState.class);
-			
-			if(state == null || 
-				(state.getAsks() == null && state.getBids() == null && state.getStopOrders() == null) ||
-				(state.getAsks().isEmpty() && state.getBids().isEmpty() && state.getStopOrders().isEmpty()))
-				return null;	//file vuoto o senza dati
-		} catch(Exception e) {
-			System.err.println("OrderBook: Errore nel caricamento di " + this.activeBookFilename + ". Avvio pulito.");
-            e.printStackTrace();
-            return null; //non procede se il caricamento fallisce
-		}
-		
-		//svuoto file con un JSON vuoto {}
-		try(FileWriter writer = new FileWriter(stateFile)){
-			writer.write("{}");	//sovrascrive
-			System.out.println("OrderBook: Stato " + this.activeBookFilename + " caricato e svuotato per sicurezza.");
-		} catch(Exception e) {
-			System.err.println("OrderBook: ATTENZIONE! Impossibile svuotare il file di stato " + this.activeBookFilename);
-		}
-		
-		return state;
-	}
-	
-	public synchronized void saveActiveStateToFile() {
-		//non salva se order book vuoto
-		if(asks.isEmpty() && bids.isEmpty() && stopOrders.isEmpty()) {
-			System.out.println("OrderBook: Stato attivo vuoto, nessun salvataggio necessario.");
-            return;
-		}
-		
-		ActiveBookState state = new ActiveBookState(asks, bids, stopOrders);
-		
-		Gson gson = new GsonBuilder().setPrettyPrinting().create();
-		
-		try(FileWriter writer = new FileWriter(this.activeBookFilename)){
-			gson.toJson(state, writer);
-			System.out.println("OrderBook: Stato attivo salvato con successo su " + this.activeBookFilename);
-        } catch (Exception e) {
-            System.err.println("OrderBook: Errore nel salvataggio dello stato attivo.");
-            e.printStackTrace();
-        }
-	}
-	
-	//ritorna lista di tutti gli ordini attivi (Limit e Stop) per un utente specifico
-	public synchronized List<ActiveOrderInfo> getActiveOrders(String username) {
-        List<ActiveOrderInfo> activeOrders = new ArrayList<>();
-        
-        for (Queue<LimitOrder> queue : asks.values()) {	//cerca negli ASK(Limit Orders)
-            for (LimitOrder order : queue) {
-                if (order.getUsername().equals(username)) {
-                    activeOrders.add(new ActiveOrderInfo(
-                        order.getOrderId(), "ask", "limit",
-                        order.getSize(), order.getLimitPrice()
-                    ));
-                }
-            }
-        }
-        
-        for (Queue<LimitOrder> queue : bids.values()) {	//cerca nei BID(Limit Orders)
-            for (LimitOrder order : queue) {
-                if (order.getUsername().equals(username)) {
-                    activeOrders.add(new ActiveOrderInfo(
-                        order.getOrderId(), "bid", "limit",
-                        order.getSize(), order.getLimitPrice()
-                    ));
-                }
-            }
-        }
-        
-        //non ho bisogno di synchronized(stopOrders) perché il metodo è synchronized
-        for (StopOrder order : stopOrders) {	//cerca negli STOP(Stop Orders)
-        	if (order.getUsername().equals(username)) {
-        		activeOrders.add(new ActiveOrderInfo(
-        			order.getOrderId(), order.getType().toString().toLowerCase(), "stop",
-                    order.getSize(), order.getStopPrice()
-                ));
-        	}
-        }
-        
-        return activeOrders;
-    }
-}
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.AsyncLogger;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Gestiione delle strutture dati per gli ordini di acquisto (BID)
+ * e di vendita (ASK), implementa l'algoritmo di matching e gestisce
+ * l'attivazione degli Stop Order.
+ *
+ * Progettata per essere thread-safe utilizzando il meccanismo
+ * synchronized di Java su tutti i metodi pubblici, garantendo che
+ * solo un thread alla volta possa modificare lo stato dell'order book.
+ *
+ * È l'implementazione di riferimento di MatchingEngine ("orderbook").
+ */
+
+public class OrderBook implements MatchingEngine {
+	//Ordinamento crescente degli ordini per prezzo, miglior ASK (prezzo più basso) è il primo elemento
+	private final TreeMap<Integer, Queue<LimitOrder>> asks;	//Coda di ordini per gestire priorità temporale(FIFO) 
+	
+	//Ordinamento decrescente, miglior BID (prezzo più alto) è il primo elemento
+	private final TreeMap<Integer, Queue<LimitOrder>> bids; //Coda per priorità temporale(FIFO)
+	
+	//Lista di stopOrder in attesa di attivazione
+	private final List<StopOrder> stopOrders;
+	
+	//indice orderId -> limit order a riposo, aggiornato dai metodi fire*
+	private final Map<Long, LimitOrder> orderIndex = new HashMap<>();
+	
+	//indice utente -> id dei suoi ordini attivi (limit e stop) in ordine di inserimento, aggiornato dai metodi fire*
+	private final Map<String, Set<Long>> userOrders = new HashMap<>();
+	
+	//nome del file su cui salvare/caricare lo stato attivo
+	private final String activeBookFilename;
+	
+	//numero di livelli di prezzo da mostrare
+	private static final int MAX_LEVELS_TO_SHOW = 10;
+	
+	//osservatori delle modifiche del book (es. feed market data)
+	private final List<OrderBookListener> listeners = new CopyOnWriteArrayList<>();
+	
+	//versione del book, incrementata a ogni modifica dei limit order a riposo
+	private long version = 0;
+	
+	//fase d'asta a chiamata: i limit order restano nel book senza matching fino all'uncross
+	private boolean auction = false;
+	
+	public OrderBook(String activeBookFilename) {
+		this.activeBookFilename = activeBookFilename;
+		ActiveBookState loadedState = ActiveBookState.loadFromFile(activeBookFilename);
+		
+		if(loadedState != null) {	//caricamento riuscito
+            //popola l'order book con i dati letti dal file
+            this.asks = loadedState.getAsks();
+            this.bids = loadedState.getBids();
+            //ricrea la lista synchronized dai dati letti
+            this.stopOrders = Collections.synchronizedList(loadedState.getStopOrders()); 
+            System.out.println("OrderBook: Stato attivo caricato con successo da " + this.activeBookFilename);
+        } else {	//avvio pulito, inizializza order book da zero
+        	this.asks = new TreeMap<>();
+        	this.bids = new TreeMap<>(Collections.reverseOrder());	//ordinamento inverso(decrescente)
+        	this.stopOrders = Collections.synchronizedList(new ArrayList<>());
+        }
+		
+		for(Queue<LimitOrder> queue : asks.values())
+			for(LimitOrder order : queue) {
+				orderIndex.put(order.getOrderId(), order);
+				indexUserOrder(order);
+			}
+		for(Queue<LimitOrder> queue : bids.values())
+			for(LimitOrder order : queue) {
+				orderIndex.put(order.getOrderId(), order);
+				indexUserOrder(order);
+			}
+		for(StopOrder order : stopOrders)
+			indexUserOrder(order);
+	}
+	
+	public synchronized void addLimitOrder(LimitOrder order, FillBuffer fills) {
+		matchLimitOrder(order, fills);
+		
+		// Dopo ogni operazione, controlla se si attivano gli Stop Order
+		checkStopOrders(fills);
+	}
+	
+	//inserisce più limit order in un solo passaggio, gli Stop Order vengono controllati una sola volta alla fine
+	public synchronized List<OrderResult> addLimitOrders(List<LimitOrder> orders, FillBuffer fills) {
+		List<OrderResult> results = new ArrayList<>(orders.size());
+		
+		for(LimitOrder order : orders) {
+			matchLimitOrder(order, fills);
+			results.add(killed(order) ? new OrderResult(-1, 101) : new OrderResult(order.getOrderId(), 100));
+		}
+		
+		checkStopOrders(fills);
+		
+		return results;
+	}
+	
+	//cancella più ordini dello stesso utente, gli Stop Order vengono controllati una sola volta alla fine
+	public synchronized List<OrderResult> cancelOrders(List<Long> orderIds, String username, FillBuffer fills) {
+		List<OrderResult> results = new ArrayList<>(orderIds.size());
+		
+		for(long orderId : orderIds) {
+			boolean success = removeOrder(orderId, username);
+			results.add(new OrderResult(orderId, success ? 100 : 101));
+		}
+		
+		checkStopOrders(fills);	//le cancellazioni possono cambiare best-bid/best-ask
+		
+		return results;
+	}
+	
+	/*
+	 * cancel-replace atomico: il nuovo ordine viene inserito solo se la cancellazione
+	 * del vecchio va a buon fine, senza che altri thread possano operare nel mezzo.
+	 * Risultati: [0] cancellazione, [1] nuovo ordine (orderId -1 se non inserito)
+	 */
+	public synchronized List<OrderResult> cancelReplaceOrder(long orderId, String username, LimitOrder replacement, FillBuffer fills) {
+		List<OrderResult> results = new ArrayList<>(2);
+		
+		if(!removeOrder(orderId, username)) {
+			results.add(new OrderResult(orderId, 101));
+			results.add(new OrderResult(-1, 101));
+			return results;	//niente è cambiato, nessun controllo stop
+		}
+		results.add(new OrderResult(orderId, 100));
+		
+		matchLimitOrder(replacement, fills);
+		results.add(killed(replacement) ? new OrderResult(-1, 101) : new OrderResult(replacement.getOrderId(), 100));
+		
+		checkStopOrders(fills);
+		
+		return results;
+	}
+	
+	//matching di un limit order contro il lato opposto, l'eventuale residuo viene inserito nel book (annullato se IOC)
+	private void matchLimitOrder(LimitOrder order, FillBuffer fills) {
+		//Assegna id (se non già assegnato, es. replay) e timestamp
+		OrderIdGenerator.assign(order);
+		order.setTimestamp(System.currentTimeMillis());
+		
+		if(auction) {	//l'ordine attende l'uncross, IOC e FOK non possono attendere e vengono annullati
+			if(order.getTimeInForce() != TimeInForce.IOC && order.getTimeInForce() != TimeInForce.FOK) {
+				(order.getType() == OrderType.BID ? bids : asks).computeIfAbsent(order.getLimitPrice(), k -> new LinkedList<>()).add(order);
+				fireOrderRested(order);
+			}
+			return;
+		}
+		
+		if(order.getTimeInForce() == TimeInForce.FOK) {
+			fillOrKill(order, fills);
+			return;
+		}
+		boolean rests = order.getTimeInForce() != TimeInForce.IOC;
+		
+		//tenta di matchare con gli ask
+		if(order.getType() == OrderType.BID) {	//ordine acquisto (BID)
+			//loop se miglior ask (firstkey) è <= prezzo dell'ordine
+			while(order.getSize()>0 && !asks.isEmpty() && asks.firstKey() <= order.getLimitPrice()) {
+				int bestAskPrice = asks.firstKey();
+				Queue<LimitOrder> bestAsksQueue = asks.get(bestAskPrice);
+				LimitOrder sellerOrder = bestAsksQueue.peek();	//Time-priority, guarda il primo
+				
+				if(sellerOrder == null) {
+					asks.remove(bestAskPrice);	//coda vuota, pulisce ed esce
+					break;
+				}
+				
+				//controllo self trade
+				if (sellerOrder.getUsername().equals(order.getUsername())) {
+					// Trovato un self-trade
+					bestAsksQueue.poll();	//annulla ordine l'ordine esistente
+					fireSelfTradeCancelled(sellerOrder);
+					
+					if(bestAsksQueue.isEmpty())	//se coda per quel prezzo vuota
+						asks.remove(bestAskPrice);	//rimuove prezzo
+
+					if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+						AsyncLogger.debug("STP: Annullato ordine ASK " + sellerOrder.getOrderId() + " per self-trade.");
+					continue;
+				}
+				
+				//esegue trade
+				int tradePrice = sellerOrder.getLimitPrice();
+				int tradeSize = Math.min(order.getSize(), sellerOrder.getSize());
+				
+				int fill = fills.add(
+						order.getOrderId(), sellerOrder.getOrderId(),
+						tradeSize, tradePrice, 
+						order.getUsername(), sellerOrder.getUsername(),
+						System.currentTimeMillis(),
+						FillBuffer.LIMIT, FillBuffer.LIMIT);
+				
+				//aggiorna le size
+				order.setSize(order.getSize() - tradeSize);
+				sellerOrder.setSize(sellerOrder.getSize() - tradeSize);
+				fireTradeExecuted(fills, fill, sellerOrder, tradeSize);
+				
+				if(sellerOrder.getSize() == 0)
+					bestAsksQueue.poll(); //Rimuove dalla coda (FIFO)
+				
+				//se coda vuota per quel prezzo, rimuove il prezzo
+				if(bestAsksQueue.isEmpty())
+					asks.remove(bestAskPrice);
+			}
+			
+			//se c'è redisuo nell'ordine viene riaggiunto ai bid
+			if (order.getSize() > 0 && rests) {
+				bids.computeIfAbsent(order.getLimitPrice(), k -> new LinkedList<>()).add(order);
+				fireOrderRested(order);
+			}
+		} else {	// ordine vendita (ASK)
+			while(order.getSize() > 0 && !bids.isEmpty() && bids.firstKey() >= order.getLimitPrice()) {
+				int bestBidPrice = bids.firstKey();
+				Queue<LimitOrder> bestBidsQueue = bids.get(bestBidPrice);
+				LimitOrder buyerOrder = bestBidsQueue.peek();
+				
+				if(buyerOrder == null) {
+                    bids.remove(bestBidPrice);
+                    break;
+                }
+				
+				//controllo self trade
+				if (buyerOrder.getUsername().equals(order.getUsername())) {
+					// Trovato un self-trade
+					bestBidsQueue.poll();	//annulla ordine l'ordine esistente
+					fireSelfTradeCancelled(buyerOrder);
+					
+					if(bestBidsQueue.isEmpty())	//se coda per quel prezzo vuota
+						bids.remove(bestBidPrice);	//rimuove prezzo
+
+					if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+						AsyncLogger.debug("STP: Annullato ordine BID " + buyerOrder.getOrderId() + " per self-trade.");
+					continue;
+				}
+				
+				int tradePrice = buyerOrder.getLimitPrice();
+				int tradeSize = Math.min(order.getSize(), buyerOrder.getSize());
+				
+				int fill = fills.add(
+						buyerOrder.getOrderId(), order.getOrderId(),
+						tradeSize, tradePrice, 
+						buyerOrder.getUsername(), order.getUsername(),
+						System.currentTimeMillis(),
+						FillBuffer.LIMIT, FillBuffer.LIMIT);
+				
+				order.setSize(order.getSize() - tradeSize);
+				buyerOrder.setSize(buyerOrder.getSize() - tradeSize);
+				fireTradeExecuted(fills, fill, buyerOrder, tradeSize);
+				
+				if(buyerOrder.getSize() == 0)
+					bestBidsQueue.poll();
+				
+				if(bestBidsQueue.isEmpty())
+					bids.remove(bestBidPrice);
+			}
+			
+			if(order.getSize() > 0 && rests) {
+				asks.computeIfAbsent(order.getLimitPrice(), k -> new LinkedList<>()).add(order);
+				fireOrderRested(order);
+			}
+		}
+	}
+	
+	/*
+	 * fill-or-kill in un solo passaggio sui livelli entro il limite: i fill vengono scritti
+	 * in fills senza toccare il book (gli ordini dello stesso utente non danno liquidità).
+	 * Se non coprono tutto l'ordine vengono scartati e il book resta invariato; altrimenti
+	 * corrispondono, nell'ordine, agli ordini in testa ai livelli e vengono applicati
+	 * direttamente, annullando per self-trade gli ordini dell'utente incontrati prima,
+	 * come nel matching normale. Nessuna seconda visita dei livelli, nessuna cancellazione.
+	 */
+	private void fillOrKill(LimitOrder order, FillBuffer fills) {
+		boolean buy = order.getType() == OrderType.BID;
+		TreeMap<Integer, Queue<LimitOrder>> opposite = buy ? asks : bids;
+		int mark = fills.size();
+		int toFill = order.getSize();
+		long now = System.currentTimeMillis();	//un solo istante per tutti i fill dell'ordine
+		
+		levels:
+		for(Map.Entry<Integer, Queue<LimitOrder>> level : opposite.entrySet()) {
+			int price = level.getKey();
+			if(toFill == 0 || (buy ? price > order.getLimitPrice() : price < order.getLimitPrice()))
+				break;
+			for(LimitOrder resting : level.getValue()) {
+				if(resting.getUsername().equals(order.getUsername()))
+					continue;
+				
+				int tradeSize = Math.min(toFill, resting.getSize());
+				if(buy)
+					fills.add(order.getOrderId(), resting.getOrderId(), tradeSize, price,
+							order.getUsername(), resting.getUsername(), now, FillBuffer.LIMIT, FillBuffer.LIMIT);
+				else
+					fills.add(resting.getOrderId(), order.getOrderId(), tradeSize, price,
+							resting.getUsername(), order.getUsername(), now, FillBuffer.LIMIT, FillBuffer.LIMIT);
+				toFill -= tradeSize;
+				if(toFill == 0)
+					break levels;
+			}
+		}
+		
+		if(toFill > 0) {	//kill: nessun effetto sul book
+			fills.truncate(mark);
+			return;
+		}
+		
+		for(int fill = mark; fill < fills.size(); fill++) {
+			Map.Entry<Integer, Queue<LimitOrder>> level = opposite.firstEntry();
+			Queue<LimitOrder> queue = level.getValue();
+			LimitOrder resting = queue.peek();
+			
+			while(resting.getUsername().equals(order.getUsername())) {	//self-trade: annulla l'ordine a riposo
+				queue.poll();
+				fireSelfTradeCancelled(resting);
+				if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+					AsyncLogger.debug("STP: Annullato ordine " + (buy ? "ASK " : "BID ") + resting.getOrderId() + " per self-trade.");
+				
+				if(queue.isEmpty()) {
+					opposite.remove(level.getKey());
+					level = opposite.firstEntry();
+					queue = level.getValue();
+				}
+				resting = queue.peek();
+			}
+			
+			int tradeSize = fills.getSize(fill);
+			order.setSize(order.getSize() - tradeSize);
+			resting.setSize(resting.getSize() - tradeSize);
+			fireTradeExecuted(fills, fill, resting, tradeSize);
+			
+			if(resting.getSize() == 0)
+				queue.poll();
+			if(queue.isEmpty())
+				opposite.remove(level.getKey());
+		}
+	}
+	
+	//FOK non eseguito: il passaggio di fillOrKill non ha trovato abbastanza liquidità
+	private static boolean killed(LimitOrder order) {
+		return order.getTimeInForce() == TimeInForce.FOK && order.getSize() > 0;
+	}
+	
+	//chiama la logica privata, passando "market" come tipo
+	public synchronized void executeMarketOrder(MarketOrder order, FillBuffer fills) throws Exception {
+		if(auction)	//nessun prezzo a cui eseguire prima dell'uncross
+			throw new Exception("Ordine market rifiutato: asta in corso.");
+	    executeMarketOrderLogic(order, FillBuffer.MARKET, fills);
+	}
+	
+	//apre la fase d'asta, false se è già in corso
+	public synchronized boolean startAuction() {
+		if(auction)
+			return false;
+		auction = true;
+		return true;
+	}
+	
+	public synchronized boolean isAuction() {
+		return auction;
+	}
+	
+	/*
+	 * chiude l'asta: esegue gli ordini incrociati al prezzo di equilibrio calcolato sulle size
+	 * aggregate dei livelli (CallAuction), accoppiando in priorità prezzo-tempo gli ordini in
+	 * testa ai due lati finché il miglior bid e il miglior ask incrociano quel prezzo. Tutti i
+	 * fill hanno lo stesso prezzo e lo stesso istante. Con due ordini dello stesso utente in
+	 * testa viene annullato per self-trade quello con id minore, come l'ordine a riposo nel
+	 * matching continuo. Poi riprende il matching continuo e si controllano gli stop una sola volta.
+	 * Ritorna il prezzo di equilibrio, 0 se il book non era incrociato
+	 */
+	public synchronized int uncrossAuction(FillBuffer fills) {
+		auction = false;
+		int price = clearingPrice();
+		long now = System.currentTimeMillis();
+		
+		while(price > 0 && !bids.isEmpty() && !asks.isEmpty() && bids.firstKey() >= price && asks.firstKey() <= price) {
+			LimitOrder buyer = bids.firstEntry().getValue().peek();
+			LimitOrder seller = asks.firstEntry().getValue().peek();
+			
+			if(buyer.getUsername().equals(seller.getUsername())) {
+				LimitOrder cancelled = buyer.getOrderId() < seller.getOrderId() ? buyer : seller;
+				removeFromLevel(cancelled);
+				fireSelfTradeCancelled(cancelled);
+				if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+					AsyncLogger.debug("STP: Annullato ordine " + (cancelled == buyer ? "BID " : "ASK ") + cancelled.getOrderId() + " per self-trade (asta).");
+				continue;
+			}
+			
+			int tradeSize = Math.min(buyer.getSize(), seller.getSize());
+			int fill = fills.add(buyer.getOrderId(), seller.getOrderId(), tradeSize, price,
+					buyer.getUsername(), seller.getUsername(), now, FillBuffer.LIMIT, FillBuffer.LIMIT);
+			buyer.setSize(buyer.getSize() - tradeSize);
+			seller.setSize(seller.getSize() - tradeSize);
+			fireOrderReduced(seller, tradeSize);	//entrambi gli ordini erano a riposo
+			fireTradeExecuted(fills, fill, buyer, tradeSize);
+			
+			if(seller.getSize() == 0)
+				removeFromLevel(seller);
+			if(buyer.getSize() == 0)
+				removeFromLevel(buyer);
+		}
+		
+		checkStopOrders(fills);
+		return price;
+	}
+	
+	//prezzo di equilibrio dai livelli incrociati (bid >= miglior ask, ask <= miglior bid), 0 se nessuno
+	private int clearingPrice() {
+		if(bids.isEmpty() || asks.isEmpty() || bids.firstKey() < asks.firstKey())
+			return 0;
+		NavigableMap<Integer, Queue<LimitOrder>> crossingBids = bids.headMap(asks.firstKey(), true);
+		NavigableMap<Integer, Queue<LimitOrder>> crossingAsks = asks.headMap(bids.firstKey(), true);
+		
+		int[] bidPrices = new int[crossingBids.size()];
+		long[] bidSizes = new long[bidPrices.length];
+		int i = 0;
+		for(Map.Entry<Integer, Queue<LimitOrder>> level : crossingBids.entrySet()) {
+			bidPrices[i] = level.getKey();
+			for(LimitOrder order : level.getValue())
+				bidSizes[i] += order.getSize();
+			i++;
+		}
+		int[] askPrices = new int[crossingAsks.size()];
+		long[] askSizes = new long[askPrices.length];
+		i = 0;
+		for(Map.Entry<Integer, Queue<LimitOrder>> level : crossingAsks.entrySet()) {
+			askPrices[i] = level.getKey();
+			for(LimitOrder order : level.getValue())
+				askSizes[i] += order.getSize();
+			i++;
+		}
+		return CallAuction.clearingPrice(bidPrices, bidSizes, bidPrices.length, askPrices, askSizes, askPrices.length);
+	}
+	
+	//aggiunge stop order alla lista di monitoraggio
+	public synchronized void addStopOrder(StopOrder order) {
+        OrderIdGenerator.assign(order);
+        order.setTimestamp(System.currentTimeMillis());
+        this.stopOrders.add(order);
+        fireStopOrderAdded(order);
+    }
+	
+	//Restituisce una vista dello stato attuale dell'order book (primi 10 livelli, solo limit orders)
+	public synchronized String getOrderBookSnapshot() {
+		
+		StringBuilder sb = new StringBuilder();
+		int asksCount = 0;
+
+		//asks ordinati dal prezzo piu basso(best) al piu alto
+		sb.append("--- ASKS (VENDITE) ---\n");
+		sb.append(String.format("%-10s | %-15s\n", "PREZZO", "QUANTITÀ"));
+        sb.append("--------------------------\n");
+        
+        for(Map.Entry<Integer, Queue<LimitOrder>> entry : asks.entrySet()) {
+        	if(asksCount >= MAX_LEVELS_TO_SHOW)
+        		break;
+        	
+        	int price = entry.getKey();
+        	Queue<LimitOrder> queue = entry.getValue();
+        	
+        	//somma delle size di tutti gli ordini nella coda
+        	int totalSizeAtPrice = 0;
+        	for (LimitOrder order : queue)
+        		totalSizeAtPrice += order.getSize();
+        	
+        	sb.append(String.format("%-10d | %-15d\n", price, totalSizeAtPrice));
+            asksCount++;
+        }
+        
+        if (asksCount == 0)
+            sb.append(" (Vuoto)\n");
+        
+        //bids ordinati dal prezzo piu alto(best) al piu basso
+        sb.append("--- BIDS (ACQUISTI) ---\n");
+        sb.append(String.format("%-10s | %-15s\n", "PREZZO", "QUANTITÀ"));
+        sb.append("--------------------------\n");
+        
+        int bidsCount = 0;
+        
+        for (Map.Entry<Integer, Queue<LimitOrder>> entry : bids.entrySet()) {
+            if (bidsCount >= MAX_LEVELS_TO_SHOW)
+                break;
+            
+            int price = entry.getKey();
+            Queue<LimitOrder> queue = entry.getValue();
+            
+            int totalSizeAtPrice = 0;
+            for (LimitOrder order : queue)
+                totalSizeAtPrice += order.getSize();
+
+            sb.append(String.format("%-10d | %-15d\n", price, totalSizeAtPrice));
+            bidsCount++;
+        }
+        
+        if (bidsCount == 0) 
+            sb.append(" (Vuoto)\n");
+        
+        return sb.toString();	
+	}
+	
+	/*
+	 * snapshot strutturato dei primi 'depth' livelli per lato; ritorna null se
+	 * il book è ancora alla versione knownVersion (nessuna modifica)
+	 */
+	public synchronized OrderBookDepth getOrderBookDepth(int depth, long knownVersion) {
+		if(knownVersion == version)
+			return null;
+		
+		OrderBookDepth snapshot = new OrderBookDepth(version,
+				Math.min(depth, bids.size()), Math.min(depth, asks.size()));
+		
+		fillLevels(bids, snapshot.getBidPrices(), snapshot.getBidSizes(), snapshot.getBidCounts());
+		fillLevels(asks, snapshot.getAskPrices(), snapshot.getAskSizes(), snapshot.getAskCounts());
+		
+		return snapshot;
+	}
+	
+	//copia i primi prices.length livelli della map negli array
+	private void fillLevels(TreeMap<Integer, Queue<LimitOrder>> map, int[] prices, int[] sizes, int[] counts) {
+		Iterator<Map.Entry<Integer, Queue<LimitOrder>>> iterator = map.entrySet().iterator();
+		
+		for(int i = 0; i < prices.length; i++) {
+			Map.Entry<Integer, Queue<LimitOrder>> entry = iterator.next();
+			
+			int totalSizeAtPrice = 0;
+			for(LimitOrder order : entry.getValue())
+				totalSizeAtPrice += order.getSize();
+			
+			prices[i] = entry.getKey();
+			sizes[i] = totalSizeAtPrice;
+			counts[i] = entry.getValue().size();
+		}
+	}
+	
+	//ordine cancellato solo se non è ancora stato ancora (completamente) evaso
+	public synchronized boolean cancelOrder(long orderId, String username, FillBuffer fills) {
+		if(removeLimitOrder(orderId, username)) {
+			checkStopOrders(fills);	//la cancellazione può cambiare best-bid/best-ask
+			return true;
+		}
+		
+		return removeStopOrder(orderId, username);
+	}
+	
+	/*
+	 * modifica un limit order a riposo, trovato con l'indice. Riduzione della size allo stesso
+	 * prezzo: sul posto, l'ordine mantiene la sua posizione nella coda. Aumento della size o nuovo
+	 * prezzo: l'ordine perde la priorità e viene reinserito con lo stesso id, come un nuovo limit
+	 * order (può quindi anche eseguire). price <= 0 mantiene il prezzo attuale
+	 */
+	public synchronized boolean amendOrder(long orderId, String username, int size, int price, FillBuffer fills) {
+		LimitOrder order = orderIndex.get(orderId);
+		if(order == null || !order.getUsername().equals(username) || size <= 0)
+			return false;
+		if(price <= 0)
+			price = order.getLimitPrice();
+		
+		if(price == order.getLimitPrice() && size <= order.getSize()) {
+			int quantity = order.getSize() - size;
+			if(quantity > 0) {
+				order.setSize(size);
+				fireOrderReduced(order, quantity);
+			}
+			return true;	//nessun cambio di prezzo, nessun controllo stop
+		}
+		
+		removeFromLevel(order);
+		fireOrderRemoved(order);
+		
+		LimitOrder replacement = new LimitOrder(username, order.getType(), size, price);
+		replacement.setOrderId(orderId);
+		replacement.setExpireTime(order.getExpireTime());
+		replacement.setTimeInForce(order.getTimeInForce());
+		matchLimitOrder(replacement, fills);
+		
+		checkStopOrders(fills);
+		return true;
+	}
+	
+	/*
+	 * cancella tutti gli ordini (limit e stop) dell'utente in un solo comando, es. alla disconnessione:
+	 * gli ordini vengono presi dall'indice per utente, quindi il costo dipende dagli ordini
+	 * dell'utente e non dalla profondità del book. Gli Stop Order vengono controllati una sola volta
+	 */
+	public synchronized List<OrderResult> cancelAllOrders(String username, FillBuffer fills) {
+		Set<Long> ids = userOrders.getOrDefault(username, Collections.emptySet());
+		List<OrderResult> results = new ArrayList<>(ids.size());
+		Set<Long> stopIds = new HashSet<>();
+		for(long orderId : ids.toArray(new Long[0])) {	//copia: le rimozioni aggiornano l'indice
+			if(removeLimitOrder(orderId, username))
+				results.add(new OrderResult(orderId, 100));
+			else
+				stopIds.add(orderId);
+		}
+		
+		if(!stopIds.isEmpty()) {	//un solo passaggio sulla lista degli stop, risultati dopo i limit come in OffHeapOrderBook
+			synchronized(stopOrders) {
+				Iterator<StopOrder> stopIterator = stopOrders.iterator();
+				while(stopIterator.hasNext()) {
+					StopOrder order = stopIterator.next();
+					if(stopIds.contains(order.getOrderId())) {
+						stopIterator.remove();
+						fireStopOrderRemoved(order);
+						results.add(new OrderResult(order.getOrderId(), 100));
+					}
+				}
+			}
+		}
+		
+		checkStopOrders(fills);
+		return results;
+	}
+	
+	//rimuove un ordine (limit o stop) senza controllare gli Stop Order, usato dalle operazioni batch
+	private boolean removeOrder(long orderId, String username) {
+		return removeLimitOrder(orderId, username) || removeStopOrder(orderId, username);
+	}
+	
+	//cerca e rimuove uno stop order dalla lista di attesa
+	private boolean removeStopOrder(long orderId, String username) {
+		Iterator<StopOrder> stopIterator = stopOrders.iterator();
+		while(stopIterator.hasNext()) {
+			StopOrder order = stopIterator.next();
+			
+			if(order.getOrderId() == orderId && order.getUsername().equals(username)) {
+				stopIterator.remove();	//non serve checkStopOrders perché gli stop order non sono nell'order book
+				fireStopOrderRemoved(order);
+				return true;
+			}
+		}
+
+		//se non trovato ritorna false
+		return false;
+	}
+	
+	//order tutto o niente, se non completamente evaso viene scartato
+		private void executeMarketOrderLogic(Order order, byte incomingOrderType, FillBuffer fills) throws Exception {
+	        int sizeToFill = order.getSize();
+			
+	        boolean canBeFilled = false;
+	        int availableSize = 0;
+	        String incomingUsername = order.getUsername();	//username di chi sta ordinando
+	        
+	        if(order.getType() == OrderType.BID) {	//BID(buy), consugma gli ASK
+	        	for(Queue<LimitOrder> queue : asks.values()) {
+	        		for(LimitOrder askOrder : queue) {
+	        			if (!askOrder.getUsername().equals(incomingUsername))	//controlla size se non è un self trade
+	        				availableSize += askOrder.getSize();
+	        			if(availableSize >= sizeToFill) {
+	        				canBeFilled = true;
+	        				break;
+	        			}
+	        		}
+	        		if(canBeFilled) break;
+	        	}
+	        } else {	//ASK(sell), consuma i BID
+	        	for(Queue<LimitOrder> queue : bids.values()) {
+	        		for(LimitOrder bidOrder : queue) {
+	        			if (!bidOrder.getUsername().equals(incomingUsername))	//controllo selftrade prevention
+	        				availableSize += bidOrder.getSize();
+	        			if(availableSize >= sizeToFill) {
+	        				canBeFilled = true;
+	        				break;
+	        			}
+	        		}
+	        		if(canBeFilled) break;
+	        	}
+	        }
+	        
+	        if (!canBeFilled) 
+	        	throw new Exception("Ordine (" + (incomingOrderType == FillBuffer.STOP ? "stop" : "market") + ") fallito: liquidità non sufficiente.");
+	                
+	        //assegna id e timestamp se non è un MarketOrder che li ha già
+	        if(order.getOrderId() == -1) {	//gli StopOrder li hanno già
+	        	OrderIdGenerator.assign(order);
+	            order.setTimestamp(System.currentTimeMillis());
+	        }
+	        
+	        if(order.getType() == OrderType.BID) {	//esecuzione BUY consumando ASKs
+	        	Iterator<Map.Entry<Integer, Queue<LimitOrder>>> asksIterator = asks.entrySet().iterator();
+	        	
+	        	while(sizeToFill > 0 && asksIterator.hasNext()) {
+	        		Map.Entry<Integer, Queue<LimitOrder>> entry = asksIterator.next();
+	        		int tradePrice = entry.getKey();
+	        		Queue<LimitOrder> queue = entry.getValue();
+	        		
+	        		Iterator<LimitOrder> queueIterator = queue.iterator();
+	        		while(sizeToFill > 0 && queueIterator.hasNext()) {
+	        			LimitOrder sellerOrder = queueIterator.next();
+	        			
+	        			if (sellerOrder.getUsername().equals(incomingUsername)) {
+	        				queueIterator.remove();	//rimuove ordine dalla coda
+	        				fireSelfTradeCancelled(sellerOrder);
+	        				if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+	        					AsyncLogger.debug("STP: Annullato ordine ASK " + sellerOrder.getOrderId() + " per self-trade.");
+	        				
+	        				continue;	//se la coda si svuota il prezzo viene rimosso dopo il ciclo
+	        			}
+	        			
+	        			int tradeSize = Math.min(sizeToFill, sellerOrder.getSize());
+	        			
+	        			int fill = fills.add(
+	        					order.getOrderId(), sellerOrder.getOrderId(),
+	        					tradeSize, tradePrice,
+	        					order.getUsername(), sellerOrder.getUsername(),
+	        					System.currentTimeMillis(),
+	        					incomingOrderType, FillBuffer.LIMIT);
+	        			
+	        			sizeToFill -= tradeSize;
+	        			sellerOrder.setSize(sellerOrder.getSize() - tradeSize);
+	        			fireTradeExecuted(fills, fill, sellerOrder, tradeSize);
+	        			
+	        			if(sellerOrder.getSize() == 0)
+	        				queueIterator.remove(); //se ordine evaso completamente lo rimuove
+	        		}
+	        		
+	        		if(queue.isEmpty())	//se coda vuota rimuove prezzo dall'order book
+	        			asksIterator.remove();	//iterator gestisce ConcurrentModificationException
+	        	}
+	        } else {	//esecuzione SELL consumando BIDs
+	        	Iterator<Map.Entry<Integer, Queue<LimitOrder>>> bidsIterator = bids.entrySet().iterator();
+	        	
+	        	while(sizeToFill > 0 && bidsIterator.hasNext()) {
+	        		Map.Entry<Integer, Queue<LimitOrder>> entry = bidsIterator.next();
+	        		
+	        		int tradePrice = entry.getKey();
+	        		Queue<LimitOrder> queue = entry.getValue();
+	        		
+	        		Iterator<LimitOrder> queueIterator = queue.iterator();
+	        		while(sizeToFill > 0 && queueIterator.hasNext()) {
+	        			LimitOrder buyerOrder = queueIterator.next();
+	        			
+	        			if (buyerOrder.getUsername().equals(incomingUsername)) {	//self trade
+	                        queueIterator.remove();	//annulla ordine esistente (BID)
+	                        fireSelfTradeCancelled(buyerOrder);
+	                        if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+	                        	AsyncLogger.debug("STP: Annullato ordine BID " + buyerOrder.getOrderId() + " per self-trade.");
+
+	                        continue;	//se la coda si svuota il prezzo viene rimosso dopo il ciclo
+	                    }
+	        			
+	        			int tradeSize = Math.min(sizeToFill, buyerOrder.getSize());
+	        			
+	        			int fill = fills.add(
+	        					buyerOrder.getOrderId(), order.getOrderId(),
+	        					tradeSize, tradePrice, 
+	        					buyerOrder.getUsername(), order.getUsername(),
+	        					System.currentTimeMillis(),
+	        					FillBuffer.LIMIT, incomingOrderType);
+	        			
+	        			sizeToFill -= tradeSize;
+	        			buyerOrder.setSize(buyerOrder.getSize() - tradeSize);
+	        			fireTradeExecuted(fills, fill, buyerOrder, tradeSize);
+	        			
+	        			if(buyerOrder.getSize() == 0)
+	        				queueIterator.remove();
+	        		}
+	        		if(queue.isEmpty())
+	        			bidsIterator.remove();
+	        	}
+	        }
+	        
+	        //controlla gli stopOrder dopo i trade
+	        checkStopOrders(fills);
+	    }
+	
+	//cerca con l'indice e rimuove un limit order a riposo dell'utente
+	private boolean removeLimitOrder(long orderId, String username) {
+		LimitOrder order = orderIndex.get(orderId);
+		if(order == null || !order.getUsername().equals(username))
+			return false;
+		
+		removeFromLevel(order);
+		fireOrderRemoved(order);
+		return true;
+	}
+	
+	//toglie l'ordine dalla coda del suo livello di prezzo, rimuovendo il livello se si svuota
+	private void removeFromLevel(LimitOrder order) {
+		TreeMap<Integer, Queue<LimitOrder>> side = order.getType() == OrderType.BID ? bids : asks;
+		Queue<LimitOrder> queue = side.get(order.getLimitPrice());
+		queue.remove(order);
+		if(queue.isEmpty())
+			side.remove(order.getLimitPrice());
+	}
+	
+	/*
+	 * registra un osservatore del book; gli ordini già presenti gli vengono
+	 * notificati come inseriti, così può costruire il proprio stato iniziale
+	 */
+	public synchronized void addListener(OrderBookListener listener) {
+		for(Queue<LimitOrder> queue : bids.values())
+			for(LimitOrder order : queue)
+				listener.orderRested(order);
+		for(Queue<LimitOrder> queue : asks.values())
+			for(LimitOrder order : queue)
+				listener.orderRested(order);
+		for(StopOrder order : stopOrders)
+			listener.stopOrderAdded(order);
+		
+		listeners.add(listener);
+	}
+	
+	//ogni modifica del book passa da questi metodi, che aggiornano anche la versione e l'indice
+	private void fireOrderRested(LimitOrder order) {
+		version++;
+		orderIndex.put(order.getOrderId(), order);
+		indexUserOrder(order);
+		for(OrderBookListener listener : listeners)
+			listener.orderRested(order);
+	}
+	
+	private void fireOrderRemoved(LimitOrder order) {
+		version++;
+		orderIndex.remove(order.getOrderId());
+		unindexUserOrder(order);
+		for(OrderBookListener listener : listeners)
+			listener.orderRemoved(order);
+	}
+	
+	//ordine a riposo annullato dalla self-trade prevention
+	private void fireSelfTradeCancelled(LimitOrder order) {
+		version++;
+		orderIndex.remove(order.getOrderId());
+		unindexUserOrder(order);
+		for(OrderBookListener listener : listeners) {
+			listener.orderRemoved(order);
+			listener.selfTradeCancelled(order);
+		}
+	}
+	
+	//size ridotta da un amend o lato vendita di un fill d'asta (il trade viene notificato con il lato acquisto)
+	private void fireOrderReduced(LimitOrder order, int quantity) {
+		version++;
+		if(order.getSize() == 0) {	//completamente evaso
+			orderIndex.remove(order.getOrderId());
+			unindexUserOrder(order);
+		}
+		for(OrderBookListener listener : listeners)
+			listener.orderReduced(order, quantity);
+	}
+	
+	private void fireStopOrderAdded(StopOrder order) {
+		indexUserOrder(order);
+		for(OrderBookListener listener : listeners)
+			listener.stopOrderAdded(order);
+	}
+	
+	private void fireStopOrderRemoved(StopOrder order) {
+		unindexUserOrder(order);
+		for(OrderBookListener listener : listeners)
+			listener.stopOrderRemoved(order);
+	}
+	
+	private void fireStopOrderTriggered(StopOrder order, boolean executed) {
+		unindexUserOrder(order);
+		for(OrderBookListener listener : listeners)
+			listener.stopOrderTriggered(order, executed);
+	}
+	
+	//notifica il trade (fill 'index' di fills) e la riduzione dell'ordine a riposo che è stato eseguito
+	private void fireTradeExecuted(FillBuffer fills, int index, LimitOrder restingOrder, int quantity) {
+		version++;
+		if(restingOrder.getSize() == 0) {	//completamente evaso
+			orderIndex.remove(restingOrder.getOrderId());
+			unindexUserOrder(restingOrder);
+		}
+		for(OrderBookListener listener : listeners) {
+			listener.orderReduced(restingOrder, quantity);
+			listener.tradeExecuted(fills, index);
+		}
+	}
+	
+	private void indexUserOrder(Order order) {
+		userOrders.computeIfAbsent(order.getUsername(), k -> new LinkedHashSet<>()).add(order.getOrderId());
+	}
+	
+	private void unindexUserOrder(Order order) {
+		Set<Long> ids = userOrders.get(order.getUsername());
+		if(ids != null && ids.remove(order.getOrderId()) && ids.isEmpty())
+			userOrders.remove(order.getUsername());
+	}
+	
+	//controlla se StopOrder vengono attivati, i loro fill vengono aggiunti a fills
+	private void checkStopOrders(FillBuffer fills) {	//metodo privato chiamato solo da metodi synchronized
+		if(auction)	//book incrociato, gli stop vengono controllati all'uncross
+			return;
+		
+		Integer bestBid = bids.isEmpty() ? null : bids.firstKey();
+		Integer bestAsk = asks.isEmpty() ? null : asks.firstKey();
+		
+		//nel caso comune nessuno stop si attiva: la lista viene solo scorsa, senza copie
+		boolean anyActivated = false;
+		synchronized(stopOrders) {	//un solo lock per la scansione, get(i) lo prenderebbe per ogni elemento
+			for(StopOrder stopOrder : stopOrders) {
+				if(isActivated(stopOrder, bestBid, bestAsk)) {
+					anyActivated = true;
+					break;
+				}
+			}
+		}
+		if(!anyActivated)
+			return;
+		
+		//itera su una copia: l'esecuzione di uno stop richiama checkStopOrders e può modificare la lista
+		for(StopOrder stopOrder : new ArrayList<>(stopOrders)) {
+			//rimuove da lista di attesa, se non c'è più è già stato eseguito da una chiamata annidata
+			if(isActivated(stopOrder, bestBid, bestAsk) && stopOrders.remove(stopOrder)) {
+				
+				try {	//esegue come market order
+					executeMarketOrderLogic(stopOrder, FillBuffer.STOP, fills);
+					fireStopOrderTriggered(stopOrder, true);
+				} catch(Exception e) {	//ordine attivato ma fallito
+					fireStopOrderTriggered(stopOrder, false);
+					AsyncLogger.warn("StopOrder " + stopOrder.getOrderId() + " attivato ma fallito: " + e.getMessage());
+                    // TODO: Notificare l'utente del fallimento?
+				}
+			}
+		}
+	}
+	
+	private static boolean isActivated(StopOrder stopOrder, Integer bestBid, Integer bestAsk) {
+		//se ASK(sell) si attivaa se il bestAsk scende a <= stopPrice
+		if(stopOrder.getType() == OrderType.ASK && bestBid != null)
+			if(bestBid <= stopOrder.getStopPrice())
+				return true;
+		
+		//se BID(buy) si attiva se il bestBid sale a >= stopPrice
+		if(stopOrder.getType() == OrderType.BID && bestAsk != null)
+			if(bestAsk >= stopOrder.getStopPrice())
+				return true;
+		
+		return false;
+	}
+	
+	public synchronized void saveActiveStateToFile() {
+		//non salva se order book vuoto
+		if(asks.isEmpty() && bids.isEmpty() && stopOrders.isEmpty()) {
+			System.out.println("OrderBook: Stato attivo vuoto, nessun salvataggio necessario.");
+            return;
+		}
+		
+		getActiveState().saveToFile(this.activeBookFilename);
+	}
+	
+	public synchronized ActiveBookState getActiveState() {
+		return new ActiveBookState(asks, bids, stopOrders);
+	}
+	
+	public synchronized long checksum() {
+		long hash = auction ? 1 : 0;
+		for(TreeMap<Integer, Queue<LimitOrder>> side : List.of(bids, asks)) {
+			for(Queue<LimitOrder> queue : side.values())
+				for(LimitOrder order : queue)
+					hash = MatchingEngine.checksum(hash, order.getOrderId(), order.getSize(), order.getLimitPrice());
+			hash = MatchingEngine.checksum(hash, 0, 0, 0);	//separatore tra i lati
+		}
+		synchronized(stopOrders) {
+			for(StopOrder order : stopOrders)
+				hash = MatchingEngine.checksum(hash, order.getOrderId(), order.getSize(), order.getStopPrice());
+		}
+		return hash;
+	}
+	
+	//numero di livelli di prezzo di un lato del book
+	public synchronized int getLevelCount(OrderType side) {
+		return side == OrderType.BID ? bids.size() : asks.size();
+	}
+	
+	//numero di stop order in attesa di attivazione
+	public synchronized int getStopOrderCount() {
+		return stopOrders.size();
+	}
+	
+	//ritorna lista di tutti gli ordini attivi (Limit e Stop) per un utente specifico
+	public synchronized List<ActiveOrderInfo> getActiveOrders(String username) {
+        List<ActiveOrderInfo> activeOrders = new ArrayList<>();
+        
+        for (Queue<LimitOrder> queue : asks.values()) {	//cerca negli ASK(Limit Orders)
+            for (LimitOrder order : queue) {
+                if (order.getUsername().equals(username)) {
+                    activeOrders.add(new ActiveOrderInfo(
+                        order.getOrderId(), "ask", "limit",
+                        order.getSize(), order.getLimitPrice()
+                    ));
+                }
+            }
+        }
+        
+        for (Queue<LimitOrder> queue : bids.values()) {	//cerca nei BID(Limit Orders)
+            for (LimitOrder order : queue) {
+                if (order.getUsername().equals(username)) {
+                    activeOrders.add(new ActiveOrderInfo(
+                        order.getOrderId(), "bid", "limit",
+                        order.getSize(), order.getLimitPrice()
+                    ));
+                }
+            }
+        }
+        
+        //non ho bisogno di synchronized(stopOrders) perché il metodo è synchronized
+        for (StopOrder order : stopOrders) {	//cerca negli STOP(Stop Orders)
+        	if (order.getUsername().equals(username)) {
+        		activeOrders.add(new ActiveOrderInfo(
+        			order.getOrderId(), order.getType().toString().toLowerCase(), "stop",
+                    order.getSize(), order.getStopPrice()
+                ));
+        	}
+        }
+        
+        return activeOrders;
+    }
+}
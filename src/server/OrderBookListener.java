@@ -0,0 +1,41 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+
+/**
+ * Osservatore delle modifiche dell'order book (limit order a riposo, trade,
+ * stop order in attesa e loro attivazione).
+ *
+ * I metodi vengono chiamati dall'OrderBook mentre detiene il proprio lock,
+ * devono quindi essere veloci e non bloccanti: il lavoro costoso
+ * (I/O, serializzazione) va spostato su un altro thread.
+ *
+ * Gli ordini passati vanno letti durante la chiamata e non conservati:
+ * OffHeapOrderBook passa una vista riutilizzata dei propri record.
+ */
+
+public interface OrderBookListener {
+	//un limit order (o il suo residuo) è stato inserito nel book
+	default void orderRested(LimitOrder order) {}
+	
+	//la size di un ordine nel book è diminuita di 'quantity' (esecuzione o amend), già aggiornata (0 se completamente evaso)
+	default void orderReduced(LimitOrder order, int quantity) {}
+	
+	//un ordine è stato tolto dal book senza essere eseguito (cancellazione o self-trade prevention)
+	default void orderRemoved(LimitOrder order) {}
+	
+	//nuovo trade eseguito, è il fill 'index' di fills (da leggere subito, il buffer viene riutilizzato)
+	default void tradeExecuted(FillBuffer fills, int index) {}
+	
+	//ordine a riposo annullato dalla self-trade prevention (preceduto da orderRemoved)
+	default void selfTradeCancelled(LimitOrder order) {}
+	
+	//stop order attivato, executed = false se il market order risultante è fallito
+	default void stopOrderTriggered(StopOrder order, boolean executed) {}
+	
+	//stop order in attesa di attivazione
+	default void stopOrderAdded(StopOrder order) {}
+	
+	//stop order cancellato prima dell'attivazione
+	default void stopOrderRemoved(StopOrder order) {}
+}
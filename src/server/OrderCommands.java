@@ -0,0 +1,60 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+
+import java.util.List;
+
+/**
+ * Comandi e letture di un order book usati dalle sessioni dei client
+ * (ClientHandler): inserimenti, cancellazioni, modifiche, snapshot,
+ * profondità e ordini attivi.
+ *
+ * Li implementano i motori di matching (MatchingEngine) e, su un gateway,
+ * RemoteEngine, che li inoltra al processo del motore senza tenere il book:
+ * aste, osservatori e stato del book restano in MatchingEngine.
+ */
+
+public interface OrderCommands {
+	
+	/*
+	 * I comandi aggiungono i fill prodotti (compresi quelli degli stop order
+	 * attivati) in coda a fills, che il chiamante riutilizza tra un comando
+	 * e l'altro: nessun oggetto Trade viene creato dal motore.
+	 */
+	
+	//limit order: matching immediato, il residuo resta nel book
+	void addLimitOrder(LimitOrder order, FillBuffer fills);
+	
+	//più limit order in un solo passaggio, risultati nello stesso ordine
+	List<OrderResult> addLimitOrders(List<LimitOrder> orders, FillBuffer fills);
+	
+	//market order tutto o niente, eccezione (e nessun fill) se la liquidità non basta
+	void executeMarketOrder(MarketOrder order, FillBuffer fills) throws Exception;
+	
+	void addStopOrder(StopOrder order);
+	
+	//true se l'ordine (limit o stop) dell'utente era ancora attivo
+	boolean cancelOrder(long orderId, String username, FillBuffer fills);
+	
+	List<OrderResult> cancelOrders(List<Long> orderIds, String username, FillBuffer fills);
+	
+	//cancella tutti gli ordini (limit e stop) dell'utente tramite un indice per utente, un risultato per ordine cancellato
+	List<OrderResult> cancelAllOrders(String username, FillBuffer fills);
+	
+	//risultati: [0] cancellazione, [1] nuovo ordine (orderId -1 se non inserito)
+	List<OrderResult> cancelReplaceOrder(long orderId, String username, LimitOrder replacement, FillBuffer fills);
+	
+	/*
+	 * modifica un limit order a riposo dell'utente in O(1) tramite l'indice degli ordini:
+	 * riduzione della size allo stesso prezzo sul posto (mantiene la priorità), altrimenti
+	 * reinserimento con lo stesso id. price <= 0 mantiene il prezzo; false se l'ordine non è nel book
+	 */
+	boolean amendOrder(long orderId, String username, int size, int price, FillBuffer fills);
+	
+	String getOrderBookSnapshot();
+	
+	//null se la versione del book è ancora knownVersion
+	OrderBookDepth getOrderBookDepth(int depth, long knownVersion);
+	
+	List<ActiveOrderInfo> getActiveOrders(String username);
+}
@@ -0,0 +1,119 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.AsyncLogger;
+import ProgettoFinale.utils.TimingWheel;
+
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Scadenza degli ordini GTD e DAY di un simbolo.
+ *
+ * Osserva l'order book: quando un ordine con scadenza entra nel book
+ * (residuo di un limit order o stop order in attesa) pianifica un timer
+ * sulla TimingWheel, quando ne esce (evaso, cancellato, stop attivato)
+ * annulla il timer. Alla scadenza accoda sul thread del motore del simbolo
+ * una normale cancellazione per conto del proprietario dell'ordine: viene
+ * registrata dal CommandRecorder come quelle dei client e gli eventuali
+ * trade degli stop order attivati vengono notificati e salvati. Il book
+ * non viene mai scandito.
+ *
+ * Registrato con addListener riceve anche gli ordini caricati all'avvio:
+ * quelli scaduti a server spento vengono cancellati al primo tick.
+ * I metodi da osservatore e le cancellazioni girano sul thread del motore,
+ * quindi la mappa dei timer non richiede lock.
+ */
+
+public class OrderExpiryManager implements OrderBookListener {
+	private final SymbolRegistry.SymbolBook book;
+	private final TimingWheel wheel;
+	private final NotificationDispatcher notificationDispatcher;
+	private final ServerMetrics metrics;
+	private final Map<Long, TimingWheel.Timer> timers = new HashMap<>();	//chiave orderId, solo ordini con scadenza
+	private final FillBuffer fills = new FillBuffer();
+
+	public OrderExpiryManager(SymbolRegistry.SymbolBook book, TimingWheel wheel,
+			NotificationDispatcher notificationDispatcher, ServerMetrics metrics) {
+		this.book = book;
+		this.wheel = wheel;
+		this.notificationDispatcher = notificationDispatcher;
+		this.metrics = metrics;
+	}
+
+	public void orderRested(LimitOrder order) {
+		schedule(order);
+	}
+
+	public void orderReduced(LimitOrder order, int quantity) {
+		if(order.getSize() == 0)	//completamente evaso
+			unschedule(order.getOrderId());
+	}
+
+	public void orderRemoved(LimitOrder order) {
+		unschedule(order.getOrderId());
+	}
+
+	public void stopOrderAdded(StopOrder order) {
+		schedule(order);
+	}
+
+	public void stopOrderRemoved(StopOrder order) {
+		unschedule(order.getOrderId());
+	}
+
+	public void stopOrderTriggered(StopOrder order, boolean executed) {
+		unschedule(order.getOrderId());
+	}
+
+	private void schedule(Order order) {
+		if(order.getExpireTime() <= 0)	//GTC
+			return;
+		long orderId = order.getOrderId();
+		String username = order.getUsername();
+		timers.put(orderId, wheel.schedule(order.getExpireTime(), () -> expire(orderId, username)));
+	}
+
+	private void unschedule(long orderId) {
+		if(timers.isEmpty())	//caso comune, nessun ordine con scadenza
+			return;
+		TimingWheel.Timer timer = timers.remove(orderId);
+		if(timer != null)
+			wheel.cancel(timer);
+	}
+
+	//thread della wheel: accoda la cancellazione al thread del motore
+	private void expire(long orderId, String username) {
+		try {
+			book.getExecutor().execute(() -> cancelExpired(orderId, username));
+		} catch(RejectedExecutionException e) {
+			//server in chiusura: l'ordine resta nello stato salvato e scade al prossimo avvio
+		}
+	}
+
+	//thread del motore: stessa sequenza di una cancelOrder del ClientHandler
+	private void cancelExpired(long orderId, String username) {
+		if(timers.remove(orderId) == null)
+			return;	//l'ordine è uscito dal book mentre la cancellazione era in coda
+
+		fills.clear();
+		CommandRecorder.Command command = book.getCommandRecorder().cancelOrder(orderId, username);
+		boolean cancelled = false;
+		try {
+			cancelled = book.getEngine().cancelOrder(orderId, username, fills);
+		} finally {
+			book.getCommandRecorder().record(command, cancelled);
+		}
+
+		if(cancelled) {
+			metrics.increment(ServerMetrics.EXPIRED);
+			AsyncLogger.info("Ordine " + orderId + " di " + username + " (" + book.getSymbol() + ") scaduto.");
+		}
+
+		//la cancellazione può attivare stop order, caso raro: lo storico viene scritto su questo thread
+		if(!fills.isEmpty()) {
+			notificationDispatcher.submit(book.getSymbol(), fills);
+			book.getTradeHistoryStore().append(fills);
+		}
+	}
+}
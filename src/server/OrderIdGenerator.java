@@ -0,0 +1,49 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.Order;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generatore degli id univoci degli ordini, condiviso da tutte le
+ * implementazioni di MatchingEngine e da tutti i simboli: gli id restano
+ * univoci tra gli order book e anche cambiando motore tra un avvio e l'altro.
+ */
+
+public final class OrderIdGenerator {
+	//contatore atomico per generare id univoci
+	private static final AtomicLong counter = new AtomicLong(0);
+	
+	private OrderIdGenerator() {}
+	
+	//il prossimo id sarà maxId + 1
+	public static synchronized void setInitialOrderId(long maxId) {
+		if (maxId > 0) {
+            counter.set(maxId);
+            System.out.println("OrderIdGenerator: Contatore ID impostato a " + maxId);
+        } else {
+        	counter.set(0);	//anche in caso di replay dopo altre esecuzioni
+            System.out.println("OrderIdGenerator: Contatore ID parte da 0.");
+        }
+	}
+	
+	//ultimo id assegnato
+	public static long current() {
+		return counter.get();
+	}
+	
+	//porta il contatore almeno a maxId, es. alla promozione di una replica
+	public static void advanceTo(long maxId) {
+		counter.accumulateAndGet(maxId, Math::max);
+	}
+	
+	public static long nextId() {
+		return counter.incrementAndGet();
+	}
+	
+	//assegna un nuovo id all'ordine se non ne ha già uno (es. id registrato, rieseguito dal replay)
+	public static void assign(Order order) {
+		if(order.getOrderId() == -1)
+			order.setOrderId(nextId());
+	}
+}
@@ -0,0 +1,170 @@
+package ProgettoFinale.server;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Memoria fuori heap per gli ordini a riposo di OffHeapOrderBook.
+ *
+ * Ogni ordine è un record di dimensione fissa in un ByteBuffer diretto,
+ * identificato dal suo indice (ref). I buffer vengono allocati a blocchi
+ * di CHUNK_RECORDS record quando servono e non vengono mai rilasciati:
+ * i record liberati finiscono in una free list (collegata tramite il campo
+ * next) e vengono riusati dagli inserimenti successivi.
+ *
+ * I campi next/prev collegano i record dello stesso livello di prezzo
+ * in ordine di arrivo, userNext/userPrev quelli dello stesso utente
+ * (cancel-all senza indici sullo heap). Non è thread safe, l'accesso è
+ * protetto dal motore.
+ */
+
+public class OrderSlab {
+	public static final int NIL = -1;	//nessun record
+
+	//layout del record (byte)
+	private static final int ORDER_ID = 0;		//long
+	private static final int TIMESTAMP = 8;		//long
+	private static final int EXPIRE_TIME = 16;	//long, 0 se l'ordine non scade
+	private static final int SIZE = 24;			//int
+	private static final int PRICE = 28;		//int
+	private static final int USER = 32;			//int, indice nella tabella utenti del motore
+	private static final int NEXT = 36;			//int
+	private static final int PREV = 40;			//int
+	private static final int SIDE = 44;			//int, 0 BID, 1 ASK
+	private static final int USER_NEXT = 48;	//int
+	private static final int USER_PREV = 52;	//int
+	private static final int RECORD_SIZE = 56;
+
+	private static final int CHUNK_SHIFT = 16;
+	private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;	//65536 record (3.5 MB) per blocco
+	private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+
+	private ByteBuffer[] chunks = new ByteBuffer[0];
+	private int allocated = 0;	//record mai usati iniziano da qui
+	private int freeHead = NIL;	//primo record della free list
+	private int liveCount = 0;
+
+	//nuovo record con i campi dell'ordine, collegamenti a NIL
+	public int allocate(long orderId, long timestamp, long expireTime, int size, int price, int user, int side) {
+		int ref;
+		if(freeHead != NIL) {	//riusa un record liberato
+			ref = freeHead;
+			freeHead = next(ref);
+		} else {
+			ref = allocated++;
+			if((ref >>> CHUNK_SHIFT) == chunks.length)
+				addChunk();
+		}
+
+		ByteBuffer chunk = chunk(ref);
+		int offset = offset(ref);
+		chunk.putLong(offset + ORDER_ID, orderId);
+		chunk.putLong(offset + TIMESTAMP, timestamp);
+		chunk.putLong(offset + EXPIRE_TIME, expireTime);
+		chunk.putInt(offset + SIZE, size);
+		chunk.putInt(offset + PRICE, price);
+		chunk.putInt(offset + USER, user);
+		chunk.putInt(offset + SIDE, side);
+		chunk.putInt(offset + NEXT, NIL);
+		chunk.putInt(offset + PREV, NIL);
+		chunk.putInt(offset + USER_NEXT, NIL);
+		chunk.putInt(offset + USER_PREV, NIL);
+		liveCount++;
+		return ref;
+	}
+
+	//restituisce il record alla free list, il ref non va più usato
+	public void free(int ref) {
+		setNext(ref, freeHead);
+		freeHead = ref;
+		liveCount--;
+	}
+
+	private void addChunk() {
+		chunks = Arrays.copyOf(chunks, chunks.length + 1);
+		chunks[chunks.length - 1] = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_SIZE).order(ByteOrder.nativeOrder());
+	}
+
+	private ByteBuffer chunk(int ref) {
+		return chunks[ref >>> CHUNK_SHIFT];
+	}
+
+	private static int offset(int ref) {
+		return (ref & CHUNK_MASK) * RECORD_SIZE;
+	}
+
+	public long orderId(int ref) {
+		return chunk(ref).getLong(offset(ref) + ORDER_ID);
+	}
+
+	public long timestamp(int ref) {
+		return chunk(ref).getLong(offset(ref) + TIMESTAMP);
+	}
+
+	public long expireTime(int ref) {
+		return chunk(ref).getLong(offset(ref) + EXPIRE_TIME);
+	}
+
+	public int size(int ref) {
+		return chunk(ref).getInt(offset(ref) + SIZE);
+	}
+
+	public void setSize(int ref, int size) {
+		chunk(ref).putInt(offset(ref) + SIZE, size);
+	}
+
+	public int price(int ref) {
+		return chunk(ref).getInt(offset(ref) + PRICE);
+	}
+
+	public int user(int ref) {
+		return chunk(ref).getInt(offset(ref) + USER);
+	}
+
+	public int side(int ref) {
+		return chunk(ref).getInt(offset(ref) + SIDE);
+	}
+
+	public int next(int ref) {
+		return chunk(ref).getInt(offset(ref) + NEXT);
+	}
+
+	public void setNext(int ref, int next) {
+		chunk(ref).putInt(offset(ref) + NEXT, next);
+	}
+
+	public int prev(int ref) {
+		return chunk(ref).getInt(offset(ref) + PREV);
+	}
+
+	public void setPrev(int ref, int prev) {
+		chunk(ref).putInt(offset(ref) + PREV, prev);
+	}
+
+	public int userNext(int ref) {
+		return chunk(ref).getInt(offset(ref) + USER_NEXT);
+	}
+
+	public void setUserNext(int ref, int next) {
+		chunk(ref).putInt(offset(ref) + USER_NEXT, next);
+	}
+
+	public int userPrev(int ref) {
+		return chunk(ref).getInt(offset(ref) + USER_PREV);
+	}
+
+	public void setUserPrev(int ref, int prev) {
+		chunk(ref).putInt(offset(ref) + USER_PREV, prev);
+	}
+
+	//ordini attualmente nel book
+	public int getLiveCount() {
+		return liveCount;
+	}
+
+	//memoria diretta allocata (byte)
+	public long getCapacityBytes() {
+		return (long) chunks.length * CHUNK_RECORDS * RECORD_SIZE;
+	}
+}
@@ -0,0 +1,168 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import jdk.jfr.*;
+
+/**
+ * Eventi Java Flight Recorder per tracciare il ciclo di vita degli ordini.
+ *
+ * Tutti gli eventi sono disabilitati di default: finché una registrazione
+ * non li abilita begin/commit non fanno nulla e il costo è trascurabile.
+ * Per abilitarli si usa il file di configurazione cross-trace.jfc:
+ *
+ *   java -XX:StartFlightRecording:settings=cross-trace.jfc,filename=cross.jfr ...
+ *
+ * e la registrazione si analizza con gli strumenti standard (jfr print, JMC).
+ */
+
+public final class OrderTraceEvents {
+	
+	private OrderTraceEvents() {}
+	
+	//richiesta TCP dalla ricezione all'invio della risposta, con il dettaglio delle fasi
+	@Name("cross.OrderRequest")
+	@Label("Order Request")
+	@Category({"CROSS", "Orders"})
+	@Description("Richiesta di un client dalla ricezione della riga JSON all'invio della risposta")
+	@Enabled(false)
+	@StackTrace(false)
+	public static class OrderRequest extends Event {
+		@Label("Operation")
+		public String operation;
+		
+		@Label("User")
+		public String user;
+		
+		@Label("Order Id")
+		public long orderId;
+		
+		@Label("Symbol")
+		public String symbol;
+		
+		@Label("Decode")
+		@Timespan(Timespan.NANOSECONDS)
+		public long decode;
+		
+		@Label("Engine Wait")
+		@Description("Attesa nella coda del thread del motore che gestisce il simbolo")
+		@Timespan(Timespan.NANOSECONDS)
+		public long engineWait;
+		
+		@Label("Engine")
+		@Timespan(Timespan.NANOSECONDS)
+		public long engine;
+		
+		@Label("Persist")
+		@Timespan(Timespan.NANOSECONDS)
+		public long persist;
+	}
+	
+	//singolo trade eseguito dal motore di matching
+	@Name("cross.Match")
+	@Label("Match")
+	@Category({"CROSS", "Engine"})
+	@Enabled(false)
+	@StackTrace(false)
+	public static class Match extends Event {
+		@Label("Buy Order Id")
+		public long buyOrderId;
+		
+		@Label("Sell Order Id")
+		public long sellOrderId;
+		
+		@Label("Buyer")
+		public String buyer;
+		
+		@Label("Seller")
+		public String seller;
+		
+		@Label("Price")
+		public int price;
+		
+		@Label("Size")
+		public int size;
+	}
+	
+	//attivazione di uno stop order
+	@Name("cross.StopTrigger")
+	@Label("Stop Trigger")
+	@Category({"CROSS", "Engine"})
+	@Enabled(false)
+	@StackTrace(false)
+	public static class StopTrigger extends Event {
+		@Label("Order Id")
+		public long orderId;
+		
+		@Label("User")
+		public String user;
+		
+		@Label("Executed")
+		@Description("False se l'ordine attivato non ha trovato liquidità sufficiente")
+		public boolean executed;
+	}
+	
+	//scrittura dei trade sul file dello storico
+	@Name("cross.Persist")
+	@Label("Persist Trades")
+	@Category({"CROSS", "I/O"})
+	@Enabled(false)
+	@StackTrace(false)
+	public static class Persist extends Event {
+		@Label("Trades")
+		public int trades;
+	}
+	
+	//invio di una notifica UDP a un utente
+	@Name("cross.Notify")
+	@Label("Notify")
+	@Category({"CROSS", "I/O"})
+	@Enabled(false)
+	@StackTrace(false)
+	public static class Notify extends Event {
+		@Label("User")
+		public String user;
+		
+		@Label("Sequence")
+		public long seq;
+		
+		@Label("Trades")
+		public int trades;
+		
+		@Label("Sent")
+		@Description("False se il buffer UDP era pieno e la notifica è stata scartata")
+		public boolean sent;
+	}
+	
+	/**
+	 * Osservatore dell'order book che genera gli eventi Match e StopTrigger.
+	 * Viene eseguito sotto il lock dell'order book, quindi crea l'evento
+	 * solo se la registrazione lo ha abilitato.
+	 */
+	public static class BookListener implements OrderBookListener {
+		private static final EventType MATCH = EventType.getEventType(Match.class);
+		private static final EventType STOP_TRIGGER = EventType.getEventType(StopTrigger.class);
+		
+		public void tradeExecuted(FillBuffer fills, int index) {
+			if(!MATCH.isEnabled())
+				return;
+			Match event = new Match();
+			event.buyOrderId = fills.getBuyOrderId(index);
+			event.sellOrderId = fills.getSellOrderId(index);
+			event.buyer = fills.getBuyerUsername(index);
+			event.seller = fills.getSellerUsername(index);
+			event.price = fills.getPrice(index);
+			event.size = fills.getSize(index);
+			event.commit();
+		}
+		
+		public void stopOrderTriggered(StopOrder order, boolean executed) {
+			if(!STOP_TRIGGER.isEnabled())
+				return;
+			StopTrigger event = new StopTrigger();
+			event.orderId = order.getOrderId();
+			event.user = order.getUsername();
+			event.executed = executed;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.utils.TokenBucket;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Limiti di frequenza delle richieste dei client, applicati dal
+ * ClientHandler a ogni riga ricevuta prima di decodificarla.
+ *
+ * Ogni connessione ha il proprio token bucket (anche prima del login),
+ * ogni utente uno condiviso dalle sue connessioni e mantenuto tra un
+ * login e l'altro, così riconnettersi non azzera il limite. Un limite
+ * con frequenza 0 è disattivato. Thread safe.
+ */
+
+public class RateLimiter {
+	private final int userRate, userBurst;
+	private final int connectionRate, connectionBurst;
+	private final ConcurrentHashMap<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+
+	//frequenze in richieste al secondo, burst in richieste
+	public RateLimiter(int userRate, int userBurst, int connectionRate, int connectionBurst) {
+		this.userRate = userRate;
+		this.userBurst = userBurst;
+		this.connectionRate = connectionRate;
+		this.connectionBurst = connectionBurst;
+	}
+
+	//bucket di una nuova connessione, null se il limite per connessione è disattivato
+	public TokenBucket newConnectionBucket() {
+		return connectionRate > 0 ? new TokenBucket(connectionRate, connectionBurst) : null;
+	}
+
+	//consuma un token dal bucket dell'utente, false se ha superato il limite
+	public boolean tryAcquire(String username) {
+		if(userRate <= 0)
+			return true;
+		return userBuckets.computeIfAbsent(username, user -> new TokenBucket(userRate, userBurst)).tryAcquire();
+	}
+
+	public boolean isEnabled() {
+		return userRate > 0 || connectionRate > 0;
+	}
+}
@@ -0,0 +1,158 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Comandi di un simbolo su un gateway: li inoltra al processo del motore (EngineServer) sulla connessione condivisa
+ * EngineClient e ne attende la risposta, senza tenere lo stato del book.
+ *
+ * I comandi usano lo stesso formato del CommandRecorder e partono dal
+ * thread della sessione (ClientHandler non li accoda sui thread del motore
+ * locali, vedi SymbolBook.isRemote), così più sessioni del gateway hanno
+ * comandi in volo sulla stessa connessione mentre il motore resta l'unico
+ * a scrivere sul book. Gli id assegnati vengono impostati sugli ordini come
+ * farebbe un motore locale; fills invece resta vuoto: il processo del
+ * motore salva i trade e li invia a tutti i gateway, che li notificano ai
+ * propri utenti (EngineClient).
+ *
+ * Implementa solo i comandi delle sessioni (OrderCommands): osservatori,
+ * aste, limiti di rischio e salvataggio dello stato restano nel processo del
+ * motore, il SymbolBook di un gateway non ha un motore locale.
+ */
+
+public class RemoteEngine implements OrderCommands {
+	private static final Type RESULTS_TYPE = new TypeToken<List<OrderResult>>(){}.getType();
+	private static final Type ACTIVE_ORDERS_TYPE = new TypeToken<List<ActiveOrderInfo>>(){}.getType();
+
+	private final EngineClient client;
+	private final String symbol;
+	private final Gson gson = new Gson();
+
+	public RemoteEngine(EngineClient client, String symbol) {
+		this.client = client;
+		this.symbol = symbol;
+	}
+
+	public void addLimitOrder(LimitOrder order, FillBuffer fills) {
+		JsonObject command = command("limit", order.getUsername());
+		CommandRecorder.addOrderFields(command, order, order.getLimitPrice());
+		JsonObject result = call(command);
+		order.setOrderId(result.get("assignedId").getAsLong());
+		order.setSize(result.get("remaining").getAsInt());	//FOK non eseguito: size invariata
+	}
+
+	public List<OrderResult> addLimitOrders(List<LimitOrder> orders, FillBuffer fills) {
+		if(orders.isEmpty())
+			return new ArrayList<>();
+
+		JsonObject command = command("limits", orders.get(0).getUsername());	//un batch è di un solo utente
+		JsonArray array = new JsonArray();
+		for(LimitOrder order : orders) {
+			JsonObject fields = new JsonObject();
+			CommandRecorder.addOrderFields(fields, order, order.getLimitPrice());
+			array.add(fields);
+		}
+		command.add("orders", array);
+
+		List<OrderResult> results = results(call(command));
+		for(int i = 0; i < results.size(); i++)
+			orders.get(i).setOrderId(results.get(i).getOrderId());
+		return results;
+	}
+
+	public void executeMarketOrder(MarketOrder order, FillBuffer fills) throws Exception {
+		JsonObject command = command("market", order.getUsername());
+		CommandRecorder.addOrderFields(command, order, 0);
+		JsonObject result = call(command);
+		if(result.has("error"))	//liquidità insufficiente o asta in corso
+			throw new Exception(result.get("error").getAsString());
+		order.setOrderId(result.get("assignedId").getAsLong());
+	}
+
+	public void addStopOrder(StopOrder order) {
+		JsonObject command = command("stop", order.getUsername());
+		CommandRecorder.addOrderFields(command, order, order.getStopPrice());
+		order.setOrderId(call(command).get("assignedId").getAsLong());
+	}
+
+	public boolean cancelOrder(long orderId, String username, FillBuffer fills) {
+		JsonObject command = command("cancel", username);
+		command.addProperty("orderId", orderId);
+		return call(command).get("ok").getAsBoolean();
+	}
+
+	public List<OrderResult> cancelOrders(List<Long> orderIds, String username, FillBuffer fills) {
+		JsonObject command = command("cancels", username);
+		command.add("orderIds", gson.toJsonTree(orderIds));
+		return results(call(command));
+	}
+
+	public List<OrderResult> cancelAllOrders(String username, FillBuffer fills) {
+		return results(call(command("cancelAll", username)));
+	}
+
+	public List<OrderResult> cancelReplaceOrder(long orderId, String username, LimitOrder replacement, FillBuffer fills) {
+		JsonObject command = command("cancelReplace", username);
+		command.addProperty("orderId", orderId);
+		CommandRecorder.addOrderFields(command, replacement, replacement.getLimitPrice());
+		List<OrderResult> results = results(call(command));
+		if(results.size() > 1)
+			replacement.setOrderId(results.get(1).getOrderId());
+		return results;
+	}
+
+	public boolean amendOrder(long orderId, String username, int size, int price, FillBuffer fills) {
+		JsonObject command = command("amend", username);
+		command.addProperty("orderId", orderId);
+		command.addProperty("size", size);
+		if(price > 0)
+			command.addProperty("price", price);
+		return call(command).get("ok").getAsBoolean();
+	}
+
+	public String getOrderBookSnapshot() {
+		return call(command("snapshot", null)).get("snapshot").getAsString();
+	}
+
+	public OrderBookDepth getOrderBookDepth(int depth, long knownVersion) {
+		JsonObject command = command("depth", null);
+		command.addProperty("depth", depth);
+		command.addProperty("version", knownVersion);
+		JsonObject result = call(command);
+		return result.has("book") ? gson.fromJson(result.get("book"), OrderBookDepth.class) : null;
+	}
+
+	public List<ActiveOrderInfo> getActiveOrders(String username) {
+		return gson.fromJson(call(command("activeOrders", username)).get("activeOrders"), ACTIVE_ORDERS_TYPE);
+	}
+
+	private static JsonObject command(String op, String username) {
+		JsonObject command = new JsonObject();
+		command.addProperty("op", op);
+		if(username != null)
+			command.addProperty("user", username);
+		return command;
+	}
+
+	//invia il comando e ritorna il risultato, con le stesse eccezioni di ClientHandler per coda piena e limiti di rischio
+	private JsonObject call(JsonObject command) {
+		JsonObject result = client.call(symbol, command);
+		if(result.has("overloaded"))
+			throw new RejectedExecutionException("Engine queue full");
+		if(result.has("riskRejected"))
+			throw new RiskManager.LimitExceededException();
+		if(result.has("failure"))	//comando non valido o simbolo non negoziato dal motore
+			throw new IllegalStateException(result.get("failure").getAsString());
+		return result;
+	}
+
+	private List<OrderResult> results(JsonObject result) {
+		return gson.fromJson(result.get("results"), RESULTS_TYPE);
+	}
+}
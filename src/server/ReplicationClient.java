@@ -0,0 +1,330 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.AsyncLogger;
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Lato replica: riceve lo stream del primario (ReplicationServer) e lo
+ * applica agli order book locali, pronti a sostituire il primario.
+ *
+ * 0. autenticazione: il primo messaggio inviato è il segreto condiviso
+ *    (LinkSecret), senza il quale il primario chiude la connessione;
+ * 1. allineamento, prima di creare i motori: receiveSnapshots salva utenti
+ *    e snapshot dei book nei file locali, da cui i motori vengono caricati
+ *    come a un normale avvio; i comandi arrivati nel frattempo restano in coda;
+ * 2. replica: ogni comando viene eseguito sul thread del motore del simbolo
+ *    con gli id assegnati dal primario, registrato dal CommandRecorder locale
+ *    e i trade salvati nello storico; ai checksum del primario lo stato
+ *    locale viene confrontato con lo stesso stream applicato.
+ *
+ * Alla caduta del collegamento la replica resta ferma sull'ultimo comando
+ * ricevuto; la promozione (ServerMain) porta il contatore degli id oltre
+ * l'ultimo assegnato dal primario e avvia i servizi per i client.
+ */
+
+public class ReplicationClient implements Runnable {
+	private final Socket socket;
+	private final BufferedReader reader;
+	private final ServerMetrics metrics;
+	private final Gson gson = new Gson();
+	private final List<JsonObject> pending = new ArrayList<>();	//comandi ricevuti durante l'allineamento
+	private final Set<String> auctions = new HashSet<>();	//simboli in asta allo snapshot
+	private final Map<SymbolRegistry.SymbolBook, FillBuffer> fills = new HashMap<>();	//uno per simbolo, riusato dal thread del motore
+	private volatile long lastOrderId;	//massimo id assegnato dal primario tra quelli ricevuti
+	private volatile boolean running = true;
+	private SymbolRegistry symbolRegistry;
+	private UserManager userManager;
+	private Runnable onDisconnect;	//es. promozione automatica, può essere null
+	private Thread thread;	//lettura dello stream, atteso da stop()
+
+	public ReplicationClient(String host, int port, String secret, ServerMetrics metrics) throws IOException {
+		this.socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		this.metrics = metrics;
+		LinkSecret.send(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), secret);	//unico messaggio verso il primario
+	}
+
+	public long getLastOrderId() {
+		return lastOrderId;
+	}
+
+	/*
+	 * legge utenti e snapshot dei simboli indicati, salvando ogni book nel file
+	 * restituito da activeBookFile; IOException se il primario non negozia gli stessi simboli
+	 */
+	public void receiveSnapshots(Collection<String> symbols, Function<String, String> activeBookFile,
+			UserManager userManager) throws IOException {
+		this.userManager = userManager;
+		Set<String> missing = new HashSet<>(symbols);
+		while(!missing.isEmpty()) {
+			String line = reader.readLine();
+			if(line == null)
+				throw new EOFException("collegamento chiuso dal primario durante l'allineamento (segreto 'link_secret' diverso?)");
+			JsonObject message = JsonParser.parseString(line).getAsJsonObject();
+			JsonObject command = message.getAsJsonObject("command");
+			String op = command.get("op").getAsString();
+
+			if(op.equals("users")) {
+				userManager.putReplicated(users(command));
+			} else if(op.equals("snapshot")) {
+				String symbol = message.get("symbol").getAsString();
+				if(!missing.remove(symbol))
+					throw new IOException("simbolo " + symbol + " del primario non configurato sulla replica");
+				gson.fromJson(command.get("book"), ActiveBookState.class).saveToFile(activeBookFile.apply(symbol));
+				if(command.get("auction").getAsBoolean())
+					auctions.add(symbol);
+				trackOrderId(command.get("lastOrderId").getAsLong());
+			} else {
+				pending.add(message);
+			}
+		}
+		System.out.println("Replica allineata al primario " + socket.getInetAddress().getHostAddress() + ":" + socket.getPort());
+	}
+
+	//avvia l'applicazione dello stream sui motori creati dagli snapshot, onDisconnect alla caduta del collegamento
+	public void start(SymbolRegistry symbolRegistry, Runnable onDisconnect) {
+		this.symbolRegistry = symbolRegistry;
+		this.onDisconnect = onDisconnect;
+		for(SymbolRegistry.SymbolBook book : symbolRegistry.getAll())
+			fills.put(book, new FillBuffer());
+		for(String symbol : auctions) {	//la fase d'asta non fa parte del file di stato
+			JsonObject command = new JsonObject();
+			command.addProperty("op", "auctionStart");
+			pending.add(0, messageFor(symbol, command));
+		}
+		thread = new Thread(this, "replication-client");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void run() {
+		try {
+			for(JsonObject message : pending)
+				dispatch(message);
+			pending.clear();
+
+			String line;
+			while(running && (line = reader.readLine()) != null)
+				dispatch(JsonParser.parseString(line).getAsJsonObject());
+		} catch(IOException | JsonParseException e) {
+			if(running)
+				AsyncLogger.error("ReplicationClient: Errore sul collegamento con il primario: " + e.getMessage());
+		}
+		if(!running)
+			return;
+		AsyncLogger.warn("ReplicationClient: Collegamento con il primario interrotto, ultimo id ricevuto " + lastOrderId + ".");
+		if(onDisconnect != null)
+			onDisconnect.run();
+	}
+
+	/*
+	 * ferma la replica (promozione), i comandi già ricevuti vengono comunque applicati;
+	 * attende la fine del thread di lettura, così getLastOrderId non cambia più dopo il ritorno
+	 * (da onDisconnect il thread è già uscito dal ciclo di lettura)
+	 */
+	public void stop() {
+		running = false;
+		try {
+			socket.close();
+		} catch(IOException e) {
+			//ignora
+		}
+		if(thread != null && thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	//thread di lettura: il comando viene accodato sul thread del motore del simbolo, nell'ordine di arrivo
+	private void dispatch(JsonObject message) {
+		JsonObject command = message.getAsJsonObject("command");
+		if(command.get("op").getAsString().equals("users")) {	//indipendenti dai motori
+			userManager.putReplicated(users(command));
+			return;
+		}
+
+		SymbolRegistry.SymbolBook book = symbolRegistry.get(message.get("symbol").getAsString());
+		if(command.has("assignedId"))
+			trackOrderId(command.get("assignedId").getAsLong());
+		if(command.has("results"))
+			for(JsonElement result : command.getAsJsonArray("results"))
+				trackOrderId(result.getAsJsonObject().get("orderId").getAsLong());
+
+		book.getExecutor().execute(() -> apply(book, command));
+	}
+
+	private void trackOrderId(long orderId) {
+		if(orderId > lastOrderId)
+			lastOrderId = orderId;
+	}
+
+	//thread del motore: stessa sequenza del ClientHandler, con gli id assegnati dal primario
+	private void apply(SymbolRegistry.SymbolBook book, JsonObject command) {
+		String op = command.get("op").getAsString();
+		if(op.equals("checksum")) {
+			verify(book, command.get("checksum").getAsLong());
+			return;
+		}
+
+		MatchingEngine engine = book.getEngine();
+		CommandRecorder recorder = book.getCommandRecorder();
+		String user = command.has("user") ? command.get("user").getAsString() : null;
+		FillBuffer fills = this.fills.get(book);
+		fills.clear();
+		switch(op) {
+		case "limit": {
+			LimitOrder order = limitOrder(user, command, command.get("assignedId").getAsLong());
+			CommandRecorder.Command recorded = recorder.limitOrder(order);
+			engine.addLimitOrder(order, fills);
+			recorder.record(recorded, null);
+			break;
+		}
+		case "market": {
+			MarketOrder order = new MarketOrder(user, OrderType.valueOf(command.get("type").getAsString()), command.get("size").getAsInt());
+			preassign(order, command.get("assignedId").getAsLong());
+			CommandRecorder.Command recorded = recorder.marketOrder(order);
+			try {
+				engine.executeMarketOrder(order, fills);
+			} catch(Exception e) {
+				//fallito anche sul primario
+			}
+			recorder.record(recorded, null);
+			break;
+		}
+		case "stop": {
+			StopOrder order = new StopOrder(user, OrderType.valueOf(command.get("type").getAsString()),
+					command.get("size").getAsInt(), command.get("price").getAsInt());
+			setValidity(order, command);
+			preassign(order, command.get("assignedId").getAsLong());
+			CommandRecorder.Command recorded = recorder.stopOrder(order);
+			engine.addStopOrder(order);
+			recorder.record(recorded, null);
+			break;
+		}
+		case "cancel": {
+			long orderId = command.get("orderId").getAsLong();
+			CommandRecorder.Command recorded = recorder.cancelOrder(orderId, user);
+			recorder.record(recorded, engine.cancelOrder(orderId, user, fills));
+			break;
+		}
+		case "amend": {
+			long orderId = command.get("orderId").getAsLong();
+			int size = command.get("size").getAsInt();
+			int price = command.has("price") ? command.get("price").getAsInt() : 0;
+			CommandRecorder.Command recorded = recorder.amendOrder(orderId, user, size, price);
+			recorder.record(recorded, engine.amendOrder(orderId, user, size, price, fills));
+			break;
+		}
+		case "limits": {
+			JsonArray array = command.getAsJsonArray("orders");
+			JsonArray results = command.getAsJsonArray("results");
+			List<LimitOrder> orders = new ArrayList<>(array.size());
+			for(int i = 0; i < array.size(); i++)
+				orders.add(limitOrder(user, array.get(i).getAsJsonObject(), results.get(i).getAsJsonObject().get("orderId").getAsLong()));
+			CommandRecorder.Command recorded = recorder.limitOrders(orders, user);
+			recorder.record(recorded, engine.addLimitOrders(orders, fills));
+			break;
+		}
+		case "cancels": {
+			List<Long> orderIds = new ArrayList<>();
+			for(JsonElement id : command.getAsJsonArray("orderIds"))
+				orderIds.add(id.getAsLong());
+			CommandRecorder.Command recorded = recorder.cancelOrders(orderIds, user);
+			recorder.record(recorded, engine.cancelOrders(orderIds, user, fills));
+			break;
+		}
+		case "cancelAll": {
+			CommandRecorder.Command recorded = recorder.cancelAllOrders(user);
+			recorder.record(recorded, engine.cancelAllOrders(user, fills));
+			break;
+		}
+		case "cancelReplace": {
+			long orderId = command.get("orderId").getAsLong();
+			JsonArray results = command.getAsJsonArray("results");
+			LimitOrder replacement = limitOrder(user, command,
+					results.size() > 1 ? results.get(1).getAsJsonObject().get("orderId").getAsLong() : -1);
+			CommandRecorder.Command recorded = recorder.cancelReplaceOrder(orderId, user, replacement);
+			recorder.record(recorded, engine.cancelReplaceOrder(orderId, user, replacement, fills));
+			break;
+		}
+		case "auctionStart": {
+			CommandRecorder.Command recorded = recorder.auctionStart();
+			recorder.record(recorded, engine.startAuction());
+			break;
+		}
+		case "auctionUncross": {
+			CommandRecorder.Command recorded = recorder.auctionUncross();
+			recorder.record(recorded, engine.uncrossAuction(fills));
+			break;
+		}
+		default:
+			AsyncLogger.error("ReplicationClient: Comando sconosciuto " + op + ", ignorato.");
+			return;
+		}
+
+		//nessuna notifica: i client sono connessi al primario
+		if(!fills.isEmpty())
+			book.getTradeHistoryStore().append(fills);
+	}
+
+	//limit order dai campi di un comando (anche quelli dei gateway, EngineServer)
+	static LimitOrder limitOrder(String user, JsonObject fields, long assignedId) {
+		LimitOrder order = new LimitOrder(user, OrderType.valueOf(fields.get("type").getAsString()),
+				fields.get("size").getAsInt(), fields.get("price").getAsInt());
+		setValidity(order, fields);
+		preassign(order, assignedId);
+		return order;
+	}
+
+	//validità e scadenza decise dal primario (o dal gateway), la scadenza viene gestita dopo la promozione
+	static void setValidity(Order order, JsonObject fields) {
+		if(fields.has("timeInForce"))
+			order.setTimeInForce(TimeInForce.valueOf(fields.get("timeInForce").getAsString()));
+		if(fields.has("expireTime"))
+			order.setExpireTime(fields.get("expireTime").getAsLong());
+	}
+
+	//id del primario; -1 (ordine fallito) lascia l'assegnazione al motore, come nel replay
+	private static void preassign(Order order, long assignedId) {
+		if(assignedId > 0)
+			order.setOrderId(assignedId);
+	}
+
+	//thread del motore: lo stato locale corrisponde a quello del primario nello stesso punto dello stream
+	private void verify(SymbolRegistry.SymbolBook book, long expected) {
+		long actual = book.getEngine().checksum();
+		if(actual == expected) {
+			if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+				AsyncLogger.debug("ReplicationClient: Checksum " + book.getSymbol() + " allineato.");
+			return;
+		}
+		metrics.increment(ServerMetrics.REPLICA_CHECKSUM_MISMATCHES);
+		AsyncLogger.error("ReplicationClient: Checksum " + book.getSymbol() + " diverso dal primario ("
+				+ actual + " invece di " + expected + "), replica non allineata.");
+	}
+
+	private static JsonObject messageFor(String symbol, JsonObject command) {
+		JsonObject message = new JsonObject();
+		message.addProperty("symbol", symbol);
+		message.add("command", command);
+		return message;
+	}
+
+	private List<User> users(JsonObject command) {
+		Type listType = new TypeToken<List<User>>(){}.getType();
+		return gson.fromJson(command.get("users"), listType);
+	}
+}
@@ -0,0 +1,236 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.User;
+import ProgettoFinale.utils.AsyncLogger;
+import ProgettoFinale.utils.TimingWheel;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Lato primario della replica: invia a ogni replica connessa (ReplicationClient)
+ * lo stream sequenziale dei comandi dei motori, così la replica mantiene i
+ * propri order book allineati e può sostituire il primario senza rileggere
+ * lo storico.
+ *
+ * La porta è aperta solo sull'indirizzo configurato, di default loopback,
+ * e una replica viene collegata solo dopo aver inviato il segreto condiviso
+ * (LinkSecret), controllato sul thread della connessione.
+ *
+ * Alla connessione la replica riceve gli utenti registrati (con il solo
+ * hash della password) e, per ogni
+ * simbolo, lo snapshot del book preso sul thread del motore; da quel punto
+ * il CommandRecorder del simbolo le inoltra ogni comando registrato.
+ * Periodicamente viene inserito nello stream il checksum dello stato del
+ * motore, che la replica confronta con il proprio nella stessa posizione.
+ *
+ * Protocollo: una riga JSON per messaggio,
+ * {"symbol":...,"command":{...}} per i messaggi di un simbolo (comandi
+ * registrati, "snapshot", "checksum") e {"command":{"op":"users",...}}
+ * per gli utenti.
+ */
+
+public class ReplicationServer implements Runnable {
+	private final ServerSocket serverSocket;
+	private final String secret;
+	private final SymbolRegistry symbolRegistry;
+	private final UserManager userManager;
+	private final TimingWheel wheel;
+	private final long checksumIntervalMs;
+	private final ServerMetrics metrics;
+	private final List<Link> links = new CopyOnWriteArrayList<>();
+	private final Gson gson = new Gson();
+
+	public ReplicationServer(int port, InetAddress bindAddress, String secret, SymbolRegistry symbolRegistry,
+			UserManager userManager, TimingWheel wheel, long checksumIntervalMs, ServerMetrics metrics) throws IOException {
+		this.serverSocket = new ServerSocket(port, 50, bindAddress);
+		this.secret = secret;
+		this.symbolRegistry = symbolRegistry;
+		this.userManager = userManager;
+		this.wheel = wheel;
+		this.checksumIntervalMs = checksumIntervalMs;
+		this.metrics = metrics;
+		userManager.addChangeListener(user -> {
+			for(Link link : links)
+				link.sendUsers(Collections.singletonList(user));
+		});
+		if(checksumIntervalMs > 0)
+			wheel.schedule(System.currentTimeMillis() + checksumIntervalMs, this::publishChecksums);
+	}
+
+	public int getReplicaCount() {
+		return links.size();
+	}
+
+	public void run() {
+		while(!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Thread authenticator = new Thread(() -> authenticate(socket), "replication-auth-" + socket.getPort());
+				authenticator.setDaemon(true);
+				authenticator.start();
+			} catch(IOException e) {
+				if(!serverSocket.isClosed())
+					AsyncLogger.error("ReplicationServer: Errore di connessione della replica: " + e.getMessage());
+			}
+		}
+	}
+
+	public void shutdown() {
+		try {
+			serverSocket.close();
+		} catch(IOException e) {
+			//ignora
+		}
+		for(Link link : links)
+			link.close();
+	}
+
+	//thread della connessione: la replica viene collegata solo se il primo messaggio è il segreto condiviso
+	private void authenticate(Socket socket) {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			if(LinkSecret.check(socket, reader, secret)) {
+				attach(new Link(socket));
+				return;
+			}
+			AsyncLogger.warn("ReplicationServer: Connessione da " + socket.getInetAddress() + " rifiutata, segreto non valido.");
+		} catch(IOException e) {
+			AsyncLogger.error("ReplicationServer: Errore di connessione della replica: " + e.getMessage());
+		}
+		try {
+			socket.close();
+		} catch(IOException e) {
+			//ignora
+		}
+	}
+
+	//utenti, poi uno snapshot per simbolo preso sul thread del motore, in coda allo stream del recorder
+	private void attach(Link link) {
+		links.add(link);	//prima dello snapshot degli utenti: le modifiche successive non vanno perse
+		link.sendUsers(userManager.getUsers());
+		link.flush();
+
+		for(SymbolRegistry.SymbolBook book : symbolRegistry.getAll()) {
+			try {
+				book.getExecutor().execute(() -> book.getCommandRecorder().subscribe(link.forSymbol(book.getSymbol()), snapshot(book)));
+			} catch(RejectedExecutionException e) {
+				link.close();	//server in chiusura
+				return;
+			}
+		}
+		AsyncLogger.info("ReplicationServer: Replica connessa da " + link.socket.getInetAddress());
+	}
+
+	//thread del motore
+	private JsonObject snapshot(SymbolRegistry.SymbolBook book) {
+		JsonObject snapshot = new JsonObject();
+		snapshot.addProperty("op", "snapshot");
+		snapshot.addProperty("lastOrderId", OrderIdGenerator.current());
+		snapshot.addProperty("auction", book.getEngine().isAuction());
+		snapshot.add("book", gson.toJsonTree(book.getEngine().getActiveState()));
+		return snapshot;
+	}
+
+	//thread della wheel: il checksum viene calcolato e accodato sul thread del motore di ogni simbolo
+	private void publishChecksums() {
+		if(serverSocket.isClosed())
+			return;
+		if(!links.isEmpty()) {
+			for(SymbolRegistry.SymbolBook book : symbolRegistry.getAll()) {
+				try {
+					book.getExecutor().execute(() -> {
+						JsonObject checksum = new JsonObject();
+						checksum.addProperty("op", "checksum");
+						checksum.addProperty("checksum", book.getEngine().checksum());
+						book.getCommandRecorder().publish(checksum);
+					});
+				} catch(RejectedExecutionException e) {
+					return;	//server in chiusura
+				}
+			}
+		}
+		wheel.schedule(System.currentTimeMillis() + checksumIntervalMs, this::publishChecksums);
+	}
+
+	//connessione con una replica, condivisa dai thread di scrittura dei recorder dei simboli
+	private class Link {
+		private final Socket socket;
+		private final BufferedWriter out;
+		private volatile boolean open = true;
+
+		Link(Socket socket) throws IOException {
+			this.socket = socket;
+			this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+		}
+
+		CommandRecorder.Subscriber forSymbol(String symbol) {
+			return new CommandRecorder.Subscriber() {
+				public boolean send(JsonObject json) {
+					JsonObject message = new JsonObject();
+					message.addProperty("symbol", symbol);
+					message.add("command", json);
+					return Link.this.send(message);
+				}
+
+				public boolean flush() {
+					return Link.this.flush();
+				}
+			};
+		}
+
+		void sendUsers(List<User> users) {
+			JsonObject command = new JsonObject();
+			command.addProperty("op", "users");
+			command.add("users", gson.toJsonTree(LinkSecret.withoutPasswords(users)));
+			JsonObject message = new JsonObject();
+			message.add("command", command);
+			if(send(message))
+				flush();
+		}
+
+		synchronized boolean send(JsonObject message) {
+			if(!open)
+				return false;
+			try {
+				out.write(gson.toJson(message));
+				out.newLine();
+				return true;
+			} catch(IOException e) {
+				close();
+				return false;
+			}
+		}
+
+		synchronized boolean flush() {
+			if(!open)
+				return false;
+			try {
+				out.flush();
+				return true;
+			} catch(IOException e) {
+				close();
+				return false;
+			}
+		}
+
+		void close() {
+			if(!open)
+				return;
+			open = false;
+			links.remove(this);
+			metrics.increment(ServerMetrics.REPLICAS_DISCONNECTED);
+			AsyncLogger.warn("ReplicationServer: Replica " + socket.getInetAddress() + " disconnessa.");
+			try {
+				socket.close();
+			} catch(IOException e) {
+				//ignora
+			}
+		}
+	}
+}
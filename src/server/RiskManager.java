@@ -0,0 +1,203 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Controlli di rischio pre-trade di un simbolo: limiti per utente e per
+ * lato alla quantità e al controvalore (size * prezzo) degli ordini aperti,
+ * cioè limit order a riposo e stop order in attesa (al prezzo di stop).
+ *
+ * Osserva l'order book e tiene per ogni utente i totali aggiornati a ogni
+ * evento (ordine a riposo, esecuzione, amend, cancellazione, attivazione),
+ * quindi un controllo costa una lettura dei totali e non scandisce mai il
+ * book. Registrato con addListener riceve anche gli ordini caricati.
+ *
+ * I controlli vengono fatti sul thread del motore del simbolo subito prima
+ * di eseguire il comando (ClientHandler, EngineServer): i comandi rifiutati
+ * non vengono eseguiti né registrati e il replay non dipende dai limiti.
+ * Controllo ed esecuzione non sono separati da altri comandi dello stesso
+ * book, quindi i limiti valgono anche per un utente con più sessioni
+ * (es. su gateway diversi e sul processo del motore). Market order, IOC e
+ * FOK non restano nel book e non sono soggetti ai limiti.
+ */
+
+public class RiskManager implements OrderBookListener {
+	//ordine rifiutato dai limiti di rischio (risposta 107)
+	public static class LimitExceededException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public LimitExceededException() {
+			super("Risk limit exceeded");
+		}
+	}
+
+	//totali degli ordini aperti di un utente, protetti dal lock dell'oggetto
+	private static class Exposure {
+		long buySize, sellSize;
+		long buyNotional, sellNotional;
+	}
+
+	//ordine aperto: lato, prezzo e size residua, per aggiornare i totali dagli eventi
+	private static class OpenOrder {
+		final Exposure exposure;
+		final boolean buy;
+		final long price;
+		int size;
+
+		OpenOrder(Exposure exposure, boolean buy, long price, int size) {
+			this.exposure = exposure;
+			this.buy = buy;
+			this.price = price;
+			this.size = size;
+		}
+	}
+
+	private final long maxOpenSize;		//per utente e lato, 0 = nessun limite
+	private final long maxOpenNotional;	//per utente e lato, in millesimi di USD * size, 0 = nessun limite
+	private final Map<String, Exposure> exposures = new ConcurrentHashMap<>();
+	private final Map<Long, OpenOrder> openOrders = new ConcurrentHashMap<>();	//scritta solo dal thread del motore
+
+	public RiskManager(long maxOpenSize, long maxOpenNotional) {
+		this.maxOpenSize = maxOpenSize;
+		this.maxOpenNotional = maxOpenNotional;
+	}
+
+	//true se l'ordine può entrare nel book senza superare i limiti dell'utente
+	public boolean allows(Order order) {
+		return allows(order, -1);
+	}
+
+	//come allows, senza contare l'ordine replacedId dell'utente che order sostituisce (cancel/replace)
+	public boolean allows(Order order, long replacedId) {
+		if(!canRest(order))
+			return true;
+		OpenOrder replaced = openOrders.get(replacedId);
+		boolean buy = order.getType() == OrderType.BID;
+		return check(order.getUsername(), buy, order.getSize(), price(order),
+				replaced != null && replaced.buy == buy ? replaced : null);
+	}
+
+	//amend dell'ordine orderId a size e prezzo (0 = invariato), true anche se l'ordine non è aperto
+	public boolean allowsAmend(String username, long orderId, int size, int price) {
+		OpenOrder open = openOrders.get(orderId);
+		if(open == null)
+			return true;	//ordine inesistente o di un altro utente: lo segnala il motore
+		return check(username, open.buy, size, price > 0 ? price : open.price, open);
+	}
+
+	//batch: true per gli ordini accettati, nell'ordine dato, sommando quelli già accettati del batch
+	public boolean[] allowsAll(String username, List<? extends Order> orders) {
+		boolean[] allowed = new boolean[orders.size()];
+		long buySize = 0, sellSize = 0, buyNotional = 0, sellNotional = 0;
+		for(int i = 0; i < orders.size(); i++) {
+			Order order = orders.get(i);
+			if(!canRest(order)) {
+				allowed[i] = true;
+				continue;
+			}
+			boolean buy = order.getType() == OrderType.BID;
+			long size = order.getSize() + (buy ? buySize : sellSize);
+			long notional = order.getSize() * price(order) + (buy ? buyNotional : sellNotional);
+			allowed[i] = checkTotals(username, buy, size, notional);
+			if(allowed[i] && buy) {
+				buySize += order.getSize();
+				buyNotional += order.getSize() * price(order);
+			} else if(allowed[i]) {
+				sellSize += order.getSize();
+				sellNotional += order.getSize() * price(order);
+			}
+		}
+		return allowed;
+	}
+
+	//esposizione aggiunta di size al prezzo price, meno quella dell'ordine replaced (se non null)
+	private boolean check(String username, boolean buy, long size, long price, OpenOrder replaced) {
+		long notional = size * price;
+		if(replaced != null) {
+			size -= replaced.size;
+			notional -= replaced.size * replaced.price;
+		}
+		return checkTotals(username, buy, size, notional);
+	}
+
+	private boolean checkTotals(String username, boolean buy, long size, long notional) {
+		Exposure exposure = exposures.get(username);
+		long openSize = 0, openNotional = 0;
+		if(exposure != null) {
+			synchronized(exposure) {
+				openSize = buy ? exposure.buySize : exposure.sellSize;
+				openNotional = buy ? exposure.buyNotional : exposure.sellNotional;
+			}
+		}
+		return (maxOpenSize <= 0 || openSize + size <= maxOpenSize)
+				&& (maxOpenNotional <= 0 || openNotional + notional <= maxOpenNotional);
+	}
+
+	private static boolean canRest(Order order) {
+		return order instanceof StopOrder || (order instanceof LimitOrder
+				&& order.getTimeInForce() != TimeInForce.IOC && order.getTimeInForce() != TimeInForce.FOK);
+	}
+
+	private static long price(Order order) {
+		return order instanceof StopOrder ? ((StopOrder) order).getStopPrice() : ((LimitOrder) order).getLimitPrice();
+	}
+
+	public void orderRested(LimitOrder order) {
+		open(order, order.getLimitPrice());
+	}
+
+	public void orderReduced(LimitOrder order, int quantity) {
+		OpenOrder open = openOrders.get(order.getOrderId());
+		if(open == null)
+			return;
+		if(order.getSize() == 0)	//completamente evaso
+			openOrders.remove(order.getOrderId());
+		add(open, -quantity);
+	}
+
+	public void orderRemoved(LimitOrder order) {
+		close(order.getOrderId());
+	}
+
+	public void stopOrderAdded(StopOrder order) {
+		open(order, order.getStopPrice());
+	}
+
+	public void stopOrderRemoved(StopOrder order) {
+		close(order.getOrderId());
+	}
+
+	public void stopOrderTriggered(StopOrder order, boolean executed) {
+		close(order.getOrderId());	//diventa un market order, non resta nel book
+	}
+
+	private void open(Order order, long price) {
+		Exposure exposure = exposures.computeIfAbsent(order.getUsername(), user -> new Exposure());
+		OpenOrder open = new OpenOrder(exposure, order.getType() == OrderType.BID, price, 0);
+		openOrders.put(order.getOrderId(), open);
+		add(open, order.getSize());
+	}
+
+	private void close(long orderId) {
+		OpenOrder open = openOrders.remove(orderId);
+		if(open != null)
+			add(open, -open.size);
+	}
+
+	private static void add(OpenOrder open, int size) {
+		Exposure exposure = open.exposure;
+		synchronized(exposure) {
+			open.size += size;
+			if(open.buy) {
+				exposure.buySize += size;
+				exposure.buyNotional += size * open.price;
+			} else {
+				exposure.sellSize += size;
+				exposure.sellNotional += size * open.price;
+			}
+		}
+	}
+}
@@ -1,163 +1,659 @@
-package ProgettoFinale.server;
-
-import java.io.*;
-import java.net.*;
-import java.util.*;
-import java.util.concurrent.*;
-import java.lang.reflect.Type;
-
-import ProgettoFinale.entities.*;
-import com.google.gson.*;
-import com.google.gson.reflect.TypeToken;
-
-public class ServerMain {
-	
-	private static final String SERVER_CONFIG_FILE = "server.properties";
-	
-	public static void main(String[] args) {
-		System.out.println("Avvio del server CROSS...");
-		
-		//caricamento file config
-		Properties config = new Properties();
-		try(FileInputStream fis = new FileInputStream(SERVER_CONFIG_FILE)){
-			config.load(fis);
-		} catch (IOException e) {
-            System.err.println("Errore: Impossibile trovare o caricare " + SERVER_CONFIG_FILE);
-            e.printStackTrace();
-            return;
-        }
-		
-		//int tcpPort = Integer.parseInt(config.getProperty("tcp_port"));
-		String tcpPortStr = config.getProperty("tcp_port");
-		String usersFile = config.getProperty("users_db_file");
-		String oldHistoryFile = config.getProperty("old_history_file");
-        String historyFile = config.getProperty("trades_history_file");
-        String activeBookFile = config.getProperty("active_book_file");
-		
-        //verifica correttezza dati config
-        if (tcpPortStr == null || usersFile == null || oldHistoryFile == null || 
-                historyFile == null || activeBookFile == null) { 
-        	System.err.println("Errore: Il file 'server.properties' è incompleto.");
-            if (tcpPortStr == null) System.err.println("Manca la chiave: 'tcp_port'");
-            if (usersFile == null) System.err.println("Manca la chiave: 'users_db_file'");
-            if (oldHistoryFile == null) System.err.println("Manca la chiave: 'old_history_file'");
-            if (historyFile == null) System.err.println("Manca la chiave: 'trades_history_file'");
-            if (activeBookFile == null) System.err.println("Manca la chiave: 'active_book_file'");
-                
-            System.err.println("Avvio interrotto.");
-            return; //esce
-        }
-        
-        int tcpPort;
-        try {
-            tcpPort = Integer.parseInt(tcpPortStr);
-        } catch (NumberFormatException e) {
-            System.err.println("Errore: 'tcp_port' (" + tcpPortStr + ") non è un numero valido.");
-            System.err.println("Avvio interrotto.");
-            return;
-        }
-        
-        //logica id univoco
-        long maxOldId = loadMaxOrderId(oldHistoryFile, OldTradeRecord.class); 
-        long maxMyId = loadMaxOrderId(historyFile, Trade.class);
-        long maxId = Math.max(maxOldId, maxMyId);	//trova max id
-        OrderBook.setInitialOrderId(maxId);	//imposta id iniziale
-        
-		UserManager userManager = new UserManager(usersFile);	//gestore utenti threadsafe
-		OrderBook orderBook = new OrderBook(activeBookFile);	//motore di matching threadsafe
-		HistoryManager historyManager = new HistoryManager(oldHistoryFile, historyFile);
-		
-		//shutdwon hook per salvataggio stato ordini attivi
-		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-			System.out.println("\nServer in chiusura...");
-            orderBook.saveActiveStateToFile(); 
-            System.out.println("Salvataggio stato attivo completato. Arrivederci.");
-		}));
-		
-		DatagramSocket udpSocket = null;
-		try {
-			udpSocket = new DatagramSocket();	//porta effimera per invio da server
-			System.out.println("Socket UDP (per invio) creato.");
-		} catch (SocketException e) {
-            System.err.println("Errore: impossibile creare il socket UDP. Uscita.");
-            e.printStackTrace();
-            return;
-        }
-		
-		ExecutorService pool = Executors.newCachedThreadPool();	//riutilizza o crea thread se necessario
-		
-		//avvio server in thread separato
-        final int finalTcpPort = tcpPort;
-        final DatagramSocket finalUdpSocket = udpSocket;
-        final String finalHistoryFile = historyFile;
-        
-        Thread serverThread = new Thread(() -> {
-            try(ServerSocket serverSocket = new ServerSocket(finalTcpPort)) {
-                System.out.println("=================================================");
-                System.out.println("   Server CROSS avviato e in ascolto sulla porta " + finalTcpPort);
-                System.out.println("   Digita 'STOP' e premi [INVIO] per arrestare.");
-                System.out.println("=================================================");
-                
-                while(true) {
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.println("Nuova connessione da: " + clientSocket.getInetAddress());
-                    
-                    ClientHandler clientHandler = new ClientHandler(clientSocket, userManager, 
-                            orderBook, finalUdpSocket, historyManager, finalHistoryFile);
-                    pool.submit(clientHandler);
-                }
-            } catch (IOException e) {
-                System.out.println("Thread server interrotto (chiusura normale).");
-            } finally {
-                pool.shutdown();
-                if(finalUdpSocket != null) finalUdpSocket.close();
-            }
-        });
-        
-        serverThread.start();
-        
-        //attesa comando STOP su thread principale
-        try (Scanner scanner = new Scanner(System.in)) {
-            while (true) {
-                String input = scanner.nextLine();
-                if (input != null && input.trim().equalsIgnoreCase("STOP")) {
-                    break; //esce dal loop se utente inserisce "STOP"
-                }
-            }
-        }
-        
-        System.out.println("Comando 'STOP' ricevuto. Avvio chiusura pulita...");
-        System.exit(0); // Esegue una chiusura pulita (attiva shutdown hook)
-	}
-	
-	//carica il max order id
-	private static <T> long loadMaxOrderId(String filename, Class<T> recordType) {
-		long maxId = 0;
-		Gson gson = new Gson();
-		
-		try(FileReader reader = new FileReader(filename))	{
-			if(recordType.equals(Trade.class)) {
-				Type listType = TypeToken.getParameterized(ArrayList.class, Trade.class).getType();
-				List<Trade> records = gson.fromJson(reader, listType);
-				if(records != null) {
-					for(Trade trade : records) {
-						maxId = Math.max(maxId, trade.getBuyOrderId());
-						maxId = Math.max(maxId, trade.getSellOrderId());
-					}
-				}
-					
-			} else if(recordType.equals(OldTradeRecord.class)) {
-				OldHistoryFile historyFile = gson.fromJson(reader, OldHistoryFile.class);
-				if(historyFile != null && historyFile.getTrades() != null) {
-					for(OldTradeRecord order : historyFile.getTrades())
-						maxId = Math.max(maxId, order.getOrderId());
-				}
-			}
-		} catch (Exception e) {	//file non trovato o vuoto        
-            System.out.println("File storico '" + filename + "' non trovato o vuoto. Max ID rilevato: 0.");
-        }
-		
-		System.out.println("Max ID rilevato da '" + filename + "': " + maxId);
-        return maxId;
-	}
-}
+package ProgettoFinale.server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.lang.reflect.Type;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.AsyncLogger;
+import ProgettoFinale.utils.TimingWheel;
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+
+public class ServerMain {
+	
+	private static final String SERVER_CONFIG_FILE = "server.properties";
+	
+	public static void main(String[] args) {
+		System.out.println("Avvio del server CROSS...");
+		
+		//caricamento file config
+		Properties config = new Properties();
+		try(FileInputStream fis = new FileInputStream(SERVER_CONFIG_FILE)){
+			config.load(fis);
+		} catch (IOException e) {
+            System.err.println("Errore: Impossibile trovare o caricare " + SERVER_CONFIG_FILE);
+            e.printStackTrace();
+            return;
+        }
+		
+		//int tcpPort = Integer.parseInt(config.getProperty("tcp_port"));
+		String tcpPortStr = config.getProperty("tcp_port");
+		String usersFile = config.getProperty("users_db_file");
+		String oldHistoryFile = config.getProperty("old_history_file");
+        String historyFile = config.getProperty("trades_history_file");
+        String activeBookFile = config.getProperty("active_book_file");
+		
+        //verifica correttezza dati config
+        if (tcpPortStr == null || usersFile == null || oldHistoryFile == null || 
+                historyFile == null || activeBookFile == null) { 
+        	System.err.println("Errore: Il file 'server.properties' è incompleto.");
+            if (tcpPortStr == null) System.err.println("Manca la chiave: 'tcp_port'");
+            if (usersFile == null) System.err.println("Manca la chiave: 'users_db_file'");
+            if (oldHistoryFile == null) System.err.println("Manca la chiave: 'old_history_file'");
+            if (historyFile == null) System.err.println("Manca la chiave: 'trades_history_file'");
+            if (activeBookFile == null) System.err.println("Manca la chiave: 'active_book_file'");
+                
+            System.err.println("Avvio interrotto.");
+            return; //esce
+        }
+        
+        int tcpPort;
+        try {
+            tcpPort = Integer.parseInt(tcpPortStr);
+        } catch (NumberFormatException e) {
+            System.err.println("Errore: 'tcp_port' (" + tcpPortStr + ") non è un numero valido.");
+            System.err.println("Avvio interrotto.");
+            return;
+        }
+        
+        //livello del log asincrono e campionamento dei messaggi DEBUG (opzionali)
+        try {
+        	AsyncLogger.Level logLevel = AsyncLogger.Level.valueOf(config.getProperty("log_level", "INFO").trim().toUpperCase());
+        	int logSampleRate = Integer.parseInt(config.getProperty("log_sample_rate", "1"));
+        	AsyncLogger.configure(logLevel, logSampleRate);
+        } catch (IllegalArgumentException e) {	//include NumberFormatException
+        	System.err.println("Errore: 'log_level' (DEBUG, INFO, WARN, ERROR) o 'log_sample_rate' non validi.");
+        	System.err.println("Avvio interrotto.");
+        	return;
+        }
+        
+        //simboli negoziati (il primo è quello di default) e numero di thread del motore (opzionali)
+        List<String> symbols = new ArrayList<>();
+        for(String symbol : config.getProperty("symbols", "BTCUSD").split(","))
+        	if(!symbol.isBlank() && !symbols.contains(symbol.trim().toUpperCase()))
+        		symbols.add(symbol.trim().toUpperCase());
+        int engineThreads;
+        int engineQueueCapacity;	//comandi dei client accodati sui motori, oltre vengono rifiutati (0 = illimitati)
+        try {
+        	engineThreads = Integer.parseInt(config.getProperty("engine_threads",
+        			String.valueOf(Math.min(symbols.size(), Runtime.getRuntime().availableProcessors()))));
+        	engineQueueCapacity = Integer.parseInt(config.getProperty("engine_queue_capacity", "0").trim());
+        } catch (NumberFormatException e) {
+        	engineThreads = 0;
+        	engineQueueCapacity = -1;
+        }
+        if (symbols.isEmpty() || engineThreads < 1 || engineQueueCapacity < 0) {
+        	System.err.println("Errore: 'symbols' vuoto, 'engine_threads' o 'engine_queue_capacity' non validi.");
+        	System.err.println("Avvio interrotto.");
+        	return;
+        }
+        String defaultSymbol = symbols.get(0);
+        
+		UserManager userManager = new UserManager(usersFile);	//gestore utenti threadsafe
+		ServerMetrics metrics = new ServerMetrics();	//contatori e latenze, threadsafe
+		metrics.registerGauge("log.dropped", AsyncLogger::getDroppedCount);
+		
+		//replica: stream dei comandi inviato alle repliche su 'replication_port', avvio come replica con 'replica_of' (opzionali)
+		int replicationPort;
+		long checksumIntervalMs;
+		try {
+			replicationPort = Integer.parseInt(config.getProperty("replication_port", "0").trim());
+			checksumIntervalMs = Long.parseLong(config.getProperty("replication_checksum_interval_ms", "5000").trim());
+		} catch (NumberFormatException e) {
+			System.err.println("Errore: 'replication_port' o 'replication_checksum_interval_ms' non sono numeri validi.");
+			System.err.println("Avvio interrotto.");
+			return;
+		}
+		//separazione gateway/motore: porta per i gateway su 'gateway_port', avvio come gateway con 'engine_address' (opzionali)
+		int gatewayPort;
+		long engineTimeoutMs;
+		try {
+			gatewayPort = Integer.parseInt(config.getProperty("gateway_port", "0").trim());
+			engineTimeoutMs = Long.parseLong(config.getProperty("engine_timeout_ms", "5000").trim());
+		} catch (NumberFormatException e) {
+			System.err.println("Errore: 'gateway_port' o 'engine_timeout_ms' non sono numeri validi.");
+			System.err.println("Avvio interrotto.");
+			return;
+		}
+		if(config.getProperty("engine_address") != null
+				&& (config.getProperty("replica_of") != null || replicationPort > 0 || gatewayPort > 0)) {
+			System.err.println("Errore: un gateway ('engine_address') non ha motori, quindi né 'replica_of', 'replication_port' o 'gateway_port'.");
+			System.err.println("Avvio interrotto.");
+			return;
+		}
+		//collegamenti tra processi: segreto condiviso obbligatorio, porte aperte su loopback salvo indirizzo configurato
+		String linkSecret = config.getProperty("link_secret", "").trim();
+		if((gatewayPort > 0 || config.getProperty("engine_address") != null
+				|| replicationPort > 0 || config.getProperty("replica_of") != null) && linkSecret.isEmpty()) {
+			System.err.println("Errore: 'gateway_port', 'engine_address', 'replication_port' e 'replica_of' richiedono il segreto condiviso 'link_secret'.");
+			System.err.println("Avvio interrotto.");
+			return;
+		}
+		InetAddress gatewayBindAddress = bindAddress(config, "gateway_bind_address");
+		InetAddress replicationBindAddress = bindAddress(config, "replication_bind_address");
+		if(gatewayBindAddress == null || replicationBindAddress == null) {
+			System.err.println("Avvio interrotto.");
+			return;
+		}
+		
+		ReplicationClient replica = null;
+		if(config.getProperty("replica_of") != null) {
+			//allineamento prima di creare i motori, che caricano gli snapshot dai file di stato
+			try {
+				String[] primary = config.getProperty("replica_of").trim().split(":");
+				replica = new ReplicationClient(primary[0], Integer.parseInt(primary[1]), linkSecret, metrics);
+				replica.receiveSnapshots(symbols,
+						symbol -> SymbolRegistry.fileFor(activeBookFile, symbol, defaultSymbol), userManager);
+			} catch (IOException | RuntimeException e) {	//include formato di 'replica_of' non valido
+				System.err.println("Errore: impossibile allinearsi al primario 'replica_of' (host:porta). " + e.getMessage());
+				System.err.println("Avvio interrotto.");
+				return;
+			}
+		}
+		EngineClient engineClient = null;
+		if(config.getProperty("engine_address") != null) {
+			//gateway: sessioni, login e notifiche qui, i comandi vengono inoltrati al processo del motore
+			try {
+				String[] engine = config.getProperty("engine_address").trim().split(":");
+				engineClient = new EngineClient(engine[0], Integer.parseInt(engine[1]), linkSecret, engineTimeoutMs);
+				engineClient.receiveSymbols(symbols, userManager);
+			} catch (IOException | RuntimeException e) {	//include formato di 'engine_address' non valido
+				System.err.println("Errore: impossibile collegarsi al processo del motore 'engine_address' (host:porta). " + e.getMessage());
+				System.err.println("Avvio interrotto.");
+				return;
+			}
+		}
+        
+        //logica id univoco, comune a tutti i simboli (sul gateway gli id sono assegnati dal processo del motore)
+        long maxId = 0;
+        if(engineClient == null) {
+	        maxId = loadMaxOrderId(oldHistoryFile, OldTradeRecord.class);
+	        for(String symbol : symbols)
+	        	maxId = Math.max(maxId, loadMaxOrderId(SymbolRegistry.fileFor(historyFile, symbol, defaultSymbol), Trade.class));	//trova max id
+	        if(replica != null)
+	        	maxId = Math.max(maxId, replica.getLastOrderId());
+	        OrderIdGenerator.setInitialOrderId(maxId);	//imposta id iniziale
+        }
+		
+		//un motore di matching per simbolo, eseguito sul thread del motore a cui è assegnato
+		SymbolRegistry symbolRegistry = new SymbolRegistry(defaultSymbol, engineThreads, engineQueueCapacity);
+		for(String symbol : symbols) {
+			if(engineClient != null)
+				registerRemoteSymbol(config, symbolRegistry, symbol, engineClient);
+			else if(!registerSymbol(config, symbolRegistry, symbol, maxId, metrics, replicationPort > 0))
+				return;
+		}
+		if(engineClient != null)
+			System.out.println("Simboli negoziati: " + symbols + " tramite il processo del motore " + config.getProperty("engine_address").trim());
+		else
+			System.out.println("Simboli negoziati: " + symbols + " su " + engineThreads + " thread del motore");
+		metrics.registerGauge("queue.engine", symbolRegistry::getQueuedCommands);
+		if(engineQueueCapacity > 0)
+			System.out.println("Coda dei motori limitata a " + engineQueueCapacity + " comandi dei client");
+		
+		//aste a chiamata periodiche, create dopo la timing wheel
+		List<AuctionScheduler> auctionSchedulers = new CopyOnWriteArrayList<>();
+		//porta per i gateway, aperta dopo il dispatcher delle notifiche (o alla promozione della replica)
+		List<EngineServer> engineServers = new CopyOnWriteArrayList<>();
+		
+		//shutdwon hook per salvataggio stato ordini attivi
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			System.out.println("\nServer in chiusura...");
+			for(AuctionScheduler scheduler : auctionSchedulers)
+				scheduler.shutdown();	//chiude l'asta in corso prima del salvataggio
+			symbolRegistry.shutdown();	//attende i comandi già accodati
+			for(EngineServer engineServer : engineServers)
+				engineServer.shutdown();	//salva i fill dei comandi dei gateway già eseguiti
+			for(SymbolRegistry.SymbolBook book : symbolRegistry.getAll()) {
+				if(!book.isRemote())	//sul gateway lo stato viene salvato dal processo del motore
+					book.getEngine().saveActiveStateToFile(); 
+				book.getCommandRecorder().close();
+			}
+            System.out.println("Salvataggio stato attivo completato. Arrivederci.");
+            AsyncLogger.shutdown();	//scrive i messaggi ancora in coda
+		}));
+		
+		//finestra di raggruppamento e numero di notifiche recuperabili per utente (opzionali)
+		long notificationWindowMs;
+		int notificationReplayCapacity;
+		try {
+			notificationWindowMs = Long.parseLong(config.getProperty("notification_batch_window_ms", "5"));
+			notificationReplayCapacity = Integer.parseInt(config.getProperty("notification_replay_capacity", "256"));
+			if(notificationReplayCapacity < 1)	//almeno l'ultima notifica di ogni utente
+				throw new NumberFormatException();
+		} catch (NumberFormatException e) {
+			System.err.println("Errore: 'notification_batch_window_ms' o 'notification_replay_capacity' non validi.");
+			System.err.println("Avvio interrotto.");
+			return;
+		}
+		
+		NotificationDispatcher notificationDispatcher;
+		try {
+			notificationDispatcher = new NotificationDispatcher(userManager, notificationWindowMs, notificationReplayCapacity, metrics);
+			System.out.println("Canale UDP (per invio) creato.");
+		} catch (IOException e) {
+            System.err.println("Errore: impossibile creare il canale UDP. Uscita.");
+            e.printStackTrace();
+            return;
+        }
+		Thread dispatcherThread = new Thread(notificationDispatcher, "notification-dispatcher");
+		dispatcherThread.setDaemon(true);
+		dispatcherThread.start();
+		metrics.registerGauge("queue.notifications", notificationDispatcher::getQueueSize);
+		if(engineClient != null) {
+			engineClient.start(notificationDispatcher);	//fill di tutti i simboli, notificati agli utenti di questo gateway
+			metrics.registerGauge("gateway.pendingCommands", engineClient::getPendingCount);
+		}
+		
+		//timing wheel per le scadenze degli ordini GTD/DAY e le sessioni inattive (opzionali)
+		TimingWheel timers;
+		long sessionTimeoutMs;
+		try {
+			timers = new TimingWheel(Long.parseLong(config.getProperty("timer_tick_ms", "10")));
+			sessionTimeoutMs = Long.parseLong(config.getProperty("session_timeout_ms", "0"));
+		} catch (IllegalArgumentException e) {	//include NumberFormatException e tick non positivo
+			System.err.println("Errore: 'timer_tick_ms' o 'session_timeout_ms' non validi.");
+			System.err.println("Avvio interrotto.");
+			return;
+		}
+		if(engineClient == null)	//sul gateway le scadenze sono gestite dal processo del motore
+			for(SymbolRegistry.SymbolBook book : symbolRegistry.getAll())	//riceve anche gli ordini caricati, quelli già scaduti vengono cancellati
+				book.getEngine().addListener(new OrderExpiryManager(book, timers, notificationDispatcher, metrics));
+		Thread timerThread = new Thread(timers, "timing-wheel");
+		timerThread.setDaemon(true);
+		if(replica == null)	//sulla replica scadenze e aste partono alla promozione, le cancellazioni arrivano dal primario
+			timerThread.start();
+		metrics.registerGauge("timers.pending", timers::size);
+		if(sessionTimeoutMs > 0)
+			System.out.println("Sessioni inattive chiuse dopo " + sessionTimeoutMs + " ms");
+		
+		//aste a chiamata: ogni 'auction_interval_ms' di matching continuo una raccolta di 'auction_duration_ms' (opzionali, 0 = disattivate)
+		try {
+			long auctionIntervalMs = Long.parseLong(config.getProperty("auction_interval_ms", "0").trim());
+			long auctionDurationMs = Long.parseLong(config.getProperty("auction_duration_ms", "1000").trim());
+			if(auctionIntervalMs < 0 || (auctionIntervalMs > 0 && auctionDurationMs <= 0))
+				throw new NumberFormatException();
+			if(auctionIntervalMs > 0 && engineClient == null) {
+				for(SymbolRegistry.SymbolBook book : symbolRegistry.getAll()) {
+					AuctionScheduler scheduler = new AuctionScheduler(book, timers, notificationDispatcher, metrics,
+							auctionIntervalMs, auctionDurationMs);
+					auctionSchedulers.add(scheduler);
+					if(replica == null)
+						scheduler.start();
+				}
+				System.out.println("Aste a chiamata di " + auctionDurationMs + " ms ogni " + auctionIntervalMs + " ms di matching continuo");
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("Errore: 'auction_interval_ms' o 'auction_duration_ms' non validi.");
+			System.err.println("Avvio interrotto.");
+			return;
+		}
+		
+		//default per le sessioni che al login non indicano "cancelOnDisconnect"
+		boolean cancelOnDisconnect = Boolean.parseBoolean(config.getProperty("cancel_on_disconnect", "false").trim());
+		if(cancelOnDisconnect)
+			System.out.println("Ordini cancellati alla disconnessione della sessione");
+		
+		//limiti di frequenza delle richieste per utente e per connessione (opzionali, burst di default pari alla frequenza)
+		RateLimiter rateLimiter;
+		try {
+			int userRate = Integer.parseInt(config.getProperty("rate_limit_user_per_sec", "0").trim());
+			int connectionRate = Integer.parseInt(config.getProperty("rate_limit_connection_per_sec", "0").trim());
+			int userBurst = Integer.parseInt(config.getProperty("rate_limit_user_burst", String.valueOf(userRate)).trim());
+			int connectionBurst = Integer.parseInt(config.getProperty("rate_limit_connection_burst", String.valueOf(connectionRate)).trim());
+			if(userRate < 0 || connectionRate < 0 || (userRate > 0 && userBurst < 1) || (connectionRate > 0 && connectionBurst < 1))
+				throw new NumberFormatException();
+			rateLimiter = new RateLimiter(userRate, userBurst, connectionRate, connectionBurst);
+			if(rateLimiter.isEnabled())
+				System.out.println("Limiti di frequenza: " + userRate + " richieste/s per utente, " + connectionRate + " per connessione (0 = nessuno)");
+		} catch (NumberFormatException e) {
+			System.err.println("Errore: parametri 'rate_limit_*' non validi.");
+			System.err.println("Avvio interrotto.");
+			return;
+		}
+		
+		//limiti di rischio pre-trade per utente e lato, su ogni simbolo (opzionali, 0 = nessun limite)
+		try {
+			long maxOpenSize = Long.parseLong(config.getProperty("risk_max_open_size", "0").trim());
+			long maxOpenNotional = Long.parseLong(config.getProperty("risk_max_open_notional", "0").trim());
+			if((maxOpenSize > 0 || maxOpenNotional > 0) && engineClient == null) {	//sul gateway li applica il processo del motore
+				for(SymbolRegistry.SymbolBook book : symbolRegistry.getAll()) {
+					RiskManager riskManager = new RiskManager(maxOpenSize, maxOpenNotional);
+					book.getEngine().addListener(riskManager);	//riceve anche gli ordini caricati
+					book.setRiskManager(riskManager);
+				}
+				System.out.println("Limiti di rischio per utente e lato: size aperta " + maxOpenSize + ", controvalore aperto " + maxOpenNotional + " (0 = nessuno)");
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("Errore: 'risk_max_open_size' o 'risk_max_open_notional' non sono numeri validi.");
+			System.err.println("Avvio interrotto.");
+			return;
+		}
+		
+		//feed multicast di market data, attivo solo se configurato il gruppo (una porta per simbolo)
+		if(replica == null && engineClient == null && !startMarketData(config, symbolRegistry, metrics))
+			return;
+		
+		//stream dei comandi per le repliche
+		if(replica == null && replicationPort > 0
+				&& startReplicationServer(replicationPort, replicationBindAddress, linkSecret, symbolRegistry, userManager,
+						timers, checksumIntervalMs, metrics) == null) {
+			System.err.println("Avvio interrotto.");
+			return;
+		}
+		
+		//comandi dei gateway
+		if(replica == null && gatewayPort > 0) {
+			EngineServer engineServer = startEngineServer(gatewayPort, gatewayBindAddress, linkSecret, symbolRegistry, userManager, notificationDispatcher, metrics);
+			if(engineServer == null) {
+				System.err.println("Avvio interrotto.");
+				return;
+			}
+			engineServers.add(engineServer);
+		}
+		
+		//dump periodico delle metriche su file, attivo solo se configurato il file
+		String metricsFile = config.getProperty("metrics_file");
+		if(metricsFile != null) {
+			try {
+				long dumpInterval = Long.parseLong(config.getProperty("metrics_dump_interval_ms", "10000"));
+				metrics.startPeriodicDump(metricsFile, dumpInterval);
+				System.out.println("Metriche salvate ogni " + dumpInterval + " ms su " + metricsFile);
+			} catch (NumberFormatException e) {
+				System.err.println("Errore: 'metrics_dump_interval_ms' non è un numero valido.");
+				System.err.println("Avvio interrotto.");
+				return;
+			}
+		}
+		
+		ExecutorService pool = Executors.newCachedThreadPool();	//riutilizza o crea thread se necessario
+		
+		//avvio server in thread separato
+        final int finalTcpPort = tcpPort;
+        
+        Thread serverThread = new Thread(() -> {
+            try(ServerSocket serverSocket = new ServerSocket(finalTcpPort)) {
+                System.out.println("=================================================");
+                System.out.println("   Server CROSS avviato e in ascolto sulla porta " + finalTcpPort);
+                System.out.println("   Digita 'STOP' e premi [INVIO] per arrestare.");
+                System.out.println("=================================================");
+                
+                while(true) {
+                    Socket clientSocket = serverSocket.accept();
+                    AsyncLogger.info("Nuova connessione da: " + clientSocket.getInetAddress());
+                    
+                    ClientHandler clientHandler = new ClientHandler(clientSocket, userManager, 
+                            symbolRegistry, notificationDispatcher, metrics, timers, sessionTimeoutMs, cancelOnDisconnect, rateLimiter);
+                    pool.submit(clientHandler);
+                }
+            } catch (IOException e) {
+                System.out.println("Thread server interrotto (chiusura normale).");
+            } finally {
+                pool.shutdown();
+                notificationDispatcher.shutdown();
+            }
+        });
+        
+        //replica: i servizi per i client partono alla promozione (comando PROMOTE o caduta del primario con 'replica_auto_promote')
+        Runnable promote = null;
+        if(replica == null) {
+        	serverThread.start();
+        } else {
+        	ReplicationClient replicaClient = replica;
+        	AtomicBoolean promoted = new AtomicBoolean(false);
+        	promote = () -> {
+        		if(!promoted.compareAndSet(false, true))
+        			return;
+        		replicaClient.stop();	//attende il thread di lettura: l'ultimo id non cambia più
+        		OrderIdGenerator.advanceTo(replicaClient.getLastOrderId());	//i comandi ricevuti sono già in coda sui motori
+        		System.out.println("Replica promossa a primario, ultimo id del primario " + replicaClient.getLastOrderId());
+        		timerThread.start();
+        		for(AuctionScheduler scheduler : auctionSchedulers)
+        			scheduler.start();
+        		if(!startMarketData(config, symbolRegistry, metrics))
+        			System.err.println("Feed market data non avviato dopo la promozione.");
+        		if(replicationPort > 0)
+        			startReplicationServer(replicationPort, replicationBindAddress, linkSecret, symbolRegistry, userManager,
+        					timers, checksumIntervalMs, metrics);
+        		if(gatewayPort > 0) {
+        			EngineServer engineServer = startEngineServer(gatewayPort, gatewayBindAddress, linkSecret, symbolRegistry, userManager, notificationDispatcher, metrics);
+        			if(engineServer != null)
+        				engineServers.add(engineServer);
+        		}
+        		serverThread.start();
+        	};
+        	boolean autoPromote = Boolean.parseBoolean(config.getProperty("replica_auto_promote", "false").trim());
+        	replica.start(symbolRegistry, autoPromote ? promote : null);
+        	System.out.println("Replica attiva" + (autoPromote ? ", promozione automatica alla caduta del primario." : ".")
+        			+ " Digita 'PROMOTE' e premi [INVIO] per promuoverla a primario.");
+        }
+        
+        //attesa comando STOP su thread principale
+        try (Scanner scanner = new Scanner(System.in)) {
+            while (true) {
+                String input = scanner.nextLine();
+                if (input != null && input.trim().equalsIgnoreCase("STOP")) {
+                    break; //esce dal loop se utente inserisce "STOP"
+                }
+                if (input != null && input.trim().equalsIgnoreCase("PROMOTE") && promote != null) {
+                    promote.run();
+                }
+            }
+        }
+        
+        System.out.println("Comando 'STOP' ricevuto. Avvio chiusura pulita...");
+        System.exit(0); // Esegue una chiusura pulita (attiva shutdown hook)
+	}
+	
+	//crea motore, storico e recorder di un simbolo e li registra, false in caso di errore
+	private static boolean registerSymbol(Properties config, SymbolRegistry symbolRegistry, String symbol,
+			long initialOrderId, ServerMetrics metrics, boolean replicated) {
+		String defaultSymbol = symbolRegistry.getDefaultSymbol();
+		String activeBookFile = SymbolRegistry.fileFor(config.getProperty("active_book_file"), symbol, defaultSymbol);
+		String historyFile = SymbolRegistry.fileFor(config.getProperty("trades_history_file"), symbol, defaultSymbol);
+		//lo storico del vecchio formato si riferisce solo al simbolo di default
+		String oldHistoryFile = symbol.equals(defaultSymbol) ? config.getProperty("old_history_file") : null;
+		
+		//registrazione dei comandi per il replay offline (opzionale)
+		CommandRecorder commandRecorder = startCommandRecorder(
+				SymbolRegistry.fileFor(config.getProperty("command_log_file"), symbol, defaultSymbol),
+				activeBookFile, initialOrderId, replicated);
+		if(commandRecorder == null)
+			return false;
+		
+		//motore di matching, scelto in configurazione
+		String engineName = config.getProperty("matching_engine", "orderbook").trim();
+		MatchingEngine engine;
+		try {
+			engine = MatchingEngine.create(engineName, activeBookFile);
+			System.out.println("Motore di matching " + symbol + ": " + engine.getClass().getSimpleName());
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			System.err.println("Errore: 'matching_engine' (" + engineName + ") non è un motore valido.");
+			System.err.println("Avvio interrotto.");
+			return false;
+		}
+		engine.addListener(metrics);
+		engine.addListener(commandRecorder);
+		engine.addListener(new OrderTraceEvents.BookListener());	//eventi JFR, attivi solo durante una registrazione
+		metrics.registerGauge("book." + symbol + ".bidLevels", () -> engine.getLevelCount(OrderType.BID));
+		metrics.registerGauge("book." + symbol + ".askLevels", () -> engine.getLevelCount(OrderType.ASK));
+		metrics.registerGauge("book." + symbol + ".stopOrders", engine::getStopOrderCount);
+		if(engine instanceof OffHeapOrderBook) {
+			OffHeapOrderBook offHeap = (OffHeapOrderBook) engine;
+			metrics.registerGauge("book." + symbol + ".restingOrders", offHeap::getRestingOrderCount);
+			metrics.registerGauge("book." + symbol + ".offHeapBytes", offHeap::getOffHeapBytes);
+		}
+		
+		symbolRegistry.register(symbol, engine, new TradeHistoryStore(historyFile),
+				new HistoryManager(oldHistoryFile, historyFile), commandRecorder);
+		return true;
+	}
+	
+	//gateway: il simbolo viene inoltrato al processo del motore, lo storico viene letto dai file scritti dal motore
+	private static void registerRemoteSymbol(Properties config, SymbolRegistry symbolRegistry, String symbol, EngineClient engineClient) {
+		String defaultSymbol = symbolRegistry.getDefaultSymbol();
+		String historyFile = SymbolRegistry.fileFor(config.getProperty("trades_history_file"), symbol, defaultSymbol);
+		String oldHistoryFile = symbol.equals(defaultSymbol) ? config.getProperty("old_history_file") : null;
+		
+		symbolRegistry.registerRemote(symbol, new RemoteEngine(engineClient, symbol), new TradeHistoryStore(historyFile),
+				new HistoryManager(oldHistoryFile, historyFile));
+	}
+	
+	//crea il recorder dei comandi (disattivato se manca 'command_log_file' e non ci sono repliche), null in caso di errore
+	private static CommandRecorder startCommandRecorder(String commandLogFile, String activeBookFile, long initialOrderId,
+			boolean replicated) {
+		if(commandLogFile == null && !replicated)
+			return new CommandRecorder();
+		
+		try {
+			//copia dello stato iniziale, il caricamento nel motore svuota il file originale
+			String bookCopy = null;
+			File stateFile = new File(activeBookFile);
+			if(commandLogFile != null && stateFile.exists() && stateFile.length() > 2) {	//non vuoto ("{}")
+				bookCopy = commandLogFile + ".book.json";
+				Files.copy(stateFile.toPath(), new File(bookCopy).toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			
+			CommandRecorder recorder = new CommandRecorder(commandLogFile, initialOrderId, bookCopy);	//senza file solo per le repliche
+			if(commandLogFile != null)
+				System.out.println("Registrazione comandi attiva su " + commandLogFile);
+			return recorder;
+		} catch (IOException e) {
+			System.err.println("Errore: impossibile creare il file di registrazione comandi " + commandLogFile);
+			System.err.println("Avvio interrotto.");
+			return null;
+		}
+	}
+	
+	//avvia i feed market data dei simboli se configurato 'market_data_group', false in caso di errore
+	private static boolean startMarketData(Properties config, SymbolRegistry symbolRegistry, ServerMetrics metrics) {
+		if(config.getProperty("market_data_group") == null)
+			return true;
+		int index = 0;
+		for(SymbolRegistry.SymbolBook book : symbolRegistry.getAll()) {
+			if(!startMarketDataPublisher(config, book, index++, metrics))
+				return false;
+		}
+		return true;
+	}
+	
+	//indirizzo della proprietà 'name' su cui aprire una porta tra processi, loopback se assente; null se non valido
+	private static InetAddress bindAddress(Properties config, String name) {
+		String value = config.getProperty(name, "").trim();
+		if(value.isEmpty())
+			return InetAddress.getLoopbackAddress();
+		try {
+			return InetAddress.getByName(value);
+		} catch(UnknownHostException e) {
+			System.err.println("Errore: '" + name + "' non è un indirizzo valido. " + e.getMessage());
+			return null;
+		}
+	}
+	
+	//apre la porta per le repliche, null in caso di errore
+	private static ReplicationServer startReplicationServer(int port, InetAddress bindAddress, String secret, SymbolRegistry symbolRegistry,
+			UserManager userManager, TimingWheel timers, long checksumIntervalMs, ServerMetrics metrics) {
+		try {
+			ReplicationServer replicationServer = new ReplicationServer(port, bindAddress, secret, symbolRegistry, userManager,
+					timers, checksumIntervalMs, metrics);
+			Thread replicationThread = new Thread(replicationServer, "replication-server");
+			replicationThread.setDaemon(true);
+			replicationThread.start();
+			metrics.registerGauge("replication.replicas", replicationServer::getReplicaCount);
+			System.out.println("Stream dei comandi per le repliche su " + bindAddress.getHostAddress() + ":" + port);
+			return replicationServer;
+		} catch (IOException e) {
+			System.err.println("Errore: impossibile aprire 'replication_port' " + port + ". " + e.getMessage());
+			return null;
+		}
+	}
+	
+	//apre la porta per i gateway, null in caso di errore
+	private static EngineServer startEngineServer(int port, InetAddress bindAddress, String secret, SymbolRegistry symbolRegistry,
+			UserManager userManager, NotificationDispatcher notificationDispatcher, ServerMetrics metrics) {
+		try {
+			EngineServer engineServer = new EngineServer(port, bindAddress, secret, symbolRegistry, userManager, notificationDispatcher, metrics);
+			Thread engineServerThread = new Thread(engineServer, "engine-server");
+			engineServerThread.setDaemon(true);
+			engineServerThread.start();
+			metrics.registerGauge("gateways", engineServer::getGatewayCount);
+			System.out.println("Comandi dei gateway accettati su " + bindAddress.getHostAddress() + ":" + port);
+			return engineServer;
+		} catch (IOException e) {
+			System.err.println("Errore: impossibile aprire 'gateway_port' " + port + ". " + e.getMessage());
+			return null;
+		}
+	}
+	
+	//crea il publisher multicast di un simbolo (porta market_data_port + index) e lo registra come osservatore del suo order book
+	private static boolean startMarketDataPublisher(Properties config, SymbolRegistry.SymbolBook book, int index, ServerMetrics metrics) {
+		try {
+			InetAddress groupAddress = InetAddress.getByName(config.getProperty("market_data_group"));
+			int port = Integer.parseInt(config.getProperty("market_data_port", "6790")) + index;
+			long snapshotInterval = Long.parseLong(config.getProperty("market_data_snapshot_interval_ms", "1000"));
+			int snapshotDepth = Integer.parseInt(config.getProperty("market_data_snapshot_depth", "20"));
+			
+			//interfaccia di uscita, di default quella di loopback
+			String interfaceName = config.getProperty("market_data_interface");
+			NetworkInterface networkInterface = interfaceName != null 
+					? NetworkInterface.getByName(interfaceName)
+					: NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+			
+			MarketDataPublisher publisher = new MarketDataPublisher(groupAddress, port, networkInterface,
+					snapshotInterval, snapshotDepth);
+			book.getEngine().addListener(publisher);
+			metrics.registerGauge("queue.marketData." + book.getSymbol(), publisher::getQueueSize);
+			
+			Thread publisherThread = new Thread(publisher, "market-data-publisher-" + book.getSymbol());
+			publisherThread.setDaemon(true);
+			publisherThread.start();
+			
+			System.out.println("Feed market data " + book.getSymbol() + " attivo su " + groupAddress.getHostAddress() + ":" + port);
+			return true;
+		} catch (NumberFormatException e) {
+			System.err.println("Errore: parametri 'market_data_*' non validi in 'server.properties'.");
+		} catch (IOException e) {
+			System.err.println("Errore: impossibile avviare il feed market data.");
+			e.printStackTrace();
+		}
+		System.err.println("Avvio interrotto.");
+		return false;
+	}
+	
+	//carica il max order id
+	private static <T> long loadMaxOrderId(String filename, Class<T> recordType) {
+		long maxId = 0;
+		Gson gson = new Gson();
+		
+		try(FileReader reader = new FileReader(filename))	{
+			if(recordType.equals(Trade.class)) {
+				Type listType = TypeToken.getParameterized(ArrayList.class, Trade.class).getType();
+				List<Trade> records = gson.fromJson(reader, listType);
+				if(records != null) {
+					for(Trade trade : records) {
+						maxId = Math.max(maxId, trade.getBuyOrderId());
+						maxId = Math.max(maxId, trade.getSellOrderId());
+					}
+				}
+					
+			} else if(recordType.equals(OldTradeRecord.class)) {
+				OldHistoryFile historyFile = gson.fromJson(reader, OldHistoryFile.class);
+				if(historyFile != null && historyFile.getTrades() != null) {
+					for(OldTradeRecord order : historyFile.getTrades())
+						maxId = Math.max(maxId, order.getOrderId());
+				}
+			}
+		} catch (Exception e) {	//file non trovato o vuoto        
+            System.out.println("File storico '" + filename + "' non trovato o vuoto. Max ID rilevato: 0.");
+        }
+		
+		System.out.println("Max ID rilevato da '" + filename + "': " + maxId);
+        return maxId;
+	}
+}
@@ -0,0 +1,151 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.LatencyHistogram;
+import com.google.gson.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Supplier;
+
+/**
+ * Registro in memoria delle metriche del server: contatori, istogrammi
+ * di latenza (in nanosecondi) e gauge calcolati al momento della lettura.
+ *
+ * Contatori e istogrammi sono senza lock, possono essere aggiornati
+ * da qualsiasi thread. Come OrderBookListener conta i trade, le
+ * cancellazioni per self-trade e gli stop order falliti direttamente
+ * dall'order book.
+ */
+
+public class ServerMetrics implements OrderBookListener {
+	//contatori
+	public static final String ORDERS_LIMIT = "orders.limit";
+	public static final String ORDERS_MARKET = "orders.market";
+	public static final String ORDERS_STOP = "orders.stop";
+	public static final String TRADES = "trades";
+	public static final String CANCELS = "cancels";
+	public static final String AMENDS = "amends";
+	public static final String CANCELS_ON_DISCONNECT = "cancels.disconnect";	//ordini cancellati a fine sessione
+	public static final String STP_CANCELS = "stp.cancels";
+	public static final String FAILED_MARKET = "failed.market";
+	public static final String FAILED_STOP = "failed.stop";
+	public static final String KILLED_FOK = "killed.fok";	//FOK non eseguibili per intero
+	public static final String EXPIRED = "expired";	//ordini GTD/DAY cancellati alla scadenza
+	public static final String AUCTIONS = "auctions";	//aste a chiamata chiuse
+	public static final String REPLICAS_DISCONNECTED = "replication.disconnected";	//repliche scollegate dal primario
+	public static final String REPLICA_CHECKSUM_MISMATCHES = "replication.checksumMismatches";	//stato della replica diverso dal primario
+	public static final String SESSIONS_EVICTED = "sessions.evicted";	//sessioni chiuse per inattività
+	public static final String REJECTED_RATE_LIMIT = "rejected.rateLimit";	//richieste oltre il limite di frequenza
+	public static final String REJECTED_OVERLOAD = "rejected.overload";	//comandi rifiutati a coda dei motori piena
+	public static final String REJECTED_RISK = "rejected.risk";	//ordini oltre i limiti di rischio per utente
+	
+	//istogrammi
+	public static final String DECODE_LATENCY = "latency.decode";
+	public static final String ENGINE_LATENCY = "latency.engine";
+	public static final String ENGINE_WAIT = "latency.engineWait";	//attesa nella coda del thread del motore
+	public static final String PERSIST_LATENCY = "latency.persist";
+	public static final String UDP_SEND_LATENCY = "latency.udpSend";
+	
+	private final ConcurrentSkipListMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+	private final ConcurrentSkipListMap<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+	private final ConcurrentSkipListMap<String, Supplier<Number>> gauges = new ConcurrentSkipListMap<>();
+	
+	//sessioni TCP aperte
+	private final AtomicInteger sessions = new AtomicInteger();
+	
+	public ServerMetrics() {
+		registerGauge("sessions", sessions::get);
+	}
+	
+	public void increment(String counter) {
+		add(counter, 1);
+	}
+	
+	public void add(String counter, long delta) {
+		counters.computeIfAbsent(counter, k -> new LongAdder()).add(delta);
+	}
+	
+	public void recordNanos(String histogram, long nanos) {
+		histograms.computeIfAbsent(histogram, k -> new LatencyHistogram()).record(nanos);
+	}
+	
+	//il valore viene calcolato a ogni lettura delle metriche
+	public void registerGauge(String name, Supplier<Number> gauge) {
+		gauges.put(name, gauge);
+	}
+	
+	public void sessionOpened() {
+		sessions.incrementAndGet();
+	}
+	
+	public void sessionClosed() {
+		sessions.decrementAndGet();
+	}
+	
+	public void tradeExecuted(FillBuffer fills, int index) {
+		increment(TRADES);
+	}
+	
+	public void selfTradeCancelled(LimitOrder order) {
+		increment(STP_CANCELS);
+	}
+	
+	public void stopOrderTriggered(StopOrder order, boolean executed) {
+		if(!executed)
+			increment(FAILED_STOP);
+	}
+	
+	//vista delle metriche serializzabile in JSON, latenze in microsecondi
+	public Map<String, Object> snapshot() {
+		Map<String, Object> snapshot = new LinkedHashMap<>();
+		snapshot.put("timestamp", System.currentTimeMillis());
+		
+		Map<String, Long> counterValues = new LinkedHashMap<>();
+		for(Map.Entry<String, LongAdder> entry : counters.entrySet())
+			counterValues.put(entry.getKey(), entry.getValue().sum());
+		snapshot.put("counters", counterValues);
+		
+		Map<String, Number> gaugeValues = new LinkedHashMap<>();
+		for(Map.Entry<String, Supplier<Number>> entry : gauges.entrySet())
+			gaugeValues.put(entry.getKey(), entry.getValue().get());
+		snapshot.put("gauges", gaugeValues);
+		
+		Map<String, Map<String, Number>> histogramValues = new LinkedHashMap<>();
+		for(Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			Map<String, Number> values = new LinkedHashMap<>();
+			values.put("count", histogram.getCount());
+			values.put("meanUs", histogram.getMean() / 1e3);
+			values.put("p50Us", histogram.getValueAtPercentile(50) / 1e3);
+			values.put("p99Us", histogram.getValueAtPercentile(99) / 1e3);
+			values.put("p999Us", histogram.getValueAtPercentile(99.9) / 1e3);
+			values.put("maxUs", histogram.getMax() / 1e3);
+			histogramValues.put(entry.getKey(), values);
+		}
+		snapshot.put("histograms", histogramValues);
+		
+		return snapshot;
+	}
+	
+	//scrive periodicamente lo snapshot delle metriche su file (sovrascritto a ogni dump)
+	public void startPeriodicDump(String filename, long intervalMillis) {
+		Gson fileGson = new GsonBuilder().setPrettyPrinting().create();
+		
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-dump");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		scheduler.scheduleAtFixedRate(() -> {
+			try(FileWriter writer = new FileWriter(filename)) {
+				fileGson.toJson(snapshot(), writer);
+			} catch(Exception e) {
+				System.err.println("ServerMetrics: Errore nel salvataggio delle metriche su " + filename);
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+}
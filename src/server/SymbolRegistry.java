@@ -0,0 +1,192 @@
+package ProgettoFinale.server;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registro degli strumenti negoziati: per ogni simbolo un motore di matching
+ * con i propri file (stato attivo, storico trade, registrazione comandi).
+ *
+ * I simboli sono ripartiti per hash su un numero fisso di thread del motore
+ * (executor a thread singolo): tutti i comandi di un simbolo vengono eseguiti
+ * in ordine dallo stesso thread, simboli su thread diversi procedono in
+ * parallelo senza lock condivisi. Gli id degli ordini restano univoci
+ * perché OrderIdGenerator è comune a tutti i motori.
+ *
+ * Il simbolo di default (il primo configurato) usa i nomi di file
+ * originali, gli altri aggiungono "_SIMBOLO" prima dell'estensione.
+ *
+ * I comandi dei client passano per tryAdmit/release: con queueCapacity > 0
+ * i comandi accodati o in esecuzione su tutti i thread del motore sono al
+ * più queueCapacity, oltre vengono rifiutati prima di entrare in coda.
+ * I comandi interni (scadenze, cancel-on-disconnect) non sono limitati.
+ */
+
+public class SymbolRegistry {
+	
+	//stato di un singolo strumento
+	public static class SymbolBook {
+		private final String symbol;
+		private final MatchingEngine engine;	//null su un gateway
+		private final OrderCommands commands;	//comandi delle sessioni: il motore locale o RemoteEngine
+		private final TradeHistoryStore tradeHistoryStore;
+		private final HistoryManager historyManager;
+		private final CommandRecorder commandRecorder;
+		private final ExecutorService executor;	//thread del motore a cui è assegnato il simbolo, null su un gateway
+		private RiskManager riskManager;	//null se i limiti di rischio sono disattivati, impostato all'avvio
+		
+		SymbolBook(String symbol, MatchingEngine engine, OrderCommands commands, TradeHistoryStore tradeHistoryStore,
+				HistoryManager historyManager, CommandRecorder commandRecorder, ExecutorService executor) {
+			this.symbol = symbol;
+			this.engine = engine;
+			this.commands = commands;
+			this.tradeHistoryStore = tradeHistoryStore;
+			this.historyManager = historyManager;
+			this.commandRecorder = commandRecorder;
+			this.executor = executor;
+		}
+		
+		public String getSymbol() {
+			return symbol;
+		}
+		
+		//motore locale, null su un gateway (i comandi passano per getCommands)
+		public MatchingEngine getEngine() {
+			return engine;
+		}
+		
+		public OrderCommands getCommands() {
+			return commands;
+		}
+		
+		public TradeHistoryStore getTradeHistoryStore() {
+			return tradeHistoryStore;
+		}
+		
+		public HistoryManager getHistoryManager() {
+			return historyManager;
+		}
+		
+		public CommandRecorder getCommandRecorder() {
+			return commandRecorder;
+		}
+		
+		public ExecutorService getExecutor() {
+			return executor;
+		}
+		
+		public RiskManager getRiskManager() {
+			return riskManager;
+		}
+		
+		//true su un gateway: il motore è nel processo del motore (RemoteEngine), i comandi non passano per executor
+		public boolean isRemote() {
+			return engine == null;
+		}
+		
+		public void setRiskManager(RiskManager riskManager) {
+			this.riskManager = riskManager;
+		}
+	}
+	
+	private final String defaultSymbol;
+	private final Map<String, SymbolBook> books = new LinkedHashMap<>();	//scritta solo all'avvio
+	private final ExecutorService[] engineThreads;
+	private final int queueCapacity;	//0 = coda illimitata
+	private final AtomicInteger queued = new AtomicInteger();	//comandi dei client ammessi e non ancora terminati
+	
+	public SymbolRegistry(String defaultSymbol, int threads, int queueCapacity) {
+		this.defaultSymbol = defaultSymbol;
+		this.queueCapacity = queueCapacity;
+		this.engineThreads = new ExecutorService[threads];
+		for(int i = 0; i < threads; i++) {
+			String name = "engine-" + i;
+			engineThreads[i] = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+	
+	//registra un simbolo assegnandogli il thread del motore in base all'hash
+	public SymbolBook register(String symbol, MatchingEngine engine, TradeHistoryStore tradeHistoryStore,
+			HistoryManager historyManager, CommandRecorder commandRecorder) {
+		ExecutorService executor = engineThreads[Math.floorMod(symbol.hashCode(), engineThreads.length)];
+		SymbolBook book = new SymbolBook(symbol, engine, engine, tradeHistoryStore, historyManager, commandRecorder, executor);
+		books.put(symbol, book);
+		return book;
+	}
+	
+	//gateway: simbolo senza motore locale, i comandi vengono inoltrati al processo del motore
+	public SymbolBook registerRemote(String symbol, RemoteEngine commands, TradeHistoryStore tradeHistoryStore,
+			HistoryManager historyManager) {
+		SymbolBook book = new SymbolBook(symbol, null, commands, tradeHistoryStore, historyManager, new CommandRecorder(), null);
+		books.put(symbol, book);
+		return book;
+	}
+	
+	//null se il simbolo non è negoziato, il simbolo di default se symbol è null
+	public SymbolBook get(String symbol) {
+		return books.get(symbol != null ? symbol : defaultSymbol);
+	}
+	
+	public SymbolBook getDefault() {
+		return books.get(defaultSymbol);
+	}
+	
+	public String getDefaultSymbol() {
+		return defaultSymbol;
+	}
+	
+	public Collection<SymbolBook> getAll() {
+		return books.values();
+	}
+	
+	//nome del file di un simbolo: quello configurato per il default, "nome_SIMBOLO.ext" per gli altri
+	public static String fileFor(String filename, String symbol, String defaultSymbol) {
+		if(filename == null || symbol.equals(defaultSymbol))
+			return filename;
+		
+		File file = new File(filename);
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String symbolName = dot > 0 
+				? name.substring(0, dot) + "_" + symbol + name.substring(dot)
+				: name + "_" + symbol;
+		return file.getParent() != null ? new File(file.getParent(), symbolName).getPath() : symbolName;
+	}
+	
+	//riserva un posto nella coda dei motori per un comando di un client, false se la coda è piena
+	public boolean tryAdmit() {
+		if(queued.incrementAndGet() > queueCapacity && queueCapacity > 0) {
+			queued.decrementAndGet();
+			return false;
+		}
+		return true;
+	}
+	
+	//libera il posto riservato da tryAdmit, a comando terminato
+	public void release() {
+		queued.decrementAndGet();
+	}
+	
+	public int getQueuedCommands() {
+		return queued.get();
+	}
+	
+	//attende la fine dei comandi già accodati, da chiamare in chiusura prima di salvare gli stati
+	public void shutdown() {
+		for(ExecutorService executor : engineThreads)
+			executor.shutdown();
+		for(ExecutorService executor : engineThreads) {
+			try {
+				executor.awaitTermination(2, TimeUnit.SECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
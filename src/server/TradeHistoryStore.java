@@ -0,0 +1,69 @@
+package ProgettoFinale.server;
+
+import ProgettoFinale.entities.*;
+import ProgettoFinale.utils.AsyncLogger;
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.util.*;
+
+/**
+ * Persistenza dei trade eseguiti sul file storico JSON (lista di Trade).
+ *
+ * Un'istanza per simbolo, condivisa da tutti i ClientHandler: l'accesso
+ * al file è serializzato dal lock dell'oggetto.
+ */
+
+public class TradeHistoryStore {
+	private final String historyFilename;
+	private final Gson fileGson;
+	
+	public TradeHistoryStore(String historyFilename) {
+		this.historyFilename = historyFilename;
+		this.fileGson = new GsonBuilder().setPrettyPrinting().create();
+	}
+	
+	//salva i fill di un comando, il file storico è una lista JSON di Trade
+	public void append(FillBuffer fills) {
+		if(fills.isEmpty())
+			return;
+		append(fills.toTrades());
+	}
+	
+	//salva i trade avvenuti sul file storico JSON, thread safe
+	public synchronized void append(List<Trade> newTrades) {
+		if (newTrades == null || newTrades.isEmpty()) {
+            return;
+        }
+		
+		try {
+			List<Trade> allTrades;
+			
+			//legge trade esistenti
+			try(FileReader reader = new FileReader(historyFilename)){
+				Type tradesListType = new TypeToken<ArrayList<Trade>>() {}.getType();
+				allTrades = fileGson.fromJson(reader, tradesListType);
+			} catch(Exception e) {	
+				allTrades = new ArrayList<>(); //file inesistente
+			}
+			if(allTrades == null)
+				allTrades = new ArrayList<>();	//se file vuoto
+			
+			//aggiunge nuovi trade 
+			allTrades.addAll(newTrades);
+			
+			//scrive intera lista aggiornata nel file JSON
+			try(FileWriter writer = new FileWriter(historyFilename)){
+				fileGson.toJson(allTrades, writer);	//streaming serializer
+			} //catch dal blocco esterno
+			
+			if(AsyncLogger.isEnabled(AsyncLogger.Level.DEBUG))
+				AsyncLogger.debug("TradeHistoryStore: Salvati " + newTrades.size() + " nuovi trade.");
+
+        } catch (Exception e) {
+            AsyncLogger.error("TradeHistoryStore: Errore nel salvataggio dei trade! " + e);
+        }
+	}
+}
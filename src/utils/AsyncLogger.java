@@ -0,0 +1,176 @@
+package ProgettoFinale.utils;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logger asincrono per i percorsi caldi del server.
+ *
+ * I thread chiamanti scrivono solo in un ring buffer pre-allocato
+ * (prenotazione dello slot con CAS, nessun lock e nessuna I/O);
+ * un thread daemon svuota il ring su stdout (DEBUG e INFO) o
+ * stderr (WARN e ERROR). Se il ring è pieno il messaggio viene
+ * scartato e conteggiato, il chiamante non si blocca mai.
+ *
+ * I messaggi DEBUG possono essere campionati (1 ogni sampleRate):
+ * nei percorsi caldi vanno protetti con isEnabled(DEBUG), che applica
+ * livello e campionamento prima di costruire la stringa.
+ */
+
+public final class AsyncLogger {
+	public enum Level { DEBUG, INFO, WARN, ERROR }
+	
+	private static final int CAPACITY = 8192;	//potenza di due
+	private static final int MASK = CAPACITY - 1;
+	
+	//slot del ring, riutilizzati: seq indica quale messaggio contengono
+	private static final class Slot {
+		volatile long seq;
+		Level level;
+		long timestamp;
+		String thread;
+		String message;
+	}
+	
+	private static final Slot[] ring = new Slot[CAPACITY];
+	private static final AtomicLong tail = new AtomicLong();	//prossimo slot da prenotare
+	private static volatile long head = 0;	//prossimo slot da scrivere (solo il writer lo modifica)
+	private static final LongAdder dropped = new LongAdder();
+	
+	private static volatile Level threshold = Level.INFO;
+	private static volatile int sampleRate = 1;
+	private static volatile boolean running = true;
+	
+	private static final Thread writer;
+	
+	static {
+		for(int i = 0; i < CAPACITY; i++) {
+			ring[i] = new Slot();
+			ring[i].seq = i;	//libero per il messaggio i
+		}
+		writer = new Thread(AsyncLogger::drainLoop, "async-logger");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	private AsyncLogger() {}
+	
+	//livello minimo e campionamento dei messaggi DEBUG (1 = tutti)
+	public static void configure(Level level, int debugSampleRate) {
+		threshold = level;
+		sampleRate = Math.max(1, debugSampleRate);
+	}
+	
+	//true se un messaggio di questo livello va registrato, per DEBUG applica anche il campionamento
+	public static boolean isEnabled(Level level) {
+		if(level.compareTo(threshold) < 0)
+			return false;
+		int rate = sampleRate;
+		return level != Level.DEBUG || rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+	}
+	
+	public static void debug(String message) {
+		log(Level.DEBUG, message);
+	}
+	
+	public static void info(String message) {
+		log(Level.INFO, message);
+	}
+	
+	public static void warn(String message) {
+		log(Level.WARN, message);
+	}
+	
+	public static void error(String message) {
+		log(Level.ERROR, message);
+	}
+	
+	//accoda il messaggio se il livello è abilitato (senza campionamento), non blocca mai
+	public static void log(Level level, String message) {
+		if(level.compareTo(threshold) < 0)
+			return;
+		
+		long seq;
+		do {
+			seq = tail.get();
+			if(seq - head >= CAPACITY) {	//ring pieno, il writer è rimasto indietro
+				dropped.increment();
+				return;
+			}
+		} while(!tail.compareAndSet(seq, seq + 1));
+		
+		Slot slot = ring[(int) (seq & MASK)];
+		slot.level = level;
+		slot.timestamp = System.currentTimeMillis();
+		slot.thread = Thread.currentThread().getName();
+		slot.message = message;
+		slot.seq = seq + 1;	//pubblica lo slot al writer
+	}
+	
+	//messaggi scartati per ring pieno dall'avvio
+	public static long getDroppedCount() {
+		return dropped.sum();
+	}
+	
+	//scrive i messaggi ancora in coda e ferma il writer, da chiamare in chiusura
+	public static void shutdown() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(1000);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static void drainLoop() {
+		SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+		Date date = new Date();
+		StringBuilder line = new StringBuilder(256);
+		long reportedDrops = 0;
+		
+		while(true) {
+			boolean wrote = false;
+			boolean wroteErr = false;
+			
+			Slot slot;
+			while((slot = ring[(int) (head & MASK)]).seq == head + 1) {
+				date.setTime(slot.timestamp);
+				line.setLength(0);
+				line.append(timeFormat.format(date)).append(' ').append(slot.level)
+					.append(" [").append(slot.thread).append("] ").append(slot.message);
+				
+				if(slot.level.compareTo(Level.WARN) >= 0) {
+					System.err.println(line);
+					wroteErr = true;
+				} else {
+					System.out.println(line);
+					wrote = true;
+				}
+				
+				slot.message = null;	//non trattiene la stringa fino al riuso dello slot
+				head = head + 1;	//libera lo slot ai produttori
+			}
+			
+			long drops = dropped.sum();
+			if(drops != reportedDrops) {
+				System.err.println("AsyncLogger: " + (drops - reportedDrops) + " messaggi scartati (buffer pieno).");
+				reportedDrops = drops;
+			}
+			
+			if(wrote)
+				System.out.flush();
+			if(wroteErr)
+				System.err.flush();
+			
+			if(!running && tail.get() == head)
+				return;
+			if(!wrote && !wroteErr)
+				LockSupport.parkNanos(1_000_000);	//ring vuoto, attende 1 ms
+		}
+	}
+}
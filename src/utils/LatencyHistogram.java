@@ -0,0 +1,102 @@
+package ProgettoFinale.utils;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Istogramma di latenze a bucket log-lineari, sul modello di HdrHistogram.
+ *
+ * I valori (tipicamente nanosecondi) sotto 128 hanno un bucket ciascuno,
+ * poi ogni potenza di due è divisa in 64 sotto-bucket: l'errore relativo
+ * sui percentili è quindi sotto l'1,6% su tutto il range dei long positivi,
+ * con circa 3700 contatori in tutto.
+ *
+ * La registrazione è thread safe e senza lock (AtomicLongArray).
+ */
+
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;	//128
+	private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;	//64
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF + SUB_BUCKET_COUNT;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalSum = new AtomicLong();
+	private final AtomicLong maxValue = new AtomicLong();
+	
+	public void record(long value) {
+		if(value < 0)
+			value = 0;
+		counts.incrementAndGet(indexOf(value));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(value);
+		maxValue.accumulateAndGet(value, Math::max);
+	}
+	
+	public long getCount() {
+		return totalCount.get();
+	}
+	
+	public long getMax() {
+		return maxValue.get();
+	}
+	
+	public double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalSum.get() / count;
+	}
+	
+	//valore sotto cui cade la percentuale 'percentile' (0-100) dei campioni
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount.get();
+		if(count == 0)
+			return 0;
+		
+		long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if(seen >= target)
+				return Math.min(highestValueOf(i), getMax());
+		}
+		return getMax();
+	}
+	
+	//aggiunge i campioni di un altro istogramma
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < BUCKETS; i++) {
+			long count = other.counts.get(i);
+			if(count != 0)
+				counts.addAndGet(i, count);
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		totalSum.addAndGet(other.totalSum.get());
+		maxValue.accumulateAndGet(other.maxValue.get(), Math::max);
+	}
+	
+	//riepilogo p50/p99/p99.9/max con i valori divisi per 'scale' (es. 1000 per ns -> µs)
+	public String summary(double scale, String unit) {
+		return String.format("n=%d mean=%.1f p50=%.1f p99=%.1f p99.9=%.1f max=%.1f %s",
+				getCount(), getMean() / scale,
+				getValueAtPercentile(50) / scale,
+				getValueAtPercentile(99) / scale,
+				getValueAtPercentile(99.9) / scale,
+				getMax() / scale, unit);
+	}
+	
+	private static int indexOf(long value) {
+		if(value < SUB_BUCKET_COUNT)
+			return (int) value;
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS + 1;
+		return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+	}
+	
+	//valore massimo rappresentato dal bucket
+	private static long highestValueOf(int index) {
+		if(index < SUB_BUCKET_COUNT)
+			return index;
+		int shift = index / SUB_BUCKET_HALF - 1;
+		long subBucket = index % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,188 @@
+package ProgettoFinale.utils;
+
+import java.util.*;
+
+/**
+ * Timing wheel gerarchica per un gran numero di timer a bassa risoluzione
+ * (scadenze degli ordini, sessioni inattive), sul modello dei timer del
+ * kernel Linux.
+ *
+ * Il tempo è diviso in tick di tickMillis. Ci sono LEVELS ruote da SLOTS
+ * slot: la ruota 0 ha uno slot per tick, ogni ruota successiva copre
+ * SLOTS volte il periodo della precedente (con tick di 10 ms circa 124
+ * giorni in tutto). Ogni slot è una lista doppiamente collegata di timer,
+ * quindi schedule e cancel sono O(1) qualunque sia il numero di timer.
+ * Quando la ruota 0 completa un giro, lo slot corrente della ruota 1 viene
+ * ridistribuito sulle ruote inferiori (cascade), e così via per i livelli
+ * superiori.
+ *
+ * Un timer non scade mai prima della sua scadenza, al più un tick dopo.
+ * I task vengono eseguiti dal thread della wheel (run) fuori dal lock,
+ * devono essere brevi e non bloccanti (es. accodare un comando).
+ * schedule e cancel sono thread safe.
+ */
+
+public class TimingWheel implements Runnable {
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;	//64
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int LEVELS = 5;
+	private static final long MAX_DELTA = 1L << (SLOT_BITS * LEVELS);	//tick coperti da tutte le ruote
+
+	//timer pianificato, ritornato da schedule per poterlo annullare
+	public static final class Timer {
+		private final long deadline;
+		private final long deadlineTick;
+		private final Runnable task;
+		private Timer prev, next;
+		private int level = -1;	//-1 se non è (più) in una ruota
+		private int slot;
+
+		private Timer(long deadline, long deadlineTick, Runnable task) {
+			this.deadline = deadline;
+			this.deadlineTick = deadlineTick;
+			this.task = task;
+		}
+
+		public long getDeadline() {
+			return deadline;
+		}
+	}
+
+	private final long tickMillis;
+	private final Timer[][] wheels = new Timer[LEVELS][SLOTS];	//testa della lista di ogni slot
+	private long currentTick;	//prossimo tick da elaborare
+	private int size = 0;
+	private final List<Timer> expired = new ArrayList<>();	//usata solo dal thread della wheel
+	private volatile boolean running = true;
+
+	public TimingWheel(long tickMillis) {
+		if(tickMillis <= 0)
+			throw new IllegalArgumentException("tickMillis deve essere positivo");
+		this.tickMillis = tickMillis;
+		this.currentTick = System.currentTimeMillis() / tickMillis;
+	}
+
+	//esegue task dopo deadline (ms epoch), subito al prossimo tick se è già passata
+	public synchronized Timer schedule(long deadline, Runnable task) {
+		Timer timer = new Timer(deadline, Math.floorDiv(deadline + tickMillis - 1, tickMillis), task);
+		add(timer);
+		size++;
+		return timer;
+	}
+
+	//false se il timer è già scaduto o è già stato annullato
+	public synchronized boolean cancel(Timer timer) {
+		if(timer == null || timer.level < 0)
+			return false;
+		unlink(timer);
+		size--;
+		return true;
+	}
+
+	//timer pianificati e non ancora scaduti
+	public synchronized int size() {
+		return size;
+	}
+
+	public void run() {
+		while(running) {
+			try {
+				Thread.sleep(tickMillis);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+
+			long nowTick = System.currentTimeMillis() / tickMillis;
+			synchronized(this) {
+				while(currentTick <= nowTick)	//recupera anche i tick persi (GC, sospensioni)
+					advance();
+			}
+
+			for(Timer timer : expired) {
+				try {
+					timer.task.run();
+				} catch(Exception e) {
+					AsyncLogger.error("TimingWheel: Errore nell'esecuzione di un timer: " + e);
+				}
+			}
+			expired.clear();
+		}
+	}
+
+	public void shutdown() {
+		running = false;
+	}
+
+	//elabora currentTick: cascade delle ruote superiori e raccolta dei timer scaduti
+	private void advance() {
+		int index = (int) currentTick & SLOT_MASK;
+		//la ruota inferiore ha completato un giro: ridistribuisce lo slot corrente della superiore
+		for(int level = 1; index == 0 && level < LEVELS; level++) {
+			index = (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+			cascade(level, index);
+		}
+
+		int slot = (int) currentTick & SLOT_MASK;
+		Timer timer = wheels[0][slot];
+		wheels[0][slot] = null;
+		while(timer != null) {
+			Timer next = timer.next;
+			timer.prev = timer.next = null;
+			timer.level = -1;
+			expired.add(timer);
+			size--;
+			timer = next;
+		}
+		currentTick++;
+	}
+
+	private void cascade(int level, int slot) {
+		Timer timer = wheels[level][slot];
+		wheels[level][slot] = null;
+		while(timer != null) {
+			Timer next = timer.next;
+			timer.prev = timer.next = null;
+			add(timer);
+			timer = next;
+		}
+	}
+
+	//inserisce il timer nella ruota più bassa che copre la distanza dalla scadenza
+	private void add(Timer timer) {
+		long delta = timer.deadlineTick - currentTick;
+		long tick = timer.deadlineTick;
+		if(delta < 0) {	//già scaduto: slot del prossimo tick
+			delta = 0;
+			tick = currentTick;
+		} else if(delta >= MAX_DELTA) {	//oltre l'orizzonte: ultimo slot, ridistribuito ai giri successivi
+			delta = MAX_DELTA - 1;
+			tick = currentTick + delta;
+		}
+
+		int level = 0;
+		while(delta >= 1L << (SLOT_BITS * (level + 1)))
+			level++;
+		int slot = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+
+		timer.level = level;
+		timer.slot = slot;
+		timer.prev = null;
+		timer.next = wheels[level][slot];
+		if(timer.next != null)
+			timer.next.prev = timer;
+		wheels[level][slot] = timer;
+	}
+
+	private void unlink(Timer timer) {
+		if(timer.prev != null)
+			timer.prev.next = timer.next;
+		else
+			wheels[timer.level][timer.slot] = timer.next;
+		if(timer.next != null)
+			timer.next.prev = timer.prev;
+		timer.prev = timer.next = null;
+		timer.level = -1;
+	}
+}
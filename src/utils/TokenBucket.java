@@ -0,0 +1,52 @@
+package ProgettoFinale.utils;
+
+/**
+ * Token bucket per limitare la frequenza delle richieste.
+ *
+ * Il bucket contiene al più burst token e si ricarica di ratePerSecond
+ * token al secondo. Ogni richiesta ammessa consuma un token, senza token
+ * la richiesta va rifiutata: sono ammessi picchi di burst richieste e in
+ * media ratePerSecond richieste al secondo.
+ *
+ * La ricarica è calcolata al momento della richiesta dal tempo trascorso
+ * (nessun thread o timer). Il tempo è in nanosecondi, i token in
+ * milionesimi per non perdere le ricariche parziali con interi.
+ * Thread safe.
+ */
+
+public class TokenBucket {
+	private static final long UNIT = 1_000_000;	//un token
+
+	private final long capacity;	//burst, in milionesimi di token
+	private final long ratePerSecond;
+	private final long fillNanos;	//tempo per riempire il bucket vuoto
+	private long tokens;
+	private long lastRefill;
+
+	public TokenBucket(int ratePerSecond, int burst) {
+		if(ratePerSecond <= 0 || burst <= 0)
+			throw new IllegalArgumentException("ratePerSecond e burst devono essere positivi");
+		this.capacity = burst * UNIT;
+		this.ratePerSecond = ratePerSecond;
+		this.fillNanos = capacity * 1000 / ratePerSecond;
+		this.tokens = capacity;	//parte pieno
+		this.lastRefill = System.nanoTime();
+	}
+
+	//consuma un token, false se il bucket è vuoto
+	public synchronized boolean tryAcquire() {
+		long now = System.nanoTime();
+		long elapsed = now - lastRefill;
+		//milionesimi di token maturati: elapsed ns * rate token/s * UNIT / 1e9
+		long refill = elapsed >= fillNanos ? capacity : elapsed * ratePerSecond / 1000;
+		if(refill > 0) {	//altrimenti il tempo trascorso continua ad accumularsi
+			tokens = Math.min(capacity, tokens + refill);
+			lastRefill = now;
+		}
+
+		if(tokens < UNIT)
+			return false;
+		tokens -= UNIT;
+		return true;
+	}
+}